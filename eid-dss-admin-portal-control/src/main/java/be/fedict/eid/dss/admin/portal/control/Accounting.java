@@ -26,17 +26,44 @@ public interface Accounting {
 	/*
 	 * Accessors.
 	 */
+	String getDomainPrefix();
+
+	void setDomainPrefix(String domainPrefix);
+
+	long getCount();
+
+	String getPageLabel();
+
+	boolean isPreviousPageAvailable();
+
+	boolean isNextPageAvailable();
 
 	/*
 	 * Factories
 	 */
 	void accountingListFactory();
 
+	void requestRateListFactory();
+
 	/*
 	 * Actions.
 	 */
 	String reset();
 
+	String filter();
+
+	String sortByDomain();
+
+	String sortByRequests();
+
+	String firstPage();
+
+	String previousPage();
+
+	String nextPage();
+
+	String lastPage();
+
 	/*
 	 * Lifecycle.
 	 */
@@ -85,6 +85,18 @@ public interface Config {
 
 	void setDocumentStorageExpiration(Integer documentStorageExpiration);
 
+	Integer getAccountingMinuteRetention();
+
+	void setAccountingMinuteRetention(Integer accountingMinuteRetention);
+
+	Integer getAccountingHourRetention();
+
+	void setAccountingHourRetention(Integer accountingHourRetention);
+
+	Integer getAccountingDayRetention();
+
+	void setAccountingDayRetention(Integer accountingDayRetention);
+
 	String getDocumentCleanupTaskCronSchedule();
 
 	void setDocumentCleanupTaskCronSchedule(
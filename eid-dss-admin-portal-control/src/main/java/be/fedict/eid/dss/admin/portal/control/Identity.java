@@ -59,6 +59,10 @@ public interface Identity {
 
 	boolean isActive();
 
+	String getIdentityStatus();
+
+	String getActiveIdentityStatus();
+
 	/*
 	 * Factories
 	 */
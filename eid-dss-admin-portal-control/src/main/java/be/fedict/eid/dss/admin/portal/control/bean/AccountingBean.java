@@ -26,26 +26,37 @@ import javax.ejb.Remove;
 import javax.ejb.Stateful;
 
 import org.jboss.ejb3.annotation.LocalBinding;
+import org.jboss.seam.ScopeType;
 import org.jboss.seam.annotations.Destroy;
 import org.jboss.seam.annotations.Factory;
 import org.jboss.seam.annotations.Logger;
 import org.jboss.seam.annotations.Name;
+import org.jboss.seam.annotations.Scope;
 import org.jboss.seam.annotations.datamodel.DataModel;
 import org.jboss.seam.log.Log;
 
 import be.fedict.eid.dss.admin.portal.control.Accounting;
 import be.fedict.eid.dss.admin.portal.control.AdminConstants;
 import be.fedict.eid.dss.entity.AccountingEntity;
+import be.fedict.eid.dss.entity.AccountingOrder;
 import be.fedict.eid.dss.model.AccountingService;
+import be.fedict.eid.dss.model.DomainRequestRate;
 
 @Stateful
 @Name("dssAccounting")
+@Scope(ScopeType.SESSION)
 @LocalBinding(jndiBinding = AdminConstants.ADMIN_JNDI_CONTEXT
 		+ "AccountingBean")
 public class AccountingBean implements Accounting {
 
 	private static final String ACCOUNTING_LIST_NAME = "dssAccountingList";
 
+	private static final String REQUEST_RATE_LIST_NAME = "dssRequestRateList";
+
+	private static final int PAGE_SIZE = 10;
+
+	private static final int TOP_DOMAINS = 10;
+
 	@Logger
 	private Log log;
 
@@ -53,9 +64,21 @@ public class AccountingBean implements Accounting {
 	private AccountingService accountingService;
 
 	@SuppressWarnings("unused")
-	@DataModel(ACCOUNTING_LIST_NAME)
+	@DataModel(value = ACCOUNTING_LIST_NAME, scope = ScopeType.PAGE)
 	private List<AccountingEntity> accountingList;
 
+	@SuppressWarnings("unused")
+	@DataModel(value = REQUEST_RATE_LIST_NAME, scope = ScopeType.PAGE)
+	private List<DomainRequestRate> requestRateList;
+
+	private String domainPrefix;
+
+	private AccountingOrder order = AccountingOrder.REQUESTS_DESC;
+
+	private int firstResult;
+
+	private long count;
+
 	@Override
 	@PostConstruct
 	public void postConstruct() {
@@ -72,7 +95,126 @@ public class AccountingBean implements Accounting {
 	public void accountingListFactory() {
 
 		this.log.debug("accounting list factory");
-		this.accountingList = this.accountingService.listAll();
+		// counting flushes the pending requests, listing does not
+		this.count = this.accountingService.countAll(this.domainPrefix);
+		if (this.firstResult >= this.count) {
+			// e.g. after a reset, show the last page
+			this.firstResult = (int) (Math.max(this.count - 1, 0) / PAGE_SIZE)
+					* PAGE_SIZE;
+		}
+		this.accountingList = this.accountingService.listAll(
+				this.domainPrefix, this.order, this.firstResult, PAGE_SIZE);
+	}
+
+	@Override
+	@Factory(REQUEST_RATE_LIST_NAME)
+	public void requestRateListFactory() {
+
+		this.log.debug("request rate list factory");
+		this.requestRateList = this.accountingService
+				.getTopRequestRates(TOP_DOMAINS);
+	}
+
+	@Override
+	public String filter() {
+
+		this.log.debug("filter: #0", this.domainPrefix);
+		this.firstResult = 0;
+		accountingListFactory();
+		return null;
+	}
+
+	@Override
+	public String sortByDomain() {
+
+		this.order = AccountingOrder.DOMAIN_ASC == this.order ? AccountingOrder.DOMAIN_DESC
+				: AccountingOrder.DOMAIN_ASC;
+		this.firstResult = 0;
+		accountingListFactory();
+		return null;
+	}
+
+	@Override
+	public String sortByRequests() {
+
+		this.order = AccountingOrder.REQUESTS_DESC == this.order ? AccountingOrder.REQUESTS_ASC
+				: AccountingOrder.REQUESTS_DESC;
+		this.firstResult = 0;
+		accountingListFactory();
+		return null;
+	}
+
+	@Override
+	public String firstPage() {
+
+		this.firstResult = 0;
+		accountingListFactory();
+		return null;
+	}
+
+	@Override
+	public String previousPage() {
+
+		this.firstResult = Math.max(this.firstResult - PAGE_SIZE, 0);
+		accountingListFactory();
+		return null;
+	}
+
+	@Override
+	public String nextPage() {
+
+		if (this.firstResult + PAGE_SIZE < this.count) {
+			this.firstResult += PAGE_SIZE;
+		}
+		accountingListFactory();
+		return null;
+	}
+
+	@Override
+	public String lastPage() {
+
+		this.firstResult = Integer.MAX_VALUE;
+		accountingListFactory();
+		return null;
+	}
+
+	@Override
+	public String getDomainPrefix() {
+		return this.domainPrefix;
+	}
+
+	@Override
+	public void setDomainPrefix(String domainPrefix) {
+		if (null != domainPrefix && domainPrefix.trim().isEmpty()) {
+			this.domainPrefix = null;
+		} else {
+			this.domainPrefix = domainPrefix;
+		}
+	}
+
+	@Override
+	public long getCount() {
+		return this.count;
+	}
+
+	@Override
+	public String getPageLabel() {
+		if (0 == this.count) {
+			return "0 of 0";
+		}
+		return (this.firstResult + 1) + "-"
+				+ Math.min(this.firstResult + PAGE_SIZE, this.count) + " of "
+				+ this.count;
+	}
+
+	@Override
+	public boolean isPreviousPageAvailable() {
+		return this.firstResult > 0;
+	}
+
+	@Override
+	public boolean isNextPageAvailable() {
+		return this.firstResult + PAGE_SIZE < this.count;
 	}
 
 	@Override
@@ -82,6 +224,7 @@ public class AccountingBean implements Accounting {
 
 		this.accountingService.resetAll();
 
+		this.firstResult = 0;
 		accountingListFactory();
 		return "success";
 	}
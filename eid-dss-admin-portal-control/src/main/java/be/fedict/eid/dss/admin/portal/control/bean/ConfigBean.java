@@ -23,6 +23,7 @@ import be.fedict.eid.dss.admin.portal.control.AdminConstants;
 import be.fedict.eid.dss.admin.portal.control.Config;
 import be.fedict.eid.dss.model.ConfigProperty;
 import be.fedict.eid.dss.model.Configuration;
+import be.fedict.eid.dss.model.ConfigurationSnapshot;
 import be.fedict.eid.dss.model.TSPDigestAlgo;
 import org.jboss.ejb3.annotation.LocalBinding;
 import org.jboss.seam.annotations.Destroy;
@@ -37,6 +38,9 @@ import javax.ejb.EJB;
 import javax.ejb.Remove;
 import javax.ejb.Stateful;
 
+import java.util.LinkedHashMap;
+import java.util.Map;
+
 @Stateful
 @Name("dssConfig")
 @LocalBinding(jndiBinding = AdminConstants.ADMIN_JNDI_CONTEXT + "ConfigBean")
@@ -79,6 +83,12 @@ public class ConfigBean implements Config {
 
 	private String documentCleanupTaskCronSchedule;
 
+	private Integer accountingMinuteRetention;
+
+	private Integer accountingHourRetention;
+
+	private Integer accountingDayRetention;
+
 	private Long timestampMaxOffset;
 
 	private Long maxGracePeriod;
@@ -107,41 +117,46 @@ public class ConfigBean implements Config {
 	@PostConstruct
 	public void postConstruct() {
 		this.log.debug("postConstruct");
-		this.xkmsUrl = this.configuration.getValue(ConfigProperty.XKMS_URL, String.class);
+		ConfigurationSnapshot snapshot = this.configuration.getSnapshot();
+		this.xkmsUrl = snapshot.getValue(ConfigProperty.XKMS_URL, String.class);
 
-		this.tspUrl = this.configuration.getValue(ConfigProperty.TSP_URL, String.class);
-		this.tspPolicyOid = this.configuration.getValue(ConfigProperty.TSP_POLICY_OID, String.class);
-		this.tspDigestAlgo = this.configuration.getValue(ConfigProperty.TSP_DIGEST_ALGO, TSPDigestAlgo.class);
+		this.tspUrl = snapshot.getValue(ConfigProperty.TSP_URL, String.class);
+		this.tspPolicyOid = snapshot.getValue(ConfigProperty.TSP_POLICY_OID, String.class);
+		this.tspDigestAlgo = snapshot.getValue(ConfigProperty.TSP_DIGEST_ALGO, TSPDigestAlgo.class);
 
-		this.httpProxy = this.configuration.getValue(ConfigProperty.HTTP_PROXY_ENABLED, Boolean.class);
-		this.httpProxyHost = this.configuration.getValue(ConfigProperty.HTTP_PROXY_HOST, String.class);
-		this.httpProxyPort = this.configuration.getValue(ConfigProperty.HTTP_PROXY_PORT, Integer.class);
+		this.httpProxy = snapshot.getValue(ConfigProperty.HTTP_PROXY_ENABLED, Boolean.class);
+		this.httpProxyHost = snapshot.getValue(ConfigProperty.HTTP_PROXY_HOST, String.class);
+		this.httpProxyPort = snapshot.getValue(ConfigProperty.HTTP_PROXY_PORT, Integer.class);
 
-		this.signTrustDomain = this.configuration.getValue(ConfigProperty.SIGN_TRUST_DOMAIN, String.class);
-		this.verifyTrustDomain = this.configuration.getValue(ConfigProperty.VERIFY_TRUST_DOMAIN, String.class);
-		this.identityTrustDomain = this.configuration.getValue(ConfigProperty.IDENTITY_TRUST_DOMAIN, String.class);
-		this.tsaTrustDomain = this.configuration.getValue(ConfigProperty.TSA_TRUST_DOMAIN, String.class);
+		this.signTrustDomain = snapshot.getValue(ConfigProperty.SIGN_TRUST_DOMAIN, String.class);
+		this.verifyTrustDomain = snapshot.getValue(ConfigProperty.VERIFY_TRUST_DOMAIN, String.class);
+		this.identityTrustDomain = snapshot.getValue(ConfigProperty.IDENTITY_TRUST_DOMAIN, String.class);
+		this.tsaTrustDomain = snapshot.getValue(ConfigProperty.TSA_TRUST_DOMAIN, String.class);
 
-		this.signatureDigestAlgo = this.configuration.getValue(ConfigProperty.SIGNATURE_DIGEST_ALGO, DigestAlgo.class);
+		this.signatureDigestAlgo = snapshot.getValue(ConfigProperty.SIGNATURE_DIGEST_ALGO, DigestAlgo.class);
 
-		this.documentStorageExpiration = this.configuration.getValue(ConfigProperty.DOCUMENT_STORAGE_EXPIRATION, Integer.class);
-		this.documentCleanupTaskCronSchedule = this.configuration.getValue(ConfigProperty.DOCUMENT_CLEANUP_TASK_SCHEDULE, String.class);
+		this.documentStorageExpiration = snapshot.getValue(ConfigProperty.DOCUMENT_STORAGE_EXPIRATION, Integer.class);
+		this.documentCleanupTaskCronSchedule = snapshot.getValue(ConfigProperty.DOCUMENT_CLEANUP_TASK_SCHEDULE, String.class);
 
-		this.dssWSUrl = this.configuration.getValue(ConfigProperty.DSS_WS_URL, String.class);
-		this.dssWSStart = this.configuration.getValue(ConfigProperty.DSS_WS_START, String.class);
-		this.dssWSUsername = this.configuration.getValue(ConfigProperty.DSS_WS_USERNAME, String.class);
-		this.dssWSPassword = this.configuration.getValue(ConfigProperty.DSS_WS_PASSWORD, String.class);
+		this.accountingMinuteRetention = snapshot.getValue(ConfigProperty.ACCOUNTING_MINUTE_RETENTION, Integer.class);
+		this.accountingHourRetention = snapshot.getValue(ConfigProperty.ACCOUNTING_HOUR_RETENTION, Integer.class);
+		this.accountingDayRetention = snapshot.getValue(ConfigProperty.ACCOUNTING_DAY_RETENTION, Integer.class);
 
-		this.timestampMaxOffset = this.configuration.getValue(ConfigProperty.TIMESTAMP_MAX_OFFSET, Long.class);
-		this.maxGracePeriod = this.configuration.getValue(ConfigProperty.MAX_GRACE_PERIOD, Long.class);
+		this.dssWSUrl = snapshot.getValue(ConfigProperty.DSS_WS_URL, String.class);
+		this.dssWSStart = snapshot.getValue(ConfigProperty.DSS_WS_START, String.class);
+		this.dssWSUsername = snapshot.getValue(ConfigProperty.DSS_WS_USERNAME, String.class);
+		this.dssWSPassword = snapshot.getValue(ConfigProperty.DSS_WS_PASSWORD, String.class);
 
-		this.sendSignedMail = this.configuration.getValue(ConfigProperty.MAIL_SIGNED_DOCUMENT, Boolean.class);
-		this.smtpServer = this.configuration.getValue(ConfigProperty.SMTP_SERVER, String.class);
-		this.mailFrom = this.configuration.getValue(ConfigProperty.MAIL_FROM, String.class);
-		this.mailPrefix = this.configuration.getValue(ConfigProperty.MAIL_PREFIX, String.class);
+		this.timestampMaxOffset = snapshot.getValue(ConfigProperty.TIMESTAMP_MAX_OFFSET, Long.class);
+		this.maxGracePeriod = snapshot.getValue(ConfigProperty.MAX_GRACE_PERIOD, Long.class);
 
-		this.removeCard = this.configuration.getValue(ConfigProperty.SECURITY_REMOVE_CARD, Boolean.class);
-		this.hsts = this.configuration.getValue(ConfigProperty.SECURITY_HSTS, Boolean.class);
+		this.sendSignedMail = snapshot.getValue(ConfigProperty.MAIL_SIGNED_DOCUMENT, Boolean.class);
+		this.smtpServer = snapshot.getValue(ConfigProperty.SMTP_SERVER, String.class);
+		this.mailFrom = snapshot.getValue(ConfigProperty.MAIL_FROM, String.class);
+		this.mailPrefix = snapshot.getValue(ConfigProperty.MAIL_PREFIX, String.class);
+
+		this.removeCard = snapshot.getValue(ConfigProperty.SECURITY_REMOVE_CARD, Boolean.class);
+		this.hsts = snapshot.getValue(ConfigProperty.SECURITY_HSTS, Boolean.class);
 	}
 
 	@Remove
@@ -154,40 +169,48 @@ public class ConfigBean implements Config {
 	@Override
 	public String save() {
 		this.log.debug("save");
-		this.configuration.setValue(ConfigProperty.XKMS_URL, this.xkmsUrl);
+		Map<ConfigProperty, Object> values = new LinkedHashMap<ConfigProperty, Object>();
+		values.put(ConfigProperty.XKMS_URL, this.xkmsUrl);
+
+		values.put(ConfigProperty.TSP_URL, this.tspUrl);
+		values.put(ConfigProperty.TSP_POLICY_OID, this.tspPolicyOid);
+		values.put(ConfigProperty.TSP_DIGEST_ALGO, this.tspDigestAlgo);
+
+		values.put(ConfigProperty.HTTP_PROXY_ENABLED, this.httpProxy);
+		values.put(ConfigProperty.HTTP_PROXY_HOST, this.httpProxyHost);
+		values.put(ConfigProperty.HTTP_PROXY_PORT, this.httpProxyPort);
 
-		this.configuration.setValue(ConfigProperty.TSP_URL, this.tspUrl);
-		this.configuration.setValue(ConfigProperty.TSP_POLICY_OID, this.tspPolicyOid);
-		this.configuration.setValue(ConfigProperty.TSP_DIGEST_ALGO, this.tspDigestAlgo);
+		values.put(ConfigProperty.SIGN_TRUST_DOMAIN, this.signTrustDomain);
+		values.put(ConfigProperty.VERIFY_TRUST_DOMAIN, this.verifyTrustDomain);
+		values.put(ConfigProperty.IDENTITY_TRUST_DOMAIN, this.identityTrustDomain);
+		values.put(ConfigProperty.TSA_TRUST_DOMAIN, this.tsaTrustDomain);
 
-		this.configuration.setValue(ConfigProperty.HTTP_PROXY_ENABLED, this.httpProxy);
-		this.configuration.setValue(ConfigProperty.HTTP_PROXY_HOST, this.httpProxyHost);
-		this.configuration.setValue(ConfigProperty.HTTP_PROXY_PORT, this.httpProxyPort);
+		values.put(ConfigProperty.SIGNATURE_DIGEST_ALGO, this.signatureDigestAlgo);
 
-		this.configuration.setValue(ConfigProperty.SIGN_TRUST_DOMAIN, this.signTrustDomain);
-		this.configuration.setValue(ConfigProperty.VERIFY_TRUST_DOMAIN, this.verifyTrustDomain);
-		this.configuration.setValue(ConfigProperty.IDENTITY_TRUST_DOMAIN, this.identityTrustDomain);
-		this.configuration.setValue(ConfigProperty.TSA_TRUST_DOMAIN, this.tsaTrustDomain);
+		values.put(ConfigProperty.DOCUMENT_STORAGE_EXPIRATION, this.documentStorageExpiration);
 
-		this.configuration.setValue(ConfigProperty.SIGNATURE_DIGEST_ALGO, this.signatureDigestAlgo);
+		values.put(ConfigProperty.ACCOUNTING_MINUTE_RETENTION, this.accountingMinuteRetention);
+		values.put(ConfigProperty.ACCOUNTING_HOUR_RETENTION, this.accountingHourRetention);
+		values.put(ConfigProperty.ACCOUNTING_DAY_RETENTION, this.accountingDayRetention);
 
-		this.configuration.setValue(ConfigProperty.DOCUMENT_STORAGE_EXPIRATION, this.documentStorageExpiration);
+		values.put(ConfigProperty.DSS_WS_URL, this.dssWSUrl);
+		values.put(ConfigProperty.DSS_WS_START, this.dssWSStart);
+		values.put(ConfigProperty.DSS_WS_USERNAME, this.dssWSUsername);
+		values.put(ConfigProperty.DSS_WS_PASSWORD, this.dssWSPassword);
 
-		this.configuration.setValue(ConfigProperty.DSS_WS_URL, this.dssWSUrl);
-		this.configuration.setValue(ConfigProperty.DSS_WS_START, this.dssWSStart);
-		this.configuration.setValue(ConfigProperty.DSS_WS_USERNAME, this.dssWSUsername);
-		this.configuration.setValue(ConfigProperty.DSS_WS_PASSWORD, this.dssWSPassword);
+		values.put(ConfigProperty.TIMESTAMP_MAX_OFFSET, this.timestampMaxOffset);
+		values.put(ConfigProperty.MAX_GRACE_PERIOD, this.maxGracePeriod);
 
-		this.configuration.setValue(ConfigProperty.TIMESTAMP_MAX_OFFSET, this.timestampMaxOffset);
-		this.configuration.setValue(ConfigProperty.MAX_GRACE_PERIOD, this.maxGracePeriod);
+		values.put(ConfigProperty.MAIL_SIGNED_DOCUMENT, this.sendSignedMail);
+		values.put(ConfigProperty.SMTP_SERVER, this.smtpServer);
+		values.put(ConfigProperty.MAIL_FROM, this.mailFrom);
+		values.put(ConfigProperty.MAIL_PREFIX, this.mailPrefix);
 
-		this.configuration.setValue(ConfigProperty.MAIL_SIGNED_DOCUMENT, this.sendSignedMail);
-		this.configuration.setValue(ConfigProperty.SMTP_SERVER, this.smtpServer);
-		this.configuration.setValue(ConfigProperty.MAIL_FROM, this.mailFrom);
-		this.configuration.setValue(ConfigProperty.MAIL_PREFIX, this.mailPrefix);
+		values.put(ConfigProperty.SECURITY_REMOVE_CARD, this.removeCard);
+		values.put(ConfigProperty.SECURITY_HSTS, this.hsts);
 
-		this.configuration.setValue(ConfigProperty.SECURITY_REMOVE_CARD, this.removeCard);
-		this.configuration.setValue(ConfigProperty.SECURITY_HSTS, this.hsts);
+		int count = this.configuration.setValues(values);
+		this.log.debug("#0 configuration properties changed", count);
 
 		return null;
 	}
@@ -332,6 +355,36 @@ public class ConfigBean implements Config {
 		this.documentStorageExpiration = documentStorageExpiration;
 	}
 
+	@Override
+	public Integer getAccountingMinuteRetention() {
+		return this.accountingMinuteRetention;
+	}
+
+	@Override
+	public void setAccountingMinuteRetention(Integer accountingMinuteRetention) {
+		this.accountingMinuteRetention = accountingMinuteRetention;
+	}
+
+	@Override
+	public Integer getAccountingHourRetention() {
+		return this.accountingHourRetention;
+	}
+
+	@Override
+	public void setAccountingHourRetention(Integer accountingHourRetention) {
+		this.accountingHourRetention = accountingHourRetention;
+	}
+
+	@Override
+	public Integer getAccountingDayRetention() {
+		return this.accountingDayRetention;
+	}
+
+	@Override
+	public void setAccountingDayRetention(Integer accountingDayRetention) {
+		this.accountingDayRetention = accountingDayRetention;
+	}
+
 	@Override
 	public String getDocumentCleanupTaskCronSchedule() {
 		return this.documentCleanupTaskCronSchedule;
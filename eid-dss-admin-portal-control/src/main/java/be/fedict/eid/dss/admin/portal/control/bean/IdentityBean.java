@@ -42,6 +42,7 @@ import org.jboss.seam.log.Log;
 import be.fedict.eid.dss.admin.portal.control.AdminConstants;
 import be.fedict.eid.dss.admin.portal.control.Identity;
 import be.fedict.eid.dss.model.DSSIdentityConfig;
+import be.fedict.eid.dss.model.DSSIdentityStatus;
 import be.fedict.eid.dss.model.IdentityService;
 import be.fedict.eid.dss.model.KeyStoreType;
 import be.fedict.eid.dss.model.exception.KeyStoreLoadException;
@@ -202,6 +203,44 @@ public class IdentityBean implements Identity {
 		return "Identity" + (this.identityConfig.isActive() ? " (Active)" : "");
 	}
 
+	@Override
+	public String getIdentityStatus() {
+
+		if (null == this.name || this.name.isEmpty()) {
+			return null;
+		}
+		return getStatusLabel(this.identityService
+				.getIdentityStatus(this.name));
+	}
+
+	@Override
+	public String getActiveIdentityStatus() {
+
+		DSSIdentityStatus identityStatus = this.identityService
+				.getActiveIdentityStatus();
+		if (null == identityStatus) {
+			return "No active identity";
+		}
+		return identityStatus.getName() + ": "
+				+ getStatusLabel(identityStatus);
+	}
+
+	private String getStatusLabel(DSSIdentityStatus identityStatus) {
+
+		if (null == identityStatus) {
+			return "Not loaded";
+		}
+		switch (identityStatus.getState()) {
+		case LOADING:
+			return "Loading...";
+		case READY:
+			return "Ready (loaded in " + identityStatus.getLoadDuration()
+					+ " ms)";
+		default:
+			return "Failed: " + identityStatus.getErrorMessage();
+		}
+	}
+
 	@Override
 	public String getName() {
 
@@ -53,6 +53,7 @@ import be.fedict.eid.dss.admin.portal.control.AdminConstants;
 import be.fedict.eid.dss.admin.portal.control.RP;
 import be.fedict.eid.dss.entity.RPEntity;
 import be.fedict.eid.dss.model.RPService;
+import be.fedict.eid.dss.model.exception.InvalidDomainPatternException;
 
 @Stateful
 @Name("dssRP")
@@ -135,7 +136,13 @@ public class RPBean implements RP {
 
 		this.log.debug("save RP: #0", this.selectedRP.getName());
 
-		this.rpService.save(this.selectedRP);
+		try {
+			this.rpService.save(this.selectedRP);
+		} catch (InvalidDomainPatternException e) {
+			this.facesMessages.addToControl("domain",
+					"invalid domain pattern, use e.g. *.example.be");
+			return null;
+		}
 		rpListFactory();
 		return "success";
 	}
@@ -158,7 +165,13 @@ public class RPBean implements RP {
 
 		this.log.debug("remove rp.certificate");
 		this.selectedRP.setEncodedCertificate(null);
-		this.rpService.save(this.selectedRP);
+		try {
+			this.rpService.save(this.selectedRP);
+		} catch (InvalidDomainPatternException e) {
+			this.facesMessages.addToControl("domain",
+					"invalid domain pattern, use e.g. *.example.be");
+			return null;
+		}
 		return "success";
 	}
 
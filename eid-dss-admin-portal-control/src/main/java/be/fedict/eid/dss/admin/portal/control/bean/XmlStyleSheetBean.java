@@ -42,6 +42,7 @@ import be.fedict.eid.dss.admin.portal.control.XmlStyleSheet;
 import be.fedict.eid.dss.entity.XmlStyleSheetEntity;
 import be.fedict.eid.dss.model.XmlStyleSheetManager;
 import be.fedict.eid.dss.model.exception.ExistingXmlStyleSheetException;
+import be.fedict.eid.dss.model.exception.InvalidXmlStyleSheetException;
 
 @Stateful
 @Name("dssXmlStyleSheet")
@@ -92,6 +93,10 @@ public class XmlStyleSheetBean implements XmlStyleSheet {
 		} catch (ExistingXmlStyleSheetException e) {
 			this.facesMessages.addToControl("file", "existing XML schema");
 			return null;
+		} catch (InvalidXmlStyleSheetException e) {
+			this.facesMessages.addToControl("file",
+					"Not a valid XSL style sheet: " + e.getMessage());
+			return null;
 		}
 		this.revision = null;
 		initList();
@@ -18,10 +18,19 @@
 
 package be.fedict.eid.dss.admin.portal;
 
+import java.io.BufferedWriter;
 import java.io.IOException;
-import java.io.PrintWriter;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.net.HttpURLConnection;
+import java.text.DateFormat;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
 import java.util.List;
+import java.util.TimeZone;
+import java.util.zip.GZIPOutputStream;
 
 import javax.ejb.EJB;
 import javax.servlet.ServletException;
@@ -34,11 +43,30 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.jboss.seam.security.Identity;
 
+import be.fedict.eid.dss.entity.AccountingBucketEntity;
 import be.fedict.eid.dss.entity.AccountingEntity;
+import be.fedict.eid.dss.entity.AccountingGranularity;
 import be.fedict.eid.dss.model.AccountingService;
 
 /**
  * Accounting export servlet. Exports the accounting data to CSV format.
+ * <p/>
+ * By default the lifetime request counters are exported, sorted on domain.
+ * Unlike the old export these are not sorted on the number of requests, as
+ * the counters keep changing while paging, which would make pages skip or
+ * repeat domains.
+ * <p/>
+ * With <code>history=true</code> the accounting history buckets are exported
+ * instead, sorted on time. The <code>since</code> parameter
+ * (<code>yyyy-MM-dd</code> or <code>yyyy-MM-dd'T'HH:mm</code>, UTC) gives the
+ * start of the history, defaults to all retained buckets. The
+ * <code>granularity</code> parameter (<code>MINUTE</code>, <code>HOUR</code>
+ * or <code>DAY</code>) defaults to <code>HOUR</code>. Both parameters are
+ * refused without <code>history=true</code>. Use <code>gzip=true</code> to
+ * get a gzip compressed export.
+ * <p/>
+ * The data is streamed page per page, so the memory usage does not depend on
+ * the size of the export.
  * 
  * @see http://tools.ietf.org/html/rfc4180
  * @author Frank Cornelis
@@ -51,6 +79,11 @@ public class AccountingExportServlet extends HttpServlet {
 	private static final Log LOG = LogFactory
 			.getLog(AccountingExportServlet.class);
 
+	private static final int PAGE_SIZE = 1000;
+
+	private static final String[] DATE_FORMATS = { "yyyy-MM-dd'T'HH:mm",
+			"yyyy-MM-dd" };
+
 	@EJB
 	private AccountingService accountingService;
 
@@ -68,16 +101,116 @@ public class AccountingExportServlet extends HttpServlet {
 			return;
 		}
 
-		response.setContentType("text/csv");
-		PrintWriter printWriter = response.getWriter();
-		List<AccountingEntity> accountingEntities = this.accountingService
-				.listAll();
-		for (AccountingEntity accountingEntity : accountingEntities) {
-			printWriter.print("\"");
-			printWriter.print(accountingEntity.getDomain());
-			printWriter.print("\",\"");
-			printWriter.print(accountingEntity.getRequests());
-			printWriter.println("\"");
+		boolean history = Boolean.parseBoolean(request
+				.getParameter("history"));
+		Date since = new Date(0);
+		String sinceParameter = request.getParameter("since");
+		if (null != sinceParameter && !sinceParameter.isEmpty()) {
+			since = parseDate(sinceParameter);
+			if (null == since) {
+				response.sendError(HttpURLConnection.HTTP_BAD_REQUEST,
+						"invalid since parameter");
+				return;
+			}
+		}
+		AccountingGranularity granularity = AccountingGranularity.HOUR;
+		String granularityParameter = request.getParameter("granularity");
+		if (null != granularityParameter && !granularityParameter.isEmpty()) {
+			try {
+				granularity = AccountingGranularity
+						.valueOf(granularityParameter.toUpperCase());
+			} catch (IllegalArgumentException e) {
+				response.sendError(HttpURLConnection.HTTP_BAD_REQUEST,
+						"invalid granularity parameter");
+				return;
+			}
+		}
+		if (!history
+				&& (null != sinceParameter || null != granularityParameter)) {
+			response.sendError(HttpURLConnection.HTTP_BAD_REQUEST,
+					"since and granularity require history=true");
+			return;
+		}
+		boolean gzip = Boolean.parseBoolean(request.getParameter("gzip"));
+
+		OutputStream outputStream = response.getOutputStream();
+		if (gzip) {
+			response.setContentType("application/x-gzip");
+			response.setHeader("Content-Disposition",
+					"attachment; filename=accounting.csv.gz");
+			outputStream = new GZIPOutputStream(outputStream);
+		} else {
+			response.setContentType("text/csv; charset=UTF-8");
+		}
+		Writer writer = new BufferedWriter(new OutputStreamWriter(
+				outputStream, "UTF-8"));
+		if (!history) {
+			writeAccounting(writer);
+		} else {
+			writeAccountingHistory(writer, granularity, since);
+		}
+		// also finishes the gzip stream
+		writer.close();
+	}
+
+	private void writeAccounting(Writer writer) throws IOException {
+
+		String afterDomain = null;
+		List<AccountingEntity> accountingEntities;
+		do {
+			accountingEntities = this.accountingService.listPage(afterDomain,
+					PAGE_SIZE);
+			for (AccountingEntity accountingEntity : accountingEntities) {
+				writeField(writer, accountingEntity.getDomain());
+				writer.write(',');
+				writeField(writer, accountingEntity.getRequests().toString());
+				writer.write("\r\n");
+				afterDomain = accountingEntity.getDomain();
+			}
+		} while (accountingEntities.size() == PAGE_SIZE);
+	}
+
+	private void writeAccountingHistory(Writer writer,
+			AccountingGranularity granularity, Date since) throws IOException {
+
+		DateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm'Z'");
+		dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+		AccountingBucketEntity after = null;
+		List<AccountingBucketEntity> buckets;
+		do {
+			buckets = this.accountingService.listBucketPage(granularity,
+					since, after, PAGE_SIZE);
+			for (AccountingBucketEntity bucket : buckets) {
+				writeField(writer, dateFormat.format(bucket.getBucketStart()));
+				writer.write(',');
+				writeField(writer, bucket.getDomain());
+				writer.write(',');
+				writeField(writer, bucket.getRequests().toString());
+				writer.write("\r\n");
+				after = bucket;
+			}
+		} while (buckets.size() == PAGE_SIZE);
+	}
+
+	private void writeField(Writer writer, String value) throws IOException {
+
+		writer.write('"');
+		writer.write(value.replace("\"", "\"\""));
+		writer.write('"');
+	}
+
+	private Date parseDate(String value) {
+
+		for (String dateFormatPattern : DATE_FORMATS) {
+			DateFormat dateFormat = new SimpleDateFormat(dateFormatPattern);
+			dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+			dateFormat.setLenient(false);
+			try {
+				return dateFormat.parse(value);
+			} catch (ParseException e) {
+				// try next format
+			}
 		}
+		return null;
 	}
 }
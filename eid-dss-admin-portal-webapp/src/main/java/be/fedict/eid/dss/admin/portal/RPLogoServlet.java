@@ -0,0 +1,130 @@
+/*
+ * eID Digital Signature Service Project.
+ * Copyright (C) 2010 FedICT.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+
+package be.fedict.eid.dss.admin.portal;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+
+import javax.ejb.EJB;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import be.fedict.eid.dss.model.RPRegistration;
+import be.fedict.eid.dss.model.RPService;
+
+/**
+ * Serves the RP logos as <code>/rp-logo/&lt;RP id&gt;</code>. Use
+ * <code>variant=thumbnail</code> for the thumbnail resized at upload time.
+ * <p/>
+ * The logo hash is used as entity tag. Conditional requests are answered from
+ * the RP registry, without reading the logo from the database. When the
+ * request carries the current logo hash as <code>v</code> parameter, the
+ * response may be cached for a year, as a new logo gives a new URL.
+ */
+public class RPLogoServlet extends HttpServlet {
+
+	private static final long serialVersionUID = 1L;
+
+	private static final Log LOG = LogFactory.getLog(RPLogoServlet.class);
+
+	private static final String THUMBNAIL_CONTENT_TYPE = "image/png";
+
+	private static final int MAX_AGE = 5 * 60;
+
+	private static final int VERSIONED_MAX_AGE = 365 * 24 * 60 * 60;
+
+	@EJB
+	private RPService rpService;
+
+	@Override
+	protected void doGet(HttpServletRequest request,
+			HttpServletResponse response) throws ServletException, IOException {
+
+		String pathInfo = request.getPathInfo();
+		if (null == pathInfo || pathInfo.length() < 2) {
+			response.sendError(HttpURLConnection.HTTP_NOT_FOUND);
+			return;
+		}
+		long id;
+		try {
+			id = Long.parseLong(pathInfo.substring(1));
+		} catch (NumberFormatException e) {
+			response.sendError(HttpURLConnection.HTTP_NOT_FOUND);
+			return;
+		}
+		RPRegistration registration = this.rpService.findRegistrationById(id);
+		if (null == registration || null == registration.getLogoHash()) {
+			response.sendError(HttpURLConnection.HTTP_NOT_FOUND);
+			return;
+		}
+
+		boolean thumbnail = "thumbnail".equals(request.getParameter("variant"))
+				&& registration.isLogoThumbnailAvailable();
+		String entityTag = "\"" + registration.getLogoHash()
+				+ (thumbnail ? "-thumbnail" : "") + "\"";
+		response.setHeader("ETag", entityTag);
+		if (registration.getLogoHash().equals(request.getParameter("v"))) {
+			response.setHeader("Cache-Control", "public, max-age="
+					+ VERSIONED_MAX_AGE);
+		} else {
+			response.setHeader("Cache-Control", "public, max-age=" + MAX_AGE);
+		}
+
+		if (matches(request.getHeader("If-None-Match"), entityTag)) {
+			response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+			return;
+		}
+
+		LOG.debug("logo for RP: " + registration.getName());
+		byte[] logo = this.rpService.getLogo(id, thumbnail);
+		if (null == logo) {
+			// removed in the meantime
+			response.sendError(HttpURLConnection.HTTP_NOT_FOUND);
+			return;
+		}
+		response.setContentType(thumbnail ? THUMBNAIL_CONTENT_TYPE
+				: registration.getLogoContentType());
+		response.setContentLength(logo.length);
+		response.getOutputStream().write(logo);
+	}
+
+	private boolean matches(String ifNoneMatch, String entityTag) {
+
+		if (null == ifNoneMatch) {
+			return false;
+		}
+		for (String candidateEntityTag : ifNoneMatch.split(",")) {
+			candidateEntityTag = candidateEntityTag.trim();
+			if (candidateEntityTag.startsWith("W/")) {
+				candidateEntityTag = candidateEntityTag.substring(2);
+			}
+			if (candidateEntityTag.equals(entityTag)
+					|| candidateEntityTag.equals("*")) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
@@ -0,0 +1,250 @@
+/*
+ * eID Digital Signature Service Project.
+ * Copyright (C) 2010 FedICT.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+
+package test.unit.be.fedict.eid.dss.admin.portal;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+
+import javax.ejb.EJB;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpSession;
+
+import org.easymock.EasyMock;
+import org.easymock.IAnswer;
+import org.jboss.seam.security.Identity;
+import org.junit.Before;
+import org.junit.Test;
+
+import be.fedict.eid.dss.admin.portal.AccountingExportServlet;
+import be.fedict.eid.dss.entity.AccountingBucketEntity;
+import be.fedict.eid.dss.entity.AccountingEntity;
+import be.fedict.eid.dss.entity.AccountingGranularity;
+import be.fedict.eid.dss.model.AccountingService;
+
+public class AccountingExportServletTest {
+
+	private static final int PAGE_SIZE = 1000;
+
+	private AccountingExportServlet testedInstance;
+
+	private AccountingService mockAccountingService;
+
+	private HttpServletRequest mockRequest;
+
+	private HttpServletResponse mockResponse;
+
+	private Map<String, String> parameters;
+
+	private ByteArrayOutputStream output;
+
+	private boolean admin;
+
+	@Before
+	public void setUp() throws Exception {
+		this.testedInstance = new AccountingExportServlet();
+		this.mockAccountingService = EasyMock
+				.createMock(AccountingService.class);
+		injectEJB(this.mockAccountingService, this.testedInstance);
+
+		this.parameters = new HashMap<String, String>();
+		this.output = new ByteArrayOutputStream();
+		this.admin = true;
+
+		Identity identity = new Identity() {
+
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			public boolean hasRole(String role) {
+				return AccountingExportServletTest.this.admin
+						&& "admin".equals(role);
+			}
+		};
+		HttpSession mockSession = EasyMock.createMock(HttpSession.class);
+		EasyMock.expect(
+				mockSession.getAttribute("org.jboss.seam.security.identity"))
+				.andStubReturn(identity);
+
+		this.mockRequest = EasyMock.createNiceMock(HttpServletRequest.class);
+		EasyMock.expect(this.mockRequest.getMethod()).andStubReturn("GET");
+		EasyMock.expect(this.mockRequest.getSession()).andStubReturn(
+				mockSession);
+		EasyMock.expect(
+				this.mockRequest.getParameter((String) EasyMock.anyObject()))
+				.andStubAnswer(new IAnswer<String>() {
+
+					public String answer() throws Throwable {
+						return AccountingExportServletTest.this.parameters
+								.get(EasyMock.getCurrentArguments()[0]);
+					}
+				});
+
+		this.mockResponse = EasyMock.createMock(HttpServletResponse.class);
+		EasyMock.replay(mockSession, this.mockRequest);
+	}
+
+	@Test
+	public void testExportLifetimeCounters() throws Exception {
+		// setup: two pages, sorted on domain
+		List<AccountingEntity> firstPage = new ArrayList<AccountingEntity>();
+		for (int idx = 0; idx < PAGE_SIZE; idx++) {
+			firstPage.add(new AccountingEntity(String.format(
+					"https://d%04d.be", idx), (long) idx));
+		}
+		EasyMock.expect(this.mockAccountingService.listPage(null, PAGE_SIZE))
+				.andReturn(firstPage);
+		EasyMock.expect(
+				this.mockAccountingService.listPage("https://d0999.be",
+						PAGE_SIZE)).andReturn(
+				Collections.singletonList(new AccountingEntity(
+						"https://e.be/?q=\"x\"", 5L)));
+		expectOutput("text/csv; charset=UTF-8");
+
+		// operate
+		doGet();
+
+		// verify
+		String[] lines = this.output.toString("UTF-8").split("\r\n");
+		assertEquals(PAGE_SIZE + 1, lines.length);
+		assertEquals("\"https://d0000.be\",\"0\"", lines[0]);
+		assertEquals("\"https://d0999.be\",\"999\"", lines[PAGE_SIZE - 1]);
+		// embedded quotes are doubled
+		assertEquals("\"https://e.be/?q=\"\"x\"\"\",\"5\"", lines[PAGE_SIZE]);
+	}
+
+	@Test
+	public void testExportHistory() throws Exception {
+		// setup
+		this.parameters.put("history", "true");
+		this.parameters.put("since", "2012-01-02");
+		this.parameters.put("granularity", "day");
+		Date since = getDate(2012, 0, 2);
+		EasyMock.expect(
+				this.mockAccountingService.listBucketPage(
+						AccountingGranularity.DAY, since, null, PAGE_SIZE))
+				.andReturn(
+						Collections.singletonList(new AccountingBucketEntity(
+								AccountingGranularity.DAY, "https://a.be",
+								since, 3L)));
+		expectOutput("text/csv; charset=UTF-8");
+
+		// operate
+		doGet();
+
+		// verify
+		assertEquals("\"2012-01-02T00:00Z\",\"https://a.be\",\"3\"\r\n",
+				this.output.toString("UTF-8"));
+	}
+
+	@Test
+	public void testSinceRequiresHistory() throws Exception {
+		// setup
+		this.parameters.put("since", "2012-01-02");
+		this.mockResponse.sendError(EasyMock
+				.eq(HttpURLConnection.HTTP_BAD_REQUEST), (String) EasyMock
+				.anyObject());
+
+		// operate: no silent switch to the accounting history
+		doGet();
+	}
+
+	@Test
+	public void testInvalidSince() throws Exception {
+		// setup
+		this.parameters.put("history", "true");
+		this.parameters.put("since", "2012-13-01");
+		this.mockResponse.sendError(EasyMock
+				.eq(HttpURLConnection.HTTP_BAD_REQUEST), (String) EasyMock
+				.anyObject());
+
+		// operate
+		doGet();
+	}
+
+	@Test
+	public void testNoAdminRole() throws Exception {
+		// setup
+		this.admin = false;
+		this.mockResponse.sendError(EasyMock
+				.eq(HttpURLConnection.HTTP_FORBIDDEN), (String) EasyMock
+				.anyObject());
+
+		// operate
+		doGet();
+	}
+
+	private void expectOutput(String contentType) throws IOException {
+		this.mockResponse.setContentType(contentType);
+		EasyMock.expect(this.mockResponse.getOutputStream()).andReturn(
+				new ServletOutputStream() {
+
+					@Override
+					public void write(int b) throws IOException {
+						AccountingExportServletTest.this.output.write(b);
+					}
+				});
+	}
+
+	private void doGet() throws Exception {
+		EasyMock.replay(this.mockAccountingService, this.mockResponse);
+
+		this.testedInstance.service(this.mockRequest, this.mockResponse);
+
+		EasyMock.verify(this.mockAccountingService, this.mockResponse);
+	}
+
+	private Date getDate(int year, int month, int day) {
+		Calendar calendar = Calendar.getInstance(TimeZone
+				.getTimeZone("UTC"));
+		calendar.clear();
+		calendar.set(year, month, day);
+		return calendar.getTime();
+	}
+
+	private void injectEJB(Object ejb, Object bean)
+			throws IllegalArgumentException, IllegalAccessException {
+		Class<?> beanClass = bean.getClass();
+		Field[] fields = beanClass.getDeclaredFields();
+		for (Field field : fields) {
+			if (null == field.getAnnotation(EJB.class)) {
+				continue;
+			}
+			if (!field.getType().isInstance(ejb)) {
+				continue;
+			}
+			field.setAccessible(true);
+			field.set(bean, ejb);
+		}
+	}
+}
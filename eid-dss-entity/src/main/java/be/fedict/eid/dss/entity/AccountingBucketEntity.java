@@ -0,0 +1,261 @@
+/*
+ * eID Digital Signature Service Project.
+ * Copyright (C) 2010 FedICT.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+
+package be.fedict.eid.dss.entity;
+
+import java.io.Serializable;
+import java.util.Date;
+import java.util.List;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.EntityManager;
+import javax.persistence.EnumType;
+import javax.persistence.Enumerated;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.persistence.NamedQueries;
+import javax.persistence.NamedQuery;
+import javax.persistence.Table;
+import javax.persistence.Temporal;
+import javax.persistence.TemporalType;
+import javax.persistence.UniqueConstraint;
+
+import org.hibernate.annotations.Index;
+
+/**
+ * Accounting history: the number of requests of a domain within a time
+ * bucket. Every request is counted within a bucket of each granularity, so
+ * windowed totals only need to sum a handful of coarse buckets.
+ */
+@Entity
+@Table(name = Constants.DATABASE_TABLE_PREFIX + "accounting_bucket", uniqueConstraints = @UniqueConstraint(columnNames = {
+		"granularity", "domain", "bucketStart" }))
+@org.hibernate.annotations.Table(appliesTo = Constants.DATABASE_TABLE_PREFIX
+		+ "accounting_bucket", indexes = @Index(name = "dss_accounting_bucket_start_idx", columnNames = {
+		"granularity", "bucketStart" }))
+@NamedQueries({
+		@NamedQuery(name = AccountingBucketEntity.ADD_REQUESTS, query = "UPDATE AccountingBucketEntity AS bucket "
+				+ "SET bucket.requests = bucket.requests + :requests "
+				+ "WHERE bucket.granularity = :granularity "
+				+ "AND bucket.domain = :domain "
+				+ "AND bucket.bucketStart = :bucketStart"),
+		@NamedQuery(name = AccountingBucketEntity.SUM_REQUESTS, query = "SELECT SUM(bucket.requests) "
+				+ "FROM AccountingBucketEntity AS bucket "
+				+ "WHERE bucket.granularity = :granularity "
+				+ "AND bucket.domain = :domain "
+				+ "AND bucket.bucketStart >= :from "
+				+ "AND bucket.bucketStart < :to"),
+		@NamedQuery(name = AccountingBucketEntity.LIST_BUCKETS, query = "FROM AccountingBucketEntity AS bucket "
+				+ "WHERE bucket.granularity = :granularity "
+				+ "AND bucket.domain = :domain "
+				+ "AND bucket.bucketStart >= :from "
+				+ "AND bucket.bucketStart < :to "
+				+ "ORDER BY bucket.bucketStart"),
+		@NamedQuery(name = AccountingBucketEntity.LIST_SINCE, query = "FROM AccountingBucketEntity AS bucket "
+				+ "WHERE bucket.granularity = :granularity "
+				+ "AND (bucket.bucketStart > :bucketStart "
+				+ "OR (bucket.bucketStart = :bucketStart AND bucket.id > :id)) "
+				+ "ORDER BY bucket.bucketStart, bucket.id"),
+		@NamedQuery(name = AccountingBucketEntity.PRUNE, query = "DELETE FROM AccountingBucketEntity AS bucket "
+				+ "WHERE bucket.granularity = :granularity "
+				+ "AND bucket.bucketStart < :before") })
+public class AccountingBucketEntity implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	static final String ADD_REQUESTS = "dss.accounting.bucket.add.requests";
+	static final String SUM_REQUESTS = "dss.accounting.bucket.sum.requests";
+	static final String LIST_BUCKETS = "dss.accounting.bucket.list";
+	static final String LIST_SINCE = "dss.accounting.bucket.list.since";
+	static final String PRUNE = "dss.accounting.bucket.prune";
+
+	private Long id;
+
+	private AccountingGranularity granularity;
+
+	private String domain;
+
+	private Date bucketStart;
+
+	private Long requests;
+
+	public AccountingBucketEntity() {
+	}
+
+	public AccountingBucketEntity(AccountingGranularity granularity,
+			String domain, Date bucketStart, Long requests) {
+		this.granularity = granularity;
+		this.domain = domain;
+		this.bucketStart = bucketStart;
+		this.requests = requests;
+	}
+
+	@Id
+	@GeneratedValue(strategy = GenerationType.AUTO)
+	public Long getId() {
+		return this.id;
+	}
+
+	public void setId(Long id) {
+		this.id = id;
+	}
+
+	@Enumerated(EnumType.STRING)
+	@Column(nullable = false, length = 10)
+	public AccountingGranularity getGranularity() {
+		return this.granularity;
+	}
+
+	public void setGranularity(AccountingGranularity granularity) {
+		this.granularity = granularity;
+	}
+
+	@Column(nullable = false)
+	public String getDomain() {
+		return this.domain;
+	}
+
+	public void setDomain(String domain) {
+		this.domain = domain;
+	}
+
+	@Temporal(TemporalType.TIMESTAMP)
+	@Column(nullable = false)
+	public Date getBucketStart() {
+		return this.bucketStart;
+	}
+
+	public void setBucketStart(Date bucketStart) {
+		this.bucketStart = bucketStart;
+	}
+
+	@Column(nullable = false)
+	public Long getRequests() {
+		return this.requests;
+	}
+
+	public void setRequests(Long requests) {
+		this.requests = requests;
+	}
+
+	/**
+	 * Adds the given number of requests to the buckets of all granularities
+	 * containing the given time.
+	 */
+	public static void addRequests(EntityManager entityManager, String domain,
+			long time, long requests) {
+
+		for (AccountingGranularity granularity : AccountingGranularity
+				.values()) {
+			Date bucketStart = new Date(granularity.floor(time));
+			int updated = entityManager
+					.createNamedQuery(AccountingBucketEntity.ADD_REQUESTS)
+					.setParameter("requests", requests)
+					.setParameter("granularity", granularity)
+					.setParameter("domain", domain)
+					.setParameter("bucketStart", bucketStart).executeUpdate();
+			if (0 == updated) {
+				entityManager.persist(new AccountingBucketEntity(granularity,
+						domain, bucketStart, requests));
+			}
+		}
+	}
+
+	/**
+	 * @return the total number of requests of the buckets of given
+	 *         granularity starting within [from, to).
+	 */
+	public static long sumRequests(EntityManager entityManager,
+			AccountingGranularity granularity, String domain, long from,
+			long to) {
+
+		if (from >= to) {
+			return 0;
+		}
+		Long requests = (Long) entityManager
+				.createNamedQuery(AccountingBucketEntity.SUM_REQUESTS)
+				.setParameter("granularity", granularity)
+				.setParameter("domain", domain)
+				.setParameter("from", new Date(from))
+				.setParameter("to", new Date(to)).getSingleResult();
+		if (null == requests) {
+			return 0;
+		}
+		return requests;
+	}
+
+	@SuppressWarnings("unchecked")
+	public static List<AccountingBucketEntity> listBuckets(
+			EntityManager entityManager, AccountingGranularity granularity,
+			String domain, Date from, Date to) {
+
+		return entityManager
+				.createNamedQuery(AccountingBucketEntity.LIST_BUCKETS)
+				.setParameter("granularity", granularity)
+				.setParameter("domain", domain).setParameter("from", from)
+				.setParameter("to", to).getResultList();
+	}
+
+	/**
+	 * Keyset pagination over the buckets of all domains, sorted on time.
+	 * 
+	 * @param since
+	 *            only buckets starting at or after this date.
+	 * @param after
+	 *            the last bucket of the previous page, or <code>null</code>
+	 *            for the first page.
+	 */
+	@SuppressWarnings("unchecked")
+	public static List<AccountingBucketEntity> listPage(
+			EntityManager entityManager, AccountingGranularity granularity,
+			Date since, AccountingBucketEntity after, int maxResults) {
+
+		Date bucketStart;
+		Long id;
+		if (null == after) {
+			bucketStart = since;
+			id = Long.MIN_VALUE;
+		} else {
+			bucketStart = after.getBucketStart();
+			id = after.getId();
+		}
+		return entityManager
+				.createNamedQuery(AccountingBucketEntity.LIST_SINCE)
+				.setParameter("granularity", granularity)
+				.setParameter("bucketStart", bucketStart)
+				.setParameter("id", id).setMaxResults(maxResults)
+				.getResultList();
+	}
+
+	/**
+	 * Removes all buckets of given granularity that start before the given
+	 * date.
+	 * 
+	 * @return the number of removed buckets.
+	 */
+	public static int prune(EntityManager entityManager,
+			AccountingGranularity granularity, Date before) {
+
+		return entityManager.createNamedQuery(AccountingBucketEntity.PRUNE)
+				.setParameter("granularity", granularity)
+				.setParameter("before", before).executeUpdate();
+	}
+}
@@ -28,33 +28,75 @@ import javax.persistence.NamedQueries;
 import javax.persistence.NamedQuery;
 import javax.persistence.Table;
 
+import org.hibernate.annotations.Index;
+
 /**
  * Accounting entity holding info on eID DSS Usage.
  * <p/>
- * Holds &lt;domain,#requests&gt;.
+ * Holds &lt;domain,#requests,#rejected requests&gt;.
  */
 @Entity
 @Table(name = Constants.DATABASE_TABLE_PREFIX + "accounting")
+@org.hibernate.annotations.Table(appliesTo = Constants.DATABASE_TABLE_PREFIX
+		+ "accounting", indexes = @Index(name = "dss_accounting_requests_idx", columnNames = {
+		"requests", "domain" }))
 @NamedQueries({
 		@NamedQuery(name = AccountingEntity.LIST_ALL, query = "FROM AccountingEntity AS accounting "
 				+ "ORDER BY accounting.requests DESC"),
-		@NamedQuery(name = AccountingEntity.RESET_ALL, query = "DELETE FROM AccountingEntity") })
+		@NamedQuery(name = AccountingEntity.LIST_PAGE, query = "FROM AccountingEntity AS accounting "
+				+ "WHERE accounting.domain > :domain "
+				+ "ORDER BY accounting.domain"),
+		@NamedQuery(name = AccountingEntity.LIST_PREFIX_DOMAIN_ASC, query = "FROM AccountingEntity AS accounting "
+				+ "WHERE accounting.domain LIKE :prefix ESCAPE '!' "
+				+ "ORDER BY accounting.domain ASC"),
+		@NamedQuery(name = AccountingEntity.LIST_PREFIX_DOMAIN_DESC, query = "FROM AccountingEntity AS accounting "
+				+ "WHERE accounting.domain LIKE :prefix ESCAPE '!' "
+				+ "ORDER BY accounting.domain DESC"),
+		@NamedQuery(name = AccountingEntity.LIST_PREFIX_REQUESTS_ASC, query = "FROM AccountingEntity AS accounting "
+				+ "WHERE accounting.domain LIKE :prefix ESCAPE '!' "
+				+ "ORDER BY accounting.requests ASC, accounting.domain ASC"),
+		@NamedQuery(name = AccountingEntity.LIST_PREFIX_REQUESTS_DESC, query = "FROM AccountingEntity AS accounting "
+				+ "WHERE accounting.domain LIKE :prefix ESCAPE '!' "
+				+ "ORDER BY accounting.requests DESC, accounting.domain DESC"),
+		@NamedQuery(name = AccountingEntity.COUNT_PREFIX, query = "SELECT COUNT(accounting) FROM AccountingEntity AS accounting "
+				+ "WHERE accounting.domain LIKE :prefix ESCAPE '!'"),
+		@NamedQuery(name = AccountingEntity.RESET_ALL, query = "DELETE FROM AccountingEntity"),
+		@NamedQuery(name = AccountingEntity.ADD_REQUESTS, query = "UPDATE AccountingEntity AS accounting "
+				+ "SET accounting.requests = accounting.requests + :requests "
+				+ "WHERE accounting.domain = :domain"),
+		@NamedQuery(name = AccountingEntity.ADD_REJECTED, query = "UPDATE AccountingEntity AS accounting "
+				+ "SET accounting.rejected = COALESCE(accounting.rejected, 0) + :rejected "
+				+ "WHERE accounting.domain = :domain") })
 public class AccountingEntity implements Serializable {
 
 	private static final long serialVersionUID = 1L;
 
 	static final String LIST_ALL = "dss.accounting.all";
+	static final String LIST_PAGE = "dss.accounting.page";
+	static final String LIST_PREFIX_DOMAIN_ASC = "dss.accounting.prefix.domain.asc";
+	static final String LIST_PREFIX_DOMAIN_DESC = "dss.accounting.prefix.domain.desc";
+	static final String LIST_PREFIX_REQUESTS_ASC = "dss.accounting.prefix.requests.asc";
+	static final String LIST_PREFIX_REQUESTS_DESC = "dss.accounting.prefix.requests.desc";
+	static final String COUNT_PREFIX = "dss.accounting.count.prefix";
 	static final String RESET_ALL = "dss.accounting.reset.all";
+	static final String ADD_REQUESTS = "dss.accounting.add.requests";
+	static final String ADD_REJECTED = "dss.accounting.add.rejected";
 
 	private String domain;
 	private Long requests;
+	private Long rejected;
 
 	public AccountingEntity() {
 	}
 
 	public AccountingEntity(String domain) {
+		this(domain, 1L);
+	}
+
+	public AccountingEntity(String domain, Long requests) {
 		this.domain = domain;
-		this.requests = 1L;
+		this.requests = requests;
+		this.rejected = 0L;
 	}
 
 	@Id
@@ -74,6 +116,18 @@ public class AccountingEntity implements Serializable {
 		this.requests = requests;
 	}
 
+	/**
+	 * @return the number of requests refused by the admission control, can be
+	 *         <code>null</code> for entries predating the admission control.
+	 */
+	public Long getRejected() {
+		return rejected;
+	}
+
+	public void setRejected(Long rejected) {
+		this.rejected = rejected;
+	}
+
 	@SuppressWarnings("unchecked")
 	public static List<AccountingEntity> listAll(EntityManager entityManager) {
 
@@ -81,9 +135,96 @@ public class AccountingEntity implements Serializable {
 				.getResultList();
 	}
 
+	/**
+	 * Keyset pagination over all accounting entries, sorted on domain.
+	 * 
+	 * @param afterDomain
+	 *            the last domain of the previous page, or <code>null</code>
+	 *            for the first page.
+	 */
+	@SuppressWarnings("unchecked")
+	public static List<AccountingEntity> listPage(EntityManager entityManager,
+			String afterDomain, int maxResults) {
+
+		return entityManager.createNamedQuery(AccountingEntity.LIST_PAGE)
+				.setParameter("domain", null == afterDomain ? "" : afterDomain)
+				.setMaxResults(maxResults).getResultList();
+	}
+
+	/**
+	 * Offset pagination over the accounting entries whose domain starts with
+	 * the given prefix.
+	 * 
+	 * @param domainPrefix
+	 *            the domain prefix, or <code>null</code> for all entries.
+	 */
+	@SuppressWarnings("unchecked")
+	public static List<AccountingEntity> listPage(EntityManager entityManager,
+			String domainPrefix, AccountingOrder order, int firstResult,
+			int maxResults) {
+
+		return entityManager.createNamedQuery(order.getQueryName())
+				.setParameter("prefix", getLikePattern(domainPrefix))
+				.setFirstResult(firstResult).setMaxResults(maxResults)
+				.getResultList();
+	}
+
+	/**
+	 * @param domainPrefix
+	 *            the domain prefix, or <code>null</code> for all entries.
+	 * @return the number of accounting entries whose domain starts with the
+	 *         given prefix.
+	 */
+	public static long count(EntityManager entityManager, String domainPrefix) {
+
+		return (Long) entityManager
+				.createNamedQuery(AccountingEntity.COUNT_PREFIX)
+				.setParameter("prefix", getLikePattern(domainPrefix))
+				.getSingleResult();
+	}
+
+	private static String getLikePattern(String prefix) {
+
+		if (null == prefix) {
+			return "%";
+		}
+		return prefix.replace("!", "!!").replace("%", "!%").replace("_", "!_")
+				+ "%";
+	}
+
 	public static int resetAll(EntityManager entityManager) {
 
 		return entityManager.createNamedQuery(AccountingEntity.RESET_ALL)
 				.executeUpdate();
 	}
+
+	/**
+	 * Atomically increments the request counter of the given domain within
+	 * the database.
+	 * 
+	 * @return the number of updated rows, <code>0</code> if the domain has no
+	 *         accounting entry yet.
+	 */
+	public static int addRequests(EntityManager entityManager, String domain,
+			long requests) {
+
+		return entityManager.createNamedQuery(AccountingEntity.ADD_REQUESTS)
+				.setParameter("requests", requests)
+				.setParameter("domain", domain).executeUpdate();
+	}
+
+	/**
+	 * Atomically increments the rejected request counter of the given domain
+	 * within the database.
+	 * 
+	 * @return the number of updated rows, <code>0</code> if the domain has no
+	 *         accounting entry yet.
+	 */
+	public static int addRejected(EntityManager entityManager, String domain,
+			long rejected) {
+
+		return entityManager.createNamedQuery(AccountingEntity.ADD_REJECTED)
+				.setParameter("rejected", rejected)
+				.setParameter("domain", domain).executeUpdate();
+	}
 }
@@ -0,0 +1,57 @@
+/*
+ * eID Digital Signature Service Project.
+ * Copyright (C) 2010 FedICT.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+
+package be.fedict.eid.dss.entity;
+
+/**
+ * Granularity of the accounting buckets, from fine to coarse. Buckets are
+ * aligned on UTC.
+ */
+public enum AccountingGranularity {
+
+	MINUTE(60 * 1000L), HOUR(60 * 60 * 1000L), DAY(24 * 60 * 60 * 1000L);
+
+	private final long duration;
+
+	private AccountingGranularity(long duration) {
+		this.duration = duration;
+	}
+
+	/**
+	 * @return the bucket duration in milliseconds.
+	 */
+	public long getDuration() {
+		return this.duration;
+	}
+
+	/**
+	 * @return start of the bucket containing the given time.
+	 */
+	public long floor(long time) {
+		return time - time % this.duration;
+	}
+
+	/**
+	 * @return start of the first bucket that starts at or after the given
+	 *         time.
+	 */
+	public long ceil(long time) {
+		return floor(time + this.duration - 1);
+	}
+}
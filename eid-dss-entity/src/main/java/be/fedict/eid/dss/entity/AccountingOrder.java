@@ -0,0 +1,42 @@
+/*
+ * eID Digital Signature Service Project.
+ * Copyright (C) 2010 FedICT.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+
+package be.fedict.eid.dss.entity;
+
+/**
+ * Sort orders of the accounting entries. Entries with equal request counts
+ * are sorted on domain, so paging is stable.
+ */
+public enum AccountingOrder {
+
+	DOMAIN_ASC(AccountingEntity.LIST_PREFIX_DOMAIN_ASC), DOMAIN_DESC(
+			AccountingEntity.LIST_PREFIX_DOMAIN_DESC), REQUESTS_ASC(
+			AccountingEntity.LIST_PREFIX_REQUESTS_ASC), REQUESTS_DESC(
+			AccountingEntity.LIST_PREFIX_REQUESTS_DESC);
+
+	private final String queryName;
+
+	private AccountingOrder(String queryName) {
+		this.queryName = queryName;
+	}
+
+	String getQueryName() {
+		return this.queryName;
+	}
+}
@@ -28,10 +28,14 @@ import javax.persistence.NamedQueries;
 import javax.persistence.NamedQuery;
 import javax.persistence.Table;
 
+import org.hibernate.annotations.Index;
+
 @Entity
 @Table(name = Constants.DATABASE_TABLE_PREFIX + "config")
 @NamedQueries({
-		@NamedQuery(name = ConfigPropertyEntity.LIST_INDEXES, query = "FROM ConfigPropertyEntity WHERE name LIKE :name"),
+		@NamedQuery(name = ConfigPropertyEntity.LIST_INDEXES, query = "SELECT propertyIndex FROM ConfigPropertyEntity "
+				+ "WHERE baseName = :baseName AND propertyIndex IS NOT NULL ORDER BY propertyIndex"),
+		@NamedQuery(name = ConfigPropertyEntity.LIST_WITHOUT_BASE_NAME, query = "FROM ConfigPropertyEntity WHERE baseName IS NULL"),
 		@NamedQuery(name = ConfigPropertyEntity.LIST_ALL, query = "FROM ConfigPropertyEntity") })
 public class ConfigPropertyEntity implements Serializable {
 
@@ -39,16 +43,28 @@ public class ConfigPropertyEntity implements Serializable {
 
 	static final String LIST_INDEXES = "dss.config.list.idx";
 	static final String LIST_ALL = "dss.config.list.all";
+	static final String LIST_WITHOUT_BASE_NAME = "dss.config.list.no.base";
 
 	private String name;
 
+	private String baseName;
+
+	private String propertyIndex;
+
 	private String value;
 
 	public ConfigPropertyEntity() {
 	}
 
 	public ConfigPropertyEntity(String name, String value) {
-		this.name = name;
+		this(name, null, value);
+	}
+
+	public ConfigPropertyEntity(String baseName, String propertyIndex,
+			String value) {
+		this.name = getName(baseName, propertyIndex);
+		this.baseName = baseName;
+		this.propertyIndex = propertyIndex;
 		this.value = value;
 	}
 
@@ -61,6 +77,28 @@ public class ConfigPropertyEntity implements Serializable {
 		this.name = name;
 	}
 
+	/**
+	 * @return the configuration property name without the index, or
+	 *         <code>null</code> for rows created before the base name column
+	 *         was introduced.
+	 */
+	@Index(name = "dss_config_base_name_idx")
+	public String getBaseName() {
+		return this.baseName;
+	}
+
+	public void setBaseName(String baseName) {
+		this.baseName = baseName;
+	}
+
+	public String getPropertyIndex() {
+		return this.propertyIndex;
+	}
+
+	public void setPropertyIndex(String propertyIndex) {
+		this.propertyIndex = propertyIndex;
+	}
+
 	public String getValue() {
 		return this.value;
 	}
@@ -69,13 +107,29 @@ public class ConfigPropertyEntity implements Serializable {
 		this.value = value;
 	}
 
+	public static String getName(String baseName, String propertyIndex) {
+
+		if (null == propertyIndex) {
+			return baseName;
+		}
+		return baseName + '-' + propertyIndex;
+	}
+
 	@SuppressWarnings("unchecked")
-	public static List<ConfigPropertyEntity> listConfigsWhereNameLike(
-			EntityManager entityManager, String name) {
+	public static List<String> listIndexes(EntityManager entityManager,
+			String baseName) {
 
 		return entityManager
 				.createNamedQuery(ConfigPropertyEntity.LIST_INDEXES)
-				.setParameter("name", "%" + name + "%").getResultList();
+				.setParameter("baseName", baseName).getResultList();
+	}
+
+	@SuppressWarnings("unchecked")
+	public static List<ConfigPropertyEntity> listWithoutBaseName(
+			EntityManager entityManager) {
+
+		return entityManager.createNamedQuery(
+				ConfigPropertyEntity.LIST_WITHOUT_BASE_NAME).getResultList();
 	}
 
 	@SuppressWarnings("unchecked")
@@ -54,19 +54,35 @@ import javax.persistence.Transient;
  * verification of the signed authentication request token.
  * <p/>
  * The attributes is the custom set of attributes related to this RP.
+ * <p/>
+ * The optional rate limit and burst configure the admission control of the
+ * requests of this RP.
  */
 @Entity
 @Table(name = Constants.DATABASE_TABLE_PREFIX + "rp")
 @NamedQueries({
 		@NamedQuery(name = RPEntity.LIST_ALL, query = "FROM RPEntity "),
 		@NamedQuery(name = RPEntity.FIND_DOMAIN, query = "SELECT rp FROM RPEntity "
-				+ "AS rp WHERE rp.domain = :domain") })
+				+ "AS rp WHERE rp.domain = :domain"),
+		@NamedQuery(name = RPEntity.LIST_WITHOUT_LOGO_VARIANTS, query = "SELECT rp FROM RPEntity "
+				+ "AS rp WHERE rp.logo IS NOT NULL "
+				+ "AND (rp.logoHash IS NULL OR rp.logoThumbnailAvailable IS NULL)"),
+		@NamedQuery(name = RPEntity.LIST_WITHOUT_LOGO, query = "SELECT NEW be.fedict.eid.dss.entity.RPEntity("
+				+ "rp.id, rp.name, rp.domain, rp.requestSigningRequired, "
+				+ "rp.logoHash, rp.logoContentType, rp.logoThumbnailAvailable, "
+				+ "rp.encodedCertificate) FROM RPEntity AS rp"),
+		@NamedQuery(name = RPEntity.LIST_RATE_LIMITED, query = "SELECT NEW be.fedict.eid.dss.entity.RPEntity("
+				+ "rp.id, rp.rateLimit, rp.rateLimitBurst) FROM RPEntity AS rp "
+				+ "WHERE rp.rateLimit > 0") })
 public class RPEntity implements Serializable {
 
 	private static final long serialVersionUID = 1L;
 
 	public static final String LIST_ALL = "idp.rp.list.all";
 	public static final String FIND_DOMAIN = "idp.rp.find.domain";
+	public static final String LIST_WITHOUT_LOGO_VARIANTS = "idp.rp.list.without.logo.variants";
+	public static final String LIST_WITHOUT_LOGO = "idp.rp.list.without.logo";
+	public static final String LIST_RATE_LIMITED = "idp.rp.list.rate.limited";
 
 	private Long id;
 
@@ -78,11 +94,20 @@ public class RPEntity implements Serializable {
 	@Lob
 	@Column(length = 500 * 1024, nullable = true)
 	protected byte[] logo;
+	private String logoContentType;
+	private String logoHash;
+	private byte[] logoThumbnail;
+	private Boolean logoThumbnailAvailable;
 
 	// signing
 	private byte[] encodedCertificate;
+	private transient X509Certificate certificate;
 	private boolean requestSigningRequired;
 
+	// admission control
+	private Integer rateLimit;
+	private Integer rateLimitBurst;
+
 	public RPEntity(String name, String domain, byte[] logo,
 			X509Certificate certificate, boolean requestSigningRequired)
 			throws CertificateEncodingException {
@@ -98,6 +123,34 @@ public class RPEntity implements Serializable {
 		super();
 	}
 
+	/**
+	 * Constructor of the detached RPs of {@link #listRPsWithoutLogo}.
+	 */
+	public RPEntity(Long id, String name, String domain,
+			boolean requestSigningRequired, String logoHash,
+			String logoContentType, Boolean logoThumbnailAvailable,
+			byte[] encodedCertificate) {
+
+		this.id = id;
+		this.name = name;
+		this.domain = domain;
+		this.requestSigningRequired = requestSigningRequired;
+		this.logoHash = logoHash;
+		this.logoContentType = logoContentType;
+		this.logoThumbnailAvailable = logoThumbnailAvailable;
+		this.encodedCertificate = encodedCertificate;
+	}
+
+	/**
+	 * Constructor of the detached RPs of {@link #listRateLimitedRPs}.
+	 */
+	public RPEntity(Long id, Integer rateLimit, Integer rateLimitBurst) {
+
+		this.id = id;
+		this.rateLimit = rateLimit;
+		this.rateLimitBurst = rateLimitBurst;
+	}
+
 	@Id
 	@GeneratedValue(strategy = GenerationType.AUTO)
 	public Long getId() {
@@ -136,6 +189,57 @@ public class RPEntity implements Serializable {
 		this.logo = logo;
 	}
 
+	@Column(nullable = true)
+	public String getLogoContentType() {
+		return this.logoContentType;
+	}
+
+	public void setLogoContentType(String logoContentType) {
+		this.logoContentType = logoContentType;
+	}
+
+	/**
+	 * @return the SHA-1 hash of the logo, hex encoded, used as HTTP entity
+	 *         tag. Also indicates whether the resized logo variants are up to
+	 *         date.
+	 */
+	@Column(nullable = true)
+	public String getLogoHash() {
+		return this.logoHash;
+	}
+
+	public void setLogoHash(String logoHash) {
+		this.logoHash = logoHash;
+	}
+
+	/**
+	 * @return the logo resized at upload time for listings, PNG encoded.
+	 */
+	@Lob
+	@Column(length = 64 * 1024, nullable = true)
+	@Basic(fetch = FetchType.LAZY)
+	public byte[] getLogoThumbnail() {
+		return this.logoThumbnail;
+	}
+
+	public void setLogoThumbnail(byte[] logoThumbnail) {
+		this.logoThumbnail = logoThumbnail;
+	}
+
+	/**
+	 * @return whether a logo thumbnail is available, so the RP listings can
+	 *         tell without reading the thumbnail. <code>null</code> for RPs
+	 *         saved before the logo variants were computed.
+	 */
+	@Column(nullable = true)
+	public Boolean getLogoThumbnailAvailable() {
+		return this.logoThumbnailAvailable;
+	}
+
+	public void setLogoThumbnailAvailable(Boolean logoThumbnailAvailable) {
+		this.logoThumbnailAvailable = logoThumbnailAvailable;
+	}
+
 	@Lob
 	@Column(length = 4 * 1024, nullable = true)
 	@Basic(fetch = FetchType.LAZY)
@@ -145,6 +249,7 @@ public class RPEntity implements Serializable {
 
 	public void setEncodedCertificate(byte[] encodedCertificate) {
 		this.encodedCertificate = encodedCertificate;
+		this.certificate = null;
 	}
 
 	@Transient
@@ -158,20 +263,27 @@ public class RPEntity implements Serializable {
 		return certificate.toString().replaceAll("\\n", "<br/>");
 	}
 
+	/**
+	 * @return the RP certificate, parsed once per entity instance.
+	 */
 	@Transient
 	public X509Certificate getCertificate() {
 
 		if (null == this.encodedCertificate) {
 			return null;
 		}
+		if (null != this.certificate) {
+			return this.certificate;
+		}
 
 		try {
 			CertificateFactory certificateFactory = CertificateFactory
 					.getInstance("X.509");
 			InputStream certificateStream = new ByteArrayInputStream(
 					this.encodedCertificate);
-			return (X509Certificate) certificateFactory
+			this.certificate = (X509Certificate) certificateFactory
 					.generateCertificate(certificateStream);
+			return this.certificate;
 		} catch (CertificateException e) {
 			throw new RuntimeException("cert factory error: " + e.getMessage());
 		}
@@ -182,15 +294,17 @@ public class RPEntity implements Serializable {
 			throws CertificateEncodingException {
 
 		this.encodedCertificate = certificate.getEncoded();
+		this.certificate = certificate;
 	}
 
 	@Transient
 	public String getCertificateSubject() {
 
-		if (null == this.encodedCertificate) {
+		X509Certificate certificate = getCertificate();
+		if (null == certificate) {
 			return null;
 		}
-		return getCertificate().getSubjectDN().getName();
+		return certificate.getSubjectDN().getName();
 	}
 
 	public boolean isRequestSigningRequired() {
@@ -201,6 +315,32 @@ public class RPEntity implements Serializable {
 		this.requestSigningRequired = requestSigningRequired;
 	}
 
+	/**
+	 * @return the maximum sustained number of requests per minute, or
+	 *         <code>null</code> if not limited.
+	 */
+	@Column(nullable = true)
+	public Integer getRateLimit() {
+		return this.rateLimit;
+	}
+
+	public void setRateLimit(Integer rateLimit) {
+		this.rateLimit = rateLimit;
+	}
+
+	/**
+	 * @return the number of requests admitted at once, or <code>null</code>
+	 *         to allow the requests of one minute.
+	 */
+	@Column(nullable = true)
+	public Integer getRateLimitBurst() {
+		return this.rateLimitBurst;
+	}
+
+	public void setRateLimitBurst(Integer rateLimitBurst) {
+		this.rateLimitBurst = rateLimitBurst;
+	}
+
 	@SuppressWarnings("unchecked")
 	public static List<RPEntity> listRPs(EntityManager entityManager) {
 
@@ -208,6 +348,42 @@ public class RPEntity implements Serializable {
 		return query.getResultList();
 	}
 
+	/**
+	 * Lists the RPs without reading the logo and its thumbnail. The returned
+	 * RPs are detached and only have the configuration, the logo metadata and
+	 * the certificate set.
+	 */
+	@SuppressWarnings("unchecked")
+	public static List<RPEntity> listRPsWithoutLogo(EntityManager entityManager) {
+
+		Query query = entityManager.createNamedQuery(LIST_WITHOUT_LOGO);
+		return query.getResultList();
+	}
+
+	/**
+	 * Lists the rate limited RPs without reading any large column. The
+	 * returned RPs are detached and only have the id and the rate limit set.
+	 */
+	@SuppressWarnings("unchecked")
+	public static List<RPEntity> listRateLimitedRPs(EntityManager entityManager) {
+
+		Query query = entityManager.createNamedQuery(LIST_RATE_LIMITED);
+		return query.getResultList();
+	}
+
+	/**
+	 * @return the RPs with a logo of which the logo hash, content type or
+	 *         thumbnail have not been computed yet.
+	 */
+	@SuppressWarnings("unchecked")
+	public static List<RPEntity> listWithoutLogoVariants(
+			EntityManager entityManager) {
+
+		Query query = entityManager
+				.createNamedQuery(LIST_WITHOUT_LOGO_VARIANTS);
+		return query.getResultList();
+	}
+
 	public static RPEntity findRP(EntityManager entityManager, String domain) {
 
 		Query query = entityManager.createNamedQuery(FIND_DOMAIN);
@@ -19,32 +19,47 @@
 package be.fedict.eid.dss.entity;
 
 import java.io.Serializable;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import javax.persistence.Column;
 import javax.persistence.Entity;
 import javax.persistence.EntityManager;
+import javax.persistence.FetchType;
 import javax.persistence.Id;
+import javax.persistence.JoinColumn;
+import javax.persistence.JoinTable;
 import javax.persistence.NamedQueries;
 import javax.persistence.NamedQuery;
 import javax.persistence.Query;
 import javax.persistence.Table;
 
+import org.hibernate.annotations.CollectionOfElements;
+
 @Entity
 @Table(name = Constants.DATABASE_TABLE_PREFIX + "xml_schemas")
-@NamedQueries({ @NamedQuery(name = XmlSchemaEntity.ALL, query = "FROM XmlSchemaEntity") })
+@NamedQueries({
+		@NamedQuery(name = XmlSchemaEntity.ALL, query = "FROM XmlSchemaEntity"),
+		@NamedQuery(name = XmlSchemaEntity.ALL_VERSIONS, query = "SELECT NEW be.fedict.eid.dss.entity.XmlSchemaEntity(xs.namespace, xs.revision, xs.digest) FROM XmlSchemaEntity AS xs") })
 public class XmlSchemaEntity implements Serializable {
 
 	private static final long serialVersionUID = 1L;
 
 	public static final String ALL = "dss.xmlschema.all";
 
+	public static final String ALL_VERSIONS = "dss.xmlschema.all.versions";
+
 	private String namespace;
 
 	private String revision;
 
 	private byte[] xsd;
 
+	private String digest;
+
+	private Set<String> importedNamespaces;
+
 	public XmlSchemaEntity() {
 		super();
 	}
@@ -53,6 +68,17 @@ public class XmlSchemaEntity implements Serializable {
 		this.namespace = namespace;
 		this.revision = revision;
 		this.xsd = xsd;
+		this.importedNamespaces = new HashSet<String>();
+	}
+
+	/**
+	 * Constructor of the {@link #ALL_VERSIONS} query, without XSD.
+	 */
+	public XmlSchemaEntity(String namespace, String revision, String digest) {
+		this.namespace = namespace;
+		this.revision = revision;
+		this.digest = digest;
+		this.importedNamespaces = new HashSet<String>();
 	}
 
 	@Id
@@ -81,9 +107,46 @@ public class XmlSchemaEntity implements Serializable {
 		this.xsd = xsd;
 	}
 
+	/**
+	 * @return the SHA-1 digest of the XSD, hex encoded.
+	 */
+	@Column(length = 40)
+	public String getDigest() {
+		return this.digest;
+	}
+
+	public void setDigest(String digest) {
+		this.digest = digest;
+	}
+
+	/**
+	 * @return the namespaces directly imported by this XML schema.
+	 */
+	@CollectionOfElements(fetch = FetchType.EAGER)
+	@JoinTable(name = Constants.DATABASE_TABLE_PREFIX + "xml_schema_imports", joinColumns = @JoinColumn(name = "namespace"))
+	@Column(name = "imported_namespace")
+	public Set<String> getImportedNamespaces() {
+		return this.importedNamespaces;
+	}
+
+	public void setImportedNamespaces(Set<String> importedNamespaces) {
+		this.importedNamespaces = importedNamespaces;
+	}
+
 	@SuppressWarnings("unchecked")
 	public static List<XmlSchemaEntity> getAll(EntityManager entityManager) {
 		Query query = entityManager.createNamedQuery(ALL);
 		return query.getResultList();
 	}
+
+	/**
+	 * @return all XML schemas with only the namespace, revision and digest
+	 *         set.
+	 */
+	@SuppressWarnings("unchecked")
+	public static List<XmlSchemaEntity> getAllVersions(
+			EntityManager entityManager) {
+		Query query = entityManager.createNamedQuery(ALL_VERSIONS);
+		return query.getResultList();
+	}
 }
@@ -33,19 +33,25 @@ import javax.persistence.Table;
 
 @Entity
 @Table(name = Constants.DATABASE_TABLE_PREFIX + "xml_style_sheets")
-@NamedQueries({ @NamedQuery(name = XmlStyleSheetEntity.ALL, query = "FROM XmlStyleSheetEntity") })
+@NamedQueries({
+		@NamedQuery(name = XmlStyleSheetEntity.ALL, query = "FROM XmlStyleSheetEntity"),
+		@NamedQuery(name = XmlStyleSheetEntity.VERSION, query = "SELECT NEW be.fedict.eid.dss.entity.XmlStyleSheetEntity(xs.namespace, xs.revision, xs.digest) FROM XmlStyleSheetEntity AS xs WHERE xs.namespace = :namespace") })
 public class XmlStyleSheetEntity implements Serializable {
 
 	private static final long serialVersionUID = 1L;
 
 	public static final String ALL = "dss.xsl.all";
 
+	public static final String VERSION = "dss.xsl.version";
+
 	private String namespace;
 
 	private String revision;
 
 	private byte[] xsl;
 
+	private String digest;
+
 	public XmlStyleSheetEntity() {
 		super();
 	}
@@ -56,6 +62,16 @@ public class XmlStyleSheetEntity implements Serializable {
 		this.xsl = xsl;
 	}
 
+	/**
+	 * Constructor of the {@link #VERSION} query, without XSL.
+	 */
+	public XmlStyleSheetEntity(String namespace, String revision,
+			String digest) {
+		this.namespace = namespace;
+		this.revision = revision;
+		this.digest = digest;
+	}
+
 	@Id
 	public String getNamespace() {
 		return this.namespace;
@@ -82,9 +98,37 @@ public class XmlStyleSheetEntity implements Serializable {
 		this.xsl = xsl;
 	}
 
+	/**
+	 * @return the SHA-1 digest of the XSL, hex encoded.
+	 */
+	@Column(length = 40)
+	public String getDigest() {
+		return this.digest;
+	}
+
+	public void setDigest(String digest) {
+		this.digest = digest;
+	}
+
 	@SuppressWarnings("unchecked")
 	public static List<XmlStyleSheetEntity> getAll(EntityManager entityManager) {
 		Query query = entityManager.createNamedQuery(ALL);
 		return query.getResultList();
 	}
+
+	/**
+	 * @return the XML style sheet with only the namespace, revision and digest
+	 *         set, or <code>null</code> if not found.
+	 */
+	@SuppressWarnings("unchecked")
+	public static XmlStyleSheetEntity findVersion(EntityManager entityManager,
+			String namespace) {
+		Query query = entityManager.createNamedQuery(VERSION);
+		query.setParameter("namespace", namespace);
+		List<XmlStyleSheetEntity> xmlStyleSheets = query.getResultList();
+		if (xmlStyleSheets.isEmpty()) {
+			return null;
+		}
+		return xmlStyleSheets.get(0);
+	}
 }
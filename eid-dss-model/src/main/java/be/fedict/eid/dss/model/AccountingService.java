@@ -18,18 +18,152 @@
 
 package be.fedict.eid.dss.model;
 
+import java.util.Date;
 import java.util.List;
+import java.util.Map;
 
 import javax.ejb.Local;
 
+import be.fedict.eid.dss.entity.AccountingBucketEntity;
 import be.fedict.eid.dss.entity.AccountingEntity;
+import be.fedict.eid.dss.entity.AccountingGranularity;
+import be.fedict.eid.dss.entity.AccountingOrder;
 
 @Local
 public interface AccountingService {
 
+	/**
+	 * @return all accounting entries, including the not yet flushed requests.
+	 */
 	List<AccountingEntity> listAll();
 
+	/**
+	 * Gives a page of the lifetime request counters. Pending requests are not
+	 * flushed, call {@link #countAll(String)} first to include them, so a
+	 * page view flushes only once.
+	 * 
+	 * @param domainPrefix
+	 *            only domains starting with this prefix, or <code>null</code>
+	 *            for all domains.
+	 * @param order
+	 *            the sort order.
+	 * @param firstResult
+	 *            the offset of the page.
+	 * @param maxResults
+	 *            the page size.
+	 */
+	List<AccountingEntity> listAll(String domainPrefix, AccountingOrder order,
+			int firstResult, int maxResults);
+
+	/**
+	 * @param domainPrefix
+	 *            only domains starting with this prefix, or <code>null</code>
+	 *            for all domains.
+	 * @return the number of domains with a lifetime request counter, after
+	 *         flushing the pending requests.
+	 */
+	long countAll(String domainPrefix);
+
+	/**
+	 * Pages through the lifetime request counters sorted on domain. Pending
+	 * requests are flushed when requesting the first page. The domain is the
+	 * only stable sort key, the request counts can change while paging.
+	 * 
+	 * @param afterDomain
+	 *            the last domain of the previous page, or <code>null</code>
+	 *            for the first page.
+	 * @param maxResults
+	 *            the page size.
+	 */
+	List<AccountingEntity> listPage(String afterDomain, int maxResults);
+
+	/**
+	 * Pages through the history buckets of all domains sorted on time.
+	 * 
+	 * @param granularity
+	 *            the bucket granularity.
+	 * @param since
+	 *            only buckets starting at or after this date.
+	 * @param after
+	 *            the last bucket of the previous page, or <code>null</code>
+	 *            for the first page.
+	 * @param maxResults
+	 *            the page size.
+	 */
+	List<AccountingBucketEntity> listBucketPage(
+			AccountingGranularity granularity, Date since,
+			AccountingBucketEntity after, int maxResults);
+
+	/**
+	 * Resets the lifetime request counters. The accounting history is kept.
+	 */
 	void resetAll();
 
-	AccountingEntity addRequest(String domain);
+	/**
+	 * Counts a request for the given domain. The request is only counted in
+	 * memory, the database is updated periodically.
+	 * 
+	 * @param domain
+	 *            the requesting domain, the query string is ignored.
+	 */
+	void addRequest(String domain);
+
+	/**
+	 * Adds the given request counts to the lifetime counters and to the
+	 * buckets of the accounting history containing the given time.
+	 * 
+	 * @param time
+	 *            the time the requests were made.
+	 * @param requestCounts
+	 *            request counts keyed by domain.
+	 */
+	void addRequests(long time, Map<String, Long> requestCounts);
+
+	/**
+	 * Adds the given counts of requests refused by the admission control to
+	 * the lifetime counters.
+	 * 
+	 * @param rejectedCounts
+	 *            rejected request counts keyed by domain.
+	 */
+	void addRejectedRequests(Map<String, Long> rejectedCounts);
+
+	/**
+	 * Gives the number of requests of a domain within the given window. The
+	 * window is aligned on minutes and summed using the coarsest buckets
+	 * possible, so the cost does not depend on the size of the history.
+	 * Parts of the window older than the retention of the required
+	 * granularity are not counted.
+	 * 
+	 * @param domain
+	 *            the domain.
+	 * @param from
+	 *            start of the window, inclusive.
+	 * @param to
+	 *            end of the window, exclusive.
+	 * @return the number of requests.
+	 */
+	long getRequests(String domain, Date from, Date to);
+
+	/**
+	 * @return the history buckets of given granularity for a domain starting
+	 *         within [from, to), sorted on time.
+	 */
+	List<AccountingBucketEntity> listBuckets(String domain,
+			AccountingGranularity granularity, Date from, Date to);
+
+	/**
+	 * Removes all history buckets older than their configured retention.
+	 */
+	void pruneBuckets();
+
+	/**
+	 * Gives the current request rates of the busiest domains. Served from
+	 * memory and local to this node.
+	 * 
+	 * @param count
+	 *            the maximum number of domains.
+	 * @return the request rates, sorted on the rate over the last minute.
+	 */
+	List<DomainRequestRate> getTopRequestRates(int count);
 }
@@ -44,6 +44,8 @@ public enum ConfigProperty {
 	KEY_STORE_SECRET("key-store-secret", String.class),
 	KEY_ENTRY_SECRET("key-entry-secret", String.class),
 	KEY_ENTRY_ALIAS("key-entry-alias", String.class),
+	SIGNATURE_POOL_SIZE("signature-pool-size", Integer.class,
+			DSSIdentity.DEFAULT_SIGNATURE_POOL_SIZE),
 
 	SIGN_TRUST_DOMAIN("sign-trust-domain", String.class, "BE"),
 	VERIFY_TRUST_DOMAIN("verify-trust-domain", String.class, "BE"),
@@ -55,6 +57,14 @@ public enum ConfigProperty {
 	DOCUMENT_STORAGE_EXPIRATION("document-storage-expiration", Integer.class, 5),
 	DOCUMENT_CLEANUP_TASK_SCHEDULE("document-cleanup-task-schedule", String.class, "0 0/15 * * * *"),
 
+	/**
+	 * Retention of the accounting history buckets. Minute buckets in hours,
+	 * hour and day buckets in days.
+	 */
+	ACCOUNTING_MINUTE_RETENTION("accounting-minute-retention", Integer.class, 48),
+	ACCOUNTING_HOUR_RETENTION("accounting-hour-retention", Integer.class, 90),
+	ACCOUNTING_DAY_RETENTION("accounting-day-retention", Integer.class, 3650),
+
 	/**
 	 * We take a default value of 5 minutes. This required because of delay
 	 * caused by eID PIN validation, SignatureTimeStamp, eID certificate chain
@@ -105,4 +115,30 @@ public enum ConfigProperty {
 	public Object getDefaultValue() {
 		return this.defaultValue;
 	}
+
+	/**
+	 * Finds the configuration property of the given, optionally indexed,
+	 * property name. An exact match wins, else the longest configuration
+	 * property name that is a prefix of the indexed property name.
+	 * 
+	 * @param propertyName
+	 *            the full property name.
+	 * @return the configuration property or <code>null</code> if not found.
+	 */
+	public static ConfigProperty findConfigProperty(String propertyName) {
+
+		ConfigProperty result = null;
+		for (ConfigProperty configProperty : values()) {
+			if (configProperty.name.equals(propertyName)) {
+				return configProperty;
+			}
+			if (propertyName.startsWith(configProperty.name + '-')) {
+				if (null == result
+						|| configProperty.name.length() > result.name.length()) {
+					result = configProperty;
+				}
+			}
+		}
+		return result;
+	}
 }
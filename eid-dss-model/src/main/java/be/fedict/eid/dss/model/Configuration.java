@@ -19,6 +19,7 @@
 package be.fedict.eid.dss.model;
 
 import java.util.List;
+import java.util.Map;
 
 import javax.ejb.Local;
 
@@ -29,6 +30,16 @@ public interface Configuration {
 
 	void setValue(ConfigProperty configProperty, Object value);
 
+	/**
+	 * Sets multiple configuration values at once. Only the values that differ
+	 * from the persisted configuration are written.
+	 * 
+	 * @param values
+	 *            the new values, keyed by configuration property.
+	 * @return the number of configuration rows that were created or updated.
+	 */
+	int setValues(Map<ConfigProperty, Object> values);
+
 	<T> T getValue(ConfigProperty configProperty, String index, Class<T> type);
 
 	<T> T getValue(ConfigProperty configProperty, Class<T> type);
@@ -38,4 +49,32 @@ public interface Configuration {
 	void removeValue(ConfigProperty configProperty);
 
 	List<String> getIndexes(ConfigProperty configProperty);
+
+	/**
+	 * Gives all configuration values at once. The snapshot is loaded using a
+	 * single database query and is cached until the configuration changes, so
+	 * it can be requested for every request.
+	 * 
+	 * @return an immutable typed view on the current configuration.
+	 */
+	ConfigurationSnapshot getSnapshot();
+
+	/**
+	 * Registers a listener that is notified, on every cluster node, once a
+	 * transaction that changed configuration values has been committed.
+	 * 
+	 * @param listener
+	 *            the configuration listener.
+	 */
+	void addListener(ConfigurationListener listener);
+
+	void removeListener(ConfigurationListener listener);
+
+	/**
+	 * @return the configuration version of this node. Increases with every
+	 *         committed configuration change received by this node. The
+	 *         version is node-local: it cannot be compared across nodes, nor
+	 *         be used to order changes made on different nodes.
+	 */
+	long getVersion();
 }
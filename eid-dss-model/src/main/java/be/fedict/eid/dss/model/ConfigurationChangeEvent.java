@@ -0,0 +1,80 @@
+/*
+ * eID Digital Signature Service Project.
+ * Copyright (C) 2010 FedICT.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+package be.fedict.eid.dss.model;
+
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Event fired after configuration properties have been changed.
+ * 
+ * @see ConfigurationListener
+ */
+public class ConfigurationChangeEvent implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	private final long version;
+
+	private final Set<String> propertyNames;
+
+	public ConfigurationChangeEvent(long version, Set<String> propertyNames) {
+		this.version = version;
+		this.propertyNames = Collections
+				.unmodifiableSet(new HashSet<String>(propertyNames));
+	}
+
+	/**
+	 * @return the node local configuration version after this change. Only
+	 *         orders the events received by this node, not the changes made
+	 *         on different nodes.
+	 */
+	public long getVersion() {
+		return this.version;
+	}
+
+	/**
+	 * @return the full names, including the optional index, of the changed
+	 *         configuration properties.
+	 */
+	public Set<String> getPropertyNames() {
+		return this.propertyNames;
+	}
+
+	/**
+	 * @param configProperty
+	 *            the configuration property.
+	 * @return <code>true</code> if the given configuration property, or one of
+	 *         its indexed values, has been changed.
+	 */
+	public boolean isChanged(ConfigProperty configProperty) {
+
+		for (String propertyName : this.propertyNames) {
+			// the longest matching name wins, so http-proxy-host is not an
+			// indexed value of http-proxy
+			if (configProperty == ConfigProperty
+					.findConfigProperty(propertyName)) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
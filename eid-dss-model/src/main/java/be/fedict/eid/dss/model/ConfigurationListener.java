@@ -0,0 +1,37 @@
+/*
+ * eID Digital Signature Service Project.
+ * Copyright (C) 2010 FedICT.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+package be.fedict.eid.dss.model;
+
+/**
+ * Listener for configuration changes.
+ * 
+ * @see Configuration#addListener(ConfigurationListener)
+ */
+public interface ConfigurationListener {
+
+	/**
+	 * Called after a transaction that modified the configuration has been
+	 * committed. Can be called on any node of the cluster, from a container
+	 * managed thread, so implementations should return quickly.
+	 * 
+	 * @param event
+	 *            the configuration change event.
+	 */
+	void configurationChanged(ConfigurationChangeEvent event);
+}
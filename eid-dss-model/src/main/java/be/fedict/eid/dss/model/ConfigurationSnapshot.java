@@ -0,0 +1,123 @@
+/*
+ * eID Digital Signature Service Project.
+ * Copyright (C) 2010 FedICT.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+package be.fedict.eid.dss.model;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable view on all configuration values at a given point in time. Reading
+ * from a snapshot never touches the database.
+ *
+ * @see Configuration#getSnapshot()
+ */
+public class ConfigurationSnapshot implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	private final Map<String, Object> values;
+
+	private final Map<ConfigProperty, List<String>> indexes;
+
+	/**
+	 * Main constructor.
+	 *
+	 * @param values
+	 *            the typed values, keyed by configuration property.
+	 * @param indexedValues
+	 *            the typed values of indexed configuration properties, keyed
+	 *            by configuration property and index.
+	 */
+	public ConfigurationSnapshot(Map<ConfigProperty, Object> values,
+			Map<ConfigProperty, Map<String, Object>> indexedValues) {
+
+		Map<String, Object> allValues = new HashMap<String, Object>();
+		for (Map.Entry<ConfigProperty, Object> value : values.entrySet()) {
+			allValues.put(getPropertyName(value.getKey(), null),
+					value.getValue());
+		}
+		Map<ConfigProperty, List<String>> allIndexes = new HashMap<ConfigProperty, List<String>>();
+		for (Map.Entry<ConfigProperty, Map<String, Object>> indexedValue : indexedValues
+				.entrySet()) {
+			ConfigProperty configProperty = indexedValue.getKey();
+			List<String> configPropertyIndexes = new ArrayList<String>();
+			for (Map.Entry<String, Object> value : indexedValue.getValue()
+					.entrySet()) {
+				allValues.put(getPropertyName(configProperty, value.getKey()),
+						value.getValue());
+				configPropertyIndexes.add(value.getKey());
+			}
+			// same order as Configuration#getIndexes
+			Collections.sort(configPropertyIndexes);
+			allIndexes.put(configProperty,
+					Collections.unmodifiableList(configPropertyIndexes));
+		}
+		this.values = Collections.unmodifiableMap(allValues);
+		this.indexes = Collections.unmodifiableMap(allIndexes);
+	}
+
+	/**
+	 * @see Configuration#getValue(ConfigProperty, Class)
+	 */
+	public <T> T getValue(ConfigProperty configProperty, Class<T> type) {
+		return getValue(configProperty, null, type);
+	}
+
+	/**
+	 * @see Configuration#getValue(ConfigProperty, String, Class)
+	 */
+	public <T> T getValue(ConfigProperty configProperty, String index,
+			Class<T> type) {
+
+		if (!type.equals(configProperty.getType())) {
+			throw new IllegalArgumentException("incorrect type: "
+					+ type.getName());
+		}
+		Object value = this.values.get(getPropertyName(configProperty, index));
+		if (null == value && Boolean.class == type) {
+			return type.cast(Boolean.FALSE);
+		}
+		return type.cast(value);
+	}
+
+	/**
+	 * @see Configuration#getIndexes(ConfigProperty)
+	 */
+	public List<String> getIndexes(ConfigProperty configProperty) {
+
+		List<String> configPropertyIndexes = this.indexes.get(configProperty);
+		if (null == configPropertyIndexes) {
+			return Collections.emptyList();
+		}
+		return configPropertyIndexes;
+	}
+
+	private String getPropertyName(ConfigProperty configProperty, String index) {
+
+		String propertyName = configProperty.getName();
+		if (null != index) {
+			propertyName += '-' + index;
+		}
+		return propertyName;
+	}
+}
@@ -0,0 +1,287 @@
+/*
+ * eID Digital Signature Service Project.
+ * Copyright (C) 2010 FedICT.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+package be.fedict.eid.dss.model;
+
+import java.security.GeneralSecurityException;
+import java.security.KeyStore.PrivateKeyEntry;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.Provider;
+import java.security.PublicKey;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.X509Certificate;
+import java.security.interfaces.DSAPublicKey;
+import java.security.interfaces.ECPublicKey;
+import java.security.interfaces.RSAPublicKey;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.commons.codec.binary.Hex;
+
+import be.fedict.eid.dss.model.exception.KeyStoreLoadException;
+
+/**
+ * Immutable snapshot of a loaded DSS identity. All derived artefacts, like the
+ * certificate encodings and fingerprints, are computed once when the identity
+ * is loaded. Signing operations are served from a bounded pool of signature
+ * objects per signature algorithm.
+ */
+public class DSSIdentity {
+
+	/**
+	 * Default maximum number of concurrent signing operations per signature
+	 * algorithm, also the default of
+	 * {@link ConfigProperty#SIGNATURE_POOL_SIZE}.
+	 */
+	public static final int DEFAULT_SIGNATURE_POOL_SIZE = 4;
+
+	private final DSSIdentityConfig identityConfig;
+
+	private final PrivateKeyEntry privateKeyEntry;
+
+	private final List<X509Certificate> certificateChain;
+
+	private final List<byte[]> encodedCertificateChain;
+
+	private final String sha1Fingerprint;
+
+	private final String sha256Fingerprint;
+
+	private final String publicKeyAlgorithm;
+
+	private final int publicKeySize;
+
+	private final Provider provider;
+
+	private final int signaturePoolSize;
+
+	private final ConcurrentMap<String, SignaturePool> signaturePools = new ConcurrentHashMap<String, SignaturePool>();
+
+	/**
+	 * Constructor for identities using the default provider selection and the
+	 * default signature pool size.
+	 * 
+	 * @see #DEFAULT_SIGNATURE_POOL_SIZE
+	 * 
+	 * @param identityConfig
+	 *            the configuration the identity was loaded from.
+	 * @param privateKeyEntry
+	 *            the loaded private key entry.
+	 * @throws KeyStoreLoadException
+	 *             the certificate chain could not be encoded.
+	 */
+	public DSSIdentity(DSSIdentityConfig identityConfig,
+			PrivateKeyEntry privateKeyEntry) throws KeyStoreLoadException {
+		this(identityConfig, privateKeyEntry, null,
+				DEFAULT_SIGNATURE_POOL_SIZE);
+	}
+
+	/**
+	 * Main constructor.
+	 * 
+	 * @param identityConfig
+	 *            the configuration the identity was loaded from.
+	 * @param privateKeyEntry
+	 *            the loaded private key entry.
+	 * @param provider
+	 *            the security provider holding the private key, or
+	 *            <code>null</code> for the default provider selection.
+	 * @param signaturePoolSize
+	 *            the maximum number of concurrent signing operations per
+	 *            signature algorithm.
+	 * @throws KeyStoreLoadException
+	 *             the certificate chain could not be encoded.
+	 */
+	public DSSIdentity(DSSIdentityConfig identityConfig,
+			PrivateKeyEntry privateKeyEntry, Provider provider,
+			int signaturePoolSize) throws KeyStoreLoadException {
+		this.identityConfig = new DSSIdentityConfig(identityConfig.getName(),
+				identityConfig.getKeyStoreType(),
+				identityConfig.getKeyStorePath(),
+				identityConfig.getKeyStorePassword(),
+				identityConfig.getKeyEntryPassword(),
+				identityConfig.getKeyEntryAlias());
+		this.privateKeyEntry = privateKeyEntry;
+		this.provider = provider;
+		this.signaturePoolSize = signaturePoolSize;
+
+		List<X509Certificate> chain = new ArrayList<X509Certificate>();
+		List<byte[]> encodedChain = new ArrayList<byte[]>();
+		try {
+			for (Certificate certificate : privateKeyEntry
+					.getCertificateChain()) {
+				chain.add((X509Certificate) certificate);
+				encodedChain.add(certificate.getEncoded());
+			}
+		} catch (CertificateEncodingException e) {
+			throw new KeyStoreLoadException("cert encoding error: "
+					+ e.getMessage(), e);
+		}
+		this.certificateChain = Collections.unmodifiableList(chain);
+		this.encodedCertificateChain = Collections
+				.unmodifiableList(encodedChain);
+
+		byte[] encodedCertificate = encodedChain.get(0);
+		this.sha1Fingerprint = fingerprint("SHA-1", encodedCertificate);
+		this.sha256Fingerprint = fingerprint("SHA-256", encodedCertificate);
+
+		PublicKey publicKey = chain.get(0).getPublicKey();
+		this.publicKeyAlgorithm = publicKey.getAlgorithm();
+		if (publicKey instanceof RSAPublicKey) {
+			this.publicKeySize = ((RSAPublicKey) publicKey).getModulus()
+					.bitLength();
+		} else if (publicKey instanceof DSAPublicKey) {
+			this.publicKeySize = ((DSAPublicKey) publicKey).getParams()
+					.getP().bitLength();
+		} else if (publicKey instanceof ECPublicKey) {
+			this.publicKeySize = ((ECPublicKey) publicKey).getParams()
+					.getCurve().getField().getFieldSize();
+		} else {
+			this.publicKeySize = -1;
+		}
+	}
+
+	private static String fingerprint(String algorithm, byte[] data)
+			throws KeyStoreLoadException {
+		try {
+			MessageDigest messageDigest = MessageDigest.getInstance(algorithm);
+			return new String(Hex.encodeHex(messageDigest.digest(data)));
+		} catch (NoSuchAlgorithmException e) {
+			throw new KeyStoreLoadException("digest algo error: "
+					+ e.getMessage(), e);
+		}
+	}
+
+	public String getName() {
+		return this.identityConfig.getName();
+	}
+
+	public PrivateKeyEntry getPrivateKeyEntry() {
+		return this.privateKeyEntry;
+	}
+
+	/**
+	 * @return the identity certificate.
+	 */
+	public X509Certificate getCertificate() {
+		return this.certificateChain.get(0);
+	}
+
+	/**
+	 * @return unmodifiable identity certificate chain.
+	 */
+	public List<X509Certificate> getCertificateChain() {
+		return this.certificateChain;
+	}
+
+	/**
+	 * @return DER encoding of the identity certificate.
+	 */
+	public byte[] getEncodedCertificate() {
+		return getEncodedCertificate(0);
+	}
+
+	/**
+	 * @param idx
+	 *            index within the certificate chain.
+	 * @return DER encoding of the given certificate of the chain.
+	 */
+	public byte[] getEncodedCertificate(int idx) {
+		return this.encodedCertificateChain.get(idx).clone();
+	}
+
+	/**
+	 * @return hex encoded SHA-1 fingerprint of the identity certificate.
+	 */
+	public String getSha1Fingerprint() {
+		return this.sha1Fingerprint;
+	}
+
+	/**
+	 * @return hex encoded SHA-256 fingerprint of the identity certificate.
+	 */
+	public String getSha256Fingerprint() {
+		return this.sha256Fingerprint;
+	}
+
+	/**
+	 * @return the algorithm of the identity public key, e.g. RSA.
+	 */
+	public String getPublicKeyAlgorithm() {
+		return this.publicKeyAlgorithm;
+	}
+
+	/**
+	 * @return the size in bits of the identity public key, or -1 if unknown.
+	 */
+	public int getPublicKeySize() {
+		return this.publicKeySize;
+	}
+
+	/**
+	 * Signs the given data with the identity private key.
+	 * 
+	 * @param signatureAlgorithm
+	 *            the JCA signature algorithm, e.g. SHA256withRSA.
+	 * @param data
+	 *            the data to sign.
+	 * @return the signature value.
+	 * @throws GeneralSecurityException
+	 */
+	public byte[] sign(String signatureAlgorithm, byte[] data)
+			throws GeneralSecurityException {
+		return getSignaturePool(signatureAlgorithm).sign(data);
+	}
+
+	/**
+	 * @param signatureAlgorithm
+	 *            the JCA signature algorithm.
+	 * @return the signature pool of this identity for the given algorithm.
+	 */
+	public SignaturePool getSignaturePool(String signatureAlgorithm) {
+
+		SignaturePool signaturePool = this.signaturePools
+				.get(signatureAlgorithm);
+		if (null == signaturePool) {
+			signaturePool = new SignaturePool(
+					this.privateKeyEntry.getPrivateKey(), signatureAlgorithm,
+					this.provider, this.signaturePoolSize);
+			SignaturePool existingSignaturePool = this.signaturePools
+					.putIfAbsent(signatureAlgorithm, signaturePool);
+			if (null != existingSignaturePool) {
+				signaturePool = existingSignaturePool;
+			}
+		}
+		return signaturePool;
+	}
+
+	/**
+	 * @param identityConfig
+	 *            an identity configuration.
+	 * @return <code>true</code> if this identity was loaded from an identical
+	 *         identity configuration.
+	 */
+	public boolean isLoadedFrom(DSSIdentityConfig identityConfig) {
+		return this.identityConfig.equals(identityConfig);
+	}
+}
@@ -0,0 +1,89 @@
+/*
+ * eID Digital Signature Service Project.
+ * Copyright (C) 2010 FedICT.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+package be.fedict.eid.dss.model;
+
+/**
+ * Immutable load status of a configured DSS identity.
+ */
+public class DSSIdentityStatus {
+
+	private final String name;
+
+	private final IdentityState state;
+
+	private final DSSIdentity identity;
+
+	private final String errorMessage;
+
+	private final long loadDuration;
+
+	/**
+	 * Main constructor.
+	 * 
+	 * @param name
+	 *            the identity name.
+	 * @param state
+	 *            the load state.
+	 * @param identity
+	 *            the loaded identity, only for {@link IdentityState#READY}.
+	 * @param errorMessage
+	 *            the load error, only for {@link IdentityState#FAILED}.
+	 * @param loadDuration
+	 *            the time spent loading the keystore in milliseconds, or
+	 *            <code>-1</code> if not (yet) known.
+	 */
+	public DSSIdentityStatus(String name, IdentityState state,
+			DSSIdentity identity, String errorMessage, long loadDuration) {
+		this.name = name;
+		this.state = state;
+		this.identity = identity;
+		this.errorMessage = errorMessage;
+		this.loadDuration = loadDuration;
+	}
+
+	public String getName() {
+		return this.name;
+	}
+
+	public IdentityState getState() {
+		return this.state;
+	}
+
+	/**
+	 * @return the loaded identity or <code>null</code> if not ready.
+	 */
+	public DSSIdentity getIdentity() {
+		return this.identity;
+	}
+
+	/**
+	 * @return the load error or <code>null</code> if not failed.
+	 */
+	public String getErrorMessage() {
+		return this.errorMessage;
+	}
+
+	/**
+	 * @return the time spent loading the keystore in milliseconds, or
+	 *         <code>-1</code> if not (yet) known.
+	 */
+	public long getLoadDuration() {
+		return this.loadDuration;
+	}
+}
@@ -0,0 +1,59 @@
+/*
+ * eID Digital Signature Service Project.
+ * Copyright (C) 2010 FedICT.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+package be.fedict.eid.dss.model;
+
+import java.io.InputStream;
+
+import javax.ejb.Local;
+
+import be.fedict.eid.dss.model.exception.DocumentFormatException;
+import be.fedict.eid.dss.model.exception.InvalidXmlSchemaException;
+
+/**
+ * Validates XML documents against the stored XML schemas.
+ */
+@Local
+public interface DocumentValidationService {
+
+	/**
+	 * Validates an XML document against the stored XML schema of the namespace
+	 * of its root element. The document is streamed through a SAX pipeline and
+	 * is never loaded in memory as a whole.
+	 * 
+	 * @param documentInputStream
+	 *            the XML document.
+	 * @return the namespace of the root element.
+	 * @throws DocumentFormatException
+	 *             if the document is not well-formed, no XML schema is
+	 *             available for its namespace, or it is not valid.
+	 * @throws InvalidXmlSchemaException
+	 *             if the stored XML schema does not compile.
+	 */
+	String validate(InputStream documentInputStream)
+			throws DocumentFormatException, InvalidXmlSchemaException;
+
+	/**
+	 * @param schemaRequired
+	 *            if <code>false</code>, a document of a namespace without
+	 *            stored XML schema is only checked to be well-formed.
+	 * @see #validate(InputStream)
+	 */
+	String validate(InputStream documentInputStream, boolean schemaRequired)
+			throws DocumentFormatException, InvalidXmlSchemaException;
+}
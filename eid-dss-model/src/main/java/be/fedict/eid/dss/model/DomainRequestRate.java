@@ -0,0 +1,78 @@
+/*
+ * eID Digital Signature Service Project.
+ * Copyright (C) 2010 FedICT.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+
+package be.fedict.eid.dss.model;
+
+import java.io.Serializable;
+
+/**
+ * Current request rates of a domain, in requests per second, over the last 1,
+ * 5 and 15 minutes.
+ */
+public class DomainRequestRate implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	private final String domain;
+
+	private final double rate1;
+
+	private final double rate5;
+
+	private final double rate15;
+
+	public DomainRequestRate(String domain, double rate1, double rate5,
+			double rate15) {
+		this.domain = domain;
+		this.rate1 = rate1;
+		this.rate5 = rate5;
+		this.rate15 = rate15;
+	}
+
+	public String getDomain() {
+		return this.domain;
+	}
+
+	/**
+	 * @return requests per second over the last minute.
+	 */
+	public double getRate1() {
+		return this.rate1;
+	}
+
+	/**
+	 * @return requests per second over the last 5 minutes.
+	 */
+	public double getRate5() {
+		return this.rate5;
+	}
+
+	/**
+	 * @return requests per second over the last 15 minutes.
+	 */
+	public double getRate15() {
+		return this.rate15;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%s 1m=%.2f/s 5m=%.2f/s 15m=%.2f/s",
+				this.domain, this.rate1, this.rate5, this.rate15);
+	}
+}
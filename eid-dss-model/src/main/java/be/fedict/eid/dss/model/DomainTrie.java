@@ -0,0 +1,200 @@
+/*
+ * eID Digital Signature Service Project.
+ * Copyright (C) 2010 FedICT.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+
+package be.fedict.eid.dss.model;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Index of domain patterns on reversed domain name labels. A pattern is
+ * either a host name, like <code>www.example.be</code>, or a wildcard
+ * pattern, like <code>*.example.be</code>, that matches all sub-domains of
+ * <code>example.be</code>.
+ * <p/>
+ * A lookup walks the labels of the host name from right to left, so it costs
+ * O(#labels) regardless of the number of patterns. An exact match takes
+ * precedence over a wildcard match, and a longer wildcard pattern over a
+ * shorter one.
+ * <p/>
+ * Only host names are indexed, schemes and ports are not part of a pattern.
+ * <p/>
+ * Not thread-safe while being built. Once built, concurrent lookups are safe.
+ * 
+ * @param <V>
+ *            the type of the values.
+ */
+public class DomainTrie<V> {
+
+	private static final String WILDCARD = "*";
+
+	private static class Node<V> {
+
+		private Map<String, Node<V>> children;
+
+		private V value;
+
+		private V wildcardValue;
+
+		Node<V> getChild(String label) {
+			if (null == this.children) {
+				return null;
+			}
+			return this.children.get(label);
+		}
+
+		Node<V> addChild(String label) {
+			if (null == this.children) {
+				this.children = new HashMap<String, Node<V>>(4);
+			}
+			Node<V> child = this.children.get(label);
+			if (null == child) {
+				child = new Node<V>();
+				this.children.put(label, child);
+			}
+			return child;
+		}
+	}
+
+	private final Node<V> root = new Node<V>();
+
+	private int size;
+
+	/**
+	 * Adds a domain pattern. An existing value for the same pattern is
+	 * replaced.
+	 * 
+	 * @param pattern
+	 *            host name, or <code>*.</code> followed by a domain name.
+	 * @param value
+	 *            the value.
+	 * @throws IllegalArgumentException
+	 *             if the pattern is invalid.
+	 */
+	public void put(String pattern, V value) {
+
+		String[] labels = getLabels(pattern);
+		if (null == labels) {
+			throw new IllegalArgumentException("invalid domain pattern: "
+					+ pattern);
+		}
+		boolean wildcard = WILDCARD.equals(labels[0]);
+		if (wildcard && labels.length < 2) {
+			throw new IllegalArgumentException("invalid domain pattern: "
+					+ pattern);
+		}
+		Node<V> node = this.root;
+		for (int idx = labels.length - 1; idx >= (wildcard ? 1 : 0); idx--) {
+			if (WILDCARD.equals(labels[idx])) {
+				throw new IllegalArgumentException(
+						"wildcard only allowed as first label: " + pattern);
+			}
+			node = node.addChild(labels[idx]);
+		}
+		if (wildcard) {
+			if (null == node.wildcardValue) {
+				this.size++;
+			}
+			node.wildcardValue = value;
+		} else {
+			if (null == node.value) {
+				this.size++;
+			}
+			node.value = value;
+		}
+	}
+
+	/**
+	 * @param hostName
+	 *            the host name.
+	 * @return the value of the best matching pattern, or <code>null</code> if
+	 *         no pattern matches.
+	 */
+	public V find(String hostName) {
+
+		String[] labels = getLabels(hostName);
+		if (null == labels) {
+			return null;
+		}
+		V wildcardValue = null;
+		Node<V> node = this.root;
+		for (int idx = labels.length - 1; idx >= 0; idx--) {
+			if (null != node.wildcardValue) {
+				// at least one label left to match the wildcard
+				wildcardValue = node.wildcardValue;
+			}
+			node = node.getChild(labels[idx]);
+			if (null == node) {
+				return wildcardValue;
+			}
+		}
+		if (null != node.value) {
+			return node.value;
+		}
+		return wildcardValue;
+	}
+
+	/**
+	 * @return the number of patterns.
+	 */
+	public int size() {
+		return this.size;
+	}
+
+	/**
+	 * @return <code>true</code> if the given string can be used as domain
+	 *         pattern.
+	 */
+	public static boolean isDomainPattern(String pattern) {
+
+		String[] labels = getLabels(pattern);
+		if (null == labels) {
+			return false;
+		}
+		for (int idx = 1; idx < labels.length; idx++) {
+			if (WILDCARD.equals(labels[idx])) {
+				return false;
+			}
+		}
+		return !WILDCARD.equals(labels[0]) || labels.length > 1;
+	}
+
+	private static String[] getLabels(String domain) {
+
+		if (null == domain) {
+			return null;
+		}
+		String normalizedDomain = domain.trim().toLowerCase();
+		if (normalizedDomain.endsWith(".")) {
+			normalizedDomain = normalizedDomain.substring(0,
+					normalizedDomain.length() - 1);
+		}
+		if (normalizedDomain.length() == 0) {
+			return null;
+		}
+		String[] labels = normalizedDomain.split("\\.", -1);
+		for (String label : labels) {
+			if (label.length() == 0 || label.indexOf('/') != -1
+					|| label.indexOf(':') != -1) {
+				return null;
+			}
+		}
+		return labels;
+	}
+}
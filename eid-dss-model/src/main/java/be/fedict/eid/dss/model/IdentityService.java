@@ -98,6 +98,27 @@ public interface IdentityService {
 	 */
 	void removeIdentityConfig(String name);
 
+	/**
+	 * @param name
+	 *            identity's name
+	 * @return the background load status of the given identity, or
+	 *         <code>null</code> if it has not been preloaded (yet).
+	 */
+	DSSIdentityStatus getIdentityStatus(String name);
+
+	/**
+	 * @return the load status of the active identity, or <code>null</code> if
+	 *         no identity is active. The active identity is loaded in the
+	 *         background at startup, so it might not be ready yet.
+	 */
+	DSSIdentityStatus getActiveIdentityStatus();
+
+	/**
+	 * @return the time in milliseconds spent on loading all identities at
+	 *         startup, or <code>-1</code> if still loading.
+	 */
+	long getStartupDuration();
+
 	/**
 	 * @return all configured identity names
 	 */
@@ -113,7 +134,24 @@ public interface IdentityService {
 	 */
 	KeyStore.PrivateKeyEntry findIdentity();
 
+	/**
+	 * @return snapshot of the identity of this eID DSS system, including the
+	 *         precomputed certificate artefacts, or <code>null</code> if none.
+	 */
+	DSSIdentity findDSSIdentity();
+
+	/**
+	 * @return hex encoded SHA-1 fingerprint of the identity certificate.
+	 */
 	String getIdentityFingerprint();
 
+	/**
+	 * @return hex encoded SHA-256 fingerprint of the identity certificate.
+	 */
+	String getIdentityFingerprintSha256();
+
+	/**
+	 * @return unmodifiable identity certificate chain.
+	 */
 	List<X509Certificate> getIdentityCertificateChain();
 }
@@ -0,0 +1,154 @@
+/*
+ * eID Digital Signature Service Project.
+ * Copyright (C) 2010 FedICT.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+
+package be.fedict.eid.dss.model;
+
+import java.security.PublicKey;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.X509Certificate;
+
+import org.apache.commons.codec.digest.DigestUtils;
+
+import be.fedict.eid.dss.entity.RPEntity;
+
+/**
+ * Immutable view on the configuration of a relying party, with the RP
+ * certificate already parsed.
+ * 
+ * @see RPService#findRegistration(String)
+ */
+public class RPRegistration {
+
+	private final long id;
+
+	private final String name;
+
+	private final String domain;
+
+	private final boolean requestSigningRequired;
+
+	private final X509Certificate certificate;
+
+	private final PublicKey publicKey;
+
+	private final String certificateFingerprint;
+
+	private final String logoHash;
+
+	private final String logoContentType;
+
+	private final boolean logoThumbnailAvailable;
+
+	/**
+	 * Main constructor.
+	 * 
+	 * @param rp
+	 *            the RP entity.
+	 */
+	public RPRegistration(RPEntity rp) {
+
+		this.id = rp.getId();
+		this.name = rp.getName();
+		this.domain = rp.getDomain();
+		this.requestSigningRequired = rp.isRequestSigningRequired();
+		this.logoHash = rp.getLogoHash();
+		this.logoContentType = rp.getLogoContentType();
+		this.logoThumbnailAvailable = Boolean.TRUE.equals(rp
+				.getLogoThumbnailAvailable());
+		this.certificate = rp.getCertificate();
+		if (null == this.certificate) {
+			this.publicKey = null;
+			this.certificateFingerprint = null;
+		} else {
+			this.publicKey = this.certificate.getPublicKey();
+			this.certificateFingerprint = getFingerprint(this.certificate);
+		}
+	}
+
+	/**
+	 * @return the SHA-1 fingerprint of the given certificate, hex encoded.
+	 */
+	public static String getFingerprint(X509Certificate certificate) {
+
+		try {
+			return DigestUtils.shaHex(certificate.getEncoded());
+		} catch (CertificateEncodingException e) {
+			throw new RuntimeException("certificate encoding error: "
+					+ e.getMessage(), e);
+		}
+	}
+
+	public long getId() {
+		return this.id;
+	}
+
+	public String getName() {
+		return this.name;
+	}
+
+	public String getDomain() {
+		return this.domain;
+	}
+
+	public boolean isRequestSigningRequired() {
+		return this.requestSigningRequired;
+	}
+
+	/**
+	 * @return the RP certificate, or <code>null</code> if not configured.
+	 */
+	public X509Certificate getCertificate() {
+		return this.certificate;
+	}
+
+	/**
+	 * @return the public key of the RP certificate, or <code>null</code> if
+	 *         not configured.
+	 */
+	public PublicKey getPublicKey() {
+		return this.publicKey;
+	}
+
+	/**
+	 * @return the SHA-1 fingerprint of the RP certificate, or
+	 *         <code>null</code> if not configured.
+	 */
+	public String getCertificateFingerprint() {
+		return this.certificateFingerprint;
+	}
+
+	/**
+	 * @return the SHA-1 hash of the RP logo, or <code>null</code> if the RP
+	 *         has no logo.
+	 */
+	public String getLogoHash() {
+		return this.logoHash;
+	}
+
+	public String getLogoContentType() {
+		return this.logoContentType;
+	}
+
+	/**
+	 * @return <code>true</code> if a PNG thumbnail of the logo is available.
+	 */
+	public boolean isLogoThumbnailAvailable() {
+		return this.logoThumbnailAvailable;
+	}
+}
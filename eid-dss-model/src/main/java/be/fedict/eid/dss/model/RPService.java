@@ -23,6 +23,7 @@ import java.util.List;
 import javax.ejb.Local;
 
 import be.fedict.eid.dss.entity.RPEntity;
+import be.fedict.eid.dss.model.exception.InvalidDomainPatternException;
 
 /**
  * Interface for managing the Relying Parties.
@@ -35,10 +36,103 @@ public interface RPService {
 
 	List<RPEntity> listRPs();
 
+	/**
+	 * @return all RPs, without their logo and logo thumbnail.
+	 */
+	List<RPEntity> listRPsWithoutLogo();
+
+	/**
+	 * @return the RPs with a rate limit, only having the id and the rate
+	 *         limit set.
+	 */
+	List<RPEntity> listRateLimitedRPs();
+
 	void remove(RPEntity rp);
 
-	RPEntity save(RPEntity rp);
+	/**
+	 * Adds or updates an RP. A domain containing a wildcard must be a
+	 * wildcard pattern like <code>*.example.be</code>.
+	 * 
+	 * @param rp
+	 *            the RP.
+	 * @return the saved RP.
+	 * @throws InvalidDomainPatternException
+	 *             if the domain is an invalid wildcard pattern.
+	 */
+	RPEntity save(RPEntity rp) throws InvalidDomainPatternException;
 
+	/**
+	 * Finds the RP of a domain, either by exact domain or by matching the
+	 * host name against host name and wildcard (<code>*.example.be</code>)
+	 * RP domains. Resolved from the in-memory RP registry. When the registry
+	 * is outdated, e.g. after a change on another node, only the exact domain
+	 * is looked up in the database.
+	 * <p/>
+	 * Host name and wildcard RP domains match any scheme and port on purpose.
+	 * An RP that must be bound to a scheme or port configures its full URL as
+	 * domain, which is only matched exactly.
+	 * 
+	 * @param domain
+	 *            the requesting domain, a host name or URL.
+	 * @return the RP, or <code>null</code> if unknown.
+	 */
 	RPEntity find(String domain);
 
+	/**
+	 * @param domain
+	 *            the requesting domain, a host name or URL.
+	 * @return the cached registration of the RP, or <code>null</code> if
+	 *         unknown.
+	 * @see #find(String)
+	 */
+	RPRegistration findRegistration(String domain);
+
+	/**
+	 * @param fingerprint
+	 *            the SHA-1 fingerprint of the RP certificate, hex encoded.
+	 * @return the cached registration of the RP, or <code>null</code> if
+	 *         unknown.
+	 */
+	RPRegistration findRegistrationByFingerprint(String fingerprint);
+
+	/**
+	 * @param id
+	 *            the RP id.
+	 * @return the cached registration of the RP, or <code>null</code> if
+	 *         unknown.
+	 */
+	RPRegistration findRegistrationById(long id);
+
+	/**
+	 * Gives the RP logo. The resized variants are computed when the logo is
+	 * saved.
+	 * 
+	 * @param id
+	 *            the RP id.
+	 * @param thumbnail
+	 *            <code>true</code> for the thumbnail variant. Falls back on
+	 *            the original logo if the logo could not be resized.
+	 * @return the logo, or <code>null</code> if the RP has no logo.
+	 */
+	byte[] getLogo(long id, boolean thumbnail);
+
+	/**
+	 * Computes the logo hash, content type and thumbnail of the RPs saved
+	 * before these were computed at upload time. Called at startup.
+	 * 
+	 * @return the number of updated RPs.
+	 */
+	int initLogoVariants();
+
+	/**
+	 * Admission control of the requests of a RP, to be called before the
+	 * request document is read. Requests of RPs without rate limit are always
+	 * admitted. Rejected requests are counted in the accounting.
+	 * 
+	 * @param domain
+	 *            the RP domain.
+	 * @return <code>true</code> if the request is admitted.
+	 */
+	boolean admit(String domain);
+
 }
@@ -0,0 +1,282 @@
+/*
+ * eID Digital Signature Service Project.
+ * Copyright (C) 2010 FedICT.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+
+package be.fedict.eid.dss.model;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Sliding window request rate tracker. Keeps a ring buffer of 5 second slots
+ * covering the last 15 minutes per domain.
+ * <p/>
+ * Every slot is a single long holding both the slot number and the request
+ * count, so recording a request is a lock-free compare-and-set that also
+ * recycles slots of a previous round without losing concurrent counts.
+ * <p/>
+ * The ring buffers of idle domains are removed by a periodic
+ * {@link #evictIdle()}. Eviction first seals all slots, so a request for a
+ * domain being evicted waits for the eviction instead of getting lost.
+ */
+public class RequestRateTracker {
+
+	/**
+	 * Duration of a ring buffer slot in seconds.
+	 */
+	public static final int SLOT_SECONDS = 5;
+
+	/**
+	 * Largest supported window in minutes.
+	 */
+	public static final int MAX_WINDOW_MINUTES = 15;
+
+	private static final int SLOTS = MAX_WINDOW_MINUTES * 60 / SLOT_SECONDS
+			+ 1;
+
+	private static final int COUNT_BITS = 34;
+
+	private static final long COUNT_MASK = (1L << COUNT_BITS) - 1;
+
+	/**
+	 * Value of a slot of a ring buffer being evicted.
+	 */
+	private static final long SEALED = -1L;
+
+	private final ConcurrentMap<String, AtomicLongArray> ringBuffers = new ConcurrentHashMap<String, AtomicLongArray>();
+
+	/**
+	 * Records a request for the given domain now.
+	 */
+	public void record(String domain) {
+		record(domain, System.currentTimeMillis());
+	}
+
+	/**
+	 * Records a request for the given domain at the given time.
+	 */
+	public void record(String domain, long time) {
+
+		long slot = getSlot(time);
+		while (!record(getRingBuffer(domain), slot)) {
+			// ring buffer being evicted, wait for its removal or its release
+			Thread.yield();
+		}
+	}
+
+	private AtomicLongArray getRingBuffer(String domain) {
+
+		AtomicLongArray ringBuffer = this.ringBuffers.get(domain);
+		if (null == ringBuffer) {
+			ringBuffer = new AtomicLongArray(SLOTS);
+			AtomicLongArray existingRingBuffer = this.ringBuffers
+					.putIfAbsent(domain, ringBuffer);
+			if (null != existingRingBuffer) {
+				ringBuffer = existingRingBuffer;
+			}
+		}
+		return ringBuffer;
+	}
+
+	/**
+	 * @return <code>false</code> if the slot is sealed by an eviction.
+	 */
+	private boolean record(AtomicLongArray ringBuffer, long slot) {
+
+		int idx = (int) (slot % SLOTS);
+		while (true) {
+			long value = ringBuffer.get(idx);
+			if (SEALED == value) {
+				return false;
+			}
+			long valueSlot = value >>> COUNT_BITS;
+			long newValue;
+			if (valueSlot == slot) {
+				newValue = value + 1;
+			} else if (valueSlot < slot) {
+				// recycle the slot of a previous round
+				newValue = (slot << COUNT_BITS) | 1;
+			} else {
+				// slot already taken by a later round, drop the late request
+				return true;
+			}
+			if (ringBuffer.compareAndSet(idx, value, newValue)) {
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Removes the ring buffers of the domains without requests during the
+	 * last 15 minutes.
+	 * 
+	 * @return the number of removed domains.
+	 */
+	public int evictIdle() {
+		return evictIdle(System.currentTimeMillis());
+	}
+
+	/**
+	 * @see #evictIdle()
+	 */
+	public synchronized int evictIdle(long now) {
+
+		long firstSlot = getSlot(now) - MAX_WINDOW_MINUTES * 60
+				/ SLOT_SECONDS;
+		int count = 0;
+		for (Map.Entry<String, AtomicLongArray> ringBuffer : this.ringBuffers
+				.entrySet()) {
+			if (seal(ringBuffer.getValue(), firstSlot)) {
+				this.ringBuffers.remove(ringBuffer.getKey(),
+						ringBuffer.getValue());
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Seals all slots of an idle ring buffer, so no request can be recorded
+	 * in it anymore. Sealing is undone as soon as a slot turns out to be in
+	 * use, so a request recorded concurrently is never lost.
+	 * 
+	 * @return <code>true</code> if the ring buffer got sealed.
+	 */
+	private boolean seal(AtomicLongArray ringBuffer, long firstSlot) {
+
+		long[] values = new long[SLOTS];
+		for (int idx = 0; idx < SLOTS; idx++) {
+			long value = ringBuffer.get(idx);
+			if ((value >>> COUNT_BITS) > firstSlot
+					|| !ringBuffer.compareAndSet(idx, value, SEALED)) {
+				// in use, requests are never recorded in a sealed slot
+				for (int sealedIdx = 0; sealedIdx < idx; sealedIdx++) {
+					ringBuffer.set(sealedIdx, values[sealedIdx]);
+				}
+				return false;
+			}
+			values[idx] = value;
+		}
+		return true;
+	}
+
+	/**
+	 * @param windowMinutes
+	 *            the window size, 1 up to {@link #MAX_WINDOW_MINUTES}.
+	 * @return the requests per second of the given domain over the window.
+	 */
+	public double getRate(String domain, int windowMinutes) {
+		return getRate(domain, windowMinutes, System.currentTimeMillis());
+	}
+
+	/**
+	 * @see #getRate(String, int)
+	 */
+	public double getRate(String domain, int windowMinutes, long now) {
+
+		AtomicLongArray ringBuffer = this.ringBuffers.get(domain);
+		if (null == ringBuffer) {
+			return 0;
+		}
+		return getRate(ringBuffer, windowMinutes, now);
+	}
+
+	/**
+	 * Gives the domains with the highest request rate over the last minute.
+	 * Domains without requests during the last 15 minutes are skipped, these
+	 * are removed by {@link #evictIdle()}.
+	 * 
+	 * @param count
+	 *            the maximum number of domains.
+	 */
+	public List<DomainRequestRate> getTopDomains(int count) {
+		return getTopDomains(count, System.currentTimeMillis());
+	}
+
+	/**
+	 * @see #getTopDomains(int)
+	 */
+	public List<DomainRequestRate> getTopDomains(int count, long now) {
+
+		List<DomainRequestRate> requestRates = new ArrayList<DomainRequestRate>();
+		for (Map.Entry<String, AtomicLongArray> ringBuffer : this.ringBuffers
+				.entrySet()) {
+			double rate15 = getRate(ringBuffer.getValue(), 15, now);
+			if (0 == rate15) {
+				continue;
+			}
+			requestRates.add(new DomainRequestRate(ringBuffer.getKey(),
+					getRate(ringBuffer.getValue(), 1, now), getRate(
+							ringBuffer.getValue(), 5, now), rate15));
+		}
+		Collections.sort(requestRates, new Comparator<DomainRequestRate>() {
+
+			public int compare(DomainRequestRate rate1, DomainRequestRate rate2) {
+				int result = Double.compare(rate2.getRate1(), rate1.getRate1());
+				if (0 == result) {
+					result = Double.compare(rate2.getRate5(), rate1.getRate5());
+				}
+				if (0 == result) {
+					result = Double.compare(rate2.getRate15(),
+							rate1.getRate15());
+				}
+				return result;
+			}
+		});
+		if (requestRates.size() > count) {
+			return new ArrayList<DomainRequestRate>(requestRates.subList(0,
+					count));
+		}
+		return requestRates;
+	}
+
+	private double getRate(AtomicLongArray ringBuffer, int windowMinutes,
+			long now) {
+
+		if (windowMinutes < 1 || windowMinutes > MAX_WINDOW_MINUTES) {
+			throw new IllegalArgumentException("unsupported window: "
+					+ windowMinutes);
+		}
+		// the window covers the current partial slot and the full slots
+		// before it
+		long currentSlot = getSlot(now);
+		long windowSlots = windowMinutes * 60 / SLOT_SECONDS;
+		long firstSlot = currentSlot - windowSlots;
+		long requests = 0;
+		for (int idx = 0; idx < SLOTS; idx++) {
+			long value = ringBuffer.get(idx);
+			long valueSlot = value >>> COUNT_BITS;
+			if (valueSlot > firstSlot && valueSlot <= currentSlot) {
+				requests += value & COUNT_MASK;
+			}
+		}
+		long duration = (windowSlots - 1) * SLOT_SECONDS * 1000L + now
+				% (SLOT_SECONDS * 1000L) + 1;
+		return requests * 1000.0 / duration;
+	}
+
+	private long getSlot(long time) {
+		return time / (SLOT_SECONDS * 1000L);
+	}
+}
@@ -0,0 +1,138 @@
+/*
+ * eID Digital Signature Service Project.
+ * Copyright (C) 2010 FedICT.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+package be.fedict.eid.dss.model;
+
+import java.security.GeneralSecurityException;
+import java.security.PrivateKey;
+import java.security.Provider;
+import java.security.Signature;
+import java.security.SignatureException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bounded pool of initialized {@link Signature} objects for a single private
+ * key. For PKCS#11 keys every signature object holds its own token session,
+ * so the pool size limits the number of concurrent signing operations on the
+ * token.
+ */
+public class SignaturePool {
+
+	private final PrivateKey privateKey;
+
+	private final String signatureAlgorithm;
+
+	private final Provider provider;
+
+	private final int maxSize;
+
+	private final Semaphore permits;
+
+	private final ConcurrentLinkedQueue<Signature> idleSignatures = new ConcurrentLinkedQueue<Signature>();
+
+	private final AtomicInteger createdCount = new AtomicInteger();
+
+	/**
+	 * Main constructor.
+	 * 
+	 * @param privateKey
+	 *            the signing key.
+	 * @param signatureAlgorithm
+	 *            the JCA signature algorithm, e.g. SHA256withRSA.
+	 * @param provider
+	 *            the security provider of the key, or <code>null</code> for the
+	 *            default provider selection.
+	 * @param maxSize
+	 *            the maximum number of concurrent signing operations.
+	 */
+	public SignaturePool(PrivateKey privateKey, String signatureAlgorithm,
+			Provider provider, int maxSize) {
+		if (maxSize < 1) {
+			throw new IllegalArgumentException("invalid pool size: " + maxSize);
+		}
+		this.privateKey = privateKey;
+		this.signatureAlgorithm = signatureAlgorithm;
+		this.provider = provider;
+		this.maxSize = maxSize;
+		this.permits = new Semaphore(maxSize, true);
+	}
+
+	/**
+	 * Signs the given data, waiting for a free signature object if all are in
+	 * use.
+	 * 
+	 * @param data
+	 *            the data to sign.
+	 * @return the signature value.
+	 * @throws GeneralSecurityException
+	 */
+	public byte[] sign(byte[] data) throws GeneralSecurityException {
+
+		try {
+			this.permits.acquire();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SignatureException(
+					"interrupted while waiting for signature");
+		}
+		try {
+			Signature signature = this.idleSignatures.poll();
+			if (null == signature) {
+				signature = createSignature();
+			}
+			signature.update(data);
+			// sign() resets the signature object for reuse with the same key
+			byte[] signatureValue = signature.sign();
+			this.idleSignatures.offer(signature);
+			return signatureValue;
+		} finally {
+			this.permits.release();
+		}
+	}
+
+	private Signature createSignature() throws GeneralSecurityException {
+
+		Signature signature;
+		if (null == this.provider) {
+			signature = Signature.getInstance(this.signatureAlgorithm);
+		} else {
+			signature = Signature.getInstance(this.signatureAlgorithm,
+					this.provider);
+		}
+		signature.initSign(this.privateKey);
+		this.createdCount.incrementAndGet();
+		return signature;
+	}
+
+	public String getSignatureAlgorithm() {
+		return this.signatureAlgorithm;
+	}
+
+	public int getMaxSize() {
+		return this.maxSize;
+	}
+
+	/**
+	 * @return the number of signature objects created so far.
+	 */
+	public int getCreatedCount() {
+		return this.createdCount.get();
+	}
+}
@@ -0,0 +1,115 @@
+/*
+ * eID Digital Signature Service Project.
+ * Copyright (C) 2010 FedICT.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+
+package be.fedict.eid.dss.model;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Token bucket used for the admission control of a relying party.
+ * <p/>
+ * The bucket refills at a fixed rate up to its burst size. Instead of the
+ * number of tokens, the bucket keeps the theoretical arrival time of the next
+ * request (GCRA), so taking a token is a single lock-free compare-and-set
+ * without a separate refill step.
+ */
+public class TokenBucket {
+
+	private static final long NANOS_PER_MINUTE = TimeUnit.MINUTES.toNanos(1);
+
+	private final int requestsPerMinute;
+
+	private final int burst;
+
+	private final long emissionInterval;
+
+	private final long burstTolerance;
+
+	private final AtomicLong theoreticalArrivalTime;
+
+	/**
+	 * Main constructor.
+	 * 
+	 * @param requestsPerMinute
+	 *            the sustained number of admitted requests per minute.
+	 * @param burst
+	 *            the number of requests that can be admitted at once.
+	 */
+	public TokenBucket(int requestsPerMinute, int burst) {
+
+		if (requestsPerMinute < 1) {
+			throw new IllegalArgumentException("invalid rate: "
+					+ requestsPerMinute);
+		}
+		if (burst < 1) {
+			throw new IllegalArgumentException("invalid burst: " + burst);
+		}
+		this.requestsPerMinute = requestsPerMinute;
+		this.burst = burst;
+		this.emissionInterval = NANOS_PER_MINUTE / requestsPerMinute;
+		this.burstTolerance = this.emissionInterval * burst;
+		this.theoreticalArrivalTime = new AtomicLong(System.nanoTime());
+	}
+
+	public int getRequestsPerMinute() {
+		return this.requestsPerMinute;
+	}
+
+	public int getBurst() {
+		return this.burst;
+	}
+
+	/**
+	 * Takes a token now.
+	 * 
+	 * @return <code>true</code> if the request is admitted.
+	 */
+	public boolean tryAcquire() {
+		return tryAcquire(System.nanoTime());
+	}
+
+	/**
+	 * Takes a token at the given time.
+	 * 
+	 * @param nanoTime
+	 *            the current value of {@link System#nanoTime()}.
+	 * @return <code>true</code> if the request is admitted.
+	 */
+	public boolean tryAcquire(long nanoTime) {
+
+		while (true) {
+			long arrivalTime = this.theoreticalArrivalTime.get();
+			long nextArrivalTime;
+			if (arrivalTime - nanoTime < 0) {
+				// bucket is full
+				nextArrivalTime = nanoTime + this.emissionInterval;
+			} else {
+				nextArrivalTime = arrivalTime + this.emissionInterval;
+			}
+			if (nextArrivalTime - nanoTime > this.burstTolerance) {
+				return false;
+			}
+			if (this.theoreticalArrivalTime.compareAndSet(arrivalTime,
+					nextArrivalTime)) {
+				return true;
+			}
+		}
+	}
+}
@@ -22,6 +22,7 @@ import java.io.InputStream;
 import java.util.List;
 
 import javax.ejb.Local;
+import javax.xml.validation.Schema;
 
 import be.fedict.eid.dss.entity.XmlSchemaEntity;
 import be.fedict.eid.dss.model.exception.ExistingXmlSchemaException;
@@ -40,4 +41,20 @@ public interface XmlSchemaManager {
 	byte[] getXmlSchema(String namespace);
 
 	List<String> getXmlSchemaNamespaces();
+
+	/**
+	 * Gives the compiled XML schema of a namespace, for validating documents.
+	 * Compiled schemas are cached, and recompiled once the stored revision or
+	 * digest of the schema, or of one of the schemas it imports, changes, on
+	 * any cluster node.
+	 * 
+	 * @param namespace
+	 *            the target namespace.
+	 * @return the thread-safe compiled schema, or <code>null</code> if no
+	 *         schema is available for the namespace.
+	 * @throws InvalidXmlSchemaException
+	 *             if the stored schema no longer compiles, e.g. an imported
+	 *             schema was deleted.
+	 */
+	Schema getSchema(String namespace) throws InvalidXmlSchemaException;
 }
@@ -20,11 +20,17 @@ package be.fedict.eid.dss.model;
 
 import java.io.InputStream;
 import java.util.List;
+import java.util.Map;
 
 import javax.ejb.Local;
+import javax.xml.transform.Result;
+import javax.xml.transform.Source;
+import javax.xml.transform.Templates;
+import javax.xml.transform.TransformerException;
 
 import be.fedict.eid.dss.entity.XmlStyleSheetEntity;
 import be.fedict.eid.dss.model.exception.ExistingXmlStyleSheetException;
+import be.fedict.eid.dss.model.exception.InvalidXmlStyleSheetException;
 
 @Local
 public interface XmlStyleSheetManager {
@@ -32,11 +38,57 @@ public interface XmlStyleSheetManager {
 	List<XmlStyleSheetEntity> getXmlStyleSheets();
 
 	void add(String namespace, String revision, InputStream xslInputStream)
-			throws ExistingXmlStyleSheetException;
+			throws ExistingXmlStyleSheetException,
+			InvalidXmlStyleSheetException;
 
 	void delete(String namespace);
 
 	byte[] getXmlStyleSheet(String namespace);
 
 	List<String> getXmlStyleSheetNamespaces();
+
+	/**
+	 * Gives the compiled XSL style sheet of a namespace. Compiled style
+	 * sheets are cached, and recompiled once the stored revision or digest
+	 * of the style sheet changes, on any cluster node.
+	 * <p/>
+	 * Style sheets are compiled with secure processing, and cannot import,
+	 * include or read external resources. Prefer
+	 * {@link #transform(String, Source, Result)}, which also denies external
+	 * documents at transformation time.
+	 * 
+	 * @param namespace
+	 *            the namespace.
+	 * @return the thread-safe compiled style sheet, or <code>null</code> if
+	 *         no style sheet is available for the namespace.
+	 * @throws InvalidXmlStyleSheetException
+	 *             if the stored style sheet does not compile.
+	 */
+	Templates getTemplates(String namespace)
+			throws InvalidXmlStyleSheetException;
+
+	/**
+	 * Transforms a document using the cached compiled style sheet of the
+	 * given namespace. The output is streamed to the given result.
+	 * 
+	 * @param namespace
+	 *            the namespace.
+	 * @param source
+	 *            the document to transform.
+	 * @param result
+	 *            receives the transformation output.
+	 * @return <code>false</code> if no style sheet is available for the
+	 *         namespace.
+	 */
+	boolean transform(String namespace, Source source, Result result)
+			throws InvalidXmlStyleSheetException, TransformerException;
+
+	/**
+	 * @param parameters
+	 *            the style sheet parameters, e.g. <code>language</code>.
+	 * @see #transform(String, Source, Result)
+	 */
+	boolean transform(String namespace, Source source, Result result,
+			Map<String, String> parameters)
+			throws InvalidXmlStyleSheetException, TransformerException;
 }
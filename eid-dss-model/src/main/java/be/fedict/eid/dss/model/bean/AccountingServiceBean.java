@@ -18,8 +18,11 @@
 
 package be.fedict.eid.dss.model.bean;
 
+import java.util.Date;
 import java.util.List;
+import java.util.Map;
 
+import javax.ejb.EJB;
 import javax.ejb.Stateless;
 import javax.persistence.EntityManager;
 import javax.persistence.PersistenceContext;
@@ -27,8 +30,14 @@ import javax.persistence.PersistenceContext;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
+import be.fedict.eid.dss.entity.AccountingBucketEntity;
 import be.fedict.eid.dss.entity.AccountingEntity;
+import be.fedict.eid.dss.entity.AccountingGranularity;
+import be.fedict.eid.dss.entity.AccountingOrder;
 import be.fedict.eid.dss.model.AccountingService;
+import be.fedict.eid.dss.model.ConfigProperty;
+import be.fedict.eid.dss.model.Configuration;
+import be.fedict.eid.dss.model.DomainRequestRate;
 
 @Stateless
 public class AccountingServiceBean implements AccountingService {
@@ -38,20 +47,70 @@ public class AccountingServiceBean implements AccountingService {
 	@PersistenceContext
 	private EntityManager entityManager;
 
+	@EJB
+	private AccountingSingletonBean accountingSingletonBean;
+
+	@EJB
+	private Configuration configuration;
+
 	/**
 	 * {@inheritDoc}
 	 */
 	public List<AccountingEntity> listAll() {
 
 		LOG.debug("list all");
+		this.accountingSingletonBean.flush();
 		return AccountingEntity.listAll(this.entityManager);
 	}
 
+	/**
+	 * {@inheritDoc}
+	 */
+	public List<AccountingEntity> listAll(String domainPrefix,
+			AccountingOrder order, int firstResult, int maxResults) {
+
+		return AccountingEntity.listPage(this.entityManager, domainPrefix,
+				order, firstResult, maxResults);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public long countAll(String domainPrefix) {
+
+		this.accountingSingletonBean.flush();
+		return AccountingEntity.count(this.entityManager, domainPrefix);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public List<AccountingEntity> listPage(String afterDomain, int maxResults) {
+
+		if (null == afterDomain) {
+			this.accountingSingletonBean.flush();
+		}
+		return AccountingEntity.listPage(this.entityManager, afterDomain,
+				maxResults);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public List<AccountingBucketEntity> listBucketPage(
+			AccountingGranularity granularity, Date since,
+			AccountingBucketEntity after, int maxResults) {
+
+		return AccountingBucketEntity.listPage(this.entityManager,
+				granularity, since, after, maxResults);
+	}
+
 	/**
 	 * {@inheritDoc}
 	 */
 	public void resetAll() {
 
+		this.accountingSingletonBean.reset();
 		LOG.debug("reset all: #deleted="
 				+ AccountingEntity.resetAll(this.entityManager));
 	}
@@ -59,7 +118,7 @@ public class AccountingServiceBean implements AccountingService {
 	/**
 	 * {@inheritDoc}
 	 */
-	public AccountingEntity addRequest(String domain) {
+	public void addRequest(String domain) {
 
 		LOG.debug("Add request: " + domain);
 
@@ -70,18 +129,134 @@ public class AccountingServiceBean implements AccountingService {
 			domainKey = domain;
 		}
 
-		AccountingEntity accountingEntity = this.entityManager.find(
-				AccountingEntity.class, domainKey);
-		if (null == accountingEntity) {
+		this.accountingSingletonBean.addRequest(domainKey);
+	}
 
-			accountingEntity = new AccountingEntity(domainKey);
-			this.entityManager.persist(accountingEntity);
+	/**
+	 * {@inheritDoc}
+	 */
+	public void addRequests(long time, Map<String, Long> requestCounts) {
 
-		} else {
+		for (Map.Entry<String, Long> requestCount : requestCounts.entrySet()) {
+			AccountingBucketEntity.addRequests(this.entityManager,
+					requestCount.getKey(), time, requestCount.getValue());
+
+			int updated = AccountingEntity.addRequests(this.entityManager,
+					requestCount.getKey(), requestCount.getValue());
+			if (0 == updated) {
+				// a concurrent insert by another node fails the transaction,
+				// the requests are then retried on the next flush
+				this.entityManager.persist(new AccountingEntity(requestCount
+						.getKey(), requestCount.getValue()));
+			}
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public void addRejectedRequests(Map<String, Long> rejectedCounts) {
+
+		for (Map.Entry<String, Long> rejectedCount : rejectedCounts
+				.entrySet()) {
+			int updated = AccountingEntity.addRejected(this.entityManager,
+					rejectedCount.getKey(), rejectedCount.getValue());
+			if (0 == updated) {
+				AccountingEntity accountingEntity = new AccountingEntity(
+						rejectedCount.getKey(), 0L);
+				accountingEntity.setRejected(rejectedCount.getValue());
+				this.entityManager.persist(accountingEntity);
+			}
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public long getRequests(String domain, Date from, Date to) {
+
+		long start = AccountingGranularity.MINUTE.floor(from.getTime());
+		long end = AccountingGranularity.MINUTE.floor(to.getTime());
+		return sumRequests(domain, 0, start, end);
+	}
+
+	/**
+	 * Sums the requests within [start, end) using buckets of the given
+	 * granularity only at the edges of the window that are not aligned on
+	 * the next coarser granularity.
+	 */
+	private long sumRequests(String domain, int granularityIdx, long start,
+			long end) {
+
+		AccountingGranularity[] granularities = AccountingGranularity
+				.values();
+		AccountingGranularity granularity = granularities[granularityIdx];
+		if (granularityIdx + 1 < granularities.length) {
+			AccountingGranularity coarserGranularity = granularities[granularityIdx + 1];
+			long coarseStart = coarserGranularity.ceil(start);
+			long coarseEnd = coarserGranularity.floor(end);
+			if (coarseStart < coarseEnd) {
+				return AccountingBucketEntity.sumRequests(this.entityManager,
+						granularity, domain, start, coarseStart)
+						+ sumRequests(domain, granularityIdx + 1,
+								coarseStart, coarseEnd)
+						+ AccountingBucketEntity.sumRequests(
+								this.entityManager, granularity, domain,
+								coarseEnd, end);
+			}
+		}
+		return AccountingBucketEntity.sumRequests(this.entityManager,
+				granularity, domain, start, end);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public List<AccountingBucketEntity> listBuckets(String domain,
+			AccountingGranularity granularity, Date from, Date to) {
+
+		return AccountingBucketEntity.listBuckets(this.entityManager,
+				granularity, domain, from, to);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public void pruneBuckets() {
+
+		long now = System.currentTimeMillis();
+		pruneBuckets(AccountingGranularity.MINUTE, now,
+				ConfigProperty.ACCOUNTING_MINUTE_RETENTION,
+				AccountingGranularity.HOUR.getDuration());
+		pruneBuckets(AccountingGranularity.HOUR, now,
+				ConfigProperty.ACCOUNTING_HOUR_RETENTION,
+				AccountingGranularity.DAY.getDuration());
+		pruneBuckets(AccountingGranularity.DAY, now,
+				ConfigProperty.ACCOUNTING_DAY_RETENTION,
+				AccountingGranularity.DAY.getDuration());
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public List<DomainRequestRate> getTopRequestRates(int count) {
+
+		return this.accountingSingletonBean.getRequestRateTracker()
+				.getTopDomains(count);
+	}
 
-			accountingEntity.setRequests(accountingEntity.getRequests() + 1);
+	private void pruneBuckets(AccountingGranularity granularity, long now,
+			ConfigProperty retentionConfigProperty, long retentionUnit) {
 
+		Integer retention = this.configuration.getValue(
+				retentionConfigProperty, Integer.class);
+		if (null == retention) {
+			retention = (Integer) retentionConfigProperty.getDefaultValue();
 		}
-		return accountingEntity;
+		Date before = new Date(granularity.floor(now - retention
+				* retentionUnit));
+		int count = AccountingBucketEntity.prune(this.entityManager,
+				granularity, before);
+		LOG.debug("pruned " + granularity + " buckets: " + count);
 	}
 }
@@ -0,0 +1,460 @@
+/*
+ * eID Digital Signature Service Project.
+ * Copyright (C) 2010 FedICT.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+
+package be.fedict.eid.dss.model.bean;
+
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.annotation.PreDestroy;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.EJB;
+import javax.ejb.Schedule;
+import javax.ejb.Singleton;
+import javax.ejb.TransactionAttribute;
+import javax.ejb.TransactionAttributeType;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import be.fedict.eid.dss.entity.AccountingGranularity;
+import be.fedict.eid.dss.model.AccountingService;
+import be.fedict.eid.dss.model.RequestRateTracker;
+
+/**
+ * Write-behind buffer for the accounting request counters.
+ * <p/>
+ * Requests are counted in memory using striped counters, so concurrent
+ * requests for the same domain do not contend on a single counter, let alone
+ * on a single database row. Requests are counted per minute bucket, keyed on
+ * the time the request was counted, so the accounting history does not
+ * depend on when the counts get flushed. The pending counts are periodically
+ * flushed to the database, one transaction per bucket.
+ * <p/>
+ * Draining a past bucket seals its counters, so a request counted
+ * concurrently in that bucket is never lost but added to a fresh bucket of the
+ * same minute instead, flushed next time.
+ * <p/>
+ * Requests refused by the admission control are counted the same way.
+ * <p/>
+ * Also tracks the current request rates per domain.
+ */
+@Singleton
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+@TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+public class AccountingSingletonBean {
+
+	private static final Log LOG = LogFactory
+			.getLog(AccountingSingletonBean.class);
+
+	/**
+	 * Number of counter stripes per domain, a power of two.
+	 */
+	private static final int STRIPES = 16;
+
+	/**
+	 * Distance in longs between two stripes, keeps the stripes on different
+	 * cache lines.
+	 */
+	private static final int STRIPE_PADDING = 8;
+
+	/**
+	 * Value of a counter stripe of a drained bucket.
+	 */
+	private static final long SEALED = -1L;
+
+	/**
+	 * Key of the marker counter of a drained bucket.
+	 */
+	private static final String SEALED_KEY = "";
+
+	/**
+	 * Marker counter of a drained bucket, all stripes sealed.
+	 */
+	private static final AtomicLongArray SEALED_COUNTER = newSealedCounter();
+
+	/**
+	 * Pending request counters keyed by the start of their minute bucket.
+	 */
+	private final ConcurrentMap<Long, ConcurrentMap<String, AtomicLongArray>> counters = new ConcurrentHashMap<Long, ConcurrentMap<String, AtomicLongArray>>();
+
+	private final ConcurrentMap<String, AtomicLongArray> rejectedCounters = new ConcurrentHashMap<String, AtomicLongArray>();
+
+	private final RequestRateTracker requestRateTracker = new RequestRateTracker();
+
+	@EJB
+	private AccountingService accountingService;
+
+	/**
+	 * Counts a request for the given domain. Never touches the database.
+	 * 
+	 * @param domain
+	 *            the accounting domain.
+	 */
+	public void addRequest(String domain) {
+
+		long bucketStart = AccountingGranularity.MINUTE.floor(System
+				.currentTimeMillis());
+		addRequests(bucketStart, domain, 1);
+		this.requestRateTracker.record(domain);
+	}
+
+	/**
+	 * Counts a request for the given domain refused by the admission control.
+	 * Never touches the database.
+	 * 
+	 * @param domain
+	 *            the accounting domain.
+	 */
+	public void addRejectedRequest(String domain) {
+
+		getCounter(this.rejectedCounters, domain).incrementAndGet(
+				getStripeIndex());
+	}
+
+	/**
+	 * @return the tracker of the current request rates per domain.
+	 */
+	public RequestRateTracker getRequestRateTracker() {
+		return this.requestRateTracker;
+	}
+
+	/**
+	 * Adds the given request counts to the pending counts.
+	 * 
+	 * @param time
+	 *            the time the requests were made.
+	 * @param requestCounts
+	 *            request counts keyed by domain.
+	 */
+	public void addRequests(long time, Map<String, Long> requestCounts) {
+
+		long bucketStart = AccountingGranularity.MINUTE.floor(time);
+		for (Map.Entry<String, Long> requestCount : requestCounts.entrySet()) {
+			addRequests(bucketStart, requestCount.getKey(),
+					requestCount.getValue());
+		}
+	}
+
+	/**
+	 * Adds to the pending count of the given bucket. A drained bucket is no
+	 * longer registered, so when hitting a sealed counter the count is retried
+	 * on a fresh bucket of the same minute.
+	 */
+	private void addRequests(long bucketStart, String domain, long count) {
+
+		while (true) {
+			ConcurrentMap<String, AtomicLongArray> bucketCounters = getBucketCounters(bucketStart);
+			AtomicLongArray counter = bucketCounters.get(domain);
+			if (null == counter) {
+				counter = new AtomicLongArray(STRIPES * STRIPE_PADDING);
+				AtomicLongArray existingCounter = bucketCounters.putIfAbsent(
+						domain, counter);
+				if (null != existingCounter) {
+					counter = existingCounter;
+				} else if (SEALED_COUNTER == bucketCounters.get(SEALED_KEY)) {
+					// created after the bucket got drained, the drain might
+					// have missed it, including counts of other requests
+					count += seal(counter);
+					continue;
+				}
+			}
+			if (add(counter, getStripeIndex(), count)) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * @return <code>false</code> if the counter is sealed by a drain.
+	 */
+	private boolean add(AtomicLongArray counter, int stripeIndex, long count) {
+
+		while (true) {
+			long value = counter.get(stripeIndex);
+			if (SEALED == value) {
+				return false;
+			}
+			if (counter.compareAndSet(stripeIndex, value, value + count)) {
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Adds the given rejected request counts to the pending counts.
+	 * 
+	 * @param rejectedCounts
+	 *            rejected request counts keyed by domain.
+	 */
+	public void addRejectedRequests(Map<String, Long> rejectedCounts) {
+
+		addCounts(this.rejectedCounters, rejectedCounts);
+	}
+
+	private void addCounts(ConcurrentMap<String, AtomicLongArray> counters,
+			Map<String, Long> counts) {
+
+		for (Map.Entry<String, Long> count : counts.entrySet()) {
+			getCounter(counters, count.getKey()).addAndGet(getStripeIndex(),
+					count.getValue());
+		}
+	}
+
+	private ConcurrentMap<String, AtomicLongArray> getBucketCounters(
+			long bucketStart) {
+
+		ConcurrentMap<String, AtomicLongArray> bucketCounters = this.counters
+				.get(bucketStart);
+		if (null == bucketCounters) {
+			bucketCounters = new ConcurrentHashMap<String, AtomicLongArray>();
+			ConcurrentMap<String, AtomicLongArray> existingBucketCounters = this.counters
+					.putIfAbsent(bucketStart, bucketCounters);
+			if (null != existingBucketCounters) {
+				bucketCounters = existingBucketCounters;
+			}
+		}
+		return bucketCounters;
+	}
+
+	private AtomicLongArray getCounter(
+			ConcurrentMap<String, AtomicLongArray> counters, String domain) {
+
+		AtomicLongArray counter = counters.get(domain);
+		if (null == counter) {
+			counter = new AtomicLongArray(STRIPES * STRIPE_PADDING);
+			AtomicLongArray existingCounter = counters.putIfAbsent(domain,
+					counter);
+			if (null != existingCounter) {
+				counter = existingCounter;
+			}
+		}
+		return counter;
+	}
+
+	private int getStripeIndex() {
+
+		int stripe = (int) Thread.currentThread().getId() & (STRIPES - 1);
+		return stripe * STRIPE_PADDING;
+	}
+
+	/**
+	 * Takes all pending request counts, resetting them to zero. The buckets
+	 * of past minutes are removed and sealed. A request that still got hold of
+	 * such a bucket sees the seal and counts itself in a fresh bucket of the
+	 * same minute, taken by the next drain.
+	 * 
+	 * @return the pending request counts keyed by bucket start, sorted on
+	 *         time, each keyed by domain, sorted on domain.
+	 */
+	public SortedMap<Long, Map<String, Long>> drain() {
+
+		long currentBucketStart = AccountingGranularity.MINUTE.floor(System
+				.currentTimeMillis());
+		SortedMap<Long, Map<String, Long>> bucketCounts = new TreeMap<Long, Map<String, Long>>();
+		for (Map.Entry<Long, ConcurrentMap<String, AtomicLongArray>> bucketCounters : this.counters
+				.entrySet()) {
+			Long bucketStart = bucketCounters.getKey();
+			Map<String, Long> counts;
+			if (bucketStart < currentBucketStart) {
+				if (!this.counters.remove(bucketStart,
+						bucketCounters.getValue())) {
+					continue;
+				}
+				counts = seal(bucketCounters.getValue());
+			} else {
+				counts = drain(bucketCounters.getValue());
+			}
+			if (counts.isEmpty()) {
+				continue;
+			}
+			// a fresh bucket of a drained minute can show up in the same run
+			Map<String, Long> existingCounts = bucketCounts.get(bucketStart);
+			if (null == existingCounts) {
+				bucketCounts.put(bucketStart, counts);
+			} else {
+				for (Map.Entry<String, Long> count : counts.entrySet()) {
+					Long existingCount = existingCounts.get(count.getKey());
+					existingCounts.put(count.getKey(),
+							null == existingCount ? count.getValue()
+									: existingCount + count.getValue());
+				}
+			}
+		}
+		return bucketCounts;
+	}
+
+	/**
+	 * Seals all counters of a removed bucket. The marker makes a request that
+	 * adds a counter afterwards seal it itself.
+	 * 
+	 * @return the request counts keyed by domain, sorted on domain.
+	 */
+	private Map<String, Long> seal(
+			ConcurrentMap<String, AtomicLongArray> bucketCounters) {
+
+		bucketCounters.put(SEALED_KEY, SEALED_COUNTER);
+		Map<String, Long> counts = new TreeMap<String, Long>();
+		for (Map.Entry<String, AtomicLongArray> counter : bucketCounters
+				.entrySet()) {
+			if (SEALED_COUNTER == counter.getValue()) {
+				continue;
+			}
+			long count = seal(counter.getValue());
+			if (count > 0) {
+				counts.put(counter.getKey(), count);
+			}
+		}
+		return counts;
+	}
+
+	/**
+	 * @return the count taken from the counter, or zero if already sealed.
+	 */
+	private long seal(AtomicLongArray counter) {
+
+		long count = 0;
+		for (int stripe = 0; stripe < STRIPES; stripe++) {
+			long value = counter.getAndSet(stripe * STRIPE_PADDING, SEALED);
+			if (SEALED != value) {
+				count += value;
+			}
+		}
+		return count;
+	}
+
+	private static AtomicLongArray newSealedCounter() {
+
+		AtomicLongArray counter = new AtomicLongArray(STRIPES * STRIPE_PADDING);
+		for (int stripe = 0; stripe < STRIPES; stripe++) {
+			counter.set(stripe * STRIPE_PADDING, SEALED);
+		}
+		return counter;
+	}
+
+	/**
+	 * Takes all pending rejected request counts, resetting them to zero.
+	 * 
+	 * @return the pending rejected request counts keyed by domain, sorted on
+	 *         domain.
+	 */
+	public Map<String, Long> drainRejected() {
+
+		return drain(this.rejectedCounters);
+	}
+
+	private Map<String, Long> drain(
+			ConcurrentMap<String, AtomicLongArray> counters) {
+
+		Map<String, Long> counts = new TreeMap<String, Long>();
+		for (Map.Entry<String, AtomicLongArray> counter : counters.entrySet()) {
+			long count = 0;
+			for (int stripe = 0; stripe < STRIPES; stripe++) {
+				count += counter.getValue().getAndSet(stripe * STRIPE_PADDING,
+						0);
+			}
+			if (count > 0) {
+				counts.put(counter.getKey(), count);
+			}
+		}
+		return counts;
+	}
+
+	/**
+	 * Drops all pending request counts.
+	 */
+	public void reset() {
+
+		this.counters.clear();
+		this.rejectedCounters.clear();
+	}
+
+	/**
+	 * Writes all pending request counts to the database, one transaction per
+	 * bucket. On failure the counts of the bucket are kept for the next
+	 * flush.
+	 */
+	@Schedule(hour = "*", minute = "*", second = "*/10", persistent = false)
+	public void flush() {
+
+		for (Map.Entry<Long, Map<String, Long>> bucketCounts : drain()
+				.entrySet()) {
+			long bucketStart = bucketCounts.getKey();
+			Map<String, Long> requestCounts = bucketCounts.getValue();
+			LOG.debug("flush requests: bucket=" + bucketStart + ", #domains="
+					+ requestCounts.size());
+			try {
+				this.accountingService.addRequests(bucketStart, requestCounts);
+			} catch (RuntimeException e) {
+				LOG.error("could not flush accounting: " + e.getMessage(), e);
+				addRequests(bucketStart, requestCounts);
+			}
+		}
+
+		Map<String, Long> rejectedCounts = drainRejected();
+		if (!rejectedCounts.isEmpty()) {
+			LOG.debug("flush rejected requests: #domains="
+					+ rejectedCounts.size());
+			try {
+				this.accountingService.addRejectedRequests(rejectedCounts);
+			} catch (RuntimeException e) {
+				LOG.error("could not flush rejected requests: "
+						+ e.getMessage(), e);
+				addRejectedRequests(rejectedCounts);
+			}
+		}
+	}
+
+	/**
+	 * Stops tracking the request rates of idle domains.
+	 */
+	@Schedule(hour = "*", minute = "*", persistent = false)
+	public void evictIdleDomains() {
+
+		int count = this.requestRateTracker.evictIdle();
+		if (0 != count) {
+			LOG.debug("evicted idle domains: " + count);
+		}
+	}
+
+	/**
+	 * Removes the accounting history buckets beyond their retention.
+	 */
+	@Schedule(hour = "*", minute = "5", persistent = false)
+	public void pruneBuckets() {
+
+		try {
+			this.accountingService.pruneBuckets();
+		} catch (RuntimeException e) {
+			LOG.error("could not prune accounting history: " + e.getMessage(),
+					e);
+		}
+	}
+
+	@PreDestroy
+	public void destroy() {
+
+		flush();
+	}
+}
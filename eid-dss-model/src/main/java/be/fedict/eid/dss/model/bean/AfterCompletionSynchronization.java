@@ -0,0 +1,61 @@
+/*
+ * eID Digital Signature Service Project.
+ * Copyright (C) 2010 FedICT.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+package be.fedict.eid.dss.model.bean;
+
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Transaction synchronization for node-local state that has to follow the
+ * database, like caches and registries. The state is refreshed once the
+ * transaction has been completed, so concurrent readers can no longer pick up
+ * the data from before the commit, and changes that are rolled back never
+ * stay behind.
+ */
+abstract class AfterCompletionSynchronization implements Synchronization {
+
+	private static final Log LOG = LogFactory
+			.getLog(AfterCompletionSynchronization.class);
+
+	public void beforeCompletion() {
+		// empty
+	}
+
+	public void afterCompletion(int status) {
+		LOG.debug("transaction completed, committed: "
+				+ (Status.STATUS_COMMITTED == status));
+		try {
+			afterTransaction(Status.STATUS_COMMITTED == status);
+		} catch (RuntimeException e) {
+			// the transaction outcome cannot be changed anymore
+			LOG.error("after completion error: " + e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Called after the transaction has been committed or rolled back.
+	 * 
+	 * @param committed
+	 *            <code>true</code> if the transaction has been committed.
+	 */
+	protected abstract void afterTransaction(boolean committed);
+}
@@ -21,40 +21,61 @@ package be.fedict.eid.dss.model.bean;
 import be.fedict.eid.dss.entity.ConfigPropertyEntity;
 import be.fedict.eid.dss.model.ConfigProperty;
 import be.fedict.eid.dss.model.Configuration;
+import be.fedict.eid.dss.model.ConfigurationListener;
+import be.fedict.eid.dss.model.ConfigurationSnapshot;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.jboss.ejb3.annotation.Depends;
 
-import javax.annotation.PostConstruct;
-import javax.ejb.Startup;
+import javax.annotation.Resource;
+import javax.ejb.EJB;
 import javax.ejb.Stateless;
+import javax.jms.JMSException;
+import javax.jms.Session;
+import javax.jms.Topic;
+import javax.jms.TopicConnection;
+import javax.jms.TopicConnectionFactory;
+import javax.jms.TopicPublisher;
+import javax.jms.TopicSession;
 import javax.persistence.EntityManager;
 import javax.persistence.PersistenceContext;
+import javax.transaction.TransactionSynchronizationRegistry;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
-@Startup
 @Stateless
+@Depends("org.hornetq:module=JMS,name=\"DSSConfigTopic\",type=Topic")
 public class ConfigurationBean implements Configuration {
 
 	private static final Log LOG = LogFactory.getLog(ConfigurationBean.class);
 
+	/**
+	 * Transaction resource key marking a transaction with uncommitted
+	 * configuration changes.
+	 */
+	private static final String PENDING_CHANGES_KEY = ConfigurationBean.class
+			.getName() + ".pendingChanges";
+
 	@PersistenceContext
 	private EntityManager entityManager;
 
-	@PostConstruct
-	public void init() {
-		initProperties();
-	}
+	@EJB
+	private ConfigurationSingletonBean configurationCache;
 
-	private void initProperties() {
-		for (ConfigProperty configProperty : ConfigProperty.values()) {
-			// init defaults if necessary
-			if (null == getValue(configProperty, configProperty.getType()) && null != configProperty.getDefaultValue()) {
-				LOG.debug("Initialize " + configProperty.getName() + " with default value=" + configProperty.getDefaultValue());
-				setValue(configProperty, configProperty.getDefaultValue());
-			}
-		}
-	}
+	@Resource(mappedName = "java:JmsXA")
+	private TopicConnectionFactory topicConnectionFactory;
+
+	@Resource(mappedName = ConfigurationChangeMDB.TOPIC_NAME)
+	private Topic topic;
+
+	@Resource
+	private TransactionSynchronizationRegistry transactionSynchronizationRegistry;
 
 	/**
 	 * {@inheritDoc}
@@ -67,37 +88,68 @@ public class ConfigurationBean implements Configuration {
 	 * {@inheritDoc}
 	 */
 	public void setValue(ConfigProperty configProperty, String index, Object value) {
-		String propertyValue;
-		if (null != value) {
-			Class<?> expectedType = configProperty.getType();
-			Class<?> type = value.getClass();
-			if (!expectedType.isAssignableFrom(type)) {
-				throw new IllegalArgumentException("value has incorrect type: " + type.getClass().getName());
-			}
-			Object castedValue = expectedType.cast(value);
-			if (expectedType.isEnum()) {
-				Enum<?> enumValue = (Enum<?>) castedValue;
-				propertyValue = enumValue.name();
-			} else {
-				propertyValue = castedValue.toString();
-				if (propertyValue.trim().isEmpty()) {
-					propertyValue = null;
-				}
-			}
-		} else {
-			propertyValue = null;
-		}
+		String propertyValue = toPropertyValue(configProperty, value);
 
 		String propertyName = getPropertyName(configProperty, index);
 		ConfigPropertyEntity configPropertyEntity = this.entityManager.find(
 				ConfigPropertyEntity.class, propertyName);
 		if (null == configPropertyEntity) {
-			configPropertyEntity = new ConfigPropertyEntity(propertyName,
-					propertyValue);
+			configPropertyEntity = new ConfigPropertyEntity(
+					configProperty.getName(), index, propertyValue);
 			this.entityManager.persist(configPropertyEntity);
+			if (null != index) {
+				invalidateIndexes(configProperty.getName());
+			}
 		} else {
 			configPropertyEntity.setValue(propertyValue);
 		}
+		invalidate(propertyName);
+		fireConfigurationChanged(Collections.singleton(propertyName));
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public int setValues(Map<ConfigProperty, Object> values) {
+
+		Map<String, ConfigPropertyEntity> configs = new HashMap<String, ConfigPropertyEntity>();
+		for (ConfigPropertyEntity config : ConfigPropertyEntity
+				.listAll(this.entityManager)) {
+			configs.put(config.getName(), config);
+		}
+
+		Set<String> changedPropertyNames = new HashSet<String>();
+		for (Map.Entry<ConfigProperty, Object> value : values.entrySet()) {
+			ConfigProperty configProperty = value.getKey();
+			String propertyValue = toPropertyValue(configProperty,
+					value.getValue());
+			String propertyName = getPropertyName(configProperty, null);
+			ConfigPropertyEntity configPropertyEntity = configs
+					.get(propertyName);
+			if (null == configPropertyEntity) {
+				if (null == propertyValue) {
+					continue;
+				}
+				configPropertyEntity = new ConfigPropertyEntity(
+						configProperty.getName(), null, propertyValue);
+				this.entityManager.persist(configPropertyEntity);
+			} else {
+				if (isEqual(propertyValue, configPropertyEntity.getValue())) {
+					continue;
+				}
+				configPropertyEntity.setValue(propertyValue);
+			}
+			invalidate(propertyName);
+			changedPropertyNames.add(propertyName);
+		}
+		int count = changedPropertyNames.size();
+		if (0 != count) {
+			// write all changes in one JDBC batch
+			this.entityManager.flush();
+			fireConfigurationChanged(changedPropertyNames);
+		}
+		LOG.debug("changed configuration properties: " + count);
+		return count;
 	}
 
 	/**
@@ -118,6 +170,11 @@ public class ConfigurationBean implements Configuration {
 				ConfigPropertyEntity.class, propertyName);
 		if (null != configPropertyEntity) {
 			this.entityManager.remove(configPropertyEntity);
+			if (null != index) {
+				invalidateIndexes(configProperty.getName());
+			}
+			invalidate(propertyName);
+			fireConfigurationChanged(Collections.singleton(propertyName));
 		}
 	}
 
@@ -142,73 +199,311 @@ public class ConfigurationBean implements Configuration {
 
 		String propertyName = getPropertyName(configProperty, index);
 
+		boolean pendingChanges = hasPendingChanges();
+		if (!pendingChanges) {
+			Object cachedValue = this.configurationCache.getValue(propertyName);
+			if (null != cachedValue) {
+				if (ConfigurationSingletonBean.NULL_VALUE == cachedValue) {
+					return null;
+				}
+				return (T) cachedValue;
+			}
+		}
+
+		long generation = this.configurationCache.getGeneration();
 		ConfigPropertyEntity configPropertyEntity = this.entityManager.find(
 				ConfigPropertyEntity.class, propertyName);
+		String value;
 		if (null == configPropertyEntity) {
-            if (Boolean.class == configProperty.getType()) {
-                return (T) Boolean.FALSE;
-            } else {
-                return null;
-            }
+			value = null;
+		} else {
+			value = configPropertyEntity.getValue();
 		}
-		String value = configPropertyEntity.getValue();
-		if (null == value || value.trim().length() == 0) {
-            if (Boolean.class == configProperty.getType()) {
-                return (T) Boolean.FALSE;
-            } else {
-                return null;
-            }
-        }
+		Object typedValue = toTypedValue(configProperty, value);
+		if (!pendingChanges) {
+			this.configurationCache.putValue(propertyName, typedValue,
+					generation);
+		}
+		return (T) typedValue;
+	}
 
-		if (String.class == configProperty.getType()) {
-			return (T) value;
+	/**
+	 * {@inheritDoc}
+	 */
+	public List<String> getIndexes(ConfigProperty configProperty) {
+
+		String baseName = configProperty.getName();
+		boolean pendingChanges = hasPendingChanges();
+		List<String> indexes = pendingChanges ? null : this.configurationCache
+				.getIndexes(baseName);
+		if (null == indexes) {
+			long generation = this.configurationCache.getGeneration();
+			indexes = ConfigPropertyEntity.listIndexes(this.entityManager,
+					baseName);
+			if (!pendingChanges) {
+				this.configurationCache.putIndexes(baseName, indexes,
+						generation);
+			}
 		}
-		if (Boolean.class == configProperty.getType()) {
-			Boolean booleanValue = Boolean.parseBoolean(value);
-			return (T) booleanValue;
+		return new LinkedList<String>(indexes);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public ConfigurationSnapshot getSnapshot() {
+
+		boolean pendingChanges = hasPendingChanges();
+		ConfigurationSnapshot snapshot = pendingChanges ? null
+				: this.configurationCache.getSnapshot();
+		if (null != snapshot) {
+			return snapshot;
 		}
-		if (Integer.class == configProperty.getType()) {
-			Integer integerValue = Integer.parseInt(value);
-			return (T) integerValue;
+		Map<ConfigProperty, Object> values = new HashMap<ConfigProperty, Object>();
+		Map<ConfigProperty, Map<String, Object>> indexedValues = new HashMap<ConfigProperty, Map<String, Object>>();
+
+		long generation = this.configurationCache.getGeneration();
+		List<ConfigPropertyEntity> configs = ConfigPropertyEntity
+				.listAll(this.entityManager);
+		for (ConfigPropertyEntity config : configs) {
+			String propertyName = config.getName();
+			ConfigProperty configProperty;
+			String index;
+			if (null != config.getBaseName()) {
+				configProperty = ConfigProperty.findConfigProperty(config
+						.getBaseName());
+				index = config.getPropertyIndex();
+			} else {
+				configProperty = ConfigProperty
+						.findConfigProperty(propertyName);
+				index = null == configProperty
+						|| propertyName.equals(configProperty.getName()) ? null
+						: propertyName.substring(configProperty.getName()
+								.length() + 1);
+			}
+			if (null == configProperty) {
+				LOG.warn("unknown config property: " + propertyName);
+				continue;
+			}
+			Object typedValue = toTypedValue(configProperty, config.getValue());
+			if (!pendingChanges) {
+				this.configurationCache.putValue(propertyName, typedValue,
+						generation);
+			}
+
+			if (null == index) {
+				values.put(configProperty, typedValue);
+			} else {
+				Map<String, Object> configPropertyValues = indexedValues
+						.get(configProperty);
+				if (null == configPropertyValues) {
+					configPropertyValues = new HashMap<String, Object>();
+					indexedValues.put(configProperty, configPropertyValues);
+				}
+				configPropertyValues.put(index, typedValue);
+			}
 		}
-		if (Long.class == configProperty.getType()) {
-			Long longValue = Long.parseLong(value);
-			return (T) longValue;
+		for (ConfigProperty configProperty : ConfigProperty.values()) {
+			List<String> indexes = new ArrayList<String>();
+			Map<String, Object> configPropertyValues = indexedValues
+					.get(configProperty);
+			if (null != configPropertyValues) {
+				indexes.addAll(configPropertyValues.keySet());
+				Collections.sort(indexes);
+			}
+			if (!pendingChanges) {
+				this.configurationCache.putIndexes(configProperty.getName(),
+						indexes, generation);
+			}
 		}
-		if (configProperty.getType().isEnum()) {
-			Enum<?> e = (Enum<?>) configProperty.getType().getEnumConstants()[0];
-			return (T) Enum.valueOf(e.getClass(), value);
+		snapshot = new ConfigurationSnapshot(values, indexedValues);
+		if (!pendingChanges) {
+			this.configurationCache.putSnapshot(snapshot, generation);
 		}
-		throw new RuntimeException("unsupported type: "
-				+ configProperty.getType().getName());
+		return snapshot;
 	}
 
 	/**
 	 * {@inheritDoc}
 	 */
-	public List<String> getIndexes(ConfigProperty configProperty) {
+	public void addListener(ConfigurationListener listener) {
+		this.configurationCache.addListener(listener);
+	}
 
-		List<ConfigPropertyEntity> configs = ConfigPropertyEntity
-				.listConfigsWhereNameLike(this.entityManager,
-						configProperty.getName());
-		List<String> indexes = new LinkedList<String>();
+	/**
+	 * {@inheritDoc}
+	 */
+	public void removeListener(ConfigurationListener listener) {
+		this.configurationCache.removeListener(listener);
+	}
 
-		String prefix = configProperty.getName() + '-';
-		for (ConfigPropertyEntity config : configs) {
-			if (config.getName().contains(prefix)) {
-				indexes.add(config.getName().substring(
-						config.getName().indexOf(prefix) + prefix.length()));
+	/**
+	 * {@inheritDoc}
+	 */
+	public long getVersion() {
+		return this.configurationCache.getVersion();
+	}
+
+	/**
+	 * Invalidates the cached value right away, for the running transaction,
+	 * and again once the transaction has been completed. Until then,
+	 * concurrent transactions can still cache the previously committed value,
+	 * and a rolled back value must not stay behind.
+	 */
+	private void invalidate(final String propertyName) {
+
+		markPendingChanges();
+		this.configurationCache.invalidate(propertyName);
+		this.transactionSynchronizationRegistry
+				.registerInterposedSynchronization(new AfterCompletionSynchronization() {
+
+					protected void afterTransaction(boolean committed) {
+						ConfigurationBean.this.configurationCache
+								.invalidate(propertyName);
+					}
+				});
+	}
+
+	/**
+	 * @see #invalidate(String)
+	 */
+	private void invalidateIndexes(final String baseName) {
+
+		markPendingChanges();
+		this.configurationCache.invalidateIndexes(baseName);
+		this.transactionSynchronizationRegistry
+				.registerInterposedSynchronization(new AfterCompletionSynchronization() {
+
+					protected void afterTransaction(boolean committed) {
+						ConfigurationBean.this.configurationCache
+								.invalidateIndexes(baseName);
+					}
+				});
+	}
+
+	/**
+	 * Marks the running transaction as having uncommitted configuration
+	 * changes. Such a transaction reads its own changes, so it neither uses
+	 * nor populates the node-wide cache.
+	 */
+	private void markPendingChanges() {
+		this.transactionSynchronizationRegistry.putResource(
+				PENDING_CHANGES_KEY, Boolean.TRUE);
+	}
+
+	private boolean hasPendingChanges() {
+		return null != this.transactionSynchronizationRegistry
+				.getResource(PENDING_CHANGES_KEY);
+	}
+
+	/**
+	 * Publishes the configuration change on the configuration topic. As the
+	 * XA connection factory enlists in the running transaction, the message
+	 * only gets delivered, to every node, after commit.
+	 */
+	private void fireConfigurationChanged(Set<String> propertyNames) {
+
+		ConfigurationChangeMessage configurationChangeMessage = new ConfigurationChangeMessage(
+				propertyNames);
+		try {
+			TopicConnection topicConnection = this.topicConnectionFactory
+					.createTopicConnection();
+			try {
+				TopicSession topicSession = topicConnection.createTopicSession(
+						true, Session.AUTO_ACKNOWLEDGE);
+				try {
+					TopicPublisher topicPublisher = topicSession
+							.createPublisher(this.topic);
+					try {
+						topicPublisher.publish(configurationChangeMessage
+								.getMessage(topicSession));
+					} finally {
+						topicPublisher.close();
+					}
+				} finally {
+					topicSession.close();
+				}
+			} finally {
+				topicConnection.close();
 			}
+		} catch (JMSException e) {
+			throw new RuntimeException(
+					"could not send configuration change message: "
+							+ e.getMessage(), e);
 		}
-		return indexes;
 	}
 
-	private String getPropertyName(ConfigProperty configProperty, String index) {
+	private boolean isEqual(String propertyValue, String currentValue) {
 
-		String propertyName = configProperty.getName();
-		if (null != index) {
-			propertyName += '-' + index;
+		if (null == propertyValue) {
+			return null == currentValue;
 		}
-		return propertyName;
+		return propertyValue.equals(currentValue);
+	}
+
+	/**
+	 * Converts the given typed value to its database representation.
+	 */
+	private String toPropertyValue(ConfigProperty configProperty, Object value) {
+
+		if (null == value) {
+			return null;
+		}
+		Class<?> expectedType = configProperty.getType();
+		Class<?> type = value.getClass();
+		if (!expectedType.isAssignableFrom(type)) {
+			throw new IllegalArgumentException("value has incorrect type: "
+					+ type.getClass().getName());
+		}
+		Object castedValue = expectedType.cast(value);
+		if (expectedType.isEnum()) {
+			Enum<?> enumValue = (Enum<?>) castedValue;
+			return enumValue.name();
+		}
+		String propertyValue = castedValue.toString();
+		if (propertyValue.trim().isEmpty()) {
+			return null;
+		}
+		return propertyValue;
+	}
+
+	/**
+	 * Parses the given database representation into a value of the
+	 * configuration property's type.
+	 */
+	@SuppressWarnings("unchecked")
+	private Object toTypedValue(ConfigProperty configProperty, String value) {
+
+		if (null == value || value.trim().length() == 0) {
+			if (Boolean.class == configProperty.getType()) {
+				return Boolean.FALSE;
+			} else {
+				return null;
+			}
+		}
+
+		if (String.class == configProperty.getType()) {
+			return value;
+		}
+		if (Boolean.class == configProperty.getType()) {
+			return Boolean.parseBoolean(value);
+		}
+		if (Integer.class == configProperty.getType()) {
+			return Integer.parseInt(value);
+		}
+		if (Long.class == configProperty.getType()) {
+			return Long.parseLong(value);
+		}
+		if (configProperty.getType().isEnum()) {
+			Enum<?> e = (Enum<?>) configProperty.getType().getEnumConstants()[0];
+			return Enum.valueOf(e.getClass(), value);
+		}
+		throw new RuntimeException("unsupported type: "
+				+ configProperty.getType().getName());
+	}
+
+	private String getPropertyName(ConfigProperty configProperty, String index) {
+
+		return ConfigPropertyEntity.getName(configProperty.getName(), index);
 	}
 }
@@ -0,0 +1,127 @@
+/*
+ * eID Digital Signature Service Project.
+ * Copyright (C) 2010 FedICT.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+package be.fedict.eid.dss.model.bean;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.PostConstruct;
+import javax.ejb.EJB;
+import javax.ejb.Singleton;
+import javax.ejb.Startup;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import be.fedict.eid.dss.entity.ConfigPropertyEntity;
+import be.fedict.eid.dss.model.ConfigProperty;
+import be.fedict.eid.dss.model.Configuration;
+import be.fedict.eid.dss.model.ConfigurationSnapshot;
+
+/**
+ * Prepares the persisted configuration once, at application startup: splits
+ * legacy configuration property names and seeds missing default values.
+ */
+@Singleton
+@Startup
+public class ConfigurationBootstrapBean {
+
+	private static final Log LOG = LogFactory
+			.getLog(ConfigurationBootstrapBean.class);
+
+	@PersistenceContext
+	private EntityManager entityManager;
+
+	@EJB
+	private Configuration configuration;
+
+	@EJB
+	private ConfigurationSingletonBean configurationCache;
+
+	private long duration;
+
+	@PostConstruct
+	public void init() {
+
+		long startTime = System.currentTimeMillis();
+		initBaseNames();
+		int count = initProperties();
+		this.duration = System.currentTimeMillis() - startTime;
+		LOG.info("configuration bootstrap: " + count
+				+ " default value(s) initialized in " + this.duration + " ms");
+	}
+
+	/**
+	 * @return the duration of the configuration bootstrap in milliseconds.
+	 */
+	public long getDuration() {
+		return this.duration;
+	}
+
+	/**
+	 * Splits the names of configuration rows that were persisted before the
+	 * base name and index columns existed.
+	 */
+	private void initBaseNames() {
+		List<ConfigPropertyEntity> configs = ConfigPropertyEntity
+				.listWithoutBaseName(this.entityManager);
+		for (ConfigPropertyEntity config : configs) {
+			String propertyName = config.getName();
+			ConfigProperty configProperty = ConfigProperty
+					.findConfigProperty(propertyName);
+			if (null == configProperty) {
+				LOG.warn("unknown config property: " + propertyName);
+				continue;
+			}
+			LOG.debug("Initialize base name of " + propertyName);
+			config.setBaseName(configProperty.getName());
+			if (!propertyName.equals(configProperty.getName())) {
+				config.setPropertyIndex(propertyName.substring(configProperty
+						.getName().length() + 1));
+			}
+		}
+		if (!configs.isEmpty()) {
+			this.configurationCache.invalidateAll();
+		}
+	}
+
+	private int initProperties() {
+		ConfigurationSnapshot snapshot = this.configuration.getSnapshot();
+		Map<ConfigProperty, Object> defaultValues = new LinkedHashMap<ConfigProperty, Object>();
+		for (ConfigProperty configProperty : ConfigProperty.values()) {
+			// init defaults if necessary
+			if (null == snapshot.getValue(configProperty,
+					configProperty.getType())
+					&& null != configProperty.getDefaultValue()) {
+				LOG.debug("Initialize " + configProperty.getName()
+						+ " with default value="
+						+ configProperty.getDefaultValue());
+				defaultValues.put(configProperty,
+						configProperty.getDefaultValue());
+			}
+		}
+		if (defaultValues.isEmpty()) {
+			return 0;
+		}
+		return this.configuration.setValues(defaultValues);
+	}
+}
@@ -0,0 +1,59 @@
+/*
+ * eID Digital Signature Service Project.
+ * Copyright (C) 2010 FedICT.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+package be.fedict.eid.dss.model.bean;
+
+import static be.fedict.eid.dss.model.bean.ConfigurationChangeMDB.TOPIC_NAME;
+
+import javax.ejb.ActivationConfigProperty;
+import javax.ejb.EJB;
+import javax.ejb.MessageDriven;
+import javax.jms.Message;
+import javax.jms.MessageListener;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Receives the configuration change notifications of all cluster nodes, once
+ * the transaction that made the change has been committed, and applies them
+ * to the node-local configuration cache and listeners.
+ */
+@MessageDriven(activationConfig = {
+		@ActivationConfigProperty(propertyName = "destinationType", propertyValue = "javax.jms.Topic"),
+		@ActivationConfigProperty(propertyName = "destination", propertyValue = TOPIC_NAME) })
+public class ConfigurationChangeMDB implements MessageListener {
+
+	private static final Log LOG = LogFactory
+			.getLog(ConfigurationChangeMDB.class);
+
+	public static final String TOPIC_NAME = "topic/dss/config-topic";
+
+	@EJB
+	private ConfigurationSingletonBean configurationCache;
+
+	public void onMessage(Message message) {
+		ConfigurationChangeMessage configurationChangeMessage = new ConfigurationChangeMessage(
+				message);
+		LOG.debug("configuration changed: "
+				+ configurationChangeMessage.getPropertyNames());
+		this.configurationCache
+				.configurationChanged(configurationChangeMessage
+						.getPropertyNames());
+	}
+}
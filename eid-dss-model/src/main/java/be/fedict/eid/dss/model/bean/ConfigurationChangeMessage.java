@@ -0,0 +1,77 @@
+/*
+ * eID Digital Signature Service Project.
+ * Copyright (C) 2010 FedICT.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+package be.fedict.eid.dss.model.bean;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import javax.jms.JMSException;
+import javax.jms.MapMessage;
+import javax.jms.Message;
+import javax.jms.TopicSession;
+
+/**
+ * JMS message notifying all nodes of changed configuration properties.
+ */
+class ConfigurationChangeMessage {
+
+	private static final String COUNT_PROPERTY = "count";
+
+	private static final String NAME_PROPERTY_PREFIX = "name-";
+
+	private final Set<String> propertyNames;
+
+	public ConfigurationChangeMessage(Set<String> propertyNames) {
+		this.propertyNames = Collections
+				.unmodifiableSet(new HashSet<String>(propertyNames));
+	}
+
+	public ConfigurationChangeMessage(Message message) {
+		if (false == message instanceof MapMessage) {
+			throw new RuntimeException("message should be MapMessage");
+		}
+		MapMessage mapMessage = (MapMessage) message;
+		try {
+			int count = mapMessage.getInt(COUNT_PROPERTY);
+			Set<String> names = new HashSet<String>();
+			for (int idx = 0; idx < count; idx++) {
+				names.add(mapMessage.getString(NAME_PROPERTY_PREFIX + idx));
+			}
+			this.propertyNames = Collections.unmodifiableSet(names);
+		} catch (JMSException e) {
+			throw new RuntimeException("JMS error: " + e.getMessage(), e);
+		}
+	}
+
+	public Message getMessage(TopicSession topicSession) throws JMSException {
+		MapMessage mapMessage = topicSession.createMapMessage();
+		mapMessage.setInt(COUNT_PROPERTY, this.propertyNames.size());
+		int idx = 0;
+		for (String propertyName : this.propertyNames) {
+			mapMessage.setString(NAME_PROPERTY_PREFIX + idx, propertyName);
+			idx++;
+		}
+		return mapMessage;
+	}
+
+	public Set<String> getPropertyNames() {
+		return this.propertyNames;
+	}
+}
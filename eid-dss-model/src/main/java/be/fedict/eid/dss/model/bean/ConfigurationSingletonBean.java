@@ -0,0 +1,282 @@
+/*
+ * eID Digital Signature Service Project.
+ * Copyright (C) 2010 FedICT.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+package be.fedict.eid.dss.model.bean;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.Singleton;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import be.fedict.eid.dss.model.ConfigurationChangeEvent;
+import be.fedict.eid.dss.model.ConfigurationListener;
+import be.fedict.eid.dss.model.ConfigurationSnapshot;
+
+/**
+ * Node-local cache of already parsed configuration values, keyed by the
+ * configuration property name including the optional index. Also keeps a
+ * registry of the known indexes per indexed configuration property, and the
+ * registered configuration listeners, and the last configuration snapshot.
+ * <p/>
+ * The cache is shared by all pooled {@link ConfigurationBean} instances. All
+ * state is kept in concurrent data structures, so the container lock is not
+ * required.
+ */
+@Singleton
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class ConfigurationSingletonBean {
+
+	private static final Log LOG = LogFactory
+			.getLog(ConfigurationSingletonBean.class);
+
+	/**
+	 * Marker for configuration properties that are known not to have a value.
+	 */
+	public static final Object NULL_VALUE = new Object();
+
+	private final ConcurrentMap<String, Object> values = new ConcurrentHashMap<String, Object>();
+
+	private final ConcurrentMap<String, List<String>> indexes = new ConcurrentHashMap<String, List<String>>();
+
+	private final AtomicReference<ConfigurationSnapshot> snapshot = new AtomicReference<ConfigurationSnapshot>();
+
+	private final List<ConfigurationListener> listeners = new CopyOnWriteArrayList<ConfigurationListener>();
+
+	private final AtomicLong version = new AtomicLong();
+
+	private final AtomicLong generation = new AtomicLong();
+
+	private final AtomicLong hitCount = new AtomicLong();
+
+	private final AtomicLong missCount = new AtomicLong();
+
+	/**
+	 * @param propertyName
+	 *            the full configuration property name.
+	 * @return the cached typed value, {@link #NULL_VALUE} if the property is
+	 *         known to have no value, or <code>null</code> if not cached.
+	 */
+	public Object getValue(String propertyName) {
+
+		Object value = this.values.get(propertyName);
+		if (null == value) {
+			this.missCount.incrementAndGet();
+		} else {
+			this.hitCount.incrementAndGet();
+		}
+		return value;
+	}
+
+	/**
+	 * @return the cache generation, to be taken before reading a value from
+	 *         the database that is put into the cache.
+	 */
+	public long getGeneration() {
+		return this.generation.get();
+	}
+
+	/**
+	 * Caches the given typed value, unless the cache has been invalidated
+	 * since the value was read.
+	 *
+	 * @param propertyName
+	 *            the full configuration property name.
+	 * @param value
+	 *            the typed value, can be <code>null</code>.
+	 * @param generation
+	 *            the cache generation taken before the value was read.
+	 */
+	public void putValue(String propertyName, Object value, long generation) {
+
+		Object cachedValue = null == value ? NULL_VALUE : value;
+		this.values.put(propertyName, cachedValue);
+		if (generation != this.generation.get()) {
+			// invalidated while reading
+			this.values.remove(propertyName, cachedValue);
+		}
+	}
+
+	/**
+	 * @return the cached configuration snapshot, or <code>null</code> if not
+	 *         cached.
+	 */
+	public ConfigurationSnapshot getSnapshot() {
+		return this.snapshot.get();
+	}
+
+	/**
+	 * Caches the given configuration snapshot, unless the cache has been
+	 * invalidated since the snapshot was read.
+	 *
+	 * @param snapshot
+	 *            the configuration snapshot.
+	 * @param generation
+	 *            the cache generation taken before the snapshot was read.
+	 */
+	public void putSnapshot(ConfigurationSnapshot snapshot, long generation) {
+
+		this.snapshot.set(snapshot);
+		if (generation != this.generation.get()) {
+			this.snapshot.compareAndSet(snapshot, null);
+		}
+	}
+
+	/**
+	 * Removes the cached value of the given configuration property.
+	 *
+	 * @param propertyName
+	 *            the full configuration property name.
+	 */
+	public void invalidate(String propertyName) {
+
+		LOG.debug("invalidate: " + propertyName);
+		this.generation.incrementAndGet();
+		this.snapshot.set(null);
+		this.values.remove(propertyName);
+	}
+
+	/**
+	 * @param baseName
+	 *            the configuration property name without index.
+	 * @return the cached unmodifiable list of indexes, or <code>null</code> if
+	 *         not cached.
+	 */
+	public List<String> getIndexes(String baseName) {
+		return this.indexes.get(baseName);
+	}
+
+	/**
+	 * Caches the indexes of the given configuration property, unless the
+	 * cache has been invalidated since the indexes were read.
+	 *
+	 * @param baseName
+	 *            the configuration property name without index.
+	 * @param indexes
+	 *            the indexes.
+	 * @param generation
+	 *            the cache generation taken before the indexes were read.
+	 */
+	public void putIndexes(String baseName, List<String> indexes,
+			long generation) {
+
+		List<String> cachedIndexes = Collections
+				.unmodifiableList(new ArrayList<String>(indexes));
+		this.indexes.put(baseName, cachedIndexes);
+		if (generation != this.generation.get()) {
+			this.indexes.remove(baseName, cachedIndexes);
+		}
+	}
+
+	/**
+	 * Removes the cached indexes of the given configuration property.
+	 *
+	 * @param baseName
+	 *            the configuration property name without index.
+	 */
+	public void invalidateIndexes(String baseName) {
+
+		LOG.debug("invalidate indexes: " + baseName);
+		this.generation.incrementAndGet();
+		this.snapshot.set(null);
+		this.indexes.remove(baseName);
+	}
+
+	/**
+	 * Removes all cached configuration values and indexes.
+	 */
+	public void invalidateAll() {
+
+		LOG.debug("invalidate all");
+		this.generation.incrementAndGet();
+		this.snapshot.set(null);
+		this.values.clear();
+		this.indexes.clear();
+	}
+
+	/**
+	 * Applies committed configuration changes: the affected cache entries are
+	 * removed, the configuration version is incremented and all listeners are
+	 * notified.
+	 *
+	 * @param propertyNames
+	 *            the full names of the changed configuration properties.
+	 */
+	public void configurationChanged(Set<String> propertyNames) {
+
+		this.generation.incrementAndGet();
+		this.snapshot.set(null);
+		for (String propertyName : propertyNames) {
+			this.values.remove(propertyName);
+		}
+		// changes are rare, no need to track which indexes are affected
+		this.indexes.clear();
+
+		ConfigurationChangeEvent event = new ConfigurationChangeEvent(
+				this.version.incrementAndGet(), propertyNames);
+		LOG.debug("configuration version: " + event.getVersion());
+		for (ConfigurationListener listener : this.listeners) {
+			try {
+				listener.configurationChanged(event);
+			} catch (Exception e) {
+				LOG.error("configuration listener error: " + e.getMessage(), e);
+			}
+		}
+	}
+
+	public void addListener(ConfigurationListener listener) {
+		this.listeners.add(listener);
+	}
+
+	public void removeListener(ConfigurationListener listener) {
+		this.listeners.remove(listener);
+	}
+
+	/**
+	 * @return the node local configuration version.
+	 */
+	public long getVersion() {
+		return this.version.get();
+	}
+
+	/**
+	 * @return the number of configuration lookups served from the cache.
+	 */
+	public long getHitCount() {
+		return this.hitCount.get();
+	}
+
+	/**
+	 * @return the number of configuration lookups that required a database
+	 *         read.
+	 */
+	public long getMissCount() {
+		return this.missCount.get();
+	}
+}
@@ -0,0 +1,102 @@
+/*
+ * eID Digital Signature Service Project.
+ * Copyright (C) 2010 FedICT.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+package be.fedict.eid.dss.model.bean;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import javax.ejb.EJB;
+import javax.ejb.Stateless;
+import javax.xml.XMLConstants;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+
+import be.fedict.eid.dss.model.DocumentValidationService;
+import be.fedict.eid.dss.model.XmlSchemaManager;
+import be.fedict.eid.dss.model.exception.DocumentFormatException;
+import be.fedict.eid.dss.model.exception.InvalidXmlSchemaException;
+
+@Stateless
+public class DocumentValidationServiceBean implements
+		DocumentValidationService {
+
+	private static final Log LOG = LogFactory
+			.getLog(DocumentValidationServiceBean.class);
+
+	@EJB
+	private XmlSchemaManager xmlSchemaManager;
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public String validate(InputStream documentInputStream)
+			throws DocumentFormatException, InvalidXmlSchemaException {
+		return validate(documentInputStream, true);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public String validate(InputStream documentInputStream,
+			boolean schemaRequired) throws DocumentFormatException,
+			InvalidXmlSchemaException {
+
+		XmlSchemaValidatingHandler handler = new XmlSchemaValidatingHandler(
+				this.xmlSchemaManager, schemaRequired);
+		XMLReader xmlReader = getXMLReader();
+		xmlReader.setContentHandler(handler);
+		xmlReader.setErrorHandler(handler);
+		try {
+			xmlReader.parse(new InputSource(documentInputStream));
+		} catch (SAXException e) {
+			if (e.getException() instanceof InvalidXmlSchemaException) {
+				throw (InvalidXmlSchemaException) e.getException();
+			}
+			LOG.debug("invalid document: " + e.getMessage());
+			throw new DocumentFormatException(e.getMessage(), e);
+		} catch (IOException e) {
+			throw new RuntimeException("IO error: " + e.getMessage(), e);
+		}
+		return handler.getNamespace();
+	}
+
+	private XMLReader getXMLReader() {
+		// parser factories are not thread-safe
+		SAXParserFactory saxParserFactory = SAXParserFactory.newInstance();
+		saxParserFactory.setNamespaceAware(true);
+		try {
+			saxParserFactory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING,
+					true);
+			saxParserFactory.setFeature(
+					"http://apache.org/xml/features/disallow-doctype-decl",
+					true);
+			return saxParserFactory.newSAXParser().getXMLReader();
+		} catch (ParserConfigurationException e) {
+			throw new RuntimeException("SAX parser error: " + e.getMessage(), e);
+		} catch (SAXException e) {
+			throw new RuntimeException("SAX parser error: " + e.getMessage(), e);
+		}
+	}
+}
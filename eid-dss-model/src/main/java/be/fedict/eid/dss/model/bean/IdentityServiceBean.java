@@ -19,28 +19,22 @@
 package be.fedict.eid.dss.model.bean;
 
 import java.security.KeyStore.PrivateKeyEntry;
-import java.security.cert.Certificate;
-import java.security.cert.CertificateEncodingException;
 import java.security.cert.X509Certificate;
-import java.util.LinkedList;
+import java.util.Collections;
 import java.util.List;
 
 import javax.ejb.EJB;
 import javax.ejb.Stateless;
 
-import org.apache.commons.codec.digest.DigestUtils;
-import org.apache.commons.logging.Log;
-import org.apache.commons.logging.LogFactory;
-
+import be.fedict.eid.dss.model.DSSIdentity;
 import be.fedict.eid.dss.model.DSSIdentityConfig;
+import be.fedict.eid.dss.model.DSSIdentityStatus;
 import be.fedict.eid.dss.model.IdentityService;
 import be.fedict.eid.dss.model.exception.KeyStoreLoadException;
 
 @Stateless
 public class IdentityServiceBean implements IdentityService {
 
-	private static final Log LOG = LogFactory.getLog(IdentityServiceBean.class);
-
 	@EJB
 	private IdentityServiceSingletonBean identityServiceSingletonBean;
 
@@ -68,6 +62,30 @@ public class IdentityServiceBean implements IdentityService {
 		return this.identityServiceSingletonBean.isIdentityConfigured();
 	}
 
+	/**
+	 * {@inheritDoc}
+	 */
+	public DSSIdentityStatus getIdentityStatus(String name) {
+
+		return this.identityServiceSingletonBean.getIdentityStatus(name);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public DSSIdentityStatus getActiveIdentityStatus() {
+
+		return this.identityServiceSingletonBean.getActiveIdentityStatus();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public long getStartupDuration() {
+
+		return this.identityServiceSingletonBean.getStartupDuration();
+	}
+
 	/**
 	 * {@inheritDoc}
 	 */
@@ -126,28 +144,35 @@ public class IdentityServiceBean implements IdentityService {
 		this.identityServiceSingletonBean.removeIdentityConfig(name);
 	}
 
+	/**
+	 * {@inheritDoc}
+	 */
+	public DSSIdentity findDSSIdentity() {
+		return this.identityServiceSingletonBean.findDSSIdentity();
+	}
+
 	/**
 	 * {@inheritDoc}
 	 */
 	public String getIdentityFingerprint() {
 
-		PrivateKeyEntry identity = findIdentity();
+		DSSIdentity identity = findDSSIdentity();
 		if (null == identity) {
 			return null;
 		}
-		X509Certificate certificate = (X509Certificate) identity
-				.getCertificate();
-		if (null == certificate) {
-			return null;
-		}
-		String fingerprint;
-		try {
-			fingerprint = DigestUtils.shaHex(certificate.getEncoded());
-		} catch (CertificateEncodingException e) {
-			LOG.error("cert encoding error: " + e.getMessage(), e);
+		return identity.getSha1Fingerprint();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public String getIdentityFingerprintSha256() {
+
+		DSSIdentity identity = findDSSIdentity();
+		if (null == identity) {
 			return null;
 		}
-		return fingerprint;
+		return identity.getSha256Fingerprint();
 	}
 
 	/**
@@ -155,18 +180,10 @@ public class IdentityServiceBean implements IdentityService {
 	 */
 	public List<X509Certificate> getIdentityCertificateChain() {
 
-		PrivateKeyEntry identity = findIdentity();
-		List<X509Certificate> identityCertificateChain = new LinkedList<X509Certificate>();
+		DSSIdentity identity = findDSSIdentity();
 		if (null == identity) {
-			return identityCertificateChain;
-		}
-		Certificate[] certificateChain = identity.getCertificateChain();
-		if (null == certificateChain) {
-			return identityCertificateChain;
-		}
-		for (Certificate certificate : certificateChain) {
-			identityCertificateChain.add((X509Certificate) certificate);
+			return Collections.emptyList();
 		}
-		return identityCertificateChain;
+		return identity.getCertificateChain();
 	}
 }
@@ -25,53 +25,156 @@ import java.security.KeyStore;
 import java.security.KeyStore.PrivateKeyEntry;
 import java.security.KeyStoreException;
 import java.security.NoSuchAlgorithmException;
-import java.security.Security;
+import java.security.Provider;
 import java.security.UnrecoverableEntryException;
 import java.security.cert.CertificateException;
 import java.util.Enumeration;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import javax.ejb.Asynchronous;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.DependsOn;
 import javax.ejb.EJB;
 import javax.ejb.EJBException;
+import javax.ejb.Schedule;
+import javax.ejb.SessionContext;
 import javax.ejb.Singleton;
 import javax.ejb.Startup;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
-import sun.security.pkcs11.SunPKCS11;
 import be.fedict.eid.dss.model.ConfigProperty;
 import be.fedict.eid.dss.model.Configuration;
+import be.fedict.eid.dss.model.ConfigurationChangeEvent;
+import be.fedict.eid.dss.model.ConfigurationListener;
+import be.fedict.eid.dss.model.DSSIdentity;
 import be.fedict.eid.dss.model.DSSIdentityConfig;
+import be.fedict.eid.dss.model.DSSIdentityStatus;
+import be.fedict.eid.dss.model.IdentityState;
 import be.fedict.eid.dss.model.KeyStoreType;
 import be.fedict.eid.dss.model.exception.KeyStoreLoadException;
 
+/**
+ * Keeps the active DSS identity as an immutable snapshot. Readers never lock,
+ * only the methods that change the active identity are serialized.
+ * <p/>
+ * All configured identities are preloaded in the background, so activating
+ * an identity only swaps the snapshot. Also at startup the keystores are
+ * loaded in the background, so a slow or broken keystore never blocks or
+ * aborts the deployment. Use {@link #getActiveIdentityStatus()} to check
+ * whether the active identity is ready.
+ * <p/>
+ * Keystores are never loaded on the request path. Until the background load
+ * of a newly configured identity has finished, or when it failed, the last
+ * good identity keeps being served. Failed identities are retried from a
+ * timer with an increasing delay.
+ */
 @Singleton
 @Startup
+@DependsOn("ConfigurationBootstrapBean")
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
 public class IdentityServiceSingletonBean {
 
 	private static final Log LOG = LogFactory
 			.getLog(IdentityServiceSingletonBean.class);
 
-	private PrivateKeyEntry identity;
-	private DSSIdentityConfig identityConfig;
+	/**
+	 * Delay after a failed identity load before it is retried, doubled after
+	 * every subsequent failure.
+	 */
+	private static final long MIN_RETRY_DELAY = 60 * 1000L;
+
+	private static final long MAX_RETRY_DELAY = 32 * MIN_RETRY_DELAY;
+
+	private volatile DSSIdentity identity;
+
+	private final ConcurrentMap<String, DSSIdentityStatus> identityStatuses = new ConcurrentHashMap<String, DSSIdentityStatus>();
+
+	private final Object preloadLock = new Object();
+
+	private static class FailedLoad {
+
+		private final int failures;
+
+		private final long nextRetry;
+
+		FailedLoad(int failures, long nextRetry) {
+			this.failures = failures;
+			this.nextRetry = nextRetry;
+		}
+	}
+
+	private final ConcurrentMap<String, FailedLoad> failedLoads = new ConcurrentHashMap<String, FailedLoad>();
+
+	private long startupTime;
+
+	private volatile long startupDuration = -1;
+
+	/**
+	 * Set when the identity configuration might have changed since the last
+	 * check.
+	 */
+	private volatile boolean identityConfigChanged = true;
+
+	private final ConfigurationListener configurationListener = new ConfigurationListener() {
+
+		public void configurationChanged(ConfigurationChangeEvent event) {
+			if (event.isChanged(ConfigProperty.ACTIVE_IDENTITY)
+					|| event.isChanged(ConfigProperty.KEY_STORE_TYPE)
+					|| event.isChanged(ConfigProperty.KEY_STORE_PATH)
+					|| event.isChanged(ConfigProperty.KEY_STORE_SECRET)
+					|| event.isChanged(ConfigProperty.KEY_ENTRY_SECRET)
+					|| event.isChanged(ConfigProperty.KEY_ENTRY_ALIAS)) {
+				LOG.debug("identity configuration changed");
+				IdentityServiceSingletonBean.this.identityConfigChanged = true;
+				startPreloadIdentities();
+			}
+		}
+	};
 
 	@EJB
 	private Configuration configuration;
 
+	@EJB
+	private PKCS11ProviderSingletonBean pkcs11ProviderRegistry;
+
+	@Resource
+	private SessionContext sessionContext;
+
+	private IdentityServiceSingletonBean self;
+
 	@PostConstruct
 	public void init() {
 
-		if (isIdentityConfigured()) {
-			try {
-				reloadIdentity();
-			} catch (KeyStoreLoadException e) {
-				throw new RuntimeException(e);
-			}
+		if (null != this.sessionContext) {
+			this.self = this.sessionContext
+					.getBusinessObject(IdentityServiceSingletonBean.class);
+		}
+		this.startupTime = System.currentTimeMillis();
+		this.configuration.addListener(this.configurationListener);
+
+		try {
+			startPreloadIdentities();
+		} catch (RuntimeException e) {
+			LOG.error("could not load identities: " + e.getMessage(), e);
 		}
 	}
 
+	@PreDestroy
+	public void destroy() {
+
+		this.configuration.removeListener(this.configurationListener);
+	}
+
 	/**
 	 * @return if an active identity is configured
 	 */
@@ -88,6 +191,200 @@ public class IdentityServiceSingletonBean {
 		return this.configuration.getIndexes(ConfigProperty.KEY_STORE_TYPE);
 	}
 
+	/**
+	 * @param name
+	 *            identity name
+	 * @return the preload status of the given identity, or <code>null</code>
+	 *         if not (yet) preloaded.
+	 */
+	public DSSIdentityStatus getIdentityStatus(String name) {
+
+		return this.identityStatuses.get(name);
+	}
+
+	/**
+	 * @return the load status of the active identity, or <code>null</code> if
+	 *         no active identity is configured.
+	 */
+	public DSSIdentityStatus getActiveIdentityStatus() {
+
+		String activeIdentity = findActiveIdentityName();
+		if (null == activeIdentity) {
+			return null;
+		}
+		DSSIdentityStatus identityStatus = this.identityStatuses
+				.get(activeIdentity);
+		if (null == identityStatus) {
+			// background load not started yet
+			return new DSSIdentityStatus(activeIdentity,
+					IdentityState.LOADING, null, null, -1);
+		}
+		return identityStatus;
+	}
+
+	/**
+	 * @return the time in milliseconds between startup and the end of the
+	 *         initial background load of all identities, or <code>-1</code>
+	 *         if still loading.
+	 */
+	public long getStartupDuration() {
+		return this.startupDuration;
+	}
+
+	private void startPreloadIdentities() {
+
+		if (null == this.self) {
+			// not running within the container
+			preloadIdentities();
+		} else {
+			this.self.preloadIdentities();
+		}
+	}
+
+	/**
+	 * Loads and validates all configured identities in the background.
+	 */
+	@Asynchronous
+	public void preloadIdentities() {
+
+		List<String> names = new LinkedList<String>(getIdentities());
+		// the active identity first, it is required to serve requests
+		String activeIdentity = findActiveIdentityName();
+		if (null != activeIdentity && names.remove(activeIdentity)) {
+			names.add(0, activeIdentity);
+		}
+		for (String name : names) {
+			preloadIdentity(name);
+		}
+		this.identityStatuses.keySet().retainAll(names);
+
+		if (-1 == this.startupDuration) {
+			this.startupDuration = System.currentTimeMillis()
+					- this.startupTime;
+			LOG.info("identities loaded in " + this.startupDuration + " ms");
+		}
+	}
+
+	/**
+	 * Loads and validates the given identity, unless it has already been
+	 * loaded from an identical configuration.
+	 * 
+	 * @param name
+	 *            identity name
+	 * @return the resulting preload status.
+	 */
+	public DSSIdentityStatus preloadIdentity(String name) {
+
+		synchronized (this.preloadLock) {
+			DSSIdentityConfig dssIdentityConfig = findIdentityConfig(name);
+			if (null == dssIdentityConfig) {
+				this.identityStatuses.remove(name);
+				return null;
+			}
+			if (null != findPreloadedIdentity(dssIdentityConfig)) {
+				return this.identityStatuses.get(name);
+			}
+
+			LOG.debug("preload identity: " + name);
+			this.identityStatuses.put(name, new DSSIdentityStatus(name,
+					IdentityState.LOADING, null, null, -1));
+			long loadStart = System.currentTimeMillis();
+			try {
+				loadDSSIdentity(dssIdentityConfig);
+			} catch (KeyStoreLoadException e) {
+				putFailedIdentity(name, e, loadStart);
+			} catch (RuntimeException e) {
+				putFailedIdentity(name, e, loadStart);
+			}
+			return this.identityStatuses.get(name);
+		}
+	}
+
+	private void putFailedIdentity(String name, Exception e, long loadStart) {
+
+		LOG.error("could not load identity " + name + ": " + e.getMessage(),
+				e);
+		this.identityStatuses.put(name, new DSSIdentityStatus(name,
+				IdentityState.FAILED, null, e.getMessage(), System
+						.currentTimeMillis() - loadStart));
+
+		FailedLoad previousFailedLoad = this.failedLoads.get(name);
+		int failures = null == previousFailedLoad ? 1
+				: previousFailedLoad.failures + 1;
+		long retryDelay = Math.min(MIN_RETRY_DELAY << Math.min(failures - 1,
+				16), MAX_RETRY_DELAY);
+		LOG.debug("retry identity " + name + " in " + retryDelay + " ms");
+		this.failedLoads.put(name, new FailedLoad(failures, System
+				.currentTimeMillis() + retryDelay));
+	}
+
+	/**
+	 * Retries the background load of the identities that failed to load, once
+	 * their retry delay has passed.
+	 */
+	@Schedule(hour = "*", minute = "*", persistent = false)
+	public void retryFailedIdentities() {
+
+		long now = System.currentTimeMillis();
+		for (Map.Entry<String, FailedLoad> failedLoad : this.failedLoads
+				.entrySet()) {
+			String name = failedLoad.getKey();
+			DSSIdentityStatus identityStatus = this.identityStatuses
+					.get(name);
+			if (null == identityStatus
+					|| IdentityState.FAILED != identityStatus.getState()) {
+				this.failedLoads.remove(name, failedLoad.getValue());
+				continue;
+			}
+			if (now < failedLoad.getValue().nextRetry) {
+				continue;
+			}
+			LOG.debug("retry identity: " + name);
+			preloadIdentity(name);
+		}
+	}
+
+	/**
+	 * @return the preloaded identity for the given configuration, or
+	 *         <code>null</code> if not available.
+	 */
+	private DSSIdentity findPreloadedIdentity(
+			DSSIdentityConfig dssIdentityConfig) {
+
+		DSSIdentityStatus identityStatus = this.identityStatuses
+				.get(dssIdentityConfig.getName());
+		if (null == identityStatus
+				|| IdentityState.READY != identityStatus.getState()) {
+			return null;
+		}
+		DSSIdentity preloadedIdentity = identityStatus.getIdentity();
+		if (!preloadedIdentity.isLoadedFrom(dssIdentityConfig)) {
+			return null;
+		}
+		return preloadedIdentity;
+	}
+
+	/**
+	 * Loads the given identity and registers it as ready.
+	 */
+	private DSSIdentity loadDSSIdentity(DSSIdentityConfig dssIdentityConfig)
+			throws KeyStoreLoadException {
+
+		long loadStart = System.currentTimeMillis();
+		DSSIdentity dssIdentity = newDSSIdentity(dssIdentityConfig,
+				loadIdentity(dssIdentityConfig));
+		long loadDuration = System.currentTimeMillis() - loadStart;
+		LOG.debug("identity " + dssIdentity.getName() + " loaded in "
+				+ loadDuration + " ms");
+		this.identityStatuses.put(dssIdentity.getName(),
+				new DSSIdentityStatus(dssIdentity.getName(),
+						IdentityState.READY, dssIdentity, null, loadDuration));
+		this.failedLoads.remove(dssIdentity.getName());
+		// readers swap in the new identity if it is the active one
+		this.identityConfigChanged = true;
+		return dssIdentity;
+	}
+
 	/**
 	 * Set new active identity
 	 * 
@@ -96,7 +393,8 @@ public class IdentityServiceSingletonBean {
 	 * @throws KeyStoreLoadException
 	 *             failed to load keystore
 	 */
-	public void setActiveIdentity(String name) throws KeyStoreLoadException {
+	public synchronized void setActiveIdentity(String name)
+			throws KeyStoreLoadException {
 
 		LOG.debug("set active identity: " + name);
 		DSSIdentityConfig dssIdentityConfig = findIdentityConfig(name);
@@ -106,11 +404,16 @@ public class IdentityServiceSingletonBean {
 					+ "\" not found!");
 		}
 
+		DSSIdentity dssIdentity = findPreloadedIdentity(dssIdentityConfig);
+		if (null == dssIdentity) {
+			LOG.debug("identity not preloaded: " + name);
+			dssIdentity = loadDSSIdentity(dssIdentityConfig);
+		}
+
 		this.configuration.setValue(ConfigProperty.ACTIVE_IDENTITY, name);
 
-		this.identity = loadIdentity(dssIdentityConfig);
-		this.identityConfig = dssIdentityConfig;
-		LOG.debug("private key entry reloaded");
+		this.identity = dssIdentity;
+		LOG.debug("active identity switched");
 	}
 
 	/**
@@ -119,12 +422,11 @@ public class IdentityServiceSingletonBean {
 	 * @throws KeyStoreLoadException
 	 *             failed to load keystore
 	 */
-	public void reloadIdentity() throws KeyStoreLoadException {
+	public synchronized void reloadIdentity() throws KeyStoreLoadException {
 
 		DSSIdentityConfig dssIdentityConfig = findIdentityConfig(findActiveIdentityName());
 
-		this.identity = loadIdentity(dssIdentityConfig);
-		this.identityConfig = dssIdentityConfig;
+		this.identity = loadDSSIdentity(dssIdentityConfig);
 		LOG.debug("private key entry reloaded");
 	}
 
@@ -163,10 +465,14 @@ public class IdentityServiceSingletonBean {
 			}
 
 			FileInputStream keyStoreInputStream = null;
+			KeyStore keyStore;
 			if (dssIdentityConfig.getKeyStoreType().equals(KeyStoreType.PKCS11)) {
-				Security.addProvider(new SunPKCS11(dssIdentityConfig
-						.getKeyStorePath()));
+				keyStore = KeyStore.getInstance(dssIdentityConfig
+						.getKeyStoreType().getJavaKeyStoreType(),
+						findProvider(dssIdentityConfig));
 			} else {
+				keyStore = KeyStore.getInstance(dssIdentityConfig
+						.getKeyStoreType().getJavaKeyStoreType());
 				try {
 					keyStoreInputStream = new FileInputStream(
 							dssIdentityConfig.getKeyStorePath());
@@ -178,8 +484,6 @@ public class IdentityServiceSingletonBean {
 			}
 
 			// load keystore
-			KeyStore keyStore = KeyStore.getInstance(dssIdentityConfig
-					.getKeyStoreType().getJavaKeyStoreType());
 			char[] password;
 			if (null != dssIdentityConfig.getKeyStorePassword()
 					&& !dssIdentityConfig.getKeyStorePassword().isEmpty()) {
@@ -248,25 +552,98 @@ public class IdentityServiceSingletonBean {
 		}
 	}
 
+	private DSSIdentity newDSSIdentity(DSSIdentityConfig dssIdentityConfig,
+			PrivateKeyEntry privateKeyEntry) throws KeyStoreLoadException {
+
+		Integer signaturePoolSize = this.configuration.getValue(
+				ConfigProperty.SIGNATURE_POOL_SIZE, Integer.class);
+		if (null == signaturePoolSize || signaturePoolSize < 1) {
+			signaturePoolSize = DSSIdentity.DEFAULT_SIGNATURE_POOL_SIZE;
+		}
+		return new DSSIdentity(dssIdentityConfig, privateKeyEntry,
+				findProvider(dssIdentityConfig), signaturePoolSize);
+	}
+
+	/**
+	 * @return the security provider of the given identity's keystore, or
+	 *         <code>null</code> for the default provider selection.
+	 */
+	private Provider findProvider(DSSIdentityConfig dssIdentityConfig) {
+
+		if (KeyStoreType.PKCS11 != dssIdentityConfig.getKeyStoreType()) {
+			return null;
+		}
+		return this.pkcs11ProviderRegistry.getProvider(dssIdentityConfig
+				.getKeyStorePath());
+	}
+
 	/**
 	 * @return current DSS Identity or <code>null</code> if none.
 	 */
 	public PrivateKeyEntry findIdentity() {
 
-		// check identity config changed in dbase, if so reload!
-		DSSIdentityConfig databaseIdentityConfig = findIdentityConfig();
+		DSSIdentity dssIdentity = findDSSIdentity();
+		if (null == dssIdentity) {
+			return null;
+		}
+		return dssIdentity.getPrivateKeyEntry();
+	}
+
+	/**
+	 * @return snapshot of the current DSS Identity or <code>null</code> if
+	 *         none.
+	 */
+	public DSSIdentity findDSSIdentity() {
 
-		if (null != databaseIdentityConfig) {
-			if (!databaseIdentityConfig.equals(this.identityConfig)) {
-				try {
-					this.identity = loadIdentity(databaseIdentityConfig);
-				} catch (KeyStoreLoadException e) {
-					throw new RuntimeException(e);
-				}
-				this.identityConfig = databaseIdentityConfig;
+		if (this.identityConfigChanged) {
+			refreshIdentity();
+		}
+		DSSIdentity dssIdentity = this.identity;
+		if (null == dssIdentity) {
+			// no last good identity to fall back to
+			DSSIdentityStatus identityStatus = getActiveIdentityStatus();
+			if (null != identityStatus) {
+				throw new RuntimeException("identity "
+						+ identityStatus.getName() + " not loaded: "
+						+ identityStatus.getState() + " "
+						+ identityStatus.getErrorMessage());
+			}
+		}
+		return dssIdentity;
+	}
+
+	/**
+	 * Swaps in the preloaded identity of the current identity configuration,
+	 * if available. Never loads a keystore itself, so a slow or broken
+	 * keystore cannot hold up the readers.
+	 */
+	private void refreshIdentity() {
+
+		this.identityConfigChanged = false;
+		try {
+			DSSIdentityConfig databaseIdentityConfig = findIdentityConfig();
+			if (null == databaseIdentityConfig) {
+				return;
+			}
+			DSSIdentity currentIdentity = this.identity;
+			if (null != currentIdentity
+					&& currentIdentity.isLoadedFrom(databaseIdentityConfig)) {
+				return;
 			}
+			DSSIdentity preloadedIdentity = findPreloadedIdentity(databaseIdentityConfig);
+			if (null == preloadedIdentity) {
+				// swapped in once the background load has finished
+				LOG.debug("identity not loaded: "
+						+ databaseIdentityConfig.getName());
+				return;
+			}
+			this.identity = preloadedIdentity;
+			LOG.debug("active identity: " + preloadedIdentity.getName());
+		} catch (RuntimeException e) {
+			// only configuration lookups, check again next time
+			this.identityConfigChanged = true;
+			throw e;
 		}
-		return this.identity;
 	}
 
 	/**
@@ -335,8 +712,8 @@ public class IdentityServiceSingletonBean {
 	 * @throws KeyStoreLoadException
 	 *             failed to load keystore
 	 */
-	public PrivateKeyEntry setIdentity(DSSIdentityConfig dssIdentityConfig)
-			throws KeyStoreLoadException {
+	public synchronized PrivateKeyEntry setIdentity(
+			DSSIdentityConfig dssIdentityConfig) throws KeyStoreLoadException {
 
 		LOG.debug("set identity: " + dssIdentityConfig.getName());
 
@@ -358,7 +735,9 @@ public class IdentityServiceSingletonBean {
 					dssIdentityConfig.getKeyEntryAlias());
 		}
 
-		return loadIdentity(dssIdentityConfig.getName());
+		DSSIdentityConfig storedIdentityConfig = findIdentityConfig(dssIdentityConfig
+				.getName());
+		return loadDSSIdentity(storedIdentityConfig).getPrivateKeyEntry();
 	}
 
 	/**
@@ -367,7 +746,7 @@ public class IdentityServiceSingletonBean {
 	 * @param name
 	 *            name of identity config to remove
 	 */
-	public void removeIdentityConfig(String name) {
+	public synchronized void removeIdentityConfig(String name) {
 
 		LOG.debug("remove identity: " + name);
 
@@ -375,7 +754,6 @@ public class IdentityServiceSingletonBean {
 		if (null != activeIdentity && activeIdentity.equals(name)) {
 			this.configuration.removeValue(ConfigProperty.ACTIVE_IDENTITY);
 			this.identity = null;
-			this.identityConfig = null;
 		}
 
 		this.configuration.removeValue(ConfigProperty.KEY_STORE_TYPE, name);
@@ -383,5 +761,6 @@ public class IdentityServiceSingletonBean {
 		this.configuration.removeValue(ConfigProperty.KEY_STORE_SECRET, name);
 		this.configuration.removeValue(ConfigProperty.KEY_ENTRY_SECRET, name);
 		this.configuration.removeValue(ConfigProperty.KEY_ENTRY_ALIAS, name);
+		this.identityStatuses.remove(name);
 	}
 }
@@ -0,0 +1,70 @@
+/*
+ * eID Digital Signature Service Project.
+ * Copyright (C) 2010 FedICT.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+package be.fedict.eid.dss.model.bean;
+
+import java.security.Provider;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.Singleton;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import sun.security.pkcs11.SunPKCS11;
+
+/**
+ * Keeps one PKCS#11 security provider per PKCS#11 configuration file, so
+ * reloading an identity does not initialize the token again. The providers
+ * are not registered JVM-wide via {@link java.security.Security}, but are
+ * passed explicitly to the JCA factory methods.
+ */
+@Singleton
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class PKCS11ProviderSingletonBean {
+
+	private static final Log LOG = LogFactory
+			.getLog(PKCS11ProviderSingletonBean.class);
+
+	private final ConcurrentMap<String, Provider> providers = new ConcurrentHashMap<String, Provider>();
+
+	/**
+	 * @param configPath
+	 *            path of the PKCS#11 configuration file.
+	 * @return the PKCS#11 provider for the given configuration.
+	 */
+	public Provider getProvider(String configPath) {
+
+		Provider provider = this.providers.get(configPath);
+		if (null != provider) {
+			return provider;
+		}
+		synchronized (this.providers) {
+			provider = this.providers.get(configPath);
+			if (null == provider) {
+				LOG.debug("creating PKCS#11 provider for: " + configPath);
+				provider = new SunPKCS11(configPath);
+				this.providers.put(configPath, provider);
+			}
+		}
+		return provider;
+	}
+}
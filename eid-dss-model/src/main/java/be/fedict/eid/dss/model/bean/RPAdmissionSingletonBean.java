@@ -0,0 +1,118 @@
+/*
+ * eID Digital Signature Service Project.
+ * Copyright (C) 2010 FedICT.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+
+package be.fedict.eid.dss.model.bean;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.EJB;
+import javax.ejb.Schedule;
+import javax.ejb.Singleton;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import be.fedict.eid.dss.entity.RPEntity;
+import be.fedict.eid.dss.model.RPService;
+import be.fedict.eid.dss.model.TokenBucket;
+
+/**
+ * Node-local registry of the admission control token buckets, keyed by RP id,
+ * so that all domains covered by a wildcard RP share the same limit.
+ * <p/>
+ * The registry is an immutable map that is replaced as a whole when the RP
+ * configuration is reloaded, so looking up a token bucket takes no lock and
+ * never touches the database. The RP configuration is reloaded every minute,
+ * so changes made on another node are picked up as well. Token buckets of
+ * which the limits did not change are kept on reload.
+ */
+@Singleton
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class RPAdmissionSingletonBean {
+
+	private static final Log LOG = LogFactory
+			.getLog(RPAdmissionSingletonBean.class);
+
+	private volatile Map<Long, TokenBucket> tokenBuckets;
+
+	@EJB
+	private RPService rpService;
+
+	/**
+	 * @param rpId
+	 *            the RP id.
+	 * @return the token bucket of the given RP, or <code>null</code> if the
+	 *         RP is not rate limited.
+	 */
+	public TokenBucket getTokenBucket(long rpId) {
+
+		Map<Long, TokenBucket> tokenBuckets = this.tokenBuckets;
+		if (null == tokenBuckets) {
+			tokenBuckets = load();
+		}
+		return tokenBuckets.get(rpId);
+	}
+
+	/**
+	 * Recreates the token buckets of all rate limited RPs. Also called after
+	 * a RP got saved or removed on this node.
+	 */
+	@Schedule(hour = "*", minute = "*", persistent = false)
+	public void reload() {
+
+		load();
+	}
+
+	/**
+	 * Loads are serialized, so a load that started before a RP change got
+	 * committed cannot replace the token buckets of a later load.
+	 */
+	private synchronized Map<Long, TokenBucket> load() {
+
+		Map<Long, TokenBucket> previousTokenBuckets = this.tokenBuckets;
+		Map<Long, TokenBucket> tokenBuckets = new HashMap<Long, TokenBucket>();
+		for (RPEntity rp : this.rpService.listRateLimitedRPs()) {
+			int burst;
+			if (null == rp.getRateLimitBurst() || rp.getRateLimitBurst() < 1) {
+				burst = rp.getRateLimit();
+			} else {
+				burst = rp.getRateLimitBurst();
+			}
+			TokenBucket tokenBucket = null;
+			if (null != previousTokenBuckets) {
+				tokenBucket = previousTokenBuckets.get(rp.getId());
+			}
+			if (null == tokenBucket
+					|| tokenBucket.getRequestsPerMinute() != rp.getRateLimit()
+					|| tokenBucket.getBurst() != burst) {
+				tokenBucket = new TokenBucket(rp.getRateLimit(), burst);
+			}
+			tokenBuckets.put(rp.getId(), tokenBucket);
+		}
+		LOG.debug("rate limited RPs: " + tokenBuckets.size());
+		tokenBuckets = Collections.unmodifiableMap(tokenBuckets);
+		this.tokenBuckets = tokenBuckets;
+		return tokenBuckets;
+	}
+
+}
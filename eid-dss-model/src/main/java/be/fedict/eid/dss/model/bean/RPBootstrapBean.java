@@ -0,0 +1,52 @@
+/*
+ * eID Digital Signature Service Project.
+ * Copyright (C) 2010 FedICT.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+
+package be.fedict.eid.dss.model.bean;
+
+import javax.annotation.PostConstruct;
+import javax.ejb.EJB;
+import javax.ejb.Singleton;
+import javax.ejb.Startup;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import be.fedict.eid.dss.model.RPService;
+
+/**
+ * Prepares the persisted RPs once, at application startup: computes the logo
+ * variants of the RPs saved before these were computed at upload time, so
+ * their logos can be served from the RP registry.
+ */
+@Singleton
+@Startup
+public class RPBootstrapBean {
+
+	private static final Log LOG = LogFactory.getLog(RPBootstrapBean.class);
+
+	@EJB
+	private RPService rpService;
+
+	@PostConstruct
+	public void init() {
+
+		int count = this.rpService.initLogoVariants();
+		LOG.info("RP bootstrap: " + count + " logo(s) initialized");
+	}
+}
@@ -0,0 +1,198 @@
+/*
+ * eID Digital Signature Service Project.
+ * Copyright (C) 2010 FedICT.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+
+package be.fedict.eid.dss.model.bean;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.EJB;
+import javax.ejb.Schedule;
+import javax.ejb.Singleton;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import be.fedict.eid.dss.entity.RPEntity;
+import be.fedict.eid.dss.model.DomainTrie;
+import be.fedict.eid.dss.model.RPRegistration;
+import be.fedict.eid.dss.model.RPService;
+
+/**
+ * Node-local registry of the relying parties, keyed by id, by domain and by
+ * certificate fingerprint. RP domains that are host names or wildcard
+ * patterns like <code>*.example.be</code> are also indexed in a
+ * {@link DomainTrie}, so one RP can cover many sub-domains.
+ * <p/>
+ * All indexes are immutable once built and replaced as a whole when the RP
+ * configuration is reloaded, so lookups take no lock, never touch the
+ * database and never parse a certificate. The RP configuration is reloaded
+ * every minute, so changes made on another node are picked up as well.
+ */
+@Singleton
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class RPRegistrySingletonBean {
+
+	private static final Log LOG = LogFactory
+			.getLog(RPRegistrySingletonBean.class);
+
+	private volatile Registry registry;
+
+	@EJB
+	private RPService rpService;
+
+	private static class Registry {
+
+		private final Map<Long, RPRegistration> ids;
+
+		private final Map<String, RPRegistration> domains;
+
+		private final DomainTrie<RPRegistration> domainPatterns;
+
+		private final Map<String, RPRegistration> fingerprints;
+
+		Registry(Map<Long, RPRegistration> ids,
+				Map<String, RPRegistration> domains,
+				DomainTrie<RPRegistration> domainPatterns,
+				Map<String, RPRegistration> fingerprints) {
+			this.ids = Collections.unmodifiableMap(ids);
+			this.domains = Collections.unmodifiableMap(domains);
+			this.domainPatterns = domainPatterns;
+			this.fingerprints = Collections.unmodifiableMap(fingerprints);
+		}
+	}
+
+	/**
+	 * @param id
+	 *            the RP id.
+	 * @return the registration, or <code>null</code> if unknown.
+	 */
+	public RPRegistration findById(long id) {
+		return getRegistry().ids.get(id);
+	}
+
+	/**
+	 * Gives the RP of a domain. An RP with exactly the given domain takes
+	 * precedence, otherwise the host name of the domain is matched against
+	 * the host name and wildcard RP domains. The scheme and port of a URL are
+	 * deliberately ignored for the latter, only an exact URL domain can bind
+	 * an RP to a scheme or port.
+	 * 
+	 * @param domain
+	 *            the requesting domain, a host name or URL.
+	 * @return the registration, or <code>null</code> if unknown.
+	 */
+	public RPRegistration findByDomain(String domain) {
+
+		Registry registry = getRegistry();
+		RPRegistration registration = registry.domains.get(domain);
+		if (null != registration) {
+			return registration;
+		}
+		String hostName = getHostName(domain);
+		if (null == hostName) {
+			return null;
+		}
+		return registry.domainPatterns.find(hostName);
+	}
+
+	private String getHostName(String domain) {
+
+		if (-1 == domain.indexOf("://")) {
+			return domain;
+		}
+		try {
+			return new URI(domain).getHost();
+		} catch (URISyntaxException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * @param fingerprint
+	 *            the SHA-1 fingerprint of the RP certificate, hex encoded.
+	 * @return the registration, or <code>null</code> if unknown.
+	 */
+	public RPRegistration findByFingerprint(String fingerprint) {
+		return getRegistry().fingerprints.get(fingerprint.toLowerCase());
+	}
+
+	private Registry getRegistry() {
+
+		Registry registry = this.registry;
+		if (null == registry) {
+			registry = load();
+		}
+		return registry;
+	}
+
+	/**
+	 * Reloads all RP registrations. Also called after a RP got saved or
+	 * removed on this node.
+	 */
+	@Schedule(hour = "*", minute = "*", persistent = false)
+	public void reload() {
+
+		load();
+	}
+
+	/**
+	 * Loads are serialized, so a load that started before a RP change got
+	 * committed cannot replace the registry of a later load.
+	 */
+	private synchronized Registry load() {
+
+		Map<Long, RPRegistration> ids = new HashMap<Long, RPRegistration>();
+		Map<String, RPRegistration> domains = new HashMap<String, RPRegistration>();
+		DomainTrie<RPRegistration> domainPatterns = new DomainTrie<RPRegistration>();
+		Map<String, RPRegistration> fingerprints = new HashMap<String, RPRegistration>();
+		for (RPEntity rp : this.rpService.listRPsWithoutLogo()) {
+			RPRegistration registration;
+			try {
+				registration = new RPRegistration(rp);
+			} catch (RuntimeException e) {
+				LOG.error("invalid RP " + rp.getName() + ": " + e.getMessage(),
+						e);
+				continue;
+			}
+			ids.put(registration.getId(), registration);
+			if (null != registration.getDomain()) {
+				domains.put(registration.getDomain(), registration);
+				if (DomainTrie.isDomainPattern(registration.getDomain())) {
+					domainPatterns.put(registration.getDomain(), registration);
+				}
+			}
+			if (null != registration.getCertificateFingerprint()) {
+				fingerprints.put(registration.getCertificateFingerprint(),
+						registration);
+			}
+		}
+		LOG.debug("RPs: " + ids.size() + ", domain patterns: "
+				+ domainPatterns.size());
+		Registry registry = new Registry(ids, domains, domainPatterns,
+				fingerprints);
+		this.registry = registry;
+		return registry;
+	}
+}
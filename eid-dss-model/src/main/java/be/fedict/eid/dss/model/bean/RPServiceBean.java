@@ -18,21 +18,65 @@
 
 package be.fedict.eid.dss.model.bean;
 
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Iterator;
 import java.util.List;
 
+import javax.annotation.Resource;
+import javax.ejb.EJB;
 import javax.ejb.Stateless;
+import javax.ejb.TransactionAttribute;
+import javax.ejb.TransactionAttributeType;
 import javax.persistence.EntityManager;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
 import javax.persistence.PersistenceContext;
+import javax.transaction.TransactionSynchronizationRegistry;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 
 import be.fedict.eid.dss.entity.RPEntity;
+import be.fedict.eid.dss.model.DomainTrie;
+import be.fedict.eid.dss.model.RPRegistration;
 import be.fedict.eid.dss.model.RPService;
+import be.fedict.eid.dss.model.TokenBucket;
+import be.fedict.eid.dss.model.exception.InvalidDomainPatternException;
 
 @Stateless
 public class RPServiceBean implements RPService {
 
+	private static final Log LOG = LogFactory.getLog(RPServiceBean.class);
+
+	/**
+	 * Maximum width and height of the logo thumbnail.
+	 */
+	public static final int THUMBNAIL_SIZE = 100;
+
+	private static final String DEFAULT_LOGO_CONTENT_TYPE = "application/octet-stream";
+
 	@PersistenceContext
 	private EntityManager entityManager;
 
+	@EJB
+	private RPRegistrySingletonBean rpRegistrySingletonBean;
+
+	@EJB
+	private RPAdmissionSingletonBean rpAdmissionSingletonBean;
+
+	@EJB
+	private AccountingSingletonBean accountingSingletonBean;
+
+	@Resource
+	private TransactionSynchronizationRegistry transactionSynchronizationRegistry;
+
 	/**
 	 * {@inheritDoc}
 	 */
@@ -41,6 +85,22 @@ public class RPServiceBean implements RPService {
 		return RPEntity.listRPs(this.entityManager);
 	}
 
+	/**
+	 * {@inheritDoc}
+	 */
+	public List<RPEntity> listRPsWithoutLogo() {
+
+		return RPEntity.listRPsWithoutLogo(this.entityManager);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public List<RPEntity> listRateLimitedRPs() {
+
+		return RPEntity.listRateLimitedRPs(this.entityManager);
+	}
+
 	/**
 	 * {@inheritDoc}
 	 */
@@ -49,12 +109,24 @@ public class RPServiceBean implements RPService {
 		RPEntity attachedRp = this.entityManager.find(RPEntity.class,
 				rp.getId());
 		this.entityManager.remove(attachedRp);
+		reload();
 	}
 
 	/**
 	 * {@inheritDoc}
 	 */
-	public RPEntity save(RPEntity rp) {
+	public RPEntity save(RPEntity rp) throws InvalidDomainPatternException {
+
+		String domain = rp.getDomain();
+		if (null != domain) {
+			domain = domain.trim();
+			if (domain.isEmpty()) {
+				domain = null;
+			} else if (-1 != domain.indexOf('*')
+					&& !DomainTrie.isDomainPattern(domain)) {
+				throw new InvalidDomainPatternException(domain);
+			}
+		}
 
 		RPEntity attachedRp = null;
 		if (null != rp.getId()) {
@@ -66,40 +138,241 @@ public class RPServiceBean implements RPService {
 			// configuration
 			attachedRp.setName(rp.getName());
 			attachedRp.setRequestSigningRequired(rp.isRequestSigningRequired());
-			if (null != rp.getDomain() && rp.getDomain().trim().isEmpty()) {
-				attachedRp.setDomain(null);
-			} else {
-				attachedRp.setDomain(rp.getDomain().trim());
-			}
+			attachedRp.setDomain(domain);
 
 			// logo
 			if (null != rp.getLogo()) {
 				attachedRp.setLogo(rp.getLogo());
 			}
+			updateLogoVariants(attachedRp);
 
 			// signing
 			attachedRp.setEncodedCertificate(rp.getEncodedCertificate());
 
+			// admission control
+			attachedRp.setRateLimit(rp.getRateLimit());
+			attachedRp.setRateLimitBurst(rp.getRateLimitBurst());
+
+			reload();
 			return attachedRp;
 		} else {
 			// add
-			if (null != rp.getDomain() && rp.getDomain().trim().isEmpty()) {
-				rp.setDomain(null);
-			}
+			rp.setDomain(domain);
+			updateLogoVariants(rp);
 			this.entityManager.persist(rp);
+			reload();
 			return rp;
 		}
 	}
 
+	/**
+	 * Computes the logo hash, content type and resized variants when the logo
+	 * has changed, so that serving the logo requires no image processing.
+	 */
+	private void updateLogoVariants(RPEntity rp) {
+
+		byte[] logo = rp.getLogo();
+		if (null == logo) {
+			rp.setLogoHash(null);
+			rp.setLogoContentType(null);
+			rp.setLogoThumbnail(null);
+			rp.setLogoThumbnailAvailable(null);
+			return;
+		}
+		String logoHash = DigestUtils.shaHex(logo);
+		if (logoHash.equals(rp.getLogoHash())
+				&& null != rp.getLogoThumbnailAvailable()) {
+			return;
+		}
+		LOG.debug("logo changed for RP: " + rp.getName());
+		rp.setLogoHash(logoHash);
+		rp.setLogoContentType(DEFAULT_LOGO_CONTENT_TYPE);
+		rp.setLogoThumbnail(null);
+		rp.setLogoThumbnailAvailable(false);
+		try {
+			ImageInputStream imageInputStream = ImageIO
+					.createImageInputStream(new ByteArrayInputStream(logo));
+			if (null == imageInputStream) {
+				return;
+			}
+			try {
+				Iterator<ImageReader> imageReaders = ImageIO
+						.getImageReaders(imageInputStream);
+				if (!imageReaders.hasNext()) {
+					LOG.warn("unsupported logo format for RP: "
+							+ rp.getName());
+					return;
+				}
+				ImageReader imageReader = imageReaders.next();
+				try {
+					String[] mimeTypes = imageReader.getOriginatingProvider()
+							.getMIMETypes();
+					if (null != mimeTypes && mimeTypes.length > 0) {
+						rp.setLogoContentType(mimeTypes[0]);
+					}
+					imageReader.setInput(imageInputStream);
+					rp.setLogoThumbnail(getThumbnail(imageReader.read(0)));
+					rp.setLogoThumbnailAvailable(true);
+				} finally {
+					imageReader.dispose();
+				}
+			} finally {
+				imageInputStream.close();
+			}
+		} catch (IOException e) {
+			LOG.warn("could not resize logo: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public int initLogoVariants() {
+
+		List<RPEntity> rps = RPEntity
+				.listWithoutLogoVariants(this.entityManager);
+		for (RPEntity rp : rps) {
+			updateLogoVariants(rp);
+		}
+		if (!rps.isEmpty()) {
+			reload();
+		}
+		return rps.size();
+	}
+
+	private byte[] getThumbnail(BufferedImage image) throws IOException {
+
+		double scale = Math.min(1.0, Math.min((double) THUMBNAIL_SIZE
+				/ image.getWidth(), (double) THUMBNAIL_SIZE
+				/ image.getHeight()));
+		int width = Math.max(1, (int) Math.round(image.getWidth() * scale));
+		int height = Math.max(1, (int) Math.round(image.getHeight() * scale));
+
+		BufferedImage thumbnail = new BufferedImage(width, height,
+				BufferedImage.TYPE_INT_ARGB);
+		Graphics2D graphics = thumbnail.createGraphics();
+		try {
+			graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+					RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+			graphics.drawImage(image, 0, 0, width, height, null);
+		} finally {
+			graphics.dispose();
+		}
+		ByteArrayOutputStream thumbnailOutputStream = new ByteArrayOutputStream();
+		ImageIO.write(thumbnail, "png", thumbnailOutputStream);
+		return thumbnailOutputStream.toByteArray();
+	}
+
+	/**
+	 * Reloads the RP registry and the admission control once the RP change
+	 * got committed, so a rolled back change is never served.
+	 */
+	private void reload() {
+
+		this.transactionSynchronizationRegistry
+				.registerInterposedSynchronization(new AfterCompletionSynchronization() {
+
+					protected void afterTransaction(boolean committed) {
+						if (!committed) {
+							return;
+						}
+						RPServiceBean.this.rpRegistrySingletonBean.reload();
+						RPServiceBean.this.rpAdmissionSingletonBean.reload();
+					}
+				});
+	}
+
 	/**
 	 * {@inheritDoc}
 	 */
 	public RPEntity find(String domain) {
 
-		if (null != domain) {
-			return RPEntity.findRP(this.entityManager, domain);
+		if (null == domain) {
+			return null;
+		}
+
+		RPRegistration registration = this.rpRegistrySingletonBean
+				.findByDomain(domain);
+		if (null != registration) {
+			RPEntity rp = this.entityManager.find(RPEntity.class,
+					registration.getId());
+			if (null != rp && null != rp.getDomain()
+					&& rp.getDomain().equals(registration.getDomain())) {
+				return rp;
+			}
+			LOG.debug("RP registry outdated for domain: " + domain);
 		}
+		return RPEntity.findRP(this.entityManager, domain);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@TransactionAttribute(TransactionAttributeType.SUPPORTS)
+	public RPRegistration findRegistration(String domain) {
+
+		if (null == domain) {
+			return null;
+		}
+		return this.rpRegistrySingletonBean.findByDomain(domain);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@TransactionAttribute(TransactionAttributeType.SUPPORTS)
+	public RPRegistration findRegistrationByFingerprint(String fingerprint) {
 
-		return null;
+		if (null == fingerprint) {
+			return null;
+		}
+		return this.rpRegistrySingletonBean.findByFingerprint(fingerprint);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@TransactionAttribute(TransactionAttributeType.SUPPORTS)
+	public boolean admit(String domain) {
+
+		if (null == domain) {
+			return true;
+		}
+		RPRegistration registration = this.rpRegistrySingletonBean
+				.findByDomain(domain);
+		if (null == registration) {
+			return true;
+		}
+		TokenBucket tokenBucket = this.rpAdmissionSingletonBean
+				.getTokenBucket(registration.getId());
+		if (null == tokenBucket || tokenBucket.tryAcquire()) {
+			return true;
+		}
+		this.accountingSingletonBean.addRejectedRequest(domain);
+		return false;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@TransactionAttribute(TransactionAttributeType.SUPPORTS)
+	public RPRegistration findRegistrationById(long id) {
+
+		return this.rpRegistrySingletonBean.findById(id);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public byte[] getLogo(long id, boolean thumbnail) {
+
+		RPEntity rp = this.entityManager.find(RPEntity.class, id);
+		if (null == rp) {
+			return null;
+		}
+		if (thumbnail && null != rp.getLogoThumbnail()) {
+			return rp.getLogoThumbnail();
+		}
+		return rp.getLogo();
 	}
 }
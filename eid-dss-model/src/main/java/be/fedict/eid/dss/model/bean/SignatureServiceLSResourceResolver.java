@@ -18,6 +18,11 @@
 
 package be.fedict.eid.dss.model.bean;
 
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
 import javax.persistence.EntityManager;
 
 import org.apache.commons.logging.Log;
@@ -27,39 +32,66 @@ import org.w3c.dom.ls.LSResourceResolver;
 
 import be.fedict.eid.dss.entity.XmlSchemaEntity;
 
+/**
+ * Resolves schema imports against the stored XML schemas.
+ * <p/>
+ * Every namespace is looked up only once per resolver, so diamond-shaped or
+ * deep import graphs do not hit the schema source repeatedly during one
+ * compilation. When the source does not need an {@link EntityManager}, e.g.
+ * the {@link XmlSchemaCacheSingletonBean} source, compilation can run outside
+ * of a transaction.
+ * <p/>
+ * A resolver instance is meant for a single compilation and is not
+ * thread-safe.
+ */
 public class SignatureServiceLSResourceResolver implements LSResourceResolver {
 
 	private static final Log LOG = LogFactory
 			.getLog(SignatureServiceLSResourceResolver.class);
 
-	private final EntityManager entityManager;
+	private final XmlSchemaSource xmlSchemaSource;
+
+	private final Map<String, XmlSchemaEntity> resolvedXmlSchemas;
 
 	public SignatureServiceLSResourceResolver(EntityManager entityManager) {
-		this.entityManager = entityManager;
+		this(new EntityManagerXmlSchemaSource(entityManager));
+	}
+
+	public SignatureServiceLSResourceResolver(XmlSchemaSource xmlSchemaSource) {
+		this.xmlSchemaSource = xmlSchemaSource;
+		this.resolvedXmlSchemas = new HashMap<String, XmlSchemaEntity>();
+	}
+
+	/**
+	 * @return all XML schemas resolved so far, including the ones imported by
+	 *         imported schemas.
+	 */
+	public Collection<XmlSchemaEntity> getResolvedXmlSchemas() {
+		return Collections.unmodifiableCollection(this.resolvedXmlSchemas
+				.values());
 	}
 
 	public LSInput resolveResource(String type, String namespaceURI,
 			String publicId, String systemId, String baseURI) {
-		LOG.debug("resolve resource");
-		LOG.debug("type: " + type);
-		LOG.debug("namespace URI: " + namespaceURI);
-		LOG.debug("public Id: " + publicId);
-		LOG.debug("system Id: " + systemId);
-		LOG.debug("base URI: " + baseURI);
 		if (false == "http://www.w3.org/2001/XMLSchema".equals(type)) {
 			throw new RuntimeException("unsupported type: " + type);
 		}
-		XmlSchemaEntity xmlSchemaEntity = this.entityManager.find(
-				XmlSchemaEntity.class, namespaceURI);
-		if (null != xmlSchemaEntity) {
-			byte[] xsd = xmlSchemaEntity.getXsd();
-			SignatureServiceLSInput lsInput = new SignatureServiceLSInput(xsd,
-					publicId, systemId, baseURI);
-			return lsInput;
+		XmlSchemaEntity xmlSchemaEntity = this.resolvedXmlSchemas
+				.get(namespaceURI);
+		if (null == xmlSchemaEntity) {
+			LOG.debug("resolve namespace: " + namespaceURI);
+			xmlSchemaEntity = this.xmlSchemaSource.findXmlSchema(namespaceURI);
+			if (null == xmlSchemaEntity) {
+				throw new RuntimeException("unsupported namespace: "
+						+ namespaceURI);
+				/*
+				 * Cannot return null here, else the system starts downloading
+				 * the file.
+				 */
+			}
+			this.resolvedXmlSchemas.put(namespaceURI, xmlSchemaEntity);
 		}
-		throw new RuntimeException("unsupported namespace: " + namespaceURI);
-		/*
-		 * Cannot return null here, else the system starts downloading the file.
-		 */
+		return new SignatureServiceLSInput(xmlSchemaEntity.getXsd(), publicId,
+				systemId, baseURI);
 	}
 }
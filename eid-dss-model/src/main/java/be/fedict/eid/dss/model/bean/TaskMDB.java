@@ -47,6 +47,7 @@ import org.apache.commons.logging.LogFactory;
 
 import be.fedict.eid.dss.model.ConfigProperty;
 import be.fedict.eid.dss.model.Configuration;
+import be.fedict.eid.dss.model.ConfigurationSnapshot;
 
 @MessageDriven(activationConfig = {
 		@ActivationConfigProperty(propertyName = "destinationType", propertyValue = "javax.jms.Queue"),
@@ -93,14 +94,16 @@ public class TaskMDB implements MessageListener {
 			String attachmentMimetype, byte[] attachment) {
 		LOG.debug("sending email to " + mailTo + " with subject \"" + subject
 				+ "\"");
-		String smtpServer = this.configuration.getValue(
+		ConfigurationSnapshot configurationSnapshot = this.configuration
+				.getSnapshot();
+		String smtpServer = configurationSnapshot.getValue(
 				ConfigProperty.SMTP_SERVER, String.class);
 		if (null == smtpServer || smtpServer.trim().isEmpty()) {
 			LOG.warn("no SMTP server configured");
 			return;
 		}
-		String mailFrom = this.configuration.getValue(ConfigProperty.MAIL_FROM,
-				String.class);
+		String mailFrom = configurationSnapshot.getValue(
+				ConfigProperty.MAIL_FROM, String.class);
 		if (null == mailFrom || mailFrom.trim().isEmpty()) {
 			LOG.warn("no mail from address configured");
 			return;
@@ -111,7 +114,7 @@ public class TaskMDB implements MessageListener {
 		props.put("mail.smtp.host", smtpServer);
 		props.put("mail.from", mailFrom);
 
-		String mailPrefix = this.configuration.getValue(
+		String mailPrefix = configurationSnapshot.getValue(
 				ConfigProperty.MAIL_PREFIX, String.class);
 		if (null != mailPrefix && false == mailPrefix.trim().isEmpty()) {
 			subject = "[" + mailPrefix.trim() + "] " + subject;
@@ -0,0 +1,294 @@
+/*
+ * eID Digital Signature Service Project.
+ * Copyright (C) 2010 FedICT.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+
+package be.fedict.eid.dss.model.bean;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.Singleton;
+import javax.xml.validation.Schema;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import be.fedict.eid.dss.entity.XmlSchemaEntity;
+
+/**
+ * Node-local cache of compiled XML schemas, keyed by target namespace. Every
+ * entry keeps the revision and digest of the XML schemas it was compiled
+ * from, i.e. the schema itself and all schemas it imports, directly or
+ * indirectly. A lookup compares them with the stored versions, so a schema
+ * changed on another cluster node, or by a transaction that has not yet
+ * completed on this node, is never served from the cache. A change of a
+ * schema also invalidates all schemas depending on it.
+ * <p/>
+ * Also memoises the stored XSD documents across compilations, so resolving
+ * schema imports normally does not touch the database. A memoised XSD
+ * document is checked against the stored versions in the same way before it
+ * is used. Invalidation happens once the changing transaction has completed.
+ * Every invalidation increments the cache version; entries loaded while the
+ * version changed are not kept, so a concurrent load can not bring back a
+ * stale entry.
+ * <p/>
+ * Compiled {@link Schema} objects are immutable and thread-safe, so they can
+ * be shared by all callers.
+ */
+@Singleton
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class XmlSchemaCacheSingletonBean {
+
+	private static final Log LOG = LogFactory
+			.getLog(XmlSchemaCacheSingletonBean.class);
+
+	private static class CompiledSchema {
+
+		private final String revision;
+
+		private final Schema schema;
+
+		private final Map<String, XmlSchemaEntity> xmlSchemaVersions;
+
+		CompiledSchema(String revision, Schema schema,
+				Map<String, XmlSchemaEntity> xmlSchemaVersions) {
+			this.revision = revision;
+			this.schema = schema;
+			this.xmlSchemaVersions = xmlSchemaVersions;
+		}
+	}
+
+	private final ConcurrentMap<String, CompiledSchema> compiledSchemas = new ConcurrentHashMap<String, CompiledSchema>();
+
+	private final ConcurrentMap<String, XmlSchemaEntity> xmlSchemas = new ConcurrentHashMap<String, XmlSchemaEntity>();
+
+	private final AtomicLong version = new AtomicLong();
+
+	/**
+	 * @return the cache version, to be taken before loading anything that
+	 *         is put into the cache.
+	 */
+	public long getVersion() {
+		return this.version.get();
+	}
+
+	/**
+	 * Gives the cached compiled schema, if it has been compiled from the
+	 * stored versions of all XML schemas involved. An outdated entry is
+	 * invalidated.
+	 * 
+	 * @param namespace
+	 *            the target namespace.
+	 * @param storedXmlSchemaVersions
+	 *            the stored XML schema versions, keyed by namespace, see
+	 *            {@link XmlSchemaEntity#getAllVersions(javax.persistence.EntityManager)}
+	 *            .
+	 * @return the cached compiled schema, or <code>null</code> if not cached
+	 *         or outdated.
+	 */
+	public Schema getSchema(String namespace,
+			Map<String, XmlSchemaEntity> storedXmlSchemaVersions) {
+
+		CompiledSchema compiledSchema = this.compiledSchemas.get(namespace);
+		if (null == compiledSchema) {
+			return null;
+		}
+		for (XmlSchemaEntity xmlSchemaVersion : compiledSchema.xmlSchemaVersions
+				.values()) {
+			String compiledNamespace = xmlSchemaVersion.getNamespace();
+			if (false == isSameVersion(xmlSchemaVersion,
+					storedXmlSchemaVersions.get(compiledNamespace))) {
+				LOG.debug("outdated XML schema: " + compiledNamespace);
+				invalidate(compiledNamespace);
+				return null;
+			}
+		}
+		return compiledSchema.schema;
+	}
+
+	/**
+	 * @param namespace
+	 *            the target namespace.
+	 * @return the revision of the cached compiled schema, or
+	 *         <code>null</code> if not cached.
+	 */
+	public String getRevision(String namespace) {
+
+		CompiledSchema compiledSchema = this.compiledSchemas.get(namespace);
+		if (null == compiledSchema) {
+			return null;
+		}
+		return compiledSchema.revision;
+	}
+
+	/**
+	 * Caches a compiled schema.
+	 * 
+	 * @param namespace
+	 *            the target namespace.
+	 * @param schema
+	 *            the compiled schema.
+	 * @param xmlSchemas
+	 *            the XML schema of the namespace and all XML schemas that
+	 *            were resolved while compiling it.
+	 * @param version
+	 *            the cache version taken before compilation started.
+	 */
+	public void putSchema(String namespace, Schema schema,
+			Collection<XmlSchemaEntity> xmlSchemas, long version) {
+
+		Map<String, XmlSchemaEntity> xmlSchemaVersions = new HashMap<String, XmlSchemaEntity>();
+		for (XmlSchemaEntity xmlSchema : xmlSchemas) {
+			xmlSchemaVersions.put(xmlSchema.getNamespace(), new XmlSchemaEntity(
+					xmlSchema.getNamespace(), xmlSchema.getRevision(),
+					xmlSchema.getDigest()));
+		}
+		XmlSchemaEntity xmlSchemaVersion = xmlSchemaVersions.get(namespace);
+		if (null == xmlSchemaVersion) {
+			throw new IllegalArgumentException("missing XML schema: "
+					+ namespace);
+		}
+		CompiledSchema compiledSchema = new CompiledSchema(
+				xmlSchemaVersion.getRevision(), schema,
+				Collections.unmodifiableMap(xmlSchemaVersions));
+		this.compiledSchemas.put(namespace, compiledSchema);
+		if (version != this.version.get()) {
+			// invalidated during compilation
+			this.compiledSchemas.remove(namespace, compiledSchema);
+		}
+	}
+
+	private static boolean isSameVersion(XmlSchemaEntity xmlSchema,
+			XmlSchemaEntity storedXmlSchema) {
+
+		if (null == storedXmlSchema) {
+			return false;
+		}
+		return isEqual(xmlSchema.getRevision(), storedXmlSchema.getRevision())
+				&& isEqual(xmlSchema.getDigest(), storedXmlSchema.getDigest());
+	}
+
+	private static boolean isEqual(String value1, String value2) {
+
+		if (null == value1) {
+			return null == value2;
+		}
+		return value1.equals(value2);
+	}
+
+	/**
+	 * Gives an XML schema source that serves the stored XSD documents from
+	 * memory, and only falls back on the given source for XSD documents not
+	 * yet cached or outdated. The returned source is thread-safe if the
+	 * fallback source is.
+	 * 
+	 * @param fallbackXmlSchemaSource
+	 *            the source of XSD documents not yet cached.
+	 * @param storedXmlSchemaVersions
+	 *            the stored XML schema versions, keyed by namespace. A cached
+	 *            XSD document of another version, e.g. changed on another
+	 *            cluster node, is invalidated.
+	 */
+	public XmlSchemaSource getXmlSchemaSource(
+			final XmlSchemaSource fallbackXmlSchemaSource,
+			final Map<String, XmlSchemaEntity> storedXmlSchemaVersions) {
+
+		return new XmlSchemaSource() {
+
+			public XmlSchemaEntity findXmlSchema(String namespace) {
+				return XmlSchemaCacheSingletonBean.this.findXmlSchema(
+						namespace, fallbackXmlSchemaSource,
+						storedXmlSchemaVersions);
+			}
+		};
+	}
+
+	private XmlSchemaEntity findXmlSchema(String namespace,
+			XmlSchemaSource fallbackXmlSchemaSource,
+			Map<String, XmlSchemaEntity> storedXmlSchemaVersions) {
+
+		XmlSchemaEntity xmlSchema = this.xmlSchemas.get(namespace);
+		if (null != xmlSchema) {
+			if (isSameVersion(xmlSchema, storedXmlSchemaVersions.get(namespace))) {
+				return xmlSchema;
+			}
+			LOG.debug("outdated XSD: " + namespace);
+			invalidate(namespace);
+		}
+		long version = this.version.get();
+		XmlSchemaEntity storedXmlSchema = fallbackXmlSchemaSource
+				.findXmlSchema(namespace);
+		if (null == storedXmlSchema) {
+			return null;
+		}
+		// detached copy, safe to share
+		xmlSchema = new XmlSchemaEntity(storedXmlSchema.getNamespace(),
+				storedXmlSchema.getRevision(), storedXmlSchema.getXsd());
+		xmlSchema.setDigest(storedXmlSchema.getDigest());
+		xmlSchema.getImportedNamespaces().addAll(
+				storedXmlSchema.getImportedNamespaces());
+		this.xmlSchemas.put(namespace, xmlSchema);
+		if (version != this.version.get()) {
+			this.xmlSchemas.remove(namespace, xmlSchema);
+		}
+		return xmlSchema;
+	}
+
+	/**
+	 * Removes the compiled schema of the given namespace, and of all schemas
+	 * importing it.
+	 * 
+	 * @param namespace
+	 *            the target namespace.
+	 */
+	public void invalidate(String namespace) {
+
+		LOG.debug("invalidate: " + namespace);
+		this.version.incrementAndGet();
+		this.xmlSchemas.remove(namespace);
+		this.compiledSchemas.remove(namespace);
+		Iterator<Map.Entry<String, CompiledSchema>> iterator = this.compiledSchemas
+				.entrySet().iterator();
+		while (iterator.hasNext()) {
+			Map.Entry<String, CompiledSchema> entry = iterator.next();
+			if (entry.getValue().xmlSchemaVersions.containsKey(namespace)) {
+				LOG.debug("invalidate dependent: " + entry.getKey());
+				iterator.remove();
+			}
+		}
+	}
+
+	/**
+	 * Removes all compiled schemas.
+	 */
+	public void invalidateAll() {
+
+		LOG.debug("invalidate all");
+		this.version.incrementAndGet();
+		this.xmlSchemas.clear();
+		this.compiledSchemas.clear();
+	}
+}
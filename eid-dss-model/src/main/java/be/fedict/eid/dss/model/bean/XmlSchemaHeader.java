@@ -0,0 +1,143 @@
+/*
+ * eID Digital Signature Service Project.
+ * Copyright (C) 2010 FedICT.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+package be.fedict.eid.dss.model.bean;
+
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import javax.xml.XMLConstants;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import be.fedict.eid.dss.model.exception.InvalidXmlSchemaException;
+
+/**
+ * The target namespace and the imported namespaces of an XML schema, read with
+ * a StAX parser. As imports, includes and redefines have to precede all schema
+ * components, reading stops at the first schema component.
+ */
+class XmlSchemaHeader {
+
+	private final String targetNamespace;
+
+	private final Set<String> importedNamespaces;
+
+	private XmlSchemaHeader(String targetNamespace,
+			Set<String> importedNamespaces) {
+		this.targetNamespace = targetNamespace;
+		this.importedNamespaces = Collections
+				.unmodifiableSet(importedNamespaces);
+	}
+
+	/**
+	 * @return the target namespace, empty if the schema has none.
+	 */
+	public String getTargetNamespace() {
+		return this.targetNamespace;
+	}
+
+	public Set<String> getImportedNamespaces() {
+		return this.importedNamespaces;
+	}
+
+	/**
+	 * Reads the header of the given XML schema. The input stream is not
+	 * closed.
+	 * 
+	 * @param xsdInputStream
+	 *            the XML schema.
+	 * @return the XML schema header.
+	 * @throws InvalidXmlSchemaException
+	 *             if the document is not an XML schema.
+	 */
+	public static XmlSchemaHeader read(InputStream xsdInputStream)
+			throws InvalidXmlSchemaException {
+		// input factories are not thread-safe
+		XMLInputFactory xmlInputFactory = XMLInputFactory.newInstance();
+		xmlInputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+		xmlInputFactory.setProperty(
+				XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+		try {
+			XMLStreamReader reader = xmlInputFactory
+					.createXMLStreamReader(xsdInputStream);
+			try {
+				return read(reader);
+			} finally {
+				reader.close();
+			}
+		} catch (XMLStreamException e) {
+			throw new InvalidXmlSchemaException("StAX error: "
+					+ e.getMessage(), e);
+		}
+	}
+
+	private static XmlSchemaHeader read(XMLStreamReader reader)
+			throws XMLStreamException, InvalidXmlSchemaException {
+		reader.nextTag();
+		if (!isXmlSchemaElement(reader, "schema")) {
+			throw new InvalidXmlSchemaException("not an XML schema: "
+					+ reader.getName(), null);
+		}
+		String targetNamespace = reader.getAttributeValue(null,
+				"targetNamespace");
+		if (null == targetNamespace) {
+			targetNamespace = "";
+		}
+		Set<String> importedNamespaces = new HashSet<String>();
+		while (XMLStreamConstants.START_ELEMENT == reader.nextTag()) {
+			if (isXmlSchemaElement(reader, "import")) {
+				String importedNamespace = reader.getAttributeValue(null,
+						"namespace");
+				if (null != importedNamespace) {
+					importedNamespaces.add(importedNamespace);
+				}
+			} else if (!isXmlSchemaElement(reader, "include")
+					&& !isXmlSchemaElement(reader, "redefine")
+					&& !isXmlSchemaElement(reader, "annotation")) {
+				// first schema component
+				break;
+			}
+			skipElement(reader);
+		}
+		return new XmlSchemaHeader(targetNamespace, importedNamespaces);
+	}
+
+	private static boolean isXmlSchemaElement(XMLStreamReader reader,
+			String localName) {
+		return XMLConstants.W3C_XML_SCHEMA_NS_URI.equals(reader
+				.getNamespaceURI()) && localName.equals(reader.getLocalName());
+	}
+
+	private static void skipElement(XMLStreamReader reader)
+			throws XMLStreamException {
+		int depth = 1;
+		while (depth > 0) {
+			int event = reader.next();
+			if (XMLStreamConstants.START_ELEMENT == event) {
+				depth++;
+			} else if (XMLStreamConstants.END_ELEMENT == event) {
+				depth--;
+			}
+		}
+	}
+}
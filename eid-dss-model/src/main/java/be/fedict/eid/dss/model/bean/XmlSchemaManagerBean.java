@@ -21,22 +21,28 @@ package be.fedict.eid.dss.model.bean;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 
+import javax.annotation.Resource;
+import javax.ejb.EJB;
 import javax.ejb.Stateless;
 import javax.persistence.EntityManager;
 import javax.persistence.PersistenceContext;
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
+import javax.transaction.TransactionSynchronizationRegistry;
 import javax.xml.transform.stream.StreamSource;
+import javax.xml.validation.Schema;
 import javax.xml.validation.SchemaFactory;
 
+import org.apache.commons.codec.binary.Hex;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
-import org.w3c.dom.Document;
 import org.xml.sax.SAXException;
 
 import be.fedict.eid.dss.entity.XmlSchemaEntity;
@@ -53,55 +59,43 @@ public class XmlSchemaManagerBean implements XmlSchemaManager {
 	@PersistenceContext
 	private EntityManager entityManager;
 
+	@EJB
+	private XmlSchemaCacheSingletonBean xmlSchemaCache;
+
+	@Resource
+	private TransactionSynchronizationRegistry transactionSynchronizationRegistry;
+
 	public List<XmlSchemaEntity> getXmlSchemas() {
 		return XmlSchemaEntity.getAll(this.entityManager);
 	}
 
 	public void add(String revision, InputStream xsdInputStream)
 			throws InvalidXmlSchemaException, ExistingXmlSchemaException {
+		MessageDigest messageDigest;
+		try {
+			messageDigest = MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException("SHA-1 error: " + e.getMessage(), e);
+		}
 		byte[] xsd;
 		try {
-			xsd = IOUtils.toByteArray(xsdInputStream);
+			xsd = IOUtils.toByteArray(new DigestInputStream(xsdInputStream,
+					messageDigest));
 		} catch (IOException e) {
 			throw new RuntimeException("IO error: " + e.getMessage(), e);
 		}
-		ByteArrayInputStream schemaInputStream = new ByteArrayInputStream(xsd);
-		SchemaFactory schemaFactory = SchemaFactory
-				.newInstance("http://www.w3.org/2001/XMLSchema");
-		schemaFactory
-				.setResourceResolver(new SignatureServiceLSResourceResolver(
-						this.entityManager));
-		StreamSource schemaSource = new StreamSource(schemaInputStream);
-		try {
-			schemaFactory.newSchema(schemaSource);
-		} catch (SAXException e) {
-			LOG.error("SAX error: " + e.getMessage(), e);
-			throw new InvalidXmlSchemaException("SAX error: " + e.getMessage(),
-					e);
-		} catch (RuntimeException e) {
-			LOG.error("Runtime exception: " + e.getMessage(), e);
-			throw new InvalidXmlSchemaException(e.getMessage(), e);
-		}
+		String digest = new String(Hex.encodeHex(messageDigest.digest()));
 
-		DocumentBuilderFactory documentBuilderFactory = DocumentBuilderFactory
-				.newInstance();
-		documentBuilderFactory.setNamespaceAware(true);
-		DocumentBuilder documentBuilder;
-		try {
-			documentBuilder = documentBuilderFactory.newDocumentBuilder();
-		} catch (ParserConfigurationException e) {
-			throw new RuntimeException("DOM error: " + e.getMessage(), e);
-		}
-		schemaInputStream = new ByteArrayInputStream(xsd);
-		Document schemaDocument;
-		try {
-			schemaDocument = documentBuilder.parse(schemaInputStream);
-		} catch (Exception e) {
-			throw new RuntimeException("DOM error: " + e.getMessage(), e);
-		}
-		String namespace = schemaDocument.getDocumentElement().getAttribute(
-				"targetNamespace");
+		XmlSchemaHeader xmlSchemaHeader = XmlSchemaHeader
+				.read(new ByteArrayInputStream(xsd));
+		String namespace = xmlSchemaHeader.getTargetNamespace();
 		LOG.debug("namespace: " + namespace);
+		LOG.debug("imported namespaces: "
+				+ xmlSchemaHeader.getImportedNamespaces());
+
+		SignatureServiceLSResourceResolver resourceResolver = new SignatureServiceLSResourceResolver(
+				getXmlSchemaSource(getXmlSchemaVersions()));
+		Schema schema = compile(xsd, resourceResolver);
 
 		XmlSchemaEntity existingXmlSchemaEntity = this.entityManager.find(
 				XmlSchemaEntity.class, namespace);
@@ -111,13 +105,82 @@ public class XmlSchemaManagerBean implements XmlSchemaManager {
 
 		XmlSchemaEntity xmlSchemaEntity = new XmlSchemaEntity(namespace,
 				revision, xsd);
+		xmlSchemaEntity.setDigest(digest);
+		xmlSchemaEntity.getImportedNamespaces().addAll(
+				xmlSchemaHeader.getImportedNamespaces());
 		this.entityManager.persist(xmlSchemaEntity);
+
+		List<XmlSchemaEntity> compiledXmlSchemas = new LinkedList<XmlSchemaEntity>(
+				resourceResolver.getResolvedXmlSchemas());
+		compiledXmlSchemas.add(xmlSchemaEntity);
+		invalidateAfterCompletion(namespace, schema, compiledXmlSchemas);
+	}
+
+	/**
+	 * Invalidates the cached schema of the given namespace, and of all schemas
+	 * importing it, once the transaction has been completed. A schema compiled
+	 * within the transaction is only cached if the transaction commits.
+	 */
+	private void invalidateAfterCompletion(final String namespace,
+			final Schema schema, final List<XmlSchemaEntity> compiledXmlSchemas) {
+		this.transactionSynchronizationRegistry
+				.registerInterposedSynchronization(new AfterCompletionSynchronization() {
+
+					protected void afterTransaction(boolean committed) {
+						XmlSchemaManagerBean.this.xmlSchemaCache
+								.invalidate(namespace);
+						if (committed && null != schema) {
+							XmlSchemaManagerBean.this.xmlSchemaCache.putSchema(
+									namespace, schema, compiledXmlSchemas,
+									XmlSchemaManagerBean.this.xmlSchemaCache
+											.getVersion());
+						}
+					}
+				});
+	}
+
+	private Map<String, XmlSchemaEntity> getXmlSchemaVersions() {
+		Map<String, XmlSchemaEntity> xmlSchemaVersions = new HashMap<String, XmlSchemaEntity>();
+		for (XmlSchemaEntity xmlSchemaVersion : XmlSchemaEntity
+				.getAllVersions(this.entityManager)) {
+			xmlSchemaVersions.put(xmlSchemaVersion.getNamespace(),
+					xmlSchemaVersion);
+		}
+		return xmlSchemaVersions;
+	}
+
+	private XmlSchemaSource getXmlSchemaSource(
+			Map<String, XmlSchemaEntity> xmlSchemaVersions) {
+		return this.xmlSchemaCache.getXmlSchemaSource(
+				new EntityManagerXmlSchemaSource(this.entityManager),
+				xmlSchemaVersions);
+	}
+
+	private Schema compile(byte[] xsd,
+			SignatureServiceLSResourceResolver resourceResolver)
+			throws InvalidXmlSchemaException {
+		SchemaFactory schemaFactory = SchemaFactory
+				.newInstance("http://www.w3.org/2001/XMLSchema");
+		schemaFactory.setResourceResolver(resourceResolver);
+		StreamSource schemaSource = new StreamSource(new ByteArrayInputStream(
+				xsd));
+		try {
+			return schemaFactory.newSchema(schemaSource);
+		} catch (SAXException e) {
+			LOG.error("SAX error: " + e.getMessage(), e);
+			throw new InvalidXmlSchemaException("SAX error: " + e.getMessage(),
+					e);
+		} catch (RuntimeException e) {
+			LOG.error("Runtime exception: " + e.getMessage(), e);
+			throw new InvalidXmlSchemaException(e.getMessage(), e);
+		}
 	}
 
 	public void delete(String namespace) {
 		XmlSchemaEntity xmlSchemaEntity = this.entityManager.find(
 				XmlSchemaEntity.class, namespace);
 		this.entityManager.remove(xmlSchemaEntity);
+		invalidateAfterCompletion(namespace, null, null);
 	}
 
 	public byte[] getXmlSchema(String namespace) {
@@ -137,4 +200,33 @@ public class XmlSchemaManagerBean implements XmlSchemaManager {
 		}
 		return xmlSchemaNamespaces;
 	}
+
+	public Schema getSchema(String namespace) throws InvalidXmlSchemaException {
+		Map<String, XmlSchemaEntity> xmlSchemaVersions = getXmlSchemaVersions();
+		Schema schema = this.xmlSchemaCache.getSchema(namespace,
+				xmlSchemaVersions);
+		if (null != schema) {
+			return schema;
+		}
+		if (false == xmlSchemaVersions.containsKey(namespace)) {
+			return null;
+		}
+		long cacheVersion = this.xmlSchemaCache.getVersion();
+		XmlSchemaSource xmlSchemaSource = getXmlSchemaSource(xmlSchemaVersions);
+		XmlSchemaEntity xmlSchemaEntity = xmlSchemaSource
+				.findXmlSchema(namespace);
+		if (null == xmlSchemaEntity) {
+			return null;
+		}
+		LOG.debug("compiling schema: " + namespace);
+		SignatureServiceLSResourceResolver resourceResolver = new SignatureServiceLSResourceResolver(
+				xmlSchemaSource);
+		schema = compile(xmlSchemaEntity.getXsd(), resourceResolver);
+		List<XmlSchemaEntity> compiledXmlSchemas = new LinkedList<XmlSchemaEntity>(
+				resourceResolver.getResolvedXmlSchemas());
+		compiledXmlSchemas.add(xmlSchemaEntity);
+		this.xmlSchemaCache.putSchema(namespace, schema, compiledXmlSchemas,
+				cacheVersion);
+		return schema;
+	}
 }
@@ -0,0 +1,35 @@
+/*
+ * eID Digital Signature Service Project.
+ * Copyright (C) 2010 FedICT.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+
+package be.fedict.eid.dss.model.bean;
+
+import be.fedict.eid.dss.entity.XmlSchemaEntity;
+
+/**
+ * Source of stored XML schemas, used to resolve schema imports.
+ */
+public interface XmlSchemaSource {
+
+	/**
+	 * @param namespace
+	 *            the target namespace.
+	 * @return the XML schema, or <code>null</code> if unknown.
+	 */
+	XmlSchemaEntity findXmlSchema(String namespace);
+}
@@ -0,0 +1,181 @@
+/*
+ * eID Digital Signature Service Project.
+ * Copyright (C) 2010 FedICT.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+package be.fedict.eid.dss.model.bean;
+
+import java.util.LinkedList;
+import java.util.List;
+
+import javax.xml.validation.Schema;
+import javax.xml.validation.ValidatorHandler;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.xml.sax.Attributes;
+import org.xml.sax.Locator;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+import be.fedict.eid.dss.model.XmlSchemaManager;
+import be.fedict.eid.dss.model.exception.InvalidXmlSchemaException;
+
+/**
+ * SAX handler that picks the XML schema from the namespace of the root element
+ * and from then on forwards all events to a validator of that schema. The
+ * prefix mappings that precede the root element are replayed. When no XML
+ * schema is required and none is stored for the root namespace, the events
+ * are dropped and only the well-formedness checks of the parser apply.
+ * <p/>
+ * An {@link InvalidXmlSchemaException} is reported wrapped in a
+ * {@link SAXException}.
+ */
+class XmlSchemaValidatingHandler extends DefaultHandler {
+
+	private static final Log LOG = LogFactory
+			.getLog(XmlSchemaValidatingHandler.class);
+
+	private final XmlSchemaManager xmlSchemaManager;
+
+	private final boolean schemaRequired;
+
+	private final List<String[]> prefixMappings;
+
+	private Locator locator;
+
+	private ValidatorHandler validatorHandler;
+
+	private String namespace;
+
+	public XmlSchemaValidatingHandler(XmlSchemaManager xmlSchemaManager,
+			boolean schemaRequired) {
+		this.xmlSchemaManager = xmlSchemaManager;
+		this.schemaRequired = schemaRequired;
+		this.prefixMappings = new LinkedList<String[]>();
+	}
+
+	/**
+	 * @return the namespace of the root element, or <code>null</code> if not
+	 *         yet seen.
+	 */
+	public String getNamespace() {
+		return this.namespace;
+	}
+
+	public void setDocumentLocator(Locator locator) {
+		this.locator = locator;
+	}
+
+	public void startPrefixMapping(String prefix, String uri)
+			throws SAXException {
+		if (null == this.namespace) {
+			this.prefixMappings.add(new String[] { prefix, uri });
+			return;
+		}
+		if (null == this.validatorHandler) {
+			return;
+		}
+		this.validatorHandler.startPrefixMapping(prefix, uri);
+	}
+
+	public void endPrefixMapping(String prefix) throws SAXException {
+		if (null == this.validatorHandler) {
+			return;
+		}
+		this.validatorHandler.endPrefixMapping(prefix);
+	}
+
+	public void startElement(String uri, String localName, String qName,
+			Attributes attributes) throws SAXException {
+		if (null == this.namespace) {
+			startValidation(uri);
+		}
+		if (null == this.validatorHandler) {
+			return;
+		}
+		this.validatorHandler.startElement(uri, localName, qName, attributes);
+	}
+
+	private void startValidation(String rootNamespace) throws SAXException {
+		this.namespace = rootNamespace;
+		LOG.debug("root namespace: " + rootNamespace);
+		Schema schema;
+		try {
+			schema = this.xmlSchemaManager.getSchema(rootNamespace);
+		} catch (InvalidXmlSchemaException e) {
+			throw new SAXException(e);
+		}
+		if (null == schema) {
+			if (this.schemaRequired) {
+				throw new SAXException("no XML schema for namespace: "
+						+ rootNamespace);
+			}
+			LOG.debug("no XML schema, not validated: " + rootNamespace);
+			this.prefixMappings.clear();
+			return;
+		}
+		this.validatorHandler = schema.newValidatorHandler();
+		if (null != this.locator) {
+			this.validatorHandler.setDocumentLocator(this.locator);
+		}
+		this.validatorHandler.startDocument();
+		for (String[] prefixMapping : this.prefixMappings) {
+			this.validatorHandler.startPrefixMapping(prefixMapping[0],
+					prefixMapping[1]);
+		}
+		this.prefixMappings.clear();
+	}
+
+	public void endElement(String uri, String localName, String qName)
+			throws SAXException {
+		if (null == this.validatorHandler) {
+			return;
+		}
+		this.validatorHandler.endElement(uri, localName, qName);
+	}
+
+	public void characters(char[] ch, int start, int length)
+			throws SAXException {
+		if (null == this.validatorHandler) {
+			return;
+		}
+		this.validatorHandler.characters(ch, start, length);
+	}
+
+	public void ignorableWhitespace(char[] ch, int start, int length)
+			throws SAXException {
+		if (null == this.validatorHandler) {
+			return;
+		}
+		this.validatorHandler.ignorableWhitespace(ch, start, length);
+	}
+
+	public void processingInstruction(String target, String data)
+			throws SAXException {
+		if (null == this.validatorHandler) {
+			return;
+		}
+		this.validatorHandler.processingInstruction(target, data);
+	}
+
+	public void endDocument() throws SAXException {
+		if (null == this.validatorHandler) {
+			return;
+		}
+		this.validatorHandler.endDocument();
+	}
+}
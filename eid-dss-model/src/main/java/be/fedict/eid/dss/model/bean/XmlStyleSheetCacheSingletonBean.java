@@ -0,0 +1,175 @@
+/*
+ * eID Digital Signature Service Project.
+ * Copyright (C) 2010 FedICT.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+
+package be.fedict.eid.dss.model.bean;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.Singleton;
+import javax.xml.transform.Templates;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import be.fedict.eid.dss.entity.XmlStyleSheetEntity;
+
+/**
+ * Node-local cache of compiled XSL style sheets, keyed by namespace. Every
+ * entry keeps the revision and digest it was compiled from. A lookup compares
+ * them with the stored version, so a style sheet changed on another cluster
+ * node is never served from the cache. Every invalidation increments the
+ * cache version; entries loaded while the version changed are not kept.
+ * <p/>
+ * Compiled {@link Templates} are thread-safe, so they can be shared by all
+ * callers; only the transformers created from them are not.
+ */
+@Singleton
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class XmlStyleSheetCacheSingletonBean {
+
+	private static final Log LOG = LogFactory
+			.getLog(XmlStyleSheetCacheSingletonBean.class);
+
+	private static class CompiledStyleSheet {
+
+		private final String revision;
+
+		private final String digest;
+
+		private final Templates templates;
+
+		CompiledStyleSheet(String revision, String digest, Templates templates) {
+			this.revision = revision;
+			this.digest = digest;
+			this.templates = templates;
+		}
+	}
+
+	private final ConcurrentMap<String, CompiledStyleSheet> compiledStyleSheets = new ConcurrentHashMap<String, CompiledStyleSheet>();
+
+	private final AtomicLong version = new AtomicLong();
+
+	/**
+	 * @return the cache version, to be taken before loading a style sheet
+	 *         that is put into the cache.
+	 */
+	public long getVersion() {
+		return this.version.get();
+	}
+
+	/**
+	 * Gives the cached compiled style sheet, if it has been compiled from the
+	 * stored version. An outdated entry is invalidated.
+	 * 
+	 * @param namespace
+	 *            the namespace.
+	 * @param storedXmlStyleSheetVersion
+	 *            the stored version, see
+	 *            {@link XmlStyleSheetEntity#findVersion(javax.persistence.EntityManager, String)}
+	 *            , or <code>null</code> if no longer stored.
+	 * @return the cached compiled style sheet, or <code>null</code> if not
+	 *         cached or outdated.
+	 */
+	public Templates getTemplates(String namespace,
+			XmlStyleSheetEntity storedXmlStyleSheetVersion) {
+
+		CompiledStyleSheet compiledStyleSheet = this.compiledStyleSheets
+				.get(namespace);
+		if (null == compiledStyleSheet) {
+			return null;
+		}
+		if (null == storedXmlStyleSheetVersion
+				|| false == isEqual(compiledStyleSheet.revision,
+						storedXmlStyleSheetVersion.getRevision())
+				|| false == isEqual(compiledStyleSheet.digest,
+						storedXmlStyleSheetVersion.getDigest())) {
+			LOG.debug("outdated style sheet: " + namespace);
+			invalidate(namespace);
+			return null;
+		}
+		return compiledStyleSheet.templates;
+	}
+
+	private static boolean isEqual(String value1, String value2) {
+
+		if (null == value1) {
+			return null == value2;
+		}
+		return value1.equals(value2);
+	}
+
+	/**
+	 * @param namespace
+	 *            the namespace.
+	 * @return the revision of the cached compiled style sheet, or
+	 *         <code>null</code> if not cached.
+	 */
+	public String getRevision(String namespace) {
+
+		CompiledStyleSheet compiledStyleSheet = this.compiledStyleSheets
+				.get(namespace);
+		if (null == compiledStyleSheet) {
+			return null;
+		}
+		return compiledStyleSheet.revision;
+	}
+
+	/**
+	 * Caches a compiled style sheet.
+	 * 
+	 * @param namespace
+	 *            the namespace.
+	 * @param revision
+	 *            the style sheet revision.
+	 * @param digest
+	 *            the style sheet digest.
+	 * @param templates
+	 *            the compiled style sheet.
+	 * @param version
+	 *            the cache version taken before the style sheet was loaded.
+	 */
+	public void putTemplates(String namespace, String revision, String digest,
+			Templates templates, long version) {
+
+		CompiledStyleSheet compiledStyleSheet = new CompiledStyleSheet(
+				revision, digest, templates);
+		this.compiledStyleSheets.put(namespace, compiledStyleSheet);
+		if (version != this.version.get()) {
+			// invalidated during compilation
+			this.compiledStyleSheets.remove(namespace, compiledStyleSheet);
+		}
+	}
+
+	/**
+	 * Removes the compiled style sheet of the given namespace.
+	 * 
+	 * @param namespace
+	 *            the namespace.
+	 */
+	public void invalidate(String namespace) {
+
+		LOG.debug("invalidate: " + namespace);
+		this.version.incrementAndGet();
+		this.compiledStyleSheets.remove(namespace);
+	}
+}
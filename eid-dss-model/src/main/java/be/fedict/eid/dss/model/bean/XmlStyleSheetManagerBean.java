@@ -18,33 +18,76 @@
 
 package be.fedict.eid.dss.model.bean;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 
+import javax.annotation.Resource;
+import javax.ejb.EJB;
 import javax.ejb.Stateless;
 import javax.persistence.EntityManager;
 import javax.persistence.PersistenceContext;
+import javax.transaction.TransactionSynchronizationRegistry;
+import javax.xml.XMLConstants;
+import javax.xml.transform.Result;
+import javax.xml.transform.Source;
+import javax.xml.transform.Templates;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerConfigurationException;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.URIResolver;
+import javax.xml.transform.stream.StreamSource;
 
+import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 
 import be.fedict.eid.dss.entity.XmlStyleSheetEntity;
 import be.fedict.eid.dss.model.XmlStyleSheetManager;
 import be.fedict.eid.dss.model.exception.ExistingXmlStyleSheetException;
+import be.fedict.eid.dss.model.exception.InvalidXmlStyleSheetException;
 
 @Stateless
 public class XmlStyleSheetManagerBean implements XmlStyleSheetManager {
 
+	private static final Log LOG = LogFactory
+			.getLog(XmlStyleSheetManagerBean.class);
+
+	/**
+	 * Denies access to all external resources: imported and included style
+	 * sheets, and documents read via the <code>document()</code> function.
+	 */
+	private static final URIResolver DENYING_URI_RESOLVER = new URIResolver() {
+
+		public Source resolve(String href, String base)
+				throws TransformerException {
+			throw new TransformerException("external resource not allowed: "
+					+ href);
+		}
+	};
+
 	@PersistenceContext
 	private EntityManager entityManager;
 
+	@EJB
+	private XmlStyleSheetCacheSingletonBean xmlStyleSheetCache;
+
+	@Resource
+	private TransactionSynchronizationRegistry transactionSynchronizationRegistry;
+
 	public List<XmlStyleSheetEntity> getXmlStyleSheets() {
 		return XmlStyleSheetEntity.getAll(this.entityManager);
 	}
 
 	public void add(String namespace, String revision,
-			InputStream xslInputStream) throws ExistingXmlStyleSheetException {
+			InputStream xslInputStream) throws ExistingXmlStyleSheetException,
+			InvalidXmlStyleSheetException {
 		XmlStyleSheetEntity existingXmlStyleSheetEntity = this.entityManager
 				.find(XmlStyleSheetEntity.class, namespace);
 		if (null != existingXmlStyleSheetEntity) {
@@ -56,15 +99,66 @@ public class XmlStyleSheetManagerBean implements XmlStyleSheetManager {
 		} catch (IOException e) {
 			throw new RuntimeException("IO error: " + e.getMessage(), e);
 		}
+		Templates templates = compile(xsl);
+		String digest = DigestUtils.shaHex(xsl);
 		XmlStyleSheetEntity xmlStyleSheetEntity = new XmlStyleSheetEntity(
 				namespace, revision, xsl);
+		xmlStyleSheetEntity.setDigest(digest);
 		this.entityManager.persist(xmlStyleSheetEntity);
+
+		invalidateAfterCompletion(namespace, revision, digest, templates);
+	}
+
+	/**
+	 * Invalidates the cached style sheet of the given namespace once the
+	 * transaction has been completed. A style sheet compiled within the
+	 * transaction is only cached if the transaction commits.
+	 */
+	private void invalidateAfterCompletion(final String namespace,
+			final String revision, final String digest,
+			final Templates templates) {
+		final XmlStyleSheetCacheSingletonBean xmlStyleSheetCache = this.xmlStyleSheetCache;
+		this.transactionSynchronizationRegistry
+				.registerInterposedSynchronization(new AfterCompletionSynchronization() {
+
+					protected void afterTransaction(boolean committed) {
+						xmlStyleSheetCache.invalidate(namespace);
+						if (committed && null != templates) {
+							xmlStyleSheetCache.putTemplates(namespace,
+									revision, digest, templates,
+									xmlStyleSheetCache.getVersion());
+						}
+					}
+				});
+	}
+
+	private Templates compile(byte[] xsl) throws InvalidXmlStyleSheetException {
+		// transformer factories are not thread-safe
+		TransformerFactory transformerFactory = TransformerFactory
+				.newInstance();
+		try {
+			transformerFactory.setFeature(
+					XMLConstants.FEATURE_SECURE_PROCESSING, true);
+		} catch (TransformerConfigurationException e) {
+			throw new RuntimeException("secure processing not supported: "
+					+ e.getMessage(), e);
+		}
+		transformerFactory.setURIResolver(DENYING_URI_RESOLVER);
+		try {
+			return transformerFactory.newTemplates(new StreamSource(
+					new ByteArrayInputStream(xsl)));
+		} catch (TransformerConfigurationException e) {
+			LOG.error("XSL error: " + e.getMessage(), e);
+			throw new InvalidXmlStyleSheetException("XSL error: "
+					+ e.getMessage(), e);
+		}
 	}
 
 	public void delete(String namespace) {
 		XmlStyleSheetEntity xmlStyleSheetEntity = this.entityManager.find(
 				XmlStyleSheetEntity.class, namespace);
 		this.entityManager.remove(xmlStyleSheetEntity);
+		invalidateAfterCompletion(namespace, null, null, null);
 	}
 
 	public byte[] getXmlStyleSheet(String namespace) {
@@ -85,4 +179,51 @@ public class XmlStyleSheetManagerBean implements XmlStyleSheetManager {
 		return xmlStyleSheetNamespaces;
 	}
 
+	public Templates getTemplates(String namespace)
+			throws InvalidXmlStyleSheetException {
+		XmlStyleSheetEntity xmlStyleSheetVersion = XmlStyleSheetEntity
+				.findVersion(this.entityManager, namespace);
+		Templates templates = this.xmlStyleSheetCache.getTemplates(namespace,
+				xmlStyleSheetVersion);
+		if (null != templates) {
+			return templates;
+		}
+		if (null == xmlStyleSheetVersion) {
+			return null;
+		}
+		long cacheVersion = this.xmlStyleSheetCache.getVersion();
+		XmlStyleSheetEntity xmlStyleSheetEntity = this.entityManager.find(
+				XmlStyleSheetEntity.class, namespace);
+		if (null == xmlStyleSheetEntity) {
+			return null;
+		}
+		LOG.debug("compiling style sheet: " + namespace);
+		templates = compile(xmlStyleSheetEntity.getXsl());
+		this.xmlStyleSheetCache.putTemplates(namespace,
+				xmlStyleSheetEntity.getRevision(),
+				xmlStyleSheetEntity.getDigest(), templates, cacheVersion);
+		return templates;
+	}
+
+	public boolean transform(String namespace, Source source, Result result)
+			throws InvalidXmlStyleSheetException, TransformerException {
+		return transform(namespace, source, result,
+				Collections.<String, String> emptyMap());
+	}
+
+	public boolean transform(String namespace, Source source, Result result,
+			Map<String, String> parameters)
+			throws InvalidXmlStyleSheetException, TransformerException {
+		Templates templates = getTemplates(namespace);
+		if (null == templates) {
+			return false;
+		}
+		Transformer transformer = templates.newTransformer();
+		transformer.setURIResolver(DENYING_URI_RESOLVER);
+		for (Map.Entry<String, String> parameter : parameters.entrySet()) {
+			transformer.setParameter(parameter.getKey(), parameter.getValue());
+		}
+		transformer.transform(source, result);
+		return true;
+	}
 }
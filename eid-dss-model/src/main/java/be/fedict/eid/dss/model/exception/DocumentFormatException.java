@@ -22,4 +22,12 @@ public class DocumentFormatException extends Exception {
 
 	private static final long serialVersionUID = 1L;
 
+	public DocumentFormatException() {
+		super();
+	}
+
+	public DocumentFormatException(String message, Throwable t) {
+		super(message, t);
+	}
+
 }
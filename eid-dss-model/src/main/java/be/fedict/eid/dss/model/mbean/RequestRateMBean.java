@@ -0,0 +1,61 @@
+/*
+ * eID Digital Signature Service Project.
+ * Copyright (C) 2010 FedICT.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+
+package be.fedict.eid.dss.model.mbean;
+
+import java.util.List;
+
+import javax.ejb.EJB;
+
+import org.jboss.ejb3.annotation.Management;
+import org.jboss.ejb3.annotation.Service;
+
+import be.fedict.eid.dss.model.DomainRequestRate;
+import be.fedict.eid.dss.model.bean.AccountingSingletonBean;
+
+/**
+ * MBean exposing the current request rates per domain.
+ */
+@Service
+@Management(RequestRateMBeanManagement.class)
+public class RequestRateMBean implements RequestRateMBeanLocal,
+		RequestRateMBeanManagement {
+
+	private static final int TOP_DOMAINS = 10;
+
+	@EJB
+	private AccountingSingletonBean accountingSingletonBean;
+
+	public String[] getTopDomains() {
+
+		List<DomainRequestRate> requestRates = this.accountingSingletonBean
+				.getRequestRateTracker().getTopDomains(TOP_DOMAINS);
+		String[] topDomains = new String[requestRates.size()];
+		for (int idx = 0; idx < topDomains.length; idx++) {
+			topDomains[idx] = requestRates.get(idx).toString();
+		}
+		return topDomains;
+	}
+
+	public double getRequestRate(String domain, int windowMinutes) {
+
+		return this.accountingSingletonBean.getRequestRateTracker().getRate(
+				domain, windowMinutes);
+	}
+}
@@ -0,0 +1,41 @@
+/*
+ * eID Digital Signature Service Project.
+ * Copyright (C) 2010 FedICT.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+
+package be.fedict.eid.dss.model.mbean;
+
+/**
+ * JMX view on the current request rates per domain of this node.
+ */
+public interface RequestRateMBeanManagement {
+
+	/**
+	 * @return the 10 busiest domains with their request rates over the last
+	 *         1, 5 and 15 minutes.
+	 */
+	String[] getTopDomains();
+
+	/**
+	 * @param domain
+	 *            the accounting domain.
+	 * @param windowMinutes
+	 *            the window size, 1 up to 15 minutes.
+	 * @return the requests per second of the domain over the window.
+	 */
+	double getRequestRate(String domain, int windowMinutes);
+}
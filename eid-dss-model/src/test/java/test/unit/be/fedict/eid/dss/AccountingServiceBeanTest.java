@@ -19,49 +19,485 @@
 package test.unit.be.fedict.eid.dss;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 import java.lang.reflect.Field;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
+import javax.ejb.EJB;
 import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.EntityTransaction;
 import javax.persistence.PersistenceContext;
 
-import org.easymock.Capture;
 import org.easymock.EasyMock;
+import org.hibernate.ejb.Ejb3Configuration;
+import org.junit.After;
+import org.junit.Before;
 import org.junit.Test;
 
+import be.fedict.eid.dss.entity.AccountingBucketEntity;
 import be.fedict.eid.dss.entity.AccountingEntity;
+import be.fedict.eid.dss.entity.AccountingGranularity;
+import be.fedict.eid.dss.entity.AccountingOrder;
 import be.fedict.eid.dss.model.AccountingService;
+import be.fedict.eid.dss.model.Configuration;
 import be.fedict.eid.dss.model.bean.AccountingServiceBean;
+import be.fedict.eid.dss.model.bean.AccountingSingletonBean;
 
 public class AccountingServiceBeanTest {
 
+	private static final String DOMAIN = "https://localhost:8080/eid-dss/entry";
+
+	private static final String OTHER_DOMAIN = "https://localhost:8080/eid-dss/other";
+
+	private static final long MINUTE = AccountingGranularity.MINUTE
+			.getDuration();
+
+	private static final long HOUR = AccountingGranularity.HOUR.getDuration();
+
+	private static final long DAY = AccountingGranularity.DAY.getDuration();
+
+	private EntityManager entityManager;
+
+	private AccountingService testedInstance;
+
+	private AccountingSingletonBean accountingSingletonBean;
+
+	@Before
+	public void setUp() throws Exception {
+		Class.forName("org.hsqldb.jdbcDriver");
+		Ejb3Configuration configuration = new Ejb3Configuration();
+		configuration.setProperty("hibernate.dialect",
+				"org.hibernate.dialect.HSQLDialect");
+		configuration.setProperty("hibernate.connection.driver_class",
+				"org.hsqldb.jdbcDriver");
+		configuration.setProperty("hibernate.connection.url",
+				"jdbc:hsqldb:mem:accounting");
+		configuration.setProperty("hibernate.hbm2ddl.auto", "create");
+
+		configuration.addAnnotatedClass(AccountingEntity.class);
+		configuration.addAnnotatedClass(AccountingBucketEntity.class);
+
+		EntityManagerFactory entityManagerFactory = configuration
+				.buildEntityManagerFactory();
+
+		this.entityManager = entityManagerFactory.createEntityManager();
+		this.entityManager.getTransaction().begin();
+
+		// nice mock: all retention periods at their defaults
+		Configuration mockConfiguration = EasyMock
+				.createNiceMock(Configuration.class);
+		EasyMock.replay(mockConfiguration);
+
+		this.testedInstance = new AccountingServiceBean();
+		this.accountingSingletonBean = new AccountingSingletonBean();
+
+		injectPersistenceContext(this.entityManager, this.testedInstance);
+		injectEJB(this.accountingSingletonBean, this.testedInstance);
+		injectEJB(mockConfiguration, this.testedInstance);
+		injectEJB(this.testedInstance, this.accountingSingletonBean);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		EntityTransaction entityTransaction = this.entityManager
+				.getTransaction();
+		if (entityTransaction.isActive()) {
+			if (entityTransaction.getRollbackOnly()) {
+				entityTransaction.rollback();
+			} else {
+				entityTransaction.commit();
+			}
+		}
+		this.entityManager.close();
+	}
+
 	@Test
 	public void testAddRequest() throws Exception {
-		AccountingService testedInstance = new AccountingServiceBean();
+		this.testedInstance
+				.addRequest("https://localhost:8080/eid-dss/entry?param=1234?param2=5678");
+		this.testedInstance.addRequest(DOMAIN);
+
+		// operate: listing flushes the pending requests
+		List<AccountingEntity> accountingEntities = this.testedInstance
+				.listAll();
 
-		EntityManager mockEntityManager = EasyMock
-				.createMock(EntityManager.class);
-		injectPersistenceContext(mockEntityManager, testedInstance);
+		assertEquals(1, accountingEntities.size());
+		AccountingEntity accountingEntity = accountingEntities.get(0);
+		assertEquals(DOMAIN, accountingEntity.getDomain());
+		assertEquals(new Long(2), accountingEntity.getRequests());
+		assertTrue(this.accountingSingletonBean.drain().isEmpty());
 
-		EasyMock.expect(
-				mockEntityManager.find(AccountingEntity.class,
-						"https://localhost:8080/eid-dss/entry"))
-				.andReturn(null);
+		long now = System.currentTimeMillis();
+		assertEquals(2, this.testedInstance.getRequests(DOMAIN, new Date(
+				now - HOUR), new Date(now + HOUR)));
+	}
 
-		Capture<AccountingEntity> accountingEntityCapture = new Capture<AccountingEntity>();
-		mockEntityManager.persist(EasyMock.capture(accountingEntityCapture));
+	@Test
+	public void testAddRequestExistingDomain() throws Exception {
+		this.testedInstance.addRequest(DOMAIN);
+		this.accountingSingletonBean.flush();
+		this.testedInstance.addRequest(DOMAIN);
+		this.accountingSingletonBean.flush();
 
-		EasyMock.replay(mockEntityManager);
+		this.entityManager.clear();
+		AccountingEntity accountingEntity = this.entityManager.find(
+				AccountingEntity.class, DOMAIN);
+		assertEquals(new Long(2), accountingEntity.getRequests());
+	}
 
-		testedInstance
-				.addRequest("https://localhost:8080/eid-dss/entry?param=1234?param2=5678");
+	@Test
+	public void testAddRejectedRequest() throws Exception {
+		this.testedInstance.addRequest(DOMAIN);
+		this.accountingSingletonBean.flush();
+		this.accountingSingletonBean.addRejectedRequest(DOMAIN);
+		this.accountingSingletonBean.addRejectedRequest(DOMAIN);
+		this.accountingSingletonBean.addRejectedRequest(OTHER_DOMAIN);
 
-		EasyMock.verify(mockEntityManager);
+		// operate
+		this.accountingSingletonBean.flush();
 
-		AccountingEntity accountingEntity = accountingEntityCapture.getValue();
-		assertEquals("https://localhost:8080/eid-dss/entry",
-				accountingEntity.getDomain());
+		// verify
+		this.entityManager.clear();
+		AccountingEntity accountingEntity = this.entityManager.find(
+				AccountingEntity.class, DOMAIN);
 		assertEquals(new Long(1), accountingEntity.getRequests());
+		assertEquals(new Long(2), accountingEntity.getRejected());
+		accountingEntity = this.entityManager.find(AccountingEntity.class,
+				OTHER_DOMAIN);
+		assertEquals(new Long(0), accountingEntity.getRequests());
+		assertEquals(new Long(1), accountingEntity.getRejected());
+	}
+
+	@Test
+	public void testListAllPaged() throws Exception {
+		this.entityManager.persist(new AccountingEntity("https://a.be/x", 5L));
+		this.entityManager.persist(new AccountingEntity("https://a.be/y", 3L));
+		this.entityManager.persist(new AccountingEntity("https://b.be", 7L));
+		this.entityManager.persist(new AccountingEntity("https://a_b.be", 3L));
+
+		assertEquals(4, this.testedInstance.countAll(null));
+		assertEquals(3, this.testedInstance.countAll("https://a"));
+		// LIKE wildcards within the prefix are matched literally
+		assertEquals(1, this.testedInstance.countAll("https://a_"));
+
+		List<AccountingEntity> page = this.testedInstance.listAll(null,
+				AccountingOrder.REQUESTS_DESC, 0, 2);
+		assertEquals(2, page.size());
+		assertEquals("https://b.be", page.get(0).getDomain());
+		assertEquals("https://a.be/x", page.get(1).getDomain());
+
+		page = this.testedInstance.listAll(null,
+				AccountingOrder.REQUESTS_DESC, 2, 2);
+		assertEquals(2, page.size());
+		assertEquals("https://a_b.be", page.get(0).getDomain());
+		assertEquals("https://a.be/y", page.get(1).getDomain());
+
+		page = this.testedInstance.listAll("https://a.be",
+				AccountingOrder.DOMAIN_ASC, 0, 10);
+		assertEquals(2, page.size());
+		assertEquals("https://a.be/x", page.get(0).getDomain());
+		assertEquals("https://a.be/y", page.get(1).getDomain());
+	}
+
+	@Test
+	public void testCountAllFlushes() throws Exception {
+		this.testedInstance.addRequest(DOMAIN);
+
+		// listing a page does not flush
+		assertTrue(this.testedInstance.listAll(null,
+				AccountingOrder.REQUESTS_DESC, 0, 10).isEmpty());
+
+		// counting does, once per page view
+		assertEquals(1, this.testedInstance.countAll(null));
+		List<AccountingEntity> page = this.testedInstance.listAll(null,
+				AccountingOrder.REQUESTS_DESC, 0, 10);
+		assertEquals(1, page.size());
+		assertEquals(new Long(1), page.get(0).getRequests());
+	}
+
+	@Test
+	public void testListPage() throws Exception {
+		this.entityManager.persist(new AccountingEntity("https://c.be", 1L));
+		this.entityManager.persist(new AccountingEntity("https://a.be", 5L));
+		this.entityManager.persist(new AccountingEntity("https://b.be", 9L));
+		this.testedInstance.addRequest("https://d.be");
+
+		// operate: the first page flushes the pending requests
+		List<AccountingEntity> page = this.testedInstance.listPage(null, 3);
+
+		// verify: sorted on domain, not on requests
+		assertEquals(3, page.size());
+		assertEquals("https://a.be", page.get(0).getDomain());
+		assertEquals("https://b.be", page.get(1).getDomain());
+		assertEquals("https://c.be", page.get(2).getDomain());
+
+		page = this.testedInstance.listPage("https://c.be", 3);
+		assertEquals(1, page.size());
+		assertEquals("https://d.be", page.get(0).getDomain());
+		assertEquals(new Long(1), page.get(0).getRequests());
+
+		assertTrue(this.testedInstance.listPage("https://d.be", 3).isEmpty());
+	}
+
+	@Test
+	public void testListBucketPage() throws Exception {
+		long hour = AccountingGranularity.HOUR.floor(System
+				.currentTimeMillis()) - 10 * HOUR;
+		AccountingBucketEntity.addRequests(this.entityManager, DOMAIN, hour
+				- HOUR, 1);
+		AccountingBucketEntity.addRequests(this.entityManager, DOMAIN, hour,
+				2);
+		AccountingBucketEntity.addRequests(this.entityManager, OTHER_DOMAIN,
+				hour, 4);
+		AccountingBucketEntity.addRequests(this.entityManager, DOMAIN, hour
+				+ HOUR, 8);
+
+		// operate: page size 1 pages across buckets with the same start
+		List<AccountingBucketEntity> buckets = new LinkedList<AccountingBucketEntity>();
+		AccountingBucketEntity after = null;
+		List<AccountingBucketEntity> page;
+		while (!(page = this.testedInstance.listBucketPage(
+				AccountingGranularity.HOUR, new Date(hour), after, 1))
+				.isEmpty()) {
+			assertEquals(1, page.size());
+			after = page.get(0);
+			buckets.add(after);
+		}
+
+		// verify: buckets before since are skipped, none is repeated
+		assertEquals(3, buckets.size());
+		assertEquals(new Date(hour), buckets.get(0).getBucketStart());
+		assertEquals(new Date(hour), buckets.get(1).getBucketStart());
+		assertEquals(6, buckets.get(0).getRequests()
+				+ buckets.get(1).getRequests());
+		assertEquals(new Date(hour + HOUR), buckets.get(2).getBucketStart());
+		assertEquals(new Long(8), buckets.get(2).getRequests());
+	}
+
+	@Test
+	public void testFlushFailure() throws Exception {
+		AccountingService mockAccountingService = EasyMock
+				.createMock(AccountingService.class);
+		mockAccountingService.addRequests(EasyMock.anyLong(),
+				EasyMock.<Map<String, Long>> anyObject());
+		EasyMock.expectLastCall().andThrow(
+				new IllegalStateException("database down"));
+		injectEJB(mockAccountingService, this.accountingSingletonBean);
+
+		EasyMock.replay(mockAccountingService);
+
+		this.testedInstance.addRequest(DOMAIN);
+		this.accountingSingletonBean.flush();
+
+		EasyMock.verify(mockAccountingService);
+
+		// requests are kept for the next flush
+		assertEquals(1, drainRequests(DOMAIN));
+	}
+
+	@Test
+	public void testFlushKeepsRequestTime() throws Exception {
+		long now = System.currentTimeMillis();
+		long earlier = AccountingGranularity.MINUTE.floor(now) - 5 * MINUTE;
+		Map<String, Long> requestCounts = new HashMap<String, Long>();
+		requestCounts.put(DOMAIN, 3L);
+		this.accountingSingletonBean.addRequests(earlier, requestCounts);
+		this.testedInstance.addRequest(DOMAIN);
+
+		// operate: both buckets are flushed at once
+		this.accountingSingletonBean.flush();
+
+		// verify: each request is accounted in the minute it was counted
+		List<AccountingBucketEntity> buckets = this.testedInstance
+				.listBuckets(DOMAIN, AccountingGranularity.MINUTE, new Date(
+						earlier), new Date(now + MINUTE));
+		assertEquals(2, buckets.size());
+		assertEquals(new Date(earlier), buckets.get(0).getBucketStart());
+		assertEquals(new Long(3), buckets.get(0).getRequests());
+		assertEquals(new Long(1), buckets.get(1).getRequests());
+		this.entityManager.clear();
+		assertEquals(new Long(4),
+				this.entityManager.find(AccountingEntity.class, DOMAIN)
+						.getRequests());
+		assertTrue(this.accountingSingletonBean.drain().isEmpty());
+	}
+
+	private long drainRequests(String domain) {
+		long requests = 0;
+		for (Map<String, Long> requestCounts : this.accountingSingletonBean
+				.drain().values()) {
+			Long count = requestCounts.get(domain);
+			if (null != count) {
+				requests += count;
+			}
+		}
+		return requests;
+	}
+
+	@Test
+	public void testWindowedRequests() throws Exception {
+		long day = AccountingGranularity.DAY.floor(System.currentTimeMillis())
+				- 2 * DAY;
+		AccountingBucketEntity.addRequests(this.entityManager, DOMAIN, day
+				- MINUTE, 1);
+		AccountingBucketEntity.addRequests(this.entityManager, DOMAIN, day
+				+ 30 * MINUTE, 2);
+		AccountingBucketEntity.addRequests(this.entityManager, DOMAIN, day + 5
+				* HOUR, 4);
+		AccountingBucketEntity.addRequests(this.entityManager, DOMAIN, day
+				+ DAY + 10, 8);
+		AccountingBucketEntity.addRequests(this.entityManager, OTHER_DOMAIN,
+				day + 30 * MINUTE, 16);
+
+		assertEquals(6, getRequests(day, day + DAY));
+		assertEquals(3, getRequests(day - MINUTE, day + HOUR));
+		assertEquals(2, getRequests(day + 30 * MINUTE, day + 31 * MINUTE));
+		assertEquals(0, getRequests(day + 31 * MINUTE, day + 5 * HOUR));
+		assertEquals(4, getRequests(day + 31 * MINUTE, day + 5 * HOUR
+				+ MINUTE));
+		assertEquals(7, getRequests(day - 2 * DAY, day + DAY));
+		assertEquals(15, getRequests(day - 10 * MINUTE, day + DAY + MINUTE));
+
+		List<AccountingBucketEntity> hourBuckets = this.testedInstance
+				.listBuckets(DOMAIN, AccountingGranularity.HOUR, new Date(day),
+						new Date(day + DAY));
+		assertEquals(2, hourBuckets.size());
+		assertEquals(new Date(day), hourBuckets.get(0).getBucketStart());
+		assertEquals(new Long(2), hourBuckets.get(0).getRequests());
+		assertEquals(new Long(4), hourBuckets.get(1).getRequests());
+	}
+
+	private long getRequests(long from, long to) {
+		return this.testedInstance.getRequests(DOMAIN, new Date(from),
+				new Date(to));
+	}
+
+	@Test
+	public void testPruneBuckets() throws Exception {
+		long time = System.currentTimeMillis() - 3 * DAY;
+		AccountingBucketEntity.addRequests(this.entityManager, DOMAIN, time,
+				1);
+
+		this.testedInstance.pruneBuckets();
+
+		// minute buckets are kept for 48 hours, hour buckets for 90 days
+		Date from = new Date(time - DAY);
+		Date to = new Date(time + DAY);
+		assertTrue(this.testedInstance.listBuckets(DOMAIN,
+				AccountingGranularity.MINUTE, from, to).isEmpty());
+		assertEquals(1,
+				this.testedInstance.listBuckets(DOMAIN,
+						AccountingGranularity.HOUR, from, to).size());
+		assertEquals(1,
+				this.testedInstance.listBuckets(DOMAIN,
+						AccountingGranularity.DAY, from, to).size());
+	}
+
+	@Test
+	public void testConcurrentAddRequest() throws Exception {
+		final int threadCount = 8;
+		final int requestCount = 1000;
+		ExecutorService executorService = Executors
+				.newFixedThreadPool(threadCount);
+		final CountDownLatch startLatch = new CountDownLatch(1);
+		List<Future<Void>> futures = new LinkedList<Future<Void>>();
+		for (int thread = 0; thread < threadCount; thread++) {
+			futures.add(executorService.submit(new Callable<Void>() {
+
+				public Void call() throws Exception {
+					startLatch.await();
+					for (int request = 0; request < requestCount; request++) {
+						AccountingServiceBeanTest.this.testedInstance
+								.addRequest(DOMAIN);
+					}
+					return null;
+				}
+			}));
+		}
+
+		startLatch.countDown();
+		for (Future<Void> future : futures) {
+			future.get();
+		}
+		executorService.shutdown();
+
+		// no request got lost
+		assertEquals((long) threadCount * requestCount, drainRequests(DOMAIN));
+	}
+
+	@Test
+	public void testDrainWhileAdding() throws Exception {
+		final int threadCount = 4;
+		final int requestCount = 50000;
+		final long past = System.currentTimeMillis() - 10 * MINUTE;
+		ExecutorService executorService = Executors
+				.newFixedThreadPool(threadCount);
+		final CountDownLatch startLatch = new CountDownLatch(1);
+		List<Future<Void>> futures = new LinkedList<Future<Void>>();
+		for (int thread = 0; thread < threadCount; thread++) {
+			futures.add(executorService.submit(new Callable<Void>() {
+
+				public Void call() throws Exception {
+					startLatch.await();
+					for (int request = 0; request < requestCount; request++) {
+						// past buckets get sealed by every drain
+						String domain = DOMAIN + "/" + request % 10;
+						if (0 == request % 2) {
+							AccountingServiceBeanTest.this.accountingSingletonBean
+									.addRequest(domain);
+						} else {
+							AccountingServiceBeanTest.this.accountingSingletonBean
+									.addRequests(past, Collections.singletonMap(
+											domain, 1L));
+						}
+					}
+					return null;
+				}
+			}));
+		}
+
+		// operate: drain while requests are being counted
+		startLatch.countDown();
+		long requests = 0;
+		boolean done = false;
+		while (!done) {
+			done = true;
+			for (Future<Void> future : futures) {
+				done &= future.isDone();
+			}
+			requests += drainAllRequests();
+		}
+		for (Future<Void> future : futures) {
+			future.get();
+		}
+		executorService.shutdown();
+		requests += drainAllRequests();
+
+		// verify: no request got lost
+		assertEquals((long) threadCount * requestCount, requests);
+	}
+
+	private long drainAllRequests() {
+		long requests = 0;
+		for (Map<String, Long> requestCounts : this.accountingSingletonBean
+				.drain().values()) {
+			for (Long count : requestCounts.values()) {
+				requests += count;
+			}
+		}
+		return requests;
 	}
 
 	private void injectPersistenceContext(EntityManager entityManager,
@@ -79,4 +515,20 @@ public class AccountingServiceBeanTest {
 			field.set(bean, entityManager);
 		}
 	}
+
+	private void injectEJB(Object ejb, Object bean)
+			throws IllegalArgumentException, IllegalAccessException {
+		Class<?> beanClass = bean.getClass();
+		Field[] fields = beanClass.getDeclaredFields();
+		for (Field field : fields) {
+			if (null == field.getAnnotation(EJB.class)) {
+				continue;
+			}
+			if (!field.getType().isInstance(ejb)) {
+				continue;
+			}
+			field.setAccessible(true);
+			field.set(bean, ejb);
+		}
+	}
 }
@@ -0,0 +1,149 @@
+/*
+ * eID Digital Signature Service Project.
+ * Copyright (C) 2010 FedICT.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+
+package test.unit.be.fedict.eid.dss;
+
+import static org.junit.Assert.assertEquals;
+
+import java.lang.reflect.Field;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.ejb.EJB;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.junit.Before;
+import org.junit.Test;
+
+import be.fedict.eid.dss.model.AccountingService;
+import be.fedict.eid.dss.model.bean.AccountingServiceBean;
+import be.fedict.eid.dss.model.bean.AccountingSingletonBean;
+
+/**
+ * Measures the request accounting throughput of many threads counting
+ * requests for the same domain. Not part of the default test run, use
+ * <code>mvn -Pperformance test</code>.
+ */
+public class AccountingServicePerformanceTest {
+
+	private static final Log LOG = LogFactory
+			.getLog(AccountingServicePerformanceTest.class);
+
+	private static final String DOMAIN = "https://localhost:8080/eid-dss/entry";
+
+	private AccountingService testedInstance;
+
+	private AccountingSingletonBean accountingSingletonBean;
+
+	@Before
+	public void setUp() throws Exception {
+		// counting requests never touches the database
+		this.testedInstance = new AccountingServiceBean();
+		this.accountingSingletonBean = new AccountingSingletonBean();
+		injectEJB(this.accountingSingletonBean, this.testedInstance);
+	}
+
+	@Test
+	public void testConcurrentAddRequest() throws Exception {
+		int requestCount = 100000;
+
+		// warm up
+		addRequests(1, requestCount);
+
+		int processors = Runtime.getRuntime().availableProcessors();
+		for (int threadCount = 1; threadCount <= Math.max(16, processors * 2); threadCount *= 2) {
+			addRequests(threadCount, requestCount);
+		}
+	}
+
+	private void addRequests(int threadCount, final int requestCount)
+			throws Exception {
+		ExecutorService executorService = Executors
+				.newFixedThreadPool(threadCount);
+		try {
+			final CountDownLatch startLatch = new CountDownLatch(1);
+			List<Future<Void>> futures = new LinkedList<Future<Void>>();
+			for (int thread = 0; thread < threadCount; thread++) {
+				futures.add(executorService.submit(new Callable<Void>() {
+
+					public Void call() throws Exception {
+						startLatch.await();
+						for (int request = 0; request < requestCount; request++) {
+							AccountingServicePerformanceTest.this.testedInstance
+									.addRequest(DOMAIN);
+						}
+						return null;
+					}
+				}));
+			}
+
+			long t0 = System.nanoTime();
+			startLatch.countDown();
+			for (Future<Void> future : futures) {
+				future.get();
+			}
+			long duration = System.nanoTime() - t0;
+
+			long total = (long) threadCount * requestCount;
+			LOG.debug("#threads: " + threadCount + ", #requests: " + total
+					+ ", duration: " + duration / 1000000 + " ms, throughput: "
+					+ total * 1000000000L / Math.max(duration, 1)
+					+ " requests/s");
+			// no request got lost
+			assertEquals(total, drainRequests(DOMAIN));
+		} finally {
+			executorService.shutdown();
+		}
+	}
+
+	private long drainRequests(String domain) {
+		long requests = 0;
+		for (Map<String, Long> requestCounts : this.accountingSingletonBean
+				.drain().values()) {
+			Long count = requestCounts.get(domain);
+			if (null != count) {
+				requests += count;
+			}
+		}
+		return requests;
+	}
+
+	private void injectEJB(Object ejb, Object bean)
+			throws IllegalArgumentException, IllegalAccessException {
+		Class<?> beanClass = bean.getClass();
+		Field[] fields = beanClass.getDeclaredFields();
+		for (Field field : fields) {
+			if (null == field.getAnnotation(EJB.class)) {
+				continue;
+			}
+			if (!field.getType().isInstance(ejb)) {
+				continue;
+			}
+			field.setAccessible(true);
+			field.set(bean, ejb);
+		}
+	}
+}
@@ -19,26 +19,61 @@
 package test.unit.be.fedict.eid.dss;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 
 import java.lang.reflect.Field;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
 
+import javax.annotation.Resource;
+import javax.ejb.EJB;
+import javax.jms.MapMessage;
+import javax.jms.Message;
+import javax.jms.Session;
+import javax.jms.Topic;
+import javax.jms.TopicConnection;
+import javax.jms.TopicConnectionFactory;
+import javax.jms.TopicPublisher;
+import javax.jms.TopicSession;
 import javax.persistence.EntityManager;
 import javax.persistence.EntityManagerFactory;
 import javax.persistence.EntityTransaction;
 import javax.persistence.PersistenceContext;
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+import javax.transaction.TransactionSynchronizationRegistry;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.easymock.EasyMock;
+import org.easymock.IAnswer;
 import org.hibernate.ejb.Ejb3Configuration;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
+import be.fedict.eid.applet.service.signer.DigestAlgo;
 import be.fedict.eid.dss.entity.ConfigPropertyEntity;
 import be.fedict.eid.dss.model.ConfigProperty;
+import be.fedict.eid.dss.model.ConfigurationChangeEvent;
+import be.fedict.eid.dss.model.ConfigurationListener;
+import be.fedict.eid.dss.model.ConfigurationSnapshot;
 import be.fedict.eid.dss.model.TSPDigestAlgo;
 import be.fedict.eid.dss.model.bean.ConfigurationBean;
+import be.fedict.eid.dss.model.bean.ConfigurationBootstrapBean;
+import be.fedict.eid.dss.model.bean.ConfigurationChangeMDB;
+import be.fedict.eid.dss.model.bean.ConfigurationSingletonBean;
 
 public class ConfigurationBeanTest {
 
@@ -49,6 +84,16 @@ public class ConfigurationBeanTest {
 
 	private ConfigurationBean testedInstance;
 
+	private ConfigurationSingletonBean configurationCache;
+
+	private List<Synchronization> synchronizations;
+
+	private Map<Object, Object> transactionResources;
+
+	private List<Message> publishedMessages;
+
+	private ConfigurationChangeMDB configurationChangeMDB;
+
 	@Before
 	public void setUp() throws Exception {
 		Class.forName("org.hsqldb.jdbcDriver");
@@ -70,13 +115,107 @@ public class ConfigurationBeanTest {
 		this.entityManager.getTransaction().begin();
 
 		this.testedInstance = new ConfigurationBean();
+		this.configurationCache = new ConfigurationSingletonBean();
+		this.synchronizations = new LinkedList<Synchronization>();
+		this.transactionResources = new HashMap<Object, Object>();
+		TransactionSynchronizationRegistry mockTransactionSynchronizationRegistry = EasyMock
+				.createMock(TransactionSynchronizationRegistry.class);
+		mockTransactionSynchronizationRegistry
+				.registerInterposedSynchronization((Synchronization) EasyMock
+						.anyObject());
+		EasyMock.expectLastCall().andAnswer(new IAnswer<Object>() {
+
+			public Object answer() throws Throwable {
+				ConfigurationBeanTest.this.synchronizations
+						.add((Synchronization) EasyMock.getCurrentArguments()[0]);
+				return null;
+			}
+		}).anyTimes();
+		mockTransactionSynchronizationRegistry.putResource(EasyMock.anyObject(),
+				EasyMock.anyObject());
+		EasyMock.expectLastCall().andAnswer(new IAnswer<Object>() {
+
+			public Object answer() throws Throwable {
+				Object[] arguments = EasyMock.getCurrentArguments();
+				ConfigurationBeanTest.this.transactionResources.put(
+						arguments[0], arguments[1]);
+				return null;
+			}
+		}).anyTimes();
+		EasyMock.expect(
+				mockTransactionSynchronizationRegistry.getResource(EasyMock
+						.anyObject())).andAnswer(new IAnswer<Object>() {
+
+			public Object answer() throws Throwable {
+				return ConfigurationBeanTest.this.transactionResources
+						.get(EasyMock.getCurrentArguments()[0]);
+			}
+		}).anyTimes();
+		EasyMock.replay(mockTransactionSynchronizationRegistry);
+
+		// configuration change messages are delivered on commit
+		this.publishedMessages = new LinkedList<Message>();
+		TopicConnectionFactory mockTopicConnectionFactory = EasyMock
+				.createMock(TopicConnectionFactory.class);
+		TopicConnection mockTopicConnection = EasyMock
+				.createNiceMock(TopicConnection.class);
+		TopicSession mockTopicSession = EasyMock
+				.createNiceMock(TopicSession.class);
+		TopicPublisher mockTopicPublisher = EasyMock
+				.createNiceMock(TopicPublisher.class);
+		Topic mockTopic = EasyMock.createMock(Topic.class);
+		EasyMock.expect(mockTopicConnectionFactory.createTopicConnection())
+				.andReturn(mockTopicConnection).anyTimes();
+		EasyMock.expect(
+				mockTopicConnection.createTopicSession(true,
+						Session.AUTO_ACKNOWLEDGE)).andReturn(mockTopicSession)
+				.anyTimes();
+		EasyMock.expect(mockTopicSession.createPublisher(mockTopic))
+				.andReturn(mockTopicPublisher).anyTimes();
+		EasyMock.expect(mockTopicSession.createMapMessage())
+				.andAnswer(new IAnswer<MapMessage>() {
+
+					public MapMessage answer() throws Throwable {
+						return createMapMessage();
+					}
+				}).anyTimes();
+		mockTopicPublisher.publish((Message) EasyMock.anyObject());
+		EasyMock.expectLastCall().andAnswer(new IAnswer<Object>() {
+
+			public Object answer() throws Throwable {
+				ConfigurationBeanTest.this.publishedMessages
+						.add((Message) EasyMock.getCurrentArguments()[0]);
+				return null;
+			}
+		}).anyTimes();
+		EasyMock.replay(mockTopicConnectionFactory, mockTopicConnection,
+				mockTopicSession, mockTopicPublisher, mockTopic);
+		this.configurationChangeMDB = new ConfigurationChangeMDB();
+		inject(this.configurationChangeMDB, this.configurationCache);
+
+		Object[] resources = new Object[] {
+				mockTransactionSynchronizationRegistry,
+				mockTopicConnectionFactory, mockTopic };
 		Field[] beanFields = ConfigurationBean.class.getDeclaredFields();
 		for (Field beanField : beanFields) {
-			if (null == beanField.getAnnotation(PersistenceContext.class)) {
-				continue;
+			if (null != beanField.getAnnotation(PersistenceContext.class)) {
+				beanField.setAccessible(true);
+				beanField.set(this.testedInstance, this.entityManager);
+			}
+			if (null != beanField.getAnnotation(EJB.class)
+					&& ConfigurationSingletonBean.class.equals(beanField
+							.getType())) {
+				beanField.setAccessible(true);
+				beanField.set(this.testedInstance, this.configurationCache);
+			}
+			if (null != beanField.getAnnotation(Resource.class)) {
+				for (Object resource : resources) {
+					if (beanField.getType().isInstance(resource)) {
+						beanField.setAccessible(true);
+						beanField.set(this.testedInstance, resource);
+					}
+				}
 			}
-			beanField.setAccessible(true);
-			beanField.set(this.testedInstance, this.entityManager);
 		}
 	}
 
@@ -118,4 +257,325 @@ public class ConfigurationBeanTest {
 		assertEquals("foobar", this.testedInstance.getValue(
 				ConfigProperty.TSP_URL, String.class));
 	}
+
+	@Test
+	public void testCache() throws Exception {
+		assertNull(this.testedInstance.getValue(ConfigProperty.TSP_URL,
+				String.class));
+		assertNull(this.testedInstance.getValue(ConfigProperty.TSP_URL,
+				String.class));
+		assertEquals(1, this.configurationCache.getMissCount());
+		assertEquals(1, this.configurationCache.getHitCount());
+
+		this.testedInstance.setValue(ConfigProperty.TSP_URL, "foobar");
+		complete(Status.STATUS_COMMITTED);
+
+		assertEquals("foobar", this.testedInstance.getValue(
+				ConfigProperty.TSP_URL, String.class));
+		assertEquals("foobar", this.testedInstance.getValue(
+				ConfigProperty.TSP_URL, String.class));
+		assertEquals(2, this.configurationCache.getMissCount());
+		assertEquals(2, this.configurationCache.getHitCount());
+
+		this.testedInstance.removeValue(ConfigProperty.TSP_URL);
+		complete(Status.STATUS_COMMITTED);
+
+		assertNull(this.testedInstance.getValue(ConfigProperty.TSP_URL,
+				String.class));
+		assertEquals(3, this.configurationCache.getMissCount());
+	}
+
+	@Test
+	public void testInvalidateAfterCompletion() throws Exception {
+		String propertyName = ConfigProperty.TSP_URL.getName();
+		long generation = this.configurationCache.getGeneration();
+
+		this.testedInstance.setValue(ConfigProperty.TSP_URL, "foobar");
+
+		// a concurrent reader that read before the change cannot cache
+		this.configurationCache.putValue(propertyName, "old", generation);
+		assertNull(this.configurationCache.getValue(propertyName));
+
+		// a concurrent reader that reads before the commit
+		this.configurationCache.putValue(propertyName, "old",
+				this.configurationCache.getGeneration());
+		assertEquals("old", this.configurationCache.getValue(propertyName));
+		complete(Status.STATUS_COMMITTED);
+		assertNull(this.configurationCache.getValue(propertyName));
+
+		assertEquals("foobar", this.testedInstance.getValue(
+				ConfigProperty.TSP_URL, String.class));
+	}
+
+	@Test
+	public void testReadAfterWriteNotCached() throws Exception {
+		this.testedInstance.setValue(ConfigProperty.TSP_URL, "foobar");
+		this.testedInstance.setValue(ConfigProperty.XKMS_URL, "1", "xkms-1");
+
+		// the writing transaction reads its own changes
+		assertEquals("foobar", this.testedInstance.getValue(
+				ConfigProperty.TSP_URL, String.class));
+		assertEquals(Arrays.asList("1"),
+				this.testedInstance.getIndexes(ConfigProperty.XKMS_URL));
+		assertEquals("foobar", this.testedInstance.getSnapshot().getValue(
+				ConfigProperty.TSP_URL, String.class));
+
+		// but never shares them before commit
+		assertNull(this.configurationCache.getValue(ConfigProperty.TSP_URL
+				.getName()));
+		assertNull(this.configurationCache.getIndexes(ConfigProperty.XKMS_URL
+				.getName()));
+		assertNull(this.configurationCache.getSnapshot());
+
+		this.entityManager.getTransaction().rollback();
+		this.entityManager.clear();
+		complete(Status.STATUS_ROLLEDBACK);
+
+		// a second reader does not see the rolled back value
+		this.entityManager.getTransaction().begin();
+		assertNull(this.testedInstance.getValue(ConfigProperty.TSP_URL,
+				String.class));
+		assertTrue(this.testedInstance.getIndexes(ConfigProperty.XKMS_URL)
+				.isEmpty());
+		assertNull(this.testedInstance.getSnapshot().getValue(
+				ConfigProperty.TSP_URL, String.class));
+	}
+
+	private void complete(int status) {
+		for (Synchronization synchronization : this.synchronizations) {
+			synchronization.beforeCompletion();
+			synchronization.afterCompletion(status);
+		}
+		this.synchronizations.clear();
+		this.transactionResources.clear();
+		if (Status.STATUS_COMMITTED == status) {
+			for (Message message : this.publishedMessages) {
+				this.configurationChangeMDB.onMessage(message);
+			}
+		}
+		this.publishedMessages.clear();
+	}
+
+	private MapMessage createMapMessage() {
+		final Map<String, Object> values = new HashMap<String, Object>();
+		return (MapMessage) Proxy.newProxyInstance(
+				ConfigurationBeanTest.class.getClassLoader(),
+				new Class<?>[] { MapMessage.class }, new InvocationHandler() {
+
+					public Object invoke(Object proxy, Method method,
+							Object[] args) throws Throwable {
+						if (method.getName().startsWith("set")) {
+							values.put((String) args[0], args[1]);
+							return null;
+						}
+						if (method.getName().startsWith("get")) {
+							return values.get(args[0]);
+						}
+						throw new UnsupportedOperationException(method
+								.getName());
+					}
+				});
+	}
+
+	@Test
+	public void testSnapshot() throws Exception {
+		this.testedInstance.setValue(ConfigProperty.TSP_URL, "foobar");
+		this.testedInstance.setValue(ConfigProperty.HTTP_PROXY_PORT, 8080);
+		this.testedInstance.setValue(ConfigProperty.HTTP_PROXY_ENABLED, true);
+		this.testedInstance.setValue(ConfigProperty.TSP_DIGEST_ALGO,
+				TSPDigestAlgo.SHA256);
+		this.testedInstance.setValue(ConfigProperty.XKMS_URL, "1", "xkms-1");
+		for (String index : new String[] { "c", "10", "a", "2", "b" }) {
+			this.testedInstance.setValue(ConfigProperty.KEY_STORE_PATH, index,
+					"/tmp/" + index + ".p12");
+		}
+		complete(Status.STATUS_COMMITTED);
+		List<String> keyStoreIndexes = this.testedInstance
+				.getIndexes(ConfigProperty.KEY_STORE_PATH);
+
+		ConfigurationSnapshot snapshot = this.testedInstance.getSnapshot();
+
+		assertEquals("foobar",
+				snapshot.getValue(ConfigProperty.TSP_URL, String.class));
+		assertEquals(Integer.valueOf(8080), snapshot.getValue(
+				ConfigProperty.HTTP_PROXY_PORT, Integer.class));
+		assertTrue(snapshot.getValue(ConfigProperty.HTTP_PROXY_ENABLED,
+				Boolean.class));
+		assertFalse(snapshot.getValue(ConfigProperty.SECURITY_HSTS,
+				Boolean.class));
+		assertEquals(TSPDigestAlgo.SHA256, snapshot.getValue(
+				ConfigProperty.TSP_DIGEST_ALGO, TSPDigestAlgo.class));
+		assertNull(snapshot.getValue(ConfigProperty.XKMS_URL, String.class));
+		assertEquals("xkms-1", snapshot.getValue(ConfigProperty.XKMS_URL,
+				"1", String.class));
+		assertEquals(1, snapshot.getIndexes(ConfigProperty.XKMS_URL).size());
+		assertTrue(snapshot.getIndexes(ConfigProperty.TSP_URL).isEmpty());
+		assertEquals(Arrays.asList("10", "2", "a", "b", "c"),
+				snapshot.getIndexes(ConfigProperty.KEY_STORE_PATH));
+		assertEquals(keyStoreIndexes,
+				snapshot.getIndexes(ConfigProperty.KEY_STORE_PATH));
+
+		// snapshot primes the cache
+		long missCount = this.configurationCache.getMissCount();
+		assertEquals("foobar", this.testedInstance.getValue(
+				ConfigProperty.TSP_URL, String.class));
+		assertEquals(missCount, this.configurationCache.getMissCount());
+	}
+
+	@Test
+	public void testSnapshotCache() throws Exception {
+		this.testedInstance.setValue(ConfigProperty.TSP_URL, "foobar");
+		complete(Status.STATUS_COMMITTED);
+
+		ConfigurationSnapshot snapshot = this.testedInstance.getSnapshot();
+		assertSame(snapshot, this.testedInstance.getSnapshot());
+
+		this.testedInstance.setValue(ConfigProperty.TSP_URL, "foobar2");
+		complete(Status.STATUS_COMMITTED);
+
+		ConfigurationSnapshot changedSnapshot = this.testedInstance
+				.getSnapshot();
+		assertNotSame(snapshot, changedSnapshot);
+		assertEquals("foobar2",
+				changedSnapshot.getValue(ConfigProperty.TSP_URL, String.class));
+	}
+
+	@Test
+	public void testSetValues() throws Exception {
+		this.testedInstance.setValue(ConfigProperty.TSP_URL, "foobar");
+
+		Map<ConfigProperty, Object> values = new HashMap<ConfigProperty, Object>();
+		values.put(ConfigProperty.TSP_URL, "foobar");
+		values.put(ConfigProperty.TSP_POLICY_OID, null);
+		values.put(ConfigProperty.HTTP_PROXY_PORT, 8080);
+
+		assertEquals(1, this.testedInstance.setValues(values));
+		assertEquals(Integer.valueOf(8080), this.testedInstance.getValue(
+				ConfigProperty.HTTP_PROXY_PORT, Integer.class));
+
+		// nothing changed
+		assertEquals(0, this.testedInstance.setValues(values));
+
+		values.put(ConfigProperty.TSP_URL, "foobar2");
+		values.put(ConfigProperty.HTTP_PROXY_PORT, null);
+		assertEquals(2, this.testedInstance.setValues(values));
+		assertEquals("foobar2", this.testedInstance.getValue(
+				ConfigProperty.TSP_URL, String.class));
+		assertNull(this.testedInstance.getValue(
+				ConfigProperty.HTTP_PROXY_PORT, Integer.class));
+	}
+
+	@Test
+	public void testIndexes() throws Exception {
+		assertTrue(this.testedInstance.getIndexes(ConfigProperty.XKMS_URL)
+				.isEmpty());
+
+		this.testedInstance.setValue(ConfigProperty.XKMS_URL, "b", "xkms-b");
+		this.testedInstance.setValue(ConfigProperty.XKMS_URL, "a", "xkms-a");
+		this.testedInstance.setValue(ConfigProperty.XKMS_URL, "xkms");
+
+		assertEquals(Arrays.asList("a", "b"),
+				this.testedInstance.getIndexes(ConfigProperty.XKMS_URL));
+
+		this.testedInstance.removeValue(ConfigProperty.XKMS_URL, "a");
+
+		assertEquals(Arrays.asList("b"),
+				this.testedInstance.getIndexes(ConfigProperty.XKMS_URL));
+		assertEquals("xkms-b", this.testedInstance.getValue(
+				ConfigProperty.XKMS_URL, "b", String.class));
+	}
+
+	@Test
+	public void testBootstrap() throws Exception {
+		ConfigPropertyEntity legacyConfig = new ConfigPropertyEntity();
+		legacyConfig.setName(ConfigProperty.XKMS_URL.getName() + "-legacy");
+		legacyConfig.setValue("xkms-legacy");
+		this.entityManager.persist(legacyConfig);
+		this.testedInstance.setValue(ConfigProperty.SIGN_TRUST_DOMAIN,
+				"foobar");
+
+		ConfigurationBootstrapBean bootstrapBean = new ConfigurationBootstrapBean();
+		inject(bootstrapBean, this.entityManager);
+		inject(bootstrapBean, this.testedInstance);
+		inject(bootstrapBean, this.configurationCache);
+		bootstrapBean.init();
+
+		assertEquals(ConfigProperty.XKMS_URL.getName(),
+				legacyConfig.getBaseName());
+		assertEquals("legacy", legacyConfig.getPropertyIndex());
+		assertEquals(Arrays.asList("legacy"),
+				this.testedInstance.getIndexes(ConfigProperty.XKMS_URL));
+
+		assertEquals(ConfigProperty.XKMS_URL.getDefaultValue(),
+				this.testedInstance.getValue(ConfigProperty.XKMS_URL,
+						String.class));
+		assertEquals("foobar", this.testedInstance.getValue(
+				ConfigProperty.SIGN_TRUST_DOMAIN, String.class));
+		assertEquals(ConfigProperty.SIGNATURE_DIGEST_ALGO.getDefaultValue(),
+				this.testedInstance.getValue(
+						ConfigProperty.SIGNATURE_DIGEST_ALGO, DigestAlgo.class));
+	}
+
+	private void inject(Object bean, Object value) throws Exception {
+		for (Field beanField : bean.getClass().getDeclaredFields()) {
+			if (beanField.getType().isInstance(value)) {
+				beanField.setAccessible(true);
+				beanField.set(bean, value);
+			}
+		}
+	}
+
+	@Test
+	public void testListener() throws Exception {
+		final List<ConfigurationChangeEvent> events = new LinkedList<ConfigurationChangeEvent>();
+		ConfigurationListener listener = new ConfigurationListener() {
+
+			public void configurationChanged(ConfigurationChangeEvent event) {
+				events.add(event);
+			}
+		};
+		this.testedInstance.addListener(listener);
+		long version = this.testedInstance.getVersion();
+
+		this.testedInstance.setValue(ConfigProperty.KEY_STORE_PATH, "test",
+				"/tmp/test.p12");
+		assertTrue(events.isEmpty());
+		complete(Status.STATUS_COMMITTED);
+
+		assertEquals(1, events.size());
+		assertEquals(version + 1, this.testedInstance.getVersion());
+		assertEquals(version + 1, events.get(0).getVersion());
+		assertTrue(events.get(0).isChanged(ConfigProperty.KEY_STORE_PATH));
+		assertFalse(events.get(0).isChanged(ConfigProperty.KEY_STORE_TYPE));
+
+		this.testedInstance.removeValue(ConfigProperty.KEY_STORE_PATH, "test");
+		complete(Status.STATUS_COMMITTED);
+		assertEquals(2, events.size());
+
+		// rolled back changes are never published
+		this.testedInstance.setValue(ConfigProperty.TSP_URL, "rolled-back");
+		complete(Status.STATUS_ROLLEDBACK);
+		assertEquals(2, events.size());
+
+		this.testedInstance.removeListener(listener);
+		this.testedInstance.setValue(ConfigProperty.TSP_URL, "foobar");
+		complete(Status.STATUS_COMMITTED);
+		assertEquals(2, events.size());
+		assertEquals(version + 3, this.testedInstance.getVersion());
+	}
+
+	@Test
+	public void testChangeEventIsChanged() throws Exception {
+		ConfigurationChangeEvent event = new ConfigurationChangeEvent(1,
+				Collections.singleton(ConfigProperty.HTTP_PROXY_HOST
+						.getName()));
+
+		assertTrue(event.isChanged(ConfigProperty.HTTP_PROXY_HOST));
+		assertFalse(event.isChanged(ConfigProperty.HTTP_PROXY_ENABLED));
+
+		event = new ConfigurationChangeEvent(2,
+				Collections.singleton(ConfigProperty.HTTP_PROXY_ENABLED
+						.getName() + "-1"));
+		assertTrue(event.isChanged(ConfigProperty.HTTP_PROXY_ENABLED));
+	}
 }
@@ -0,0 +1,217 @@
+/*
+ * eID Digital Signature Service Project.
+ * Copyright (C) 2010 FedICT.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+package test.unit.be.fedict.eid.dss;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.lang.reflect.Field;
+
+import javax.ejb.EJB;
+import javax.xml.XMLConstants;
+import javax.xml.transform.stream.StreamSource;
+import javax.xml.validation.Schema;
+import javax.xml.validation.SchemaFactory;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.easymock.EasyMock;
+import org.junit.Test;
+
+import be.fedict.eid.dss.model.XmlSchemaManager;
+import be.fedict.eid.dss.model.bean.DocumentValidationServiceBean;
+import be.fedict.eid.dss.model.exception.DocumentFormatException;
+
+public class DocumentValidationServiceBeanTest {
+
+	private static final Log LOG = LogFactory
+			.getLog(DocumentValidationServiceBeanTest.class);
+
+	private static final String DOCUMENT = "<Transaction xmlns=\"urn:be:fedict:eid:dss:example\">"
+			+ "<From>Tom</From><To>Jerry</To><Amount>10.5</Amount>"
+			+ "</Transaction>";
+
+	@Test
+	public void testValidate() throws Exception {
+		// setup
+		DocumentValidationServiceBean testedInstance = new DocumentValidationServiceBean();
+		XmlSchemaManager mockXmlSchemaManager = EasyMock
+				.createMock(XmlSchemaManager.class);
+		injectEJB(mockXmlSchemaManager, testedInstance);
+
+		// expectations
+		EasyMock.expect(
+				mockXmlSchemaManager.getSchema("urn:be:fedict:eid:dss:example"))
+				.andReturn(getSchema("/example.xsd"));
+
+		// prepare
+		EasyMock.replay(mockXmlSchemaManager);
+
+		// operate
+		String result = testedInstance.validate(new ByteArrayInputStream(
+				DOCUMENT.getBytes()));
+
+		// verify
+		EasyMock.verify(mockXmlSchemaManager);
+		assertEquals("urn:be:fedict:eid:dss:example", result);
+	}
+
+	@Test
+	public void testInvalidDocument() throws Exception {
+		// setup
+		DocumentValidationServiceBean testedInstance = new DocumentValidationServiceBean();
+		XmlSchemaManager mockXmlSchemaManager = EasyMock
+				.createMock(XmlSchemaManager.class);
+		injectEJB(mockXmlSchemaManager, testedInstance);
+
+		// expectations
+		EasyMock.expect(
+				mockXmlSchemaManager.getSchema("urn:be:fedict:eid:dss:example"))
+				.andReturn(getSchema("/example.xsd"));
+
+		// prepare
+		EasyMock.replay(mockXmlSchemaManager);
+
+		// operate
+		try {
+			testedInstance.validate(new ByteArrayInputStream(
+					("<Transaction xmlns=\"urn:be:fedict:eid:dss:example\">"
+							+ "<From>Tom</From></Transaction>").getBytes()));
+			throw new AssertionError("expected DocumentFormatException");
+		} catch (DocumentFormatException e) {
+			// expected
+			LOG.debug("error: " + e.getMessage());
+		}
+
+		// verify
+		EasyMock.verify(mockXmlSchemaManager);
+	}
+
+	@Test
+	public void testNoXmlSchema() throws Exception {
+		// setup
+		DocumentValidationServiceBean testedInstance = new DocumentValidationServiceBean();
+		XmlSchemaManager mockXmlSchemaManager = EasyMock
+				.createMock(XmlSchemaManager.class);
+		injectEJB(mockXmlSchemaManager, testedInstance);
+
+		// expectations
+		EasyMock.expect(
+				mockXmlSchemaManager.getSchema("urn:be:fedict:eid:dss:example"))
+				.andReturn(null);
+
+		// prepare
+		EasyMock.replay(mockXmlSchemaManager);
+
+		// operate
+		try {
+			testedInstance.validate(new ByteArrayInputStream(DOCUMENT
+					.getBytes()));
+			throw new AssertionError("expected DocumentFormatException");
+		} catch (DocumentFormatException e) {
+			// expected
+			assertTrue(e.getMessage().contains(
+					"urn:be:fedict:eid:dss:example"));
+		}
+
+		// verify
+		EasyMock.verify(mockXmlSchemaManager);
+	}
+
+	@Test
+	public void testNoXmlSchemaNotRequired() throws Exception {
+		// setup
+		DocumentValidationServiceBean testedInstance = new DocumentValidationServiceBean();
+		XmlSchemaManager mockXmlSchemaManager = EasyMock
+				.createMock(XmlSchemaManager.class);
+		injectEJB(mockXmlSchemaManager, testedInstance);
+
+		// expectations
+		EasyMock.expect(
+				mockXmlSchemaManager.getSchema("urn:be:fedict:eid:dss:example"))
+				.andReturn(null);
+
+		// prepare
+		EasyMock.replay(mockXmlSchemaManager);
+
+		// operate
+		String result = testedInstance.validate(new ByteArrayInputStream(
+				DOCUMENT.getBytes()), false);
+
+		// verify
+		EasyMock.verify(mockXmlSchemaManager);
+		assertEquals("urn:be:fedict:eid:dss:example", result);
+	}
+
+	@Test
+	public void testNotWellFormedNotRequired() throws Exception {
+		// setup
+		DocumentValidationServiceBean testedInstance = new DocumentValidationServiceBean();
+		XmlSchemaManager mockXmlSchemaManager = EasyMock
+				.createMock(XmlSchemaManager.class);
+		injectEJB(mockXmlSchemaManager, testedInstance);
+
+		// expectations
+		EasyMock.expect(
+				mockXmlSchemaManager.getSchema("urn:be:fedict:eid:dss:example"))
+				.andReturn(null);
+
+		// prepare
+		EasyMock.replay(mockXmlSchemaManager);
+
+		// operate
+		try {
+			testedInstance.validate(new ByteArrayInputStream(
+					("<Transaction xmlns=\"urn:be:fedict:eid:dss:example\">"
+							+ "<From>Tom</Transaction>").getBytes()), false);
+			throw new AssertionError("expected DocumentFormatException");
+		} catch (DocumentFormatException e) {
+			// expected
+			LOG.debug("error: " + e.getMessage());
+		}
+
+		// verify
+		EasyMock.verify(mockXmlSchemaManager);
+	}
+
+	private Schema getSchema(String xsdResource) throws Exception {
+		SchemaFactory schemaFactory = SchemaFactory
+				.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI);
+		return schemaFactory.newSchema(new StreamSource(
+				DocumentValidationServiceBeanTest.class
+						.getResourceAsStream(xsdResource)));
+	}
+
+	private void injectEJB(Object ejb, Object bean)
+			throws IllegalArgumentException, IllegalAccessException {
+		Class<?> beanClass = bean.getClass();
+		Field[] fields = beanClass.getDeclaredFields();
+		for (Field field : fields) {
+			if (null == field.getAnnotation(EJB.class)) {
+				continue;
+			}
+			if (!field.getType().isInstance(ejb)) {
+				continue;
+			}
+			field.setAccessible(true);
+			field.set(bean, ejb);
+		}
+	}
+}
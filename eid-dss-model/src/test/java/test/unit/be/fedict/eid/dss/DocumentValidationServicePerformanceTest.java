@@ -0,0 +1,252 @@
+/*
+ * eID Digital Signature Service Project.
+ * Copyright (C) 2010 FedICT.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+
+package test.unit.be.fedict.eid.dss;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.lang.reflect.Field;
+
+import javax.ejb.EJB;
+import javax.xml.XMLConstants;
+import javax.xml.transform.stream.StreamSource;
+import javax.xml.validation.Schema;
+import javax.xml.validation.SchemaFactory;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.easymock.EasyMock;
+import org.junit.Assume;
+import org.junit.Test;
+
+import be.fedict.eid.dss.model.XmlSchemaManager;
+import be.fedict.eid.dss.model.bean.DocumentValidationServiceBean;
+
+/**
+ * Checks that document validation streams the document instead of building it
+ * in memory. Not part of the default test run, use
+ * <code>mvn -Pperformance test</code>.
+ */
+public class DocumentValidationServicePerformanceTest {
+
+	private static final Log LOG = LogFactory
+			.getLog(DocumentValidationServicePerformanceTest.class);
+
+	@Test
+	public void testValidateLargerThanHeap() throws Exception {
+		Runtime runtime = Runtime.getRuntime();
+		long maxMemory = runtime.maxMemory();
+		Assume.assumeTrue(maxMemory <= 512L * 1024 * 1024);
+
+		// setup
+		DocumentValidationServiceBean testedInstance = new DocumentValidationServiceBean();
+		XmlSchemaManager mockXmlSchemaManager = EasyMock
+				.createMock(XmlSchemaManager.class);
+		injectEJB(mockXmlSchemaManager, testedInstance);
+		GeneratedDocumentInputStream documentInputStream = new GeneratedDocumentInputStream(
+				2 * maxMemory);
+
+		// expectations
+		EasyMock.expect(mockXmlSchemaManager.getSchema("urn:test")).andReturn(
+				getSchema("/large.xsd"));
+
+		// prepare
+		EasyMock.replay(mockXmlSchemaManager);
+		System.gc();
+		long usedMemory = runtime.totalMemory() - runtime.freeMemory();
+
+		// operate
+		String result = testedInstance.validate(documentInputStream);
+
+		// verify
+		System.gc();
+		long memoryDelta = runtime.totalMemory() - runtime.freeMemory()
+				- usedMemory;
+		EasyMock.verify(mockXmlSchemaManager);
+		assertEquals("urn:test", result);
+		assertTrue(documentInputStream.getSize() > maxMemory);
+		LOG.debug("document size: " + documentInputStream.getSize() / 1024
+				/ 1024 + " MB, max heap: " + maxMemory / 1024 / 1024 + " MB");
+		LOG.debug("retained heap: " + memoryDelta / 1024 + " KB");
+		assertTrue(memoryDelta < maxMemory / 4);
+	}
+
+	@Test
+	public void testBenchmark() throws Exception {
+		benchmark(new File("../documents/large.xml"), "urn:test", "/large.xsd");
+		benchmark(new File("../documents/large-flat.xml"),
+				"http://www.linkid.be", "/large-flat.xsd");
+	}
+
+	private void benchmark(File document, String namespace, String xsdResource)
+			throws Exception {
+		Assume.assumeTrue(document.exists());
+
+		// setup
+		DocumentValidationServiceBean testedInstance = new DocumentValidationServiceBean();
+		XmlSchemaManager mockXmlSchemaManager = EasyMock
+				.createMock(XmlSchemaManager.class);
+		injectEJB(mockXmlSchemaManager, testedInstance);
+		int runs = 10;
+
+		// expectations
+		EasyMock.expect(mockXmlSchemaManager.getSchema(namespace))
+				.andReturn(getSchema(xsdResource)).times(runs + 1);
+
+		// prepare
+		EasyMock.replay(mockXmlSchemaManager);
+
+		// operate: warm up
+		validate(testedInstance, document);
+
+		Runtime runtime = Runtime.getRuntime();
+		System.gc();
+		long usedMemory = runtime.totalMemory() - runtime.freeMemory();
+		long t0 = System.nanoTime();
+		for (int idx = 0; idx < runs; idx++) {
+			assertEquals(namespace, validate(testedInstance, document));
+		}
+		long duration = System.nanoTime() - t0;
+		System.gc();
+		long memoryDelta = runtime.totalMemory() - runtime.freeMemory()
+				- usedMemory;
+
+		// verify
+		EasyMock.verify(mockXmlSchemaManager);
+		LOG.debug("document: " + document.getName() + ", size: "
+				+ document.length() / 1024 + " KB");
+		LOG.debug("validation: " + duration / runs / 1000000 + " ms");
+		LOG.debug("retained heap after " + runs + " runs: " + memoryDelta
+				/ 1024 + " KB");
+		assertTrue(memoryDelta < runtime.maxMemory() / 4);
+	}
+
+	private String validate(DocumentValidationServiceBean testedInstance,
+			File document) throws Exception {
+		InputStream documentInputStream = new BufferedInputStream(
+				new FileInputStream(document));
+		try {
+			return testedInstance.validate(documentInputStream);
+		} finally {
+			documentInputStream.close();
+		}
+	}
+
+	/**
+	 * Generates a document valid against large.xsd of at least the given size
+	 * without ever holding it in memory.
+	 */
+	private static class GeneratedDocumentInputStream extends InputStream {
+
+		private static final byte[] HEAD = "<tns:root xmlns:tns=\"urn:test\"><tns:data>"
+				.getBytes();
+
+		private static final byte[] ELEMENT = "<tns:foo>bar</tns:foo>"
+				.getBytes();
+
+		private static final byte[] TAIL = "</tns:data></tns:root>"
+				.getBytes();
+
+		private final long minimumSize;
+
+		private long size;
+
+		private byte[] chunk;
+
+		private int chunkIdx;
+
+		public GeneratedDocumentInputStream(long minimumSize) {
+			this.minimumSize = minimumSize;
+			this.chunk = HEAD;
+		}
+
+		public long getSize() {
+			return this.size;
+		}
+
+		@Override
+		public int read() {
+			if (!nextChunk()) {
+				return -1;
+			}
+			this.size++;
+			return this.chunk[this.chunkIdx++] & 0xff;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) {
+			if (0 == len) {
+				return 0;
+			}
+			if (!nextChunk()) {
+				return -1;
+			}
+			int count = Math.min(len, this.chunk.length - this.chunkIdx);
+			System.arraycopy(this.chunk, this.chunkIdx, b, off, count);
+			this.chunkIdx += count;
+			this.size += count;
+			return count;
+		}
+
+		private boolean nextChunk() {
+			if (null == this.chunk) {
+				return false;
+			}
+			if (this.chunkIdx < this.chunk.length) {
+				return true;
+			}
+			if (TAIL == this.chunk) {
+				this.chunk = null;
+				return false;
+			}
+			this.chunk = this.size < this.minimumSize ? ELEMENT : TAIL;
+			this.chunkIdx = 0;
+			return true;
+		}
+	}
+
+	private Schema getSchema(String xsdResource) throws Exception {
+		SchemaFactory schemaFactory = SchemaFactory
+				.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI);
+		return schemaFactory.newSchema(new StreamSource(
+				DocumentValidationServicePerformanceTest.class
+						.getResourceAsStream(xsdResource)));
+	}
+
+	private void injectEJB(Object ejb, Object bean)
+			throws IllegalArgumentException, IllegalAccessException {
+		Class<?> beanClass = bean.getClass();
+		Field[] fields = beanClass.getDeclaredFields();
+		for (Field field : fields) {
+			if (null == field.getAnnotation(EJB.class)) {
+				continue;
+			}
+			if (!field.getType().isInstance(ejb)) {
+				continue;
+			}
+			field.setAccessible(true);
+			field.set(bean, ejb);
+		}
+	}
+}
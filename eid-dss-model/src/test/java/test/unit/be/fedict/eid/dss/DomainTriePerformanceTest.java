@@ -0,0 +1,83 @@
+/*
+ * eID Digital Signature Service Project.
+ * Copyright (C) 2010 FedICT.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+
+package test.unit.be.fedict.eid.dss;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.junit.Test;
+
+import be.fedict.eid.dss.model.DomainTrie;
+
+/**
+ * Compares domain trie lookups against plain exact map lookups. Not part of
+ * the default test run, use <code>mvn -Pperformance test</code>.
+ */
+public class DomainTriePerformanceTest {
+
+	private static final Log LOG = LogFactory
+			.getLog(DomainTriePerformanceTest.class);
+
+	@Test
+	public void testLookup() throws Exception {
+		int rpCount = 10000;
+		DomainTrie<Integer> testedInstance = new DomainTrie<Integer>();
+		Map<String, Integer> exactDomains = new HashMap<String, Integer>();
+		String[] hostNames = new String[rpCount];
+		for (int idx = 0; idx < rpCount; idx++) {
+			if (idx % 2 == 0) {
+				testedInstance.put("*.org" + idx + ".be", idx);
+				hostNames[idx] = "www.app.org" + idx + ".be";
+			} else {
+				testedInstance.put("www.org" + idx + ".be", idx);
+				hostNames[idx] = "www.org" + idx + ".be";
+			}
+			exactDomains.put("www.org" + idx + ".be", idx);
+		}
+		assertEquals(rpCount, testedInstance.size());
+
+		int lookups = 1000000;
+		// warm up
+		for (int idx = 0; idx < lookups; idx++) {
+			testedInstance.find(hostNames[idx % rpCount]);
+		}
+
+		long t0 = System.nanoTime();
+		for (int idx = 0; idx < lookups; idx++) {
+			assertEquals(Integer.valueOf(idx % rpCount),
+					testedInstance.find(hostNames[idx % rpCount]));
+		}
+		long trieDuration = System.nanoTime() - t0;
+
+		t0 = System.nanoTime();
+		for (int idx = 0; idx < lookups; idx++) {
+			exactDomains.get(hostNames[idx % rpCount]);
+		}
+		long mapDuration = System.nanoTime() - t0;
+
+		LOG.debug("#RPs: " + rpCount + ", #lookups: " + lookups);
+		LOG.debug("trie lookup: " + trieDuration / lookups + " ns");
+		LOG.debug("exact map lookup: " + mapDuration / lookups + " ns");
+	}
+}
@@ -0,0 +1,85 @@
+/*
+ * eID Digital Signature Service Project.
+ * Copyright (C) 2010 FedICT.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+
+package test.unit.be.fedict.eid.dss;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import be.fedict.eid.dss.model.DomainTrie;
+
+public class DomainTrieTest {
+
+	@Test
+	public void testExactMatch() throws Exception {
+		DomainTrie<String> testedInstance = new DomainTrie<String>();
+		testedInstance.put("www.example.be", "www");
+
+		assertEquals("www", testedInstance.find("www.example.be"));
+		assertEquals("www", testedInstance.find("WWW.Example.BE."));
+		assertNull(testedInstance.find("example.be"));
+		assertNull(testedInstance.find("a.www.example.be"));
+		assertNull(testedInstance.find("www.example.com"));
+	}
+
+	@Test
+	public void testWildcardMatch() throws Exception {
+		DomainTrie<String> testedInstance = new DomainTrie<String>();
+		testedInstance.put("*.example.be", "wildcard");
+		testedInstance.put("*.sub.example.be", "sub wildcard");
+		testedInstance.put("www.sub.example.be", "www");
+
+		assertEquals("wildcard", testedInstance.find("www.example.be"));
+		assertEquals("wildcard", testedInstance.find("a.b.example.be"));
+		assertEquals("wildcard", testedInstance.find("sub.example.be"));
+		assertEquals("sub wildcard", testedInstance.find("a.sub.example.be"));
+		assertEquals("sub wildcard",
+				testedInstance.find("a.www.sub.example.be"));
+		assertEquals("www", testedInstance.find("www.sub.example.be"));
+		// the wildcard does not cover the domain itself
+		assertNull(testedInstance.find("example.be"));
+		assertNull(testedInstance.find("be"));
+		assertEquals(3, testedInstance.size());
+	}
+
+	@Test
+	public void testInvalidPatterns() throws Exception {
+		assertTrue(DomainTrie.isDomainPattern("*.example.be"));
+		assertTrue(DomainTrie.isDomainPattern("localhost"));
+		assertFalse(DomainTrie.isDomainPattern("*"));
+		assertFalse(DomainTrie.isDomainPattern("www.*.be"));
+		assertFalse(DomainTrie.isDomainPattern("www..be"));
+		assertFalse(DomainTrie.isDomainPattern("https://www.example.be"));
+		assertFalse(DomainTrie.isDomainPattern("www.example.be:8443"));
+		assertFalse(DomainTrie.isDomainPattern(""));
+
+		DomainTrie<String> testedInstance = new DomainTrie<String>();
+		try {
+			testedInstance.put("www.*.be", "invalid");
+			throw new AssertionError("expected IllegalArgumentException");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+		assertNull(testedInstance.find("https://www.example.be"));
+	}
+}
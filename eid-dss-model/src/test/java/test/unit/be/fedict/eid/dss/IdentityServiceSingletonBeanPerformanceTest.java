@@ -0,0 +1,215 @@
+/*
+ * eID Digital Signature Service Project.
+ * Copyright (C) 2010 FedICT.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+
+package test.unit.be.fedict.eid.dss;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.lang.reflect.Field;
+import java.math.BigInteger;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.KeyStore;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.ejb.EJB;
+import javax.security.auth.x500.X500Principal;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.bouncycastle.x509.X509V3CertificateGenerator;
+import org.easymock.EasyMock;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import be.fedict.eid.dss.model.ConfigProperty;
+import be.fedict.eid.dss.model.Configuration;
+import be.fedict.eid.dss.model.KeyStoreType;
+import be.fedict.eid.dss.model.bean.IdentityServiceSingletonBean;
+
+/**
+ * Measures the active identity read throughput for an increasing number of
+ * threads. Not part of the default test run, use
+ * <code>mvn -Pperformance test</code>.
+ */
+public class IdentityServiceSingletonBeanPerformanceTest {
+
+	private static final Log LOG = LogFactory
+			.getLog(IdentityServiceSingletonBeanPerformanceTest.class);
+
+	private static final String IDENTITY_NAME = "test";
+
+	private static final String SECRET = "secret";
+
+	private File keyStoreFile;
+
+	private IdentityServiceSingletonBean testedInstance;
+
+	@Before
+	public void setUp() throws Exception {
+		KeyPairGenerator keyPairGenerator = KeyPairGenerator
+				.getInstance("RSA");
+		keyPairGenerator.initialize(1024);
+		KeyPair keyPair = keyPairGenerator.generateKeyPair();
+
+		X509V3CertificateGenerator certificateGenerator = new X509V3CertificateGenerator();
+		X500Principal principal = new X500Principal("CN=Test");
+		certificateGenerator.setSerialNumber(BigInteger.ONE);
+		certificateGenerator.setIssuerDN(principal);
+		certificateGenerator.setSubjectDN(principal);
+		certificateGenerator.setNotBefore(new Date());
+		certificateGenerator.setNotAfter(new Date(System.currentTimeMillis()
+				+ 1000L * 60 * 60 * 24));
+		certificateGenerator.setPublicKey(keyPair.getPublic());
+		certificateGenerator.setSignatureAlgorithm("SHA1withRSA");
+		X509Certificate certificate = certificateGenerator.generate(keyPair
+				.getPrivate());
+
+		KeyStore keyStore = KeyStore.getInstance("PKCS12");
+		keyStore.load(null, null);
+		keyStore.setKeyEntry("identity", keyPair.getPrivate(),
+				SECRET.toCharArray(), new Certificate[] { certificate });
+		this.keyStoreFile = File.createTempFile("identity-", ".p12");
+		FileOutputStream keyStoreOutputStream = new FileOutputStream(
+				this.keyStoreFile);
+		try {
+			keyStore.store(keyStoreOutputStream, SECRET.toCharArray());
+		} finally {
+			keyStoreOutputStream.close();
+		}
+
+		Configuration mockConfiguration = EasyMock
+				.createNiceMock(Configuration.class);
+		EasyMock.expect(
+				mockConfiguration.getValue(ConfigProperty.ACTIVE_IDENTITY,
+						String.class)).andStubReturn(IDENTITY_NAME);
+		EasyMock.expect(
+				mockConfiguration.getIndexes(ConfigProperty.KEY_STORE_TYPE))
+				.andStubReturn(Collections.singletonList(IDENTITY_NAME));
+		EasyMock.expect(
+				mockConfiguration.getValue(ConfigProperty.KEY_STORE_TYPE,
+						IDENTITY_NAME, KeyStoreType.class)).andStubReturn(
+				KeyStoreType.PKCS12);
+		EasyMock.expect(
+				mockConfiguration.getValue(ConfigProperty.KEY_STORE_PATH,
+						IDENTITY_NAME, String.class)).andStubReturn(
+				this.keyStoreFile.getAbsolutePath());
+		EasyMock.expect(
+				mockConfiguration.getValue(ConfigProperty.KEY_STORE_SECRET,
+						IDENTITY_NAME, String.class)).andStubReturn(SECRET);
+		EasyMock.expect(
+				mockConfiguration.getValue(ConfigProperty.KEY_ENTRY_SECRET,
+						IDENTITY_NAME, String.class)).andStubReturn(SECRET);
+		EasyMock.replay(mockConfiguration);
+
+		this.testedInstance = new IdentityServiceSingletonBean();
+		for (Field field : IdentityServiceSingletonBean.class
+				.getDeclaredFields()) {
+			if (null != field.getAnnotation(EJB.class)
+					&& Configuration.class.equals(field.getType())) {
+				field.setAccessible(true);
+				field.set(this.testedInstance, mockConfiguration);
+			}
+		}
+		this.testedInstance.init();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		this.keyStoreFile.delete();
+	}
+
+	@Test
+	public void testConcurrentFindIdentity() throws Exception {
+		int iterations = 200000;
+		int processors = Runtime.getRuntime().availableProcessors();
+
+		// warm up
+		findIdentity(1, iterations);
+
+		long singleThreadThroughput = findIdentity(1, iterations);
+		long maxThroughput = singleThreadThroughput;
+		for (int threads = 2; threads <= processors * 2; threads *= 2) {
+			maxThroughput = Math.max(maxThroughput,
+					findIdentity(threads, iterations));
+		}
+		LOG.debug("processors: " + processors + ", speedup: "
+				+ (double) maxThroughput / singleThreadThroughput);
+		if (processors > 1) {
+			// readers do not serialize on a lock
+			assertTrue(maxThroughput > singleThreadThroughput);
+		}
+	}
+
+	/**
+	 * @return the number of findIdentity calls per second over all threads.
+	 */
+	private long findIdentity(int threads, final int iterations)
+			throws Exception {
+		ExecutorService executorService = Executors.newFixedThreadPool(threads);
+		try {
+			final CountDownLatch startLatch = new CountDownLatch(1);
+			List<Future<Integer>> results = new LinkedList<Future<Integer>>();
+			for (int thread = 0; thread < threads; thread++) {
+				results.add(executorService.submit(new Callable<Integer>() {
+
+					public Integer call() throws Exception {
+						startLatch.await();
+						int found = 0;
+						for (int idx = 0; idx < iterations; idx++) {
+							if (null != IdentityServiceSingletonBeanPerformanceTest.this.testedInstance
+									.findIdentity()) {
+								found++;
+							}
+						}
+						return found;
+					}
+				}));
+			}
+			long startTime = System.nanoTime();
+			startLatch.countDown();
+			for (Future<Integer> result : results) {
+				assertEquals(Integer.valueOf(iterations), result.get());
+			}
+			long duration = System.nanoTime() - startTime;
+
+			long throughput = (long) threads * iterations * 1000000000L
+					/ Math.max(duration, 1);
+			LOG.debug("threads: " + threads + ", findIdentity/s: "
+					+ throughput);
+			return throughput;
+		} finally {
+			executorService.shutdown();
+		}
+	}
+}
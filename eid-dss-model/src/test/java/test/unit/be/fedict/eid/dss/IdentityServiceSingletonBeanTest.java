@@ -0,0 +1,317 @@
+/*
+ * eID Digital Signature Service Project.
+ * Copyright (C) 2010 FedICT.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+package test.unit.be.fedict.eid.dss;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.lang.reflect.Field;
+import java.math.BigInteger;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.KeyStore;
+import java.security.KeyStore.PrivateKeyEntry;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import javax.ejb.EJB;
+import javax.security.auth.x500.X500Principal;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.bouncycastle.x509.X509V3CertificateGenerator;
+import org.easymock.Capture;
+import org.easymock.EasyMock;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import be.fedict.eid.dss.model.ConfigProperty;
+import be.fedict.eid.dss.model.Configuration;
+import be.fedict.eid.dss.model.ConfigurationChangeEvent;
+import be.fedict.eid.dss.model.ConfigurationListener;
+import be.fedict.eid.dss.model.DSSIdentity;
+import be.fedict.eid.dss.model.DSSIdentityStatus;
+import be.fedict.eid.dss.model.IdentityState;
+import be.fedict.eid.dss.model.KeyStoreType;
+import be.fedict.eid.dss.model.bean.IdentityServiceSingletonBean;
+
+public class IdentityServiceSingletonBeanTest {
+
+	private static final Log LOG = LogFactory
+			.getLog(IdentityServiceSingletonBeanTest.class);
+
+	private static final String IDENTITY_NAME = "test";
+
+	private static final String SECRET = "secret";
+
+	private File keyStoreFile;
+
+	private X509Certificate certificate;
+
+	private Capture<ConfigurationListener> configurationListenerCapture;
+
+	private Configuration mockConfiguration;
+
+	private IdentityServiceSingletonBean testedInstance;
+
+	@Before
+	public void setUp() throws Exception {
+		KeyPairGenerator keyPairGenerator = KeyPairGenerator
+				.getInstance("RSA");
+		keyPairGenerator.initialize(1024);
+		KeyPair keyPair = keyPairGenerator.generateKeyPair();
+
+		X509V3CertificateGenerator certificateGenerator = new X509V3CertificateGenerator();
+		X500Principal principal = new X500Principal("CN=Test");
+		certificateGenerator.setSerialNumber(BigInteger.ONE);
+		certificateGenerator.setIssuerDN(principal);
+		certificateGenerator.setSubjectDN(principal);
+		certificateGenerator.setNotBefore(new Date());
+		certificateGenerator.setNotAfter(new Date(System.currentTimeMillis()
+				+ 1000L * 60 * 60 * 24));
+		certificateGenerator.setPublicKey(keyPair.getPublic());
+		certificateGenerator.setSignatureAlgorithm("SHA1withRSA");
+		this.certificate = certificateGenerator.generate(keyPair.getPrivate());
+
+		KeyStore keyStore = KeyStore.getInstance("PKCS12");
+		keyStore.load(null, null);
+		keyStore.setKeyEntry("identity", keyPair.getPrivate(),
+				SECRET.toCharArray(), new Certificate[] { this.certificate });
+		this.keyStoreFile = File.createTempFile("identity-", ".p12");
+		FileOutputStream keyStoreOutputStream = new FileOutputStream(
+				this.keyStoreFile);
+		try {
+			keyStore.store(keyStoreOutputStream, SECRET.toCharArray());
+		} finally {
+			keyStoreOutputStream.close();
+		}
+
+		this.mockConfiguration = EasyMock.createNiceMock(Configuration.class);
+		EasyMock.expect(
+				this.mockConfiguration.getValue(ConfigProperty.ACTIVE_IDENTITY,
+						String.class)).andStubReturn(IDENTITY_NAME);
+		EasyMock.expect(
+				this.mockConfiguration.getIndexes(ConfigProperty.KEY_STORE_TYPE))
+				.andStubReturn(Collections.singletonList(IDENTITY_NAME));
+		EasyMock.expect(
+				this.mockConfiguration.getValue(ConfigProperty.KEY_STORE_TYPE,
+						IDENTITY_NAME, KeyStoreType.class)).andStubReturn(
+				KeyStoreType.PKCS12);
+		EasyMock.expect(
+				this.mockConfiguration.getValue(ConfigProperty.KEY_STORE_PATH,
+						IDENTITY_NAME, String.class)).andStubReturn(
+				this.keyStoreFile.getAbsolutePath());
+		EasyMock.expect(
+				this.mockConfiguration.getValue(ConfigProperty.KEY_STORE_SECRET,
+						IDENTITY_NAME, String.class)).andStubReturn(SECRET);
+		EasyMock.expect(
+				this.mockConfiguration.getValue(ConfigProperty.KEY_ENTRY_SECRET,
+						IDENTITY_NAME, String.class)).andStubReturn(SECRET);
+		this.configurationListenerCapture = new Capture<ConfigurationListener>();
+		this.mockConfiguration.addListener(EasyMock
+				.capture(this.configurationListenerCapture));
+		EasyMock.replay(this.mockConfiguration);
+
+		this.testedInstance = newTestedInstance();
+	}
+
+	private IdentityServiceSingletonBean newTestedInstance() throws Exception {
+		IdentityServiceSingletonBean identityServiceSingletonBean = new IdentityServiceSingletonBean();
+		for (Field field : IdentityServiceSingletonBean.class
+				.getDeclaredFields()) {
+			if (null != field.getAnnotation(EJB.class)
+					&& Configuration.class.equals(field.getType())) {
+				field.setAccessible(true);
+				field.set(identityServiceSingletonBean, this.mockConfiguration);
+			}
+		}
+		identityServiceSingletonBean.init();
+		return identityServiceSingletonBean;
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		this.keyStoreFile.delete();
+	}
+
+	@Test
+	public void testFindIdentity() throws Exception {
+		PrivateKeyEntry identity = this.testedInstance.findIdentity();
+
+		assertNotNull(identity);
+		assertEquals(this.certificate, identity.getCertificate());
+		assertEquals(IDENTITY_NAME, this.testedInstance.findDSSIdentity()
+				.getName());
+
+		// unchanged identity configuration does not trigger a reload
+		this.configurationListenerCapture.getValue().configurationChanged(
+				new ConfigurationChangeEvent(1, Collections
+						.singleton(ConfigProperty.KEY_STORE_PATH.getName()
+								+ "-" + IDENTITY_NAME)));
+		assertSame(identity, this.testedInstance.findIdentity());
+	}
+
+	@Test
+	public void testPreloadedIdentity() throws Exception {
+		DSSIdentityStatus identityStatus = this.testedInstance
+				.getIdentityStatus(IDENTITY_NAME);
+
+		assertNotNull(identityStatus);
+		assertEquals(IdentityState.READY, identityStatus.getState());
+		assertSame(identityStatus.getIdentity(),
+				this.testedInstance.findDSSIdentity());
+
+		// activation only swaps the preloaded identity
+		this.testedInstance.setActiveIdentity(IDENTITY_NAME);
+		assertSame(identityStatus.getIdentity(),
+				this.testedInstance.findDSSIdentity());
+	}
+
+	@Test
+	public void testStartupLoad() throws Exception {
+		DSSIdentityStatus activeIdentityStatus = this.testedInstance
+				.getActiveIdentityStatus();
+
+		assertEquals(IDENTITY_NAME, activeIdentityStatus.getName());
+		assertEquals(IdentityState.READY, activeIdentityStatus.getState());
+		assertTrue(activeIdentityStatus.getLoadDuration() >= 0);
+		assertTrue(this.testedInstance.getStartupDuration() >= 0);
+	}
+
+	@Test
+	public void testStartupWithBrokenKeyStore() throws Exception {
+		this.keyStoreFile.delete();
+
+		// operate: a broken keystore should not abort the startup
+		IdentityServiceSingletonBean identityServiceSingletonBean = newTestedInstance();
+
+		DSSIdentityStatus activeIdentityStatus = identityServiceSingletonBean
+				.getActiveIdentityStatus();
+		assertEquals(IdentityState.FAILED, activeIdentityStatus.getState());
+		assertNotNull(activeIdentityStatus.getErrorMessage());
+		for (int idx = 0; idx < 2; idx++) {
+			try {
+				identityServiceSingletonBean.findIdentity();
+				fail();
+			} catch (RuntimeException e) {
+				// expected
+				LOG.debug("expected exception: " + e.getMessage());
+			}
+		}
+		// readers do not retry the load, neither does the timer before the
+		// retry delay
+		identityServiceSingletonBean.retryFailedIdentities();
+		assertSame(activeIdentityStatus,
+				identityServiceSingletonBean.getActiveIdentityStatus());
+	}
+
+	@Test
+	public void testIdentityArtefacts() throws Exception {
+		DSSIdentity identity = this.testedInstance.findDSSIdentity();
+
+		assertEquals(this.certificate, identity.getCertificate());
+		assertEquals(1, identity.getCertificateChain().size());
+		assertArrayEquals(this.certificate.getEncoded(),
+				identity.getEncodedCertificate());
+		assertEquals(DigestUtils.shaHex(this.certificate.getEncoded()),
+				identity.getSha1Fingerprint());
+		assertEquals(64, identity.getSha256Fingerprint().length());
+		assertEquals("RSA", identity.getPublicKeyAlgorithm());
+		assertEquals(1024, identity.getPublicKeySize());
+
+		// returned encodings are copies
+		identity.getEncodedCertificate()[0] = 0;
+		assertArrayEquals(this.certificate.getEncoded(),
+				identity.getEncodedCertificate());
+	}
+
+	@Test(expected = UnsupportedOperationException.class)
+	public void testImmutableCertificateChain() throws Exception {
+		this.testedInstance.findDSSIdentity().getCertificateChain()
+				.add(this.certificate);
+	}
+
+	@Test
+	public void testFindIdentityWithoutLock() throws Exception {
+		PrivateKeyEntry identity = this.testedInstance.findIdentity();
+		assertNotNull(identity);
+
+		// hold the monitor, as a slow identity switch or reload would do
+		final CountDownLatch lockedLatch = new CountDownLatch(1);
+		final CountDownLatch releaseLatch = new CountDownLatch(1);
+		Thread lockingThread = new Thread() {
+
+			@Override
+			public void run() {
+				synchronized (IdentityServiceSingletonBeanTest.this.testedInstance) {
+					lockedLatch.countDown();
+					try {
+						releaseLatch.await();
+					} catch (InterruptedException e) {
+						// release
+					}
+				}
+			}
+		};
+		lockingThread.start();
+		lockedLatch.await();
+
+		int threads = Runtime.getRuntime().availableProcessors() * 2;
+		ExecutorService executorService = Executors.newFixedThreadPool(threads);
+		try {
+			List<Future<PrivateKeyEntry>> results = new LinkedList<Future<PrivateKeyEntry>>();
+			for (int thread = 0; thread < threads; thread++) {
+				results.add(executorService
+						.submit(new Callable<PrivateKeyEntry>() {
+
+							public PrivateKeyEntry call() throws Exception {
+								return IdentityServiceSingletonBeanTest.this.testedInstance
+										.findIdentity();
+							}
+						}));
+			}
+			// readers are served while the monitor is held
+			for (Future<PrivateKeyEntry> result : results) {
+				assertSame(identity, result.get(10, TimeUnit.SECONDS));
+			}
+		} finally {
+			releaseLatch.countDown();
+			lockingThread.join();
+			executorService.shutdown();
+		}
+	}
+}
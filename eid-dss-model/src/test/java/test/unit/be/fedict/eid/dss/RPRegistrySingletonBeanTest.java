@@ -0,0 +1,185 @@
+/*
+ * eID Digital Signature Service Project.
+ * Copyright (C) 2010 FedICT.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+
+package test.unit.be.fedict.eid.dss;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.lang.reflect.Field;
+import java.math.BigInteger;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.cert.X509Certificate;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedList;
+import java.util.List;
+
+import javax.ejb.EJB;
+import javax.security.auth.x500.X500Principal;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.bouncycastle.x509.X509V3CertificateGenerator;
+import org.easymock.EasyMock;
+import org.junit.Before;
+import org.junit.Test;
+
+import be.fedict.eid.dss.entity.RPEntity;
+import be.fedict.eid.dss.model.RPRegistration;
+import be.fedict.eid.dss.model.RPService;
+import be.fedict.eid.dss.model.bean.RPRegistrySingletonBean;
+
+public class RPRegistrySingletonBeanTest {
+
+	private static final String DOMAIN = "https://www.e-contract.be";
+
+	private X509Certificate certificate;
+
+	private RPService mockRPService;
+
+	private RPRegistrySingletonBean testedInstance;
+
+	@Before
+	public void setUp() throws Exception {
+		KeyPairGenerator keyPairGenerator = KeyPairGenerator
+				.getInstance("RSA");
+		keyPairGenerator.initialize(1024);
+		KeyPair keyPair = keyPairGenerator.generateKeyPair();
+
+		X509V3CertificateGenerator certificateGenerator = new X509V3CertificateGenerator();
+		X500Principal principal = new X500Principal("CN=Test RP");
+		certificateGenerator.setSerialNumber(BigInteger.ONE);
+		certificateGenerator.setIssuerDN(principal);
+		certificateGenerator.setSubjectDN(principal);
+		certificateGenerator.setNotBefore(new Date());
+		certificateGenerator.setNotAfter(new Date(System.currentTimeMillis()
+				+ 1000L * 60 * 60 * 24));
+		certificateGenerator.setPublicKey(keyPair.getPublic());
+		certificateGenerator.setSignatureAlgorithm("SHA1withRSA");
+		this.certificate = certificateGenerator.generate(keyPair.getPrivate());
+
+		this.mockRPService = EasyMock.createMock(RPService.class);
+		this.testedInstance = new RPRegistrySingletonBean();
+		injectEJB(this.mockRPService, this.testedInstance);
+	}
+
+	@Test
+	public void testFindRegistration() throws Exception {
+		// setup
+		RPEntity rp = new RPEntity("test", DOMAIN, null, this.certificate,
+				true);
+		rp.setId(1L);
+		List<RPEntity> rps = new LinkedList<RPEntity>();
+		rps.add(rp);
+		rps.add(new RPEntity());
+		rps.get(1).setId(2L);
+		rps.get(1).setName("no domain");
+		EasyMock.expect(this.mockRPService.listRPsWithoutLogo()).andReturn(rps);
+		EasyMock.replay(this.mockRPService);
+
+		// operate
+		RPRegistration registration = this.testedInstance
+				.findByDomain(DOMAIN);
+		String fingerprint = DigestUtils.shaHex(this.certificate.getEncoded());
+		RPRegistration registrationByFingerprint = this.testedInstance
+				.findByFingerprint(fingerprint.toUpperCase());
+
+		// verify: loaded only once
+		EasyMock.verify(this.mockRPService);
+		assertNotNull(registration);
+		assertSame(registration, registrationByFingerprint);
+		assertEquals(1L, registration.getId());
+		assertEquals("test", registration.getName());
+		assertEquals(fingerprint, registration.getCertificateFingerprint());
+		assertEquals(this.certificate, registration.getCertificate());
+		assertEquals(this.certificate.getPublicKey(),
+				registration.getPublicKey());
+		assertNull(this.testedInstance.findByDomain("https://unknown"));
+	}
+
+	@Test
+	public void testReload() throws Exception {
+		// setup
+		RPEntity rp = new RPEntity();
+		rp.setId(1L);
+		rp.setName("test");
+		rp.setDomain(DOMAIN);
+		EasyMock.expect(this.mockRPService.listRPsWithoutLogo()).andReturn(
+				Collections.singletonList(rp));
+		EasyMock.expect(this.mockRPService.listRPsWithoutLogo()).andReturn(
+				Collections.<RPEntity> emptyList());
+		EasyMock.replay(this.mockRPService);
+
+		// operate & verify
+		assertNotNull(this.testedInstance.findByDomain(DOMAIN));
+		this.testedInstance.reload();
+		assertNull(this.testedInstance.findByDomain(DOMAIN));
+		EasyMock.verify(this.mockRPService);
+	}
+
+	@Test
+	public void testWildcardDomain() throws Exception {
+		// setup
+		RPEntity wildcardRP = new RPEntity();
+		wildcardRP.setId(1L);
+		wildcardRP.setName("wildcard");
+		wildcardRP.setDomain("*.e-contract.be");
+		RPEntity rp = new RPEntity();
+		rp.setId(2L);
+		rp.setName("exact");
+		rp.setDomain(DOMAIN);
+		List<RPEntity> rps = new LinkedList<RPEntity>();
+		rps.add(wildcardRP);
+		rps.add(rp);
+		EasyMock.expect(this.mockRPService.listRPsWithoutLogo()).andReturn(rps);
+		EasyMock.replay(this.mockRPService);
+
+		// operate & verify
+		assertEquals(2L, this.testedInstance.findByDomain(DOMAIN).getId());
+		assertEquals(1L,
+				this.testedInstance.findByDomain("sign.e-contract.be")
+						.getId());
+		assertEquals(
+				1L,
+				this.testedInstance.findByDomain(
+						"https://sign.e-contract.be:8443/dss?x=1").getId());
+		assertNull(this.testedInstance.findByDomain("e-contract.be"));
+		assertNull(this.testedInstance.findByDomain("www.fedict.be"));
+		EasyMock.verify(this.mockRPService);
+	}
+
+	private void injectEJB(Object ejb, Object bean)
+			throws IllegalArgumentException, IllegalAccessException {
+		Class<?> beanClass = bean.getClass();
+		Field[] fields = beanClass.getDeclaredFields();
+		for (Field field : fields) {
+			if (null == field.getAnnotation(EJB.class)) {
+				continue;
+			}
+			if (!field.getType().isInstance(ejb)) {
+				continue;
+			}
+			field.setAccessible(true);
+			field.set(bean, ejb);
+		}
+	}
+}
@@ -0,0 +1,361 @@
+/*
+ * eID Digital Signature Service Project.
+ * Copyright (C) 2010 FedICT.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+
+package test.unit.be.fedict.eid.dss;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.lang.reflect.Field;
+import java.util.LinkedList;
+import java.util.List;
+
+import javax.annotation.Resource;
+import javax.ejb.EJB;
+import javax.imageio.ImageIO;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.EntityTransaction;
+import javax.persistence.PersistenceContext;
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+import javax.transaction.TransactionSynchronizationRegistry;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.easymock.EasyMock;
+import org.easymock.IAnswer;
+import org.hibernate.ejb.Ejb3Configuration;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import be.fedict.eid.dss.entity.RPEntity;
+import be.fedict.eid.dss.model.RPRegistration;
+import be.fedict.eid.dss.model.bean.AccountingSingletonBean;
+import be.fedict.eid.dss.model.bean.RPAdmissionSingletonBean;
+import be.fedict.eid.dss.model.bean.RPRegistrySingletonBean;
+import be.fedict.eid.dss.model.bean.RPServiceBean;
+import be.fedict.eid.dss.model.exception.InvalidDomainPatternException;
+
+public class RPServiceBeanTest {
+
+	private static final String DOMAIN = "https://www.e-contract.be";
+
+	private EntityManager entityManager;
+
+	private RPServiceBean testedInstance;
+
+	private List<Synchronization> synchronizations;
+
+	@Before
+	public void setUp() throws Exception {
+		Class.forName("org.hsqldb.jdbcDriver");
+		Ejb3Configuration configuration = new Ejb3Configuration();
+		configuration.setProperty("hibernate.dialect",
+				"org.hibernate.dialect.HSQLDialect");
+		configuration.setProperty("hibernate.connection.driver_class",
+				"org.hsqldb.jdbcDriver");
+		configuration.setProperty("hibernate.connection.url",
+				"jdbc:hsqldb:mem:rp");
+		configuration.setProperty("hibernate.hbm2ddl.auto", "create");
+		configuration.addAnnotatedClass(RPEntity.class);
+
+		EntityManagerFactory entityManagerFactory = configuration
+				.buildEntityManagerFactory();
+
+		this.entityManager = entityManagerFactory.createEntityManager();
+		this.entityManager.getTransaction().begin();
+
+		this.testedInstance = new RPServiceBean();
+		RPRegistrySingletonBean rpRegistrySingletonBean = new RPRegistrySingletonBean();
+		RPAdmissionSingletonBean rpAdmissionSingletonBean = new RPAdmissionSingletonBean();
+
+		injectPersistenceContext(this.entityManager, this.testedInstance);
+		injectEJB(rpRegistrySingletonBean, this.testedInstance);
+		injectEJB(rpAdmissionSingletonBean, this.testedInstance);
+		injectEJB(new AccountingSingletonBean(), this.testedInstance);
+		injectEJB(this.testedInstance, rpRegistrySingletonBean);
+		injectEJB(this.testedInstance, rpAdmissionSingletonBean);
+
+		this.synchronizations = new LinkedList<Synchronization>();
+		TransactionSynchronizationRegistry mockTransactionSynchronizationRegistry = EasyMock
+				.createMock(TransactionSynchronizationRegistry.class);
+		mockTransactionSynchronizationRegistry
+				.registerInterposedSynchronization((Synchronization) EasyMock
+						.anyObject());
+		EasyMock.expectLastCall().andAnswer(new IAnswer<Object>() {
+
+			public Object answer() throws Throwable {
+				RPServiceBeanTest.this.synchronizations
+						.add((Synchronization) EasyMock.getCurrentArguments()[0]);
+				return null;
+			}
+		}).anyTimes();
+		EasyMock.replay(mockTransactionSynchronizationRegistry);
+		injectResource(mockTransactionSynchronizationRegistry,
+				this.testedInstance);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		EntityTransaction entityTransaction = this.entityManager
+				.getTransaction();
+		if (entityTransaction.isActive()) {
+			entityTransaction.rollback();
+		}
+		this.entityManager.close();
+	}
+
+	@Test
+	public void testSaveLogo() throws Exception {
+		// setup
+		byte[] logo = getImage(400, 200, "png");
+		RPEntity rp = new RPEntity();
+		rp.setName("test");
+		rp.setDomain(DOMAIN);
+		rp.setLogo(logo);
+
+		// operate
+		rp = this.testedInstance.save(rp);
+
+		// verify
+		assertEquals(DigestUtils.shaHex(logo), rp.getLogoHash());
+		assertEquals("image/png", rp.getLogoContentType());
+		BufferedImage thumbnail = ImageIO.read(new ByteArrayInputStream(rp
+				.getLogoThumbnail()));
+		assertEquals(RPServiceBean.THUMBNAIL_SIZE, thumbnail.getWidth());
+		assertEquals(RPServiceBean.THUMBNAIL_SIZE / 2, thumbnail.getHeight());
+
+		RPRegistration registration = this.testedInstance
+				.findRegistrationById(rp.getId());
+		assertNotNull(registration);
+		assertEquals(rp.getLogoHash(), registration.getLogoHash());
+		assertTrue(rp.getLogoThumbnailAvailable());
+		assertTrue(registration.isLogoThumbnailAvailable());
+		assertArrayEquals(logo, this.testedInstance.getLogo(rp.getId(), false));
+		assertArrayEquals(rp.getLogoThumbnail(),
+				this.testedInstance.getLogo(rp.getId(), true));
+	}
+
+	@Test
+	public void testSaveUnsupportedLogo() throws Exception {
+		// setup
+		RPEntity rp = new RPEntity();
+		rp.setName("test");
+		rp.setLogo("not an image".getBytes());
+
+		// operate
+		rp = this.testedInstance.save(rp);
+
+		// verify: original logo still served
+		assertNotNull(rp.getLogoHash());
+		assertEquals("application/octet-stream", rp.getLogoContentType());
+		assertNull(rp.getLogoThumbnail());
+		assertFalse(rp.getLogoThumbnailAvailable());
+		assertArrayEquals("not an image".getBytes(),
+				this.testedInstance.getLogo(rp.getId(), true));
+	}
+
+	@Test
+	public void testSaveInvalidDomainPattern() throws Exception {
+		String[] invalidDomains = { "*", "www.*.be", "https://*.example.be" };
+		for (String invalidDomain : invalidDomains) {
+			RPEntity rp = new RPEntity();
+			rp.setName("test");
+			rp.setDomain(invalidDomain);
+			try {
+				this.testedInstance.save(rp);
+				fail("invalid domain pattern saved: " + invalidDomain);
+			} catch (InvalidDomainPatternException e) {
+				assertEquals(invalidDomain, e.getDomain());
+			}
+		}
+		assertTrue(this.testedInstance.listRPs().isEmpty());
+
+		RPEntity rp = new RPEntity();
+		rp.setName("test");
+		rp.setDomain(" *.example.be ");
+		rp = this.testedInstance.save(rp);
+		assertEquals("*.example.be", rp.getDomain());
+		complete(Status.STATUS_COMMITTED);
+		assertEquals(rp.getId(),
+				this.testedInstance.find("www.example.be").getId());
+	}
+
+	@Test
+	public void testInitLogoVariants() throws Exception {
+		// setup: RP saved before the logo variants were computed
+		byte[] logo = getImage(50, 50, "png");
+		RPEntity rp = new RPEntity();
+		rp.setName("legacy");
+		rp.setLogo(logo);
+		this.entityManager.persist(rp);
+		RPEntity rpWithoutLogo = new RPEntity();
+		rpWithoutLogo.setName("no logo");
+		this.entityManager.persist(rpWithoutLogo);
+		assertNull(this.testedInstance.findRegistrationById(rp.getId())
+				.getLogoHash());
+
+		// operate
+		int count = this.testedInstance.initLogoVariants();
+
+		// verify
+		assertEquals(1, count);
+		assertEquals(DigestUtils.shaHex(logo), rp.getLogoHash());
+		assertEquals("image/png", rp.getLogoContentType());
+		assertTrue(rp.getLogoThumbnailAvailable());
+		complete(Status.STATUS_COMMITTED);
+		RPRegistration registration = this.testedInstance
+				.findRegistrationById(rp.getId());
+		assertEquals(rp.getLogoHash(), registration.getLogoHash());
+		assertTrue(registration.isLogoThumbnailAvailable());
+
+		// nothing left to initialize
+		assertEquals(0, this.testedInstance.initLogoVariants());
+	}
+
+	@Test
+	public void testFindOutdatedRegistry() throws Exception {
+		// setup
+		RPEntity rp = new RPEntity();
+		rp.setName("test");
+		rp.setDomain(DOMAIN);
+		rp = this.testedInstance.save(rp);
+		complete(Status.STATUS_COMMITTED);
+		assertEquals(rp, this.testedInstance.find(DOMAIN));
+
+		// operate: domain changed on another node, registry not yet reloaded
+		rp.setDomain("https://www.fedict.be");
+		this.entityManager.flush();
+
+		// verify: the database decides
+		assertNotNull(this.testedInstance.findRegistration(DOMAIN));
+		assertNull(this.testedInstance.find(DOMAIN));
+		assertEquals(rp, this.testedInstance.find("https://www.fedict.be"));
+	}
+
+	@Test
+	public void testReloadAfterCommit() throws Exception {
+		// setup: registry and admission control loaded
+		assertTrue(this.testedInstance.admit(DOMAIN));
+		RPEntity rp = new RPEntity();
+		rp.setName("test");
+		rp.setDomain(DOMAIN);
+		rp.setRateLimit(1);
+		rp.setRateLimitBurst(1);
+
+		// operate
+		rp = this.testedInstance.save(rp);
+
+		// verify: not visible before the commit
+		assertNull(this.testedInstance.findRegistration(DOMAIN));
+		complete(Status.STATUS_COMMITTED);
+		assertEquals(rp.getId().longValue(), this.testedInstance
+				.findRegistration(DOMAIN).getId());
+		assertTrue(this.testedInstance.admit(DOMAIN));
+		assertFalse(this.testedInstance.admit(DOMAIN));
+	}
+
+	@Test
+	public void testNoReloadAfterRollback() throws Exception {
+		// setup: registry loaded
+		assertNull(this.testedInstance.findRegistration(DOMAIN));
+		RPEntity rp = new RPEntity();
+		rp.setName("test");
+		rp.setDomain(DOMAIN);
+
+		// operate
+		this.testedInstance.save(rp);
+		complete(Status.STATUS_ROLLEDBACK);
+
+		// verify
+		assertNull(this.testedInstance.findRegistration(DOMAIN));
+	}
+
+	private void complete(int status) {
+		for (Synchronization synchronization : this.synchronizations) {
+			synchronization.beforeCompletion();
+			synchronization.afterCompletion(status);
+		}
+		this.synchronizations.clear();
+	}
+
+	private byte[] getImage(int width, int height, String format)
+			throws Exception {
+		BufferedImage image = new BufferedImage(width, height,
+				BufferedImage.TYPE_INT_RGB);
+		ByteArrayOutputStream imageOutputStream = new ByteArrayOutputStream();
+		ImageIO.write(image, format, imageOutputStream);
+		return imageOutputStream.toByteArray();
+	}
+
+	private void injectPersistenceContext(EntityManager entityManager,
+			Object bean) throws IllegalArgumentException,
+			IllegalAccessException {
+		Class<?> beanClass = bean.getClass();
+		Field[] fields = beanClass.getDeclaredFields();
+		for (Field field : fields) {
+			if (null == field.getAnnotation(PersistenceContext.class)) {
+				continue;
+			}
+			field.setAccessible(true);
+			field.set(bean, entityManager);
+		}
+	}
+
+	private void injectEJB(Object ejb, Object bean)
+			throws IllegalArgumentException, IllegalAccessException {
+		Class<?> beanClass = bean.getClass();
+		Field[] fields = beanClass.getDeclaredFields();
+		for (Field field : fields) {
+			if (null == field.getAnnotation(EJB.class)) {
+				continue;
+			}
+			if (!field.getType().isInstance(ejb)) {
+				continue;
+			}
+			field.setAccessible(true);
+			field.set(bean, ejb);
+		}
+	}
+
+	private void injectResource(Object resource, Object bean)
+			throws IllegalArgumentException, IllegalAccessException {
+		Class<?> beanClass = bean.getClass();
+		Field[] fields = beanClass.getDeclaredFields();
+		for (Field field : fields) {
+			if (null == field.getAnnotation(Resource.class)) {
+				continue;
+			}
+			if (!field.getType().isInstance(resource)) {
+				continue;
+			}
+			field.setAccessible(true);
+			field.set(bean, resource);
+		}
+	}
+}
@@ -0,0 +1,204 @@
+/*
+ * eID Digital Signature Service Project.
+ * Copyright (C) 2010 FedICT.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+
+package test.unit.be.fedict.eid.dss;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+import be.fedict.eid.dss.model.DomainRequestRate;
+import be.fedict.eid.dss.model.RequestRateTracker;
+
+public class RequestRateTrackerTest {
+
+	private static final String DOMAIN = "https://www.e-contract.be";
+
+	private static final String OTHER_DOMAIN = "https://www.fedict.be";
+
+	/**
+	 * Aligned on a slot boundary.
+	 */
+	private static final long T0 = 1000000000000L;
+
+	private static final long MINUTE = 60 * 1000;
+
+	private static final double DELTA = 0.000001;
+
+	@Test
+	public void testRate() throws Exception {
+		RequestRateTracker testedInstance = new RequestRateTracker();
+		for (int second = 0; second < 60; second++) {
+			testedInstance.record(DOMAIN, T0 + second * 1000);
+		}
+
+		long now = T0 + MINUTE - 1;
+		assertEquals(1.0, testedInstance.getRate(DOMAIN, 1, now), DELTA);
+		assertEquals(0.2, testedInstance.getRate(DOMAIN, 5, now), DELTA);
+		assertEquals(60.0 / (15 * 60), testedInstance.getRate(DOMAIN, 15, now),
+				DELTA);
+		assertEquals(0.0, testedInstance.getRate(OTHER_DOMAIN, 1, now), DELTA);
+
+		now = T0 + 2 * MINUTE - 1;
+		assertEquals(0.0, testedInstance.getRate(DOMAIN, 1, now), DELTA);
+		assertEquals(0.2, testedInstance.getRate(DOMAIN, 5, now), DELTA);
+	}
+
+	@Test
+	public void testSlotRecycling() throws Exception {
+		RequestRateTracker testedInstance = new RequestRateTracker();
+		testedInstance.record(DOMAIN, T0);
+		testedInstance.record(DOMAIN, T0);
+
+		// one full round later the same slot is reused
+		long later = T0 + (15 * 60 + RequestRateTracker.SLOT_SECONDS) * 1000L;
+		testedInstance.record(DOMAIN, later);
+
+		assertEquals(1.0 / 60, testedInstance.getRate(DOMAIN, 1, later
+				+ MINUTE - RequestRateTracker.SLOT_SECONDS * 1000L - 1), DELTA);
+		assertEquals(1.0 / (15 * 60), testedInstance.getRate(DOMAIN, 15, later
+				+ RequestRateTracker.SLOT_SECONDS * 1000L - 1), DELTA);
+	}
+
+	@Test
+	public void testTopDomains() throws Exception {
+		RequestRateTracker testedInstance = new RequestRateTracker();
+		testedInstance.record(OTHER_DOMAIN, T0);
+		testedInstance.record(DOMAIN, T0);
+		testedInstance.record(DOMAIN, T0);
+
+		List<DomainRequestRate> topDomains = testedInstance.getTopDomains(10,
+				T0 + 1);
+		assertEquals(2, topDomains.size());
+		assertEquals(DOMAIN, topDomains.get(0).getDomain());
+		assertEquals(OTHER_DOMAIN, topDomains.get(1).getDomain());
+
+		assertEquals(1, testedInstance.getTopDomains(1, T0 + 1).size());
+
+		// idle domains are skipped
+		assertTrue(testedInstance.getTopDomains(10, T0 + 20 * MINUTE)
+				.isEmpty());
+	}
+
+	@Test
+	public void testEvictIdle() throws Exception {
+		RequestRateTracker testedInstance = new RequestRateTracker();
+		testedInstance.record(OTHER_DOMAIN, T0);
+		testedInstance.record(DOMAIN, T0 + 10 * MINUTE);
+
+		assertEquals(0, testedInstance.evictIdle(T0 + 10 * MINUTE));
+		assertEquals(1, testedInstance.evictIdle(T0 + 20 * MINUTE));
+
+		// only the idle domain is gone
+		assertEquals(0.0, testedInstance.getRate(OTHER_DOMAIN, 15, T0 + 1),
+				DELTA);
+		assertEquals(1.0 / (15 * 60), testedInstance.getRate(DOMAIN, 15, T0
+				+ 20 * MINUTE + RequestRateTracker.SLOT_SECONDS * 1000L - 1),
+				DELTA);
+	}
+
+	@Test
+	public void testConcurrentRecordAndEvict() throws Exception {
+		final RequestRateTracker testedInstance = new RequestRateTracker();
+		// idle domain, evictable when the requests start
+		testedInstance.record(DOMAIN, T0 - 20 * MINUTE);
+		final int threadCount = 8;
+		final int requestCount = 10000;
+		ExecutorService executorService = Executors
+				.newFixedThreadPool(threadCount + 1);
+		final CountDownLatch startLatch = new CountDownLatch(1);
+		final CountDownLatch doneLatch = new CountDownLatch(threadCount);
+		List<Future<Void>> futures = new LinkedList<Future<Void>>();
+		for (int thread = 0; thread < threadCount; thread++) {
+			futures.add(executorService.submit(new Callable<Void>() {
+
+				public Void call() throws Exception {
+					startLatch.await();
+					for (int request = 0; request < requestCount; request++) {
+						testedInstance.record(DOMAIN, T0);
+					}
+					doneLatch.countDown();
+					return null;
+				}
+			}));
+		}
+		futures.add(executorService.submit(new Callable<Void>() {
+
+			public Void call() throws Exception {
+				startLatch.await();
+				while (doneLatch.getCount() > 0) {
+					testedInstance.evictIdle(T0);
+				}
+				return null;
+			}
+		}));
+		startLatch.countDown();
+		for (Future<Void> future : futures) {
+			future.get();
+		}
+		executorService.shutdown();
+
+		// no request got lost to a concurrent eviction
+		long now = T0 + RequestRateTracker.SLOT_SECONDS * 1000L - 1;
+		assertEquals(threadCount * requestCount / 60.0,
+				testedInstance.getRate(DOMAIN, 1, now), DELTA);
+	}
+
+	@Test
+	public void testConcurrentRecord() throws Exception {
+		final RequestRateTracker testedInstance = new RequestRateTracker();
+		final int threadCount = 8;
+		final int requestCount = 10000;
+		ExecutorService executorService = Executors
+				.newFixedThreadPool(threadCount);
+		final CountDownLatch startLatch = new CountDownLatch(1);
+		List<Future<Void>> futures = new LinkedList<Future<Void>>();
+		for (int thread = 0; thread < threadCount; thread++) {
+			futures.add(executorService.submit(new Callable<Void>() {
+
+				public Void call() throws Exception {
+					startLatch.await();
+					for (int request = 0; request < requestCount; request++) {
+						testedInstance.record(DOMAIN, T0);
+					}
+					return null;
+				}
+			}));
+		}
+		startLatch.countDown();
+		for (Future<Void> future : futures) {
+			future.get();
+		}
+		executorService.shutdown();
+
+		// no request got lost
+		long now = T0 + RequestRateTracker.SLOT_SECONDS * 1000L - 1;
+		assertEquals(threadCount * requestCount / 60.0,
+				testedInstance.getRate(DOMAIN, 1, now), DELTA);
+	}
+}
@@ -0,0 +1,113 @@
+/*
+ * eID Digital Signature Service Project.
+ * Copyright (C) 2010 FedICT.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+package test.unit.be.fedict.eid.dss;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.Signature;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.junit.Before;
+import org.junit.Test;
+
+import be.fedict.eid.dss.model.SignaturePool;
+
+public class SignaturePoolTest {
+
+	private static final Log LOG = LogFactory.getLog(SignaturePoolTest.class);
+
+	private static final String SIGNATURE_ALGORITHM = "SHA256withRSA";
+
+	private KeyPair keyPair;
+
+	@Before
+	public void setUp() throws Exception {
+		KeyPairGenerator keyPairGenerator = KeyPairGenerator
+				.getInstance("RSA");
+		keyPairGenerator.initialize(1024);
+		this.keyPair = keyPairGenerator.generateKeyPair();
+	}
+
+	@Test
+	public void testSign() throws Exception {
+		SignaturePool testedInstance = new SignaturePool(
+				this.keyPair.getPrivate(), SIGNATURE_ALGORITHM, null, 2);
+
+		byte[] data = "hello world".getBytes();
+		byte[] signatureValue = testedInstance.sign(data);
+
+		assertTrue(verify(data, signatureValue));
+		// signature object gets reused
+		assertTrue(verify(data, testedInstance.sign(data)));
+		assertEquals(1, testedInstance.getCreatedCount());
+	}
+
+	@Test
+	public void testConcurrentSign() throws Exception {
+		final int poolSize = 2;
+		final SignaturePool testedInstance = new SignaturePool(
+				this.keyPair.getPrivate(), SIGNATURE_ALGORITHM, null, poolSize);
+
+		int threads = 8;
+		final int iterations = 50;
+		ExecutorService executorService = Executors.newFixedThreadPool(threads);
+		List<Future<Boolean>> results = new LinkedList<Future<Boolean>>();
+		long startTime = System.currentTimeMillis();
+		for (int thread = 0; thread < threads; thread++) {
+			final byte[] data = ("thread " + thread).getBytes();
+			results.add(executorService.submit(new Callable<Boolean>() {
+
+				public Boolean call() throws Exception {
+					for (int idx = 0; idx < iterations; idx++) {
+						if (false == verify(data, testedInstance.sign(data))) {
+							return false;
+						}
+					}
+					return true;
+				}
+			}));
+		}
+		for (Future<Boolean> result : results) {
+			assertTrue(result.get());
+		}
+		executorService.shutdown();
+		LOG.debug("signatures: " + threads * iterations + " in "
+				+ (System.currentTimeMillis() - startTime) + " ms");
+
+		assertTrue(testedInstance.getCreatedCount() <= poolSize);
+	}
+
+	private boolean verify(byte[] data, byte[] signatureValue)
+			throws Exception {
+		Signature signature = Signature.getInstance(SIGNATURE_ALGORITHM);
+		signature.initVerify(this.keyPair.getPublic());
+		signature.update(data);
+		return signature.verify(signatureValue);
+	}
+}
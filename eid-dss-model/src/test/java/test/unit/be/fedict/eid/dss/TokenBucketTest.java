@@ -0,0 +1,126 @@
+/*
+ * eID Digital Signature Service Project.
+ * Copyright (C) 2010 FedICT.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+
+package test.unit.be.fedict.eid.dss;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import be.fedict.eid.dss.model.TokenBucket;
+
+public class TokenBucketTest {
+
+	private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+	@Test
+	public void testBurst() throws Exception {
+		TokenBucket testedInstance = new TokenBucket(60, 5);
+		long now = System.nanoTime();
+
+		for (int idx = 0; idx < 5; idx++) {
+			assertTrue(testedInstance.tryAcquire(now));
+		}
+		assertFalse(testedInstance.tryAcquire(now));
+
+		// one token per second
+		assertFalse(testedInstance.tryAcquire(now + SECOND / 2));
+		assertTrue(testedInstance.tryAcquire(now + SECOND));
+		assertFalse(testedInstance.tryAcquire(now + SECOND));
+	}
+
+	@Test
+	public void testRefillUpToBurst() throws Exception {
+		TokenBucket testedInstance = new TokenBucket(60, 3);
+		long now = System.nanoTime();
+		assertTrue(testedInstance.tryAcquire(now));
+
+		// idle for a long time, still only a burst of 3
+		long later = now + 60 * SECOND;
+		for (int idx = 0; idx < 3; idx++) {
+			assertTrue(testedInstance.tryAcquire(later));
+		}
+		assertFalse(testedInstance.tryAcquire(later));
+	}
+
+	@Test
+	public void testSustainedRate() throws Exception {
+		TokenBucket testedInstance = new TokenBucket(600, 1);
+		long now = System.nanoTime();
+
+		// 10 requests per second offered during 10 seconds at 20 per second
+		int admitted = 0;
+		for (int idx = 0; idx < 200; idx++) {
+			if (testedInstance.tryAcquire(now + idx * SECOND / 20)) {
+				admitted++;
+			}
+		}
+		assertEquals(100, admitted);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidRate() throws Exception {
+		new TokenBucket(0, 1);
+	}
+
+	@Test
+	public void testConcurrentAcquire() throws Exception {
+		final TokenBucket testedInstance = new TokenBucket(1, 1000);
+		final long now = System.nanoTime();
+		int threads = 16;
+		final CountDownLatch startLatch = new CountDownLatch(1);
+		ExecutorService executorService = Executors
+				.newFixedThreadPool(threads);
+		List<Future<Integer>> futures = new LinkedList<Future<Integer>>();
+		for (int thread = 0; thread < threads; thread++) {
+			futures.add(executorService.submit(new Callable<Integer>() {
+				public Integer call() throws Exception {
+					startLatch.await();
+					int admitted = 0;
+					for (int idx = 0; idx < 1000; idx++) {
+						if (testedInstance.tryAcquire(now)) {
+							admitted++;
+						}
+					}
+					return admitted;
+				}
+			}));
+		}
+		startLatch.countDown();
+		int admitted = 0;
+		for (Future<Integer> future : futures) {
+			admitted += future.get();
+		}
+		executorService.shutdown();
+
+		// exactly the burst, no token is handed out twice
+		assertEquals(1000, admitted);
+	}
+}
@@ -19,23 +19,71 @@
 package test.unit.be.fedict.eid.dss;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 
+import java.io.ByteArrayInputStream;
 import java.io.InputStream;
 import java.lang.reflect.Field;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
 
+import javax.annotation.Resource;
+import javax.ejb.EJB;
 import javax.persistence.EntityManager;
 import javax.persistence.PersistenceContext;
+import javax.persistence.Query;
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+import javax.transaction.TransactionSynchronizationRegistry;
+import javax.xml.validation.Schema;
 
+import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.io.IOUtils;
 import org.easymock.Capture;
 import org.easymock.EasyMock;
+import org.easymock.IAnswer;
+import org.junit.Before;
 import org.junit.Test;
 
 import be.fedict.eid.dss.entity.XmlSchemaEntity;
+import be.fedict.eid.dss.model.bean.XmlSchemaCacheSingletonBean;
 import be.fedict.eid.dss.model.bean.XmlSchemaManagerBean;
+import be.fedict.eid.dss.model.exception.InvalidXmlSchemaException;
 
 public class XmlSchemaManagerBeanTest {
 
+	private static final String NAMESPACE = "urn:be:fedict:eid:dss:example";
+
+	private static final String NAMESPACE2 = "urn:be:fedict:eid:dss:example2";
+
+	private List<Synchronization> synchronizations;
+
+	private TransactionSynchronizationRegistry mockTransactionSynchronizationRegistry;
+
+	@Before
+	public void setUp() throws Exception {
+		this.synchronizations = new LinkedList<Synchronization>();
+		this.mockTransactionSynchronizationRegistry = EasyMock
+				.createMock(TransactionSynchronizationRegistry.class);
+		this.mockTransactionSynchronizationRegistry
+				.registerInterposedSynchronization((Synchronization) EasyMock
+						.anyObject());
+		EasyMock.expectLastCall().andAnswer(new IAnswer<Object>() {
+
+			public Object answer() throws Throwable {
+				XmlSchemaManagerBeanTest.this.synchronizations
+						.add((Synchronization) EasyMock.getCurrentArguments()[0]);
+				return null;
+			}
+		}).anyTimes();
+		EasyMock.replay(this.mockTransactionSynchronizationRegistry);
+	}
+
 	@Test
 	public void testAdd() throws Exception {
 		// setup
@@ -45,6 +93,11 @@ public class XmlSchemaManagerBeanTest {
 		EntityManager mockEntityManager = EasyMock
 				.createMock(EntityManager.class);
 		injectPersistenceContext(mockEntityManager, testedInstance);
+		injectEJB(new XmlSchemaCacheSingletonBean(), testedInstance);
+		injectResource(this.mockTransactionSynchronizationRegistry,
+				testedInstance);
+		expectXmlSchemaVersions(mockEntityManager,
+				new LinkedList<XmlSchemaEntity>());
 
 		// expectations
 		EasyMock.expect(
@@ -66,6 +119,9 @@ public class XmlSchemaManagerBeanTest {
 		assertEquals("urn:be:fedict:eid:dss:example",
 				resultEntity.getNamespace());
 		assertEquals("1.0", resultEntity.getRevision());
+		assertEquals(DigestUtils.shaHex(resultEntity.getXsd()),
+				resultEntity.getDigest());
+		assertTrue(resultEntity.getImportedNamespaces().isEmpty());
 	}
 
 	@Test
@@ -80,9 +136,16 @@ public class XmlSchemaManagerBeanTest {
 		EntityManager mockEntityManager = EasyMock
 				.createMock(EntityManager.class);
 		injectPersistenceContext(mockEntityManager, testedInstance);
+		injectEJB(new XmlSchemaCacheSingletonBean(), testedInstance);
+		injectResource(this.mockTransactionSynchronizationRegistry,
+				testedInstance);
 
 		XmlSchemaEntity exampleXmlSchemaEntity = new XmlSchemaEntity("", "1.0",
 				xsd);
+		List<XmlSchemaEntity> xmlSchemaVersions = new LinkedList<XmlSchemaEntity>();
+		xmlSchemaVersions.add(new XmlSchemaEntity(NAMESPACE, "1.0",
+				(String) null));
+		expectXmlSchemaVersions(mockEntityManager, xmlSchemaVersions);
 
 		// expectations
 		EasyMock.expect(
@@ -108,6 +171,301 @@ public class XmlSchemaManagerBeanTest {
 		assertEquals("urn:be:fedict:eid:dss:example2",
 				resultEntity.getNamespace());
 		assertEquals("1.0", resultEntity.getRevision());
+		assertEquals(Collections.singleton("urn:be:fedict:eid:dss:example"),
+				resultEntity.getImportedNamespaces());
+	}
+
+	@Test
+	public void testAddNoXmlSchema() throws Exception {
+		// setup
+		XmlSchemaManagerBean testedInstance = new XmlSchemaManagerBean();
+		InputStream xmlInputStream = new ByteArrayInputStream(
+				"<Transaction xmlns=\"urn:be:fedict:eid:dss:example\"/>"
+						.getBytes());
+		EntityManager mockEntityManager = EasyMock
+				.createMock(EntityManager.class);
+		injectPersistenceContext(mockEntityManager, testedInstance);
+		injectEJB(new XmlSchemaCacheSingletonBean(), testedInstance);
+		injectResource(this.mockTransactionSynchronizationRegistry,
+				testedInstance);
+		expectXmlSchemaVersions(mockEntityManager,
+				new LinkedList<XmlSchemaEntity>());
+
+		// prepare
+		EasyMock.replay(mockEntityManager);
+
+		// operate
+		try {
+			testedInstance.add("1.0", xmlInputStream);
+			throw new AssertionError("expected InvalidXmlSchemaException");
+		} catch (InvalidXmlSchemaException e) {
+			// expected
+		}
+
+		// verify
+		EasyMock.verify(mockEntityManager);
+	}
+
+	@Test
+	public void testGetSchema() throws Exception {
+		// setup
+		XmlSchemaManagerBean testedInstance = new XmlSchemaManagerBean();
+		byte[] xsd = IOUtils.toByteArray(XmlSchemaManagerBeanTest.class
+				.getResourceAsStream("/example.xsd"));
+		byte[] xsd2 = IOUtils.toByteArray(XmlSchemaManagerBeanTest.class
+				.getResourceAsStream("/example2.xsd"));
+		EntityManager mockEntityManager = EasyMock
+				.createMock(EntityManager.class);
+		XmlSchemaCacheSingletonBean xmlSchemaCache = new XmlSchemaCacheSingletonBean();
+		injectPersistenceContext(mockEntityManager, testedInstance);
+		injectEJB(xmlSchemaCache, testedInstance);
+		injectResource(this.mockTransactionSynchronizationRegistry,
+				testedInstance);
+		List<XmlSchemaEntity> xmlSchemaVersions = new LinkedList<XmlSchemaEntity>();
+		xmlSchemaVersions.add(new XmlSchemaEntity(NAMESPACE, "1.0",
+				(String) null));
+		xmlSchemaVersions.add(new XmlSchemaEntity(NAMESPACE2, "1.0",
+				(String) null));
+		expectXmlSchemaVersions(mockEntityManager, xmlSchemaVersions);
+
+		// expectations: compiled only once
+		EasyMock.expect(
+				mockEntityManager.find(XmlSchemaEntity.class,
+						"urn:be:fedict:eid:dss:example2")).andReturn(
+				new XmlSchemaEntity("urn:be:fedict:eid:dss:example2", "1.0",
+						xsd2));
+		EasyMock.expect(
+				mockEntityManager.find(XmlSchemaEntity.class,
+						"urn:be:fedict:eid:dss:example")).andReturn(
+				new XmlSchemaEntity("urn:be:fedict:eid:dss:example", "1.0",
+						xsd));
+
+		// prepare
+		EasyMock.replay(mockEntityManager);
+
+		// operate
+		Schema schema = testedInstance
+				.getSchema("urn:be:fedict:eid:dss:example2");
+		Schema cachedSchema = testedInstance
+				.getSchema("urn:be:fedict:eid:dss:example2");
+
+		// verify
+		EasyMock.verify(mockEntityManager);
+		assertNotNull(schema);
+		assertSame(schema, cachedSchema);
+		assertEquals("1.0",
+				xmlSchemaCache.getRevision("urn:be:fedict:eid:dss:example2"));
+
+		// changing an imported schema invalidates the importing schema
+		xmlSchemaCache.invalidate("urn:be:fedict:eid:dss:example");
+		assertNull(xmlSchemaCache.getRevision("urn:be:fedict:eid:dss:example2"));
+	}
+
+	@Test
+	public void testImportsResolvedFromMemory() throws Exception {
+		// setup
+		XmlSchemaManagerBean testedInstance = new XmlSchemaManagerBean();
+		byte[] xsd = IOUtils.toByteArray(XmlSchemaManagerBeanTest.class
+				.getResourceAsStream("/example.xsd"));
+		byte[] xsd2 = IOUtils.toByteArray(XmlSchemaManagerBeanTest.class
+				.getResourceAsStream("/example2.xsd"));
+		EntityManager mockEntityManager = EasyMock
+				.createMock(EntityManager.class);
+		XmlSchemaCacheSingletonBean xmlSchemaCache = new XmlSchemaCacheSingletonBean();
+		injectPersistenceContext(mockEntityManager, testedInstance);
+		injectEJB(xmlSchemaCache, testedInstance);
+		injectResource(this.mockTransactionSynchronizationRegistry,
+				testedInstance);
+		List<XmlSchemaEntity> xmlSchemaVersions = new LinkedList<XmlSchemaEntity>();
+		xmlSchemaVersions.add(new XmlSchemaEntity(NAMESPACE, "1.0",
+				(String) null));
+		xmlSchemaVersions.add(new XmlSchemaEntity(NAMESPACE2, "1.0",
+				(String) null));
+		expectXmlSchemaVersions(mockEntityManager, xmlSchemaVersions);
+
+		// expectations: the imported schema is read only once
+		EasyMock.expect(
+				mockEntityManager.find(XmlSchemaEntity.class,
+						"urn:be:fedict:eid:dss:example2")).andReturn(
+				new XmlSchemaEntity("urn:be:fedict:eid:dss:example2", "1.0",
+						xsd2)).times(2);
+		EasyMock.expect(
+				mockEntityManager.find(XmlSchemaEntity.class,
+						"urn:be:fedict:eid:dss:example")).andReturn(
+				new XmlSchemaEntity("urn:be:fedict:eid:dss:example", "1.0",
+						xsd));
+
+		// prepare
+		EasyMock.replay(mockEntityManager);
+
+		// operate
+		Schema schema = testedInstance
+				.getSchema("urn:be:fedict:eid:dss:example2");
+		xmlSchemaCache.invalidate("urn:be:fedict:eid:dss:example2");
+		Schema recompiledSchema = testedInstance
+				.getSchema("urn:be:fedict:eid:dss:example2");
+
+		// verify
+		EasyMock.verify(mockEntityManager);
+		assertNotNull(schema);
+		assertNotNull(recompiledSchema);
+	}
+
+	@Test
+	public void testGetSchemaChangedOnOtherNode() throws Exception {
+		// setup
+		XmlSchemaManagerBean testedInstance = new XmlSchemaManagerBean();
+		byte[] xsd = IOUtils.toByteArray(XmlSchemaManagerBeanTest.class
+				.getResourceAsStream("/example.xsd"));
+		byte[] xsd2 = IOUtils.toByteArray(XmlSchemaManagerBeanTest.class
+				.getResourceAsStream("/example2.xsd"));
+		EntityManager mockEntityManager = EasyMock
+				.createMock(EntityManager.class);
+		XmlSchemaCacheSingletonBean xmlSchemaCache = new XmlSchemaCacheSingletonBean();
+		injectPersistenceContext(mockEntityManager, testedInstance);
+		injectEJB(xmlSchemaCache, testedInstance);
+		injectResource(this.mockTransactionSynchronizationRegistry,
+				testedInstance);
+		List<XmlSchemaEntity> xmlSchemaVersions = new LinkedList<XmlSchemaEntity>();
+		xmlSchemaVersions.add(new XmlSchemaEntity(NAMESPACE, "1.0",
+				(String) null));
+		xmlSchemaVersions.add(new XmlSchemaEntity(NAMESPACE2, "1.0",
+				(String) null));
+		expectXmlSchemaVersions(mockEntityManager, xmlSchemaVersions);
+
+		// expectations: only the changed imported schema is read again
+		EasyMock.expect(
+				mockEntityManager.find(XmlSchemaEntity.class, NAMESPACE2))
+				.andReturn(new XmlSchemaEntity(NAMESPACE2, "1.0", xsd2));
+		EasyMock.expect(
+				mockEntityManager.find(XmlSchemaEntity.class, NAMESPACE))
+				.andReturn(new XmlSchemaEntity(NAMESPACE, "1.0", xsd));
+		EasyMock.expect(
+				mockEntityManager.find(XmlSchemaEntity.class, NAMESPACE))
+				.andReturn(new XmlSchemaEntity(NAMESPACE, "1.1", xsd));
+
+		// prepare
+		EasyMock.replay(mockEntityManager);
+
+		// operate
+		Schema schema = testedInstance.getSchema(NAMESPACE2);
+		// imported schema changed on another node
+		xmlSchemaVersions.set(0, new XmlSchemaEntity(NAMESPACE, "1.1",
+				(String) null));
+		Schema recompiledSchema = testedInstance.getSchema(NAMESPACE2);
+
+		// verify
+		EasyMock.verify(mockEntityManager);
+		assertNotNull(recompiledSchema);
+		assertNotSame(schema, recompiledSchema);
+		assertSame(recompiledSchema, testedInstance.getSchema(NAMESPACE2));
+	}
+
+	@Test
+	public void testXsdChangedOnOtherNode() throws Exception {
+		// setup
+		XmlSchemaManagerBean testedInstance = new XmlSchemaManagerBean();
+		byte[] xsd = IOUtils.toByteArray(XmlSchemaManagerBeanTest.class
+				.getResourceAsStream("/example.xsd"));
+		byte[] xsd2 = IOUtils.toByteArray(XmlSchemaManagerBeanTest.class
+				.getResourceAsStream("/example2.xsd"));
+		EntityManager mockEntityManager = EasyMock
+				.createMock(EntityManager.class);
+		XmlSchemaCacheSingletonBean xmlSchemaCache = new XmlSchemaCacheSingletonBean();
+		injectPersistenceContext(mockEntityManager, testedInstance);
+		injectEJB(xmlSchemaCache, testedInstance);
+		injectResource(this.mockTransactionSynchronizationRegistry,
+				testedInstance);
+		List<XmlSchemaEntity> xmlSchemaVersions = new LinkedList<XmlSchemaEntity>();
+		xmlSchemaVersions.add(new XmlSchemaEntity(NAMESPACE, "1.0",
+				(String) null));
+		xmlSchemaVersions.add(new XmlSchemaEntity(NAMESPACE2, "1.0",
+				(String) null));
+		expectXmlSchemaVersions(mockEntityManager, xmlSchemaVersions);
+
+		// expectations: the memoised imported XSD is not used once changed
+		EasyMock.expect(
+				mockEntityManager.find(XmlSchemaEntity.class, NAMESPACE2))
+				.andReturn(new XmlSchemaEntity(NAMESPACE2, "1.0", xsd2))
+				.times(2);
+		EasyMock.expect(
+				mockEntityManager.find(XmlSchemaEntity.class, NAMESPACE))
+				.andReturn(new XmlSchemaEntity(NAMESPACE, "1.0", xsd));
+		EasyMock.expect(
+				mockEntityManager.find(XmlSchemaEntity.class, NAMESPACE))
+				.andReturn(new XmlSchemaEntity(NAMESPACE, "1.1", xsd));
+
+		// prepare
+		EasyMock.replay(mockEntityManager);
+
+		// operate
+		assertNotNull(testedInstance.getSchema(NAMESPACE2));
+		xmlSchemaCache.invalidate(NAMESPACE2);
+		// imported schema changed on another node
+		xmlSchemaVersions.set(0, new XmlSchemaEntity(NAMESPACE, "1.1",
+				(String) null));
+		Schema recompiledSchema = testedInstance.getSchema(NAMESPACE2);
+
+		// verify
+		EasyMock.verify(mockEntityManager);
+		assertNotNull(recompiledSchema);
+		assertSame(recompiledSchema, testedInstance.getSchema(NAMESPACE2));
+	}
+
+	@Test
+	public void testAddCachedAfterCommit() throws Exception {
+		// setup
+		XmlSchemaManagerBean testedInstance = new XmlSchemaManagerBean();
+		EntityManager mockEntityManager = EasyMock
+				.createNiceMock(EntityManager.class);
+		XmlSchemaCacheSingletonBean xmlSchemaCache = new XmlSchemaCacheSingletonBean();
+		injectPersistenceContext(mockEntityManager, testedInstance);
+		injectEJB(xmlSchemaCache, testedInstance);
+		injectResource(this.mockTransactionSynchronizationRegistry,
+				testedInstance);
+		expectXmlSchemaVersions(mockEntityManager,
+				new LinkedList<XmlSchemaEntity>());
+
+		// prepare
+		EasyMock.replay(mockEntityManager);
+
+		// operate: rolled back
+		testedInstance.add("1.0", XmlSchemaManagerBeanTest.class
+				.getResourceAsStream("/example.xsd"));
+		assertNull(xmlSchemaCache.getRevision(NAMESPACE));
+		complete(Status.STATUS_ROLLEDBACK);
+
+		// verify
+		assertNull(xmlSchemaCache.getRevision(NAMESPACE));
+
+		// operate: committed
+		testedInstance.add("1.1", XmlSchemaManagerBeanTest.class
+				.getResourceAsStream("/example.xsd"));
+		assertNull(xmlSchemaCache.getRevision(NAMESPACE));
+		complete(Status.STATUS_COMMITTED);
+
+		// verify
+		assertEquals("1.1", xmlSchemaCache.getRevision(NAMESPACE));
+	}
+
+	private void expectXmlSchemaVersions(EntityManager mockEntityManager,
+			List<XmlSchemaEntity> xmlSchemaVersions) {
+		Query mockQuery = EasyMock.createMock(Query.class);
+		EasyMock.expect(
+				mockEntityManager
+						.createNamedQuery(XmlSchemaEntity.ALL_VERSIONS))
+				.andStubReturn(mockQuery);
+		EasyMock.expect(mockQuery.getResultList()).andStubReturn(
+				xmlSchemaVersions);
+		EasyMock.replay(mockQuery);
+	}
+
+	private void complete(int status) {
+		for (Synchronization synchronization : this.synchronizations) {
+			synchronization.beforeCompletion();
+			synchronization.afterCompletion(status);
+		}
+		this.synchronizations.clear();
 	}
 
 	private void injectPersistenceContext(EntityManager entityManager,
@@ -125,4 +483,36 @@ public class XmlSchemaManagerBeanTest {
 			field.set(bean, entityManager);
 		}
 	}
+
+	private void injectEJB(Object ejb, Object bean)
+			throws IllegalArgumentException, IllegalAccessException {
+		Class<?> beanClass = bean.getClass();
+		Field[] fields = beanClass.getDeclaredFields();
+		for (Field field : fields) {
+			if (null == field.getAnnotation(EJB.class)) {
+				continue;
+			}
+			if (!field.getType().isInstance(ejb)) {
+				continue;
+			}
+			field.setAccessible(true);
+			field.set(bean, ejb);
+		}
+	}
+
+	private void injectResource(Object resource, Object bean)
+			throws IllegalArgumentException, IllegalAccessException {
+		Class<?> beanClass = bean.getClass();
+		Field[] fields = beanClass.getDeclaredFields();
+		for (Field field : fields) {
+			if (null == field.getAnnotation(Resource.class)) {
+				continue;
+			}
+			if (!field.getType().isInstance(resource)) {
+				continue;
+			}
+			field.setAccessible(true);
+			field.set(bean, resource);
+		}
+	}
 }
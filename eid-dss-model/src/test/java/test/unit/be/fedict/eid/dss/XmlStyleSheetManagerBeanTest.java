@@ -0,0 +1,413 @@
+/*
+ * eID Digital Signature Service Project.
+ * Copyright (C) 2010 FedICT.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+package test.unit.be.fedict.eid.dss;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.lang.reflect.Field;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Resource;
+import javax.ejb.EJB;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.persistence.Query;
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+import javax.transaction.TransactionSynchronizationRegistry;
+import javax.xml.transform.Templates;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.stream.StreamResult;
+import javax.xml.transform.stream.StreamSource;
+
+import org.apache.commons.io.FileUtils;
+import org.easymock.Capture;
+import org.easymock.EasyMock;
+import org.easymock.IAnswer;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import be.fedict.eid.dss.entity.XmlStyleSheetEntity;
+import be.fedict.eid.dss.model.bean.XmlStyleSheetCacheSingletonBean;
+import be.fedict.eid.dss.model.bean.XmlStyleSheetManagerBean;
+import be.fedict.eid.dss.model.exception.InvalidXmlStyleSheetException;
+
+public class XmlStyleSheetManagerBeanTest {
+
+	private static final String NAMESPACE = "urn:be:fedict:eid:dss:example";
+
+	private static final File XSL_FILE = new File(
+			"../documents/transaction.xsl");
+
+	private static final File XML_FILE = new File(
+			"../documents/transaction.xml");
+
+	private List<Synchronization> synchronizations;
+
+	private TransactionSynchronizationRegistry mockTransactionSynchronizationRegistry;
+
+	@Before
+	public void setUp() throws Exception {
+		this.synchronizations = new LinkedList<Synchronization>();
+		this.mockTransactionSynchronizationRegistry = EasyMock
+				.createMock(TransactionSynchronizationRegistry.class);
+		this.mockTransactionSynchronizationRegistry
+				.registerInterposedSynchronization((Synchronization) EasyMock
+						.anyObject());
+		EasyMock.expectLastCall().andAnswer(new IAnswer<Object>() {
+
+			public Object answer() throws Throwable {
+				XmlStyleSheetManagerBeanTest.this.synchronizations
+						.add((Synchronization) EasyMock.getCurrentArguments()[0]);
+				return null;
+			}
+		}).anyTimes();
+		EasyMock.replay(this.mockTransactionSynchronizationRegistry);
+	}
+
+	@Test
+	public void testAdd() throws Exception {
+		Assume.assumeTrue(XSL_FILE.exists());
+
+		// setup
+		XmlStyleSheetManagerBean testedInstance = new XmlStyleSheetManagerBean();
+		byte[] xsl = FileUtils.readFileToByteArray(XSL_FILE);
+		EntityManager mockEntityManager = EasyMock
+				.createMock(EntityManager.class);
+		XmlStyleSheetCacheSingletonBean xmlStyleSheetCache = new XmlStyleSheetCacheSingletonBean();
+		injectPersistenceContext(mockEntityManager, testedInstance);
+		injectEJB(xmlStyleSheetCache, testedInstance);
+		injectResource(this.mockTransactionSynchronizationRegistry,
+				testedInstance);
+
+		// expectations
+		EasyMock.expect(
+				mockEntityManager.find(XmlStyleSheetEntity.class, NAMESPACE))
+				.andReturn(null).times(2);
+
+		Capture<XmlStyleSheetEntity> persistCapture = new Capture<XmlStyleSheetEntity>();
+		mockEntityManager.persist(EasyMock.capture(persistCapture));
+		EasyMock.expectLastCall().times(2);
+
+		// prepare
+		EasyMock.replay(mockEntityManager);
+
+		// operate: rolled back
+		testedInstance.add(NAMESPACE, "1.0", new ByteArrayInputStream(xsl));
+		assertNull(xmlStyleSheetCache.getRevision(NAMESPACE));
+		complete(Status.STATUS_ROLLEDBACK);
+
+		// verify
+		assertNull(xmlStyleSheetCache.getRevision(NAMESPACE));
+
+		// operate: committed
+		testedInstance.add(NAMESPACE, "1.1", new ByteArrayInputStream(xsl));
+		assertNull(xmlStyleSheetCache.getRevision(NAMESPACE));
+		complete(Status.STATUS_COMMITTED);
+
+		// verify
+		EasyMock.verify(mockEntityManager);
+		XmlStyleSheetEntity resultEntity = persistCapture.getValue();
+		assertEquals(NAMESPACE, resultEntity.getNamespace());
+		assertNotNull(resultEntity.getDigest());
+		assertEquals("1.1", xmlStyleSheetCache.getRevision(NAMESPACE));
+		assertNotNull(xmlStyleSheetCache.getTemplates(NAMESPACE,
+				new XmlStyleSheetEntity(NAMESPACE, "1.1", resultEntity
+						.getDigest())));
+	}
+
+	@Test(expected = InvalidXmlStyleSheetException.class)
+	public void testAddInvalidStyleSheet() throws Exception {
+		// setup
+		XmlStyleSheetManagerBean testedInstance = new XmlStyleSheetManagerBean();
+		InputStream xslInputStream = XmlStyleSheetManagerBeanTest.class
+				.getResourceAsStream("/example.xsd");
+		EntityManager mockEntityManager = EasyMock
+				.createMock(EntityManager.class);
+		injectPersistenceContext(mockEntityManager, testedInstance);
+		injectEJB(new XmlStyleSheetCacheSingletonBean(), testedInstance);
+
+		// expectations
+		EasyMock.expect(
+				mockEntityManager.find(XmlStyleSheetEntity.class, NAMESPACE))
+				.andReturn(null);
+
+		// prepare
+		EasyMock.replay(mockEntityManager);
+
+		// operate
+		testedInstance.add(NAMESPACE, "1.0", xslInputStream);
+	}
+
+	@Test(expected = InvalidXmlStyleSheetException.class)
+	public void testAddExternalImport() throws Exception {
+		// setup
+		XmlStyleSheetManagerBean testedInstance = new XmlStyleSheetManagerBean();
+		String xsl = "<xsl:stylesheet version=\"1.0\" "
+				+ "xmlns:xsl=\"http://www.w3.org/1999/XSL/Transform\">"
+				+ "<xsl:import href=\"http://www.example.com/evil.xsl\"/>"
+				+ "</xsl:stylesheet>";
+		EntityManager mockEntityManager = EasyMock
+				.createMock(EntityManager.class);
+		injectPersistenceContext(mockEntityManager, testedInstance);
+		injectEJB(new XmlStyleSheetCacheSingletonBean(), testedInstance);
+
+		// expectations
+		EasyMock.expect(
+				mockEntityManager.find(XmlStyleSheetEntity.class, NAMESPACE))
+				.andReturn(null);
+
+		// prepare
+		EasyMock.replay(mockEntityManager);
+
+		// operate
+		testedInstance.add(NAMESPACE, "1.0",
+				new ByteArrayInputStream(xsl.getBytes()));
+	}
+
+	@Test
+	public void testTransformExtensionFunction() throws Exception {
+		// setup
+		XmlStyleSheetManagerBean testedInstance = new XmlStyleSheetManagerBean();
+		String xsl = "<xsl:stylesheet version=\"1.0\" "
+				+ "xmlns:xsl=\"http://www.w3.org/1999/XSL/Transform\" "
+				+ "xmlns:rt=\"http://xml.apache.org/xalan/java/java.lang.Runtime\">"
+				+ "<xsl:template match=\"/\">"
+				+ "<xsl:value-of select=\"rt:getRuntime()\"/>"
+				+ "</xsl:template></xsl:stylesheet>";
+		EntityManager mockEntityManager = EasyMock
+				.createMock(EntityManager.class);
+		injectPersistenceContext(mockEntityManager, testedInstance);
+		injectEJB(new XmlStyleSheetCacheSingletonBean(), testedInstance);
+		Map<String, XmlStyleSheetEntity> xmlStyleSheetVersions = new HashMap<String, XmlStyleSheetEntity>();
+		xmlStyleSheetVersions.put(NAMESPACE, new XmlStyleSheetEntity(
+				NAMESPACE, "1.0", (String) null));
+		expectXmlStyleSheetVersions(mockEntityManager, xmlStyleSheetVersions);
+
+		// expectations
+		EasyMock.expect(
+				mockEntityManager.find(XmlStyleSheetEntity.class, NAMESPACE))
+				.andReturn(
+						new XmlStyleSheetEntity(NAMESPACE, "1.0", xsl
+								.getBytes()));
+
+		// prepare
+		EasyMock.replay(mockEntityManager);
+
+		// operate
+		try {
+			testedInstance.transform(NAMESPACE, new StreamSource(
+					new ByteArrayInputStream("<a/>".getBytes())),
+					new StreamResult(new StringWriter()));
+			throw new AssertionError("extension function not rejected");
+		} catch (TransformerException e) {
+			// expected
+		} catch (InvalidXmlStyleSheetException e) {
+			// also expected, XSLT processor rejecting it at compile time
+		}
+	}
+
+	@Test
+	public void testTransform() throws Exception {
+		Assume.assumeTrue(XSL_FILE.exists() && XML_FILE.exists());
+
+		// setup
+		XmlStyleSheetManagerBean testedInstance = new XmlStyleSheetManagerBean();
+		byte[] xsl = FileUtils.readFileToByteArray(XSL_FILE);
+		EntityManager mockEntityManager = EasyMock
+				.createMock(EntityManager.class);
+		injectPersistenceContext(mockEntityManager, testedInstance);
+		injectEJB(new XmlStyleSheetCacheSingletonBean(), testedInstance);
+		Map<String, XmlStyleSheetEntity> xmlStyleSheetVersions = new HashMap<String, XmlStyleSheetEntity>();
+		xmlStyleSheetVersions.put(NAMESPACE, new XmlStyleSheetEntity(
+				NAMESPACE, "1.0", (String) null));
+		expectXmlStyleSheetVersions(mockEntityManager, xmlStyleSheetVersions);
+
+		// expectations: compiled only once
+		EasyMock.expect(
+				mockEntityManager.find(XmlStyleSheetEntity.class, NAMESPACE))
+				.andReturn(new XmlStyleSheetEntity(NAMESPACE, "1.0", xsl));
+
+		// prepare
+		EasyMock.replay(mockEntityManager);
+
+		// operate
+		Templates templates = testedInstance.getTemplates(NAMESPACE);
+		StringWriter writer = new StringWriter();
+		boolean result = testedInstance.transform(NAMESPACE,
+				new StreamSource(XML_FILE), new StreamResult(writer));
+		StringWriter dutchWriter = new StringWriter();
+		testedInstance.transform(NAMESPACE, new StreamSource(XML_FILE),
+				new StreamResult(dutchWriter),
+				Collections.singletonMap("language", "nl"));
+		boolean unknownResult = testedInstance.transform("urn:unknown",
+				new StreamSource(XML_FILE), new StreamResult(new StringWriter()));
+
+		// verify
+		EasyMock.verify(mockEntityManager);
+		assertSame(templates, testedInstance.getTemplates(NAMESPACE));
+		assertTrue(result);
+		assertTrue(writer.toString().contains("Tom"));
+		assertTrue(writer.toString().contains("From"));
+		assertTrue(dutchWriter.toString().contains("Van"));
+		assertFalse(unknownResult);
+	}
+
+	@Test
+	public void testGetTemplatesChangedOnOtherNode() throws Exception {
+		Assume.assumeTrue(XSL_FILE.exists());
+
+		// setup
+		XmlStyleSheetManagerBean testedInstance = new XmlStyleSheetManagerBean();
+		byte[] xsl = FileUtils.readFileToByteArray(XSL_FILE);
+		EntityManager mockEntityManager = EasyMock
+				.createMock(EntityManager.class);
+		injectPersistenceContext(mockEntityManager, testedInstance);
+		injectEJB(new XmlStyleSheetCacheSingletonBean(), testedInstance);
+		Map<String, XmlStyleSheetEntity> xmlStyleSheetVersions = new HashMap<String, XmlStyleSheetEntity>();
+		xmlStyleSheetVersions.put(NAMESPACE, new XmlStyleSheetEntity(
+				NAMESPACE, "1.0", (String) null));
+		expectXmlStyleSheetVersions(mockEntityManager, xmlStyleSheetVersions);
+
+		// expectations
+		EasyMock.expect(
+				mockEntityManager.find(XmlStyleSheetEntity.class, NAMESPACE))
+				.andReturn(new XmlStyleSheetEntity(NAMESPACE, "1.0", xsl));
+		EasyMock.expect(
+				mockEntityManager.find(XmlStyleSheetEntity.class, NAMESPACE))
+				.andReturn(new XmlStyleSheetEntity(NAMESPACE, "1.1", xsl));
+
+		// prepare
+		EasyMock.replay(mockEntityManager);
+
+		// operate
+		Templates templates = testedInstance.getTemplates(NAMESPACE);
+		// replaced on another node
+		xmlStyleSheetVersions.put(NAMESPACE, new XmlStyleSheetEntity(
+				NAMESPACE, "1.1", (String) null));
+		Templates recompiledTemplates = testedInstance.getTemplates(NAMESPACE);
+		// deleted on another node
+		xmlStyleSheetVersions.clear();
+		Templates deletedTemplates = testedInstance.getTemplates(NAMESPACE);
+
+		// verify
+		EasyMock.verify(mockEntityManager);
+		assertNotNull(recompiledTemplates);
+		assertNotSame(templates, recompiledTemplates);
+		assertNull(deletedTemplates);
+	}
+
+	@SuppressWarnings("unchecked")
+	private void expectXmlStyleSheetVersions(EntityManager mockEntityManager,
+			final Map<String, XmlStyleSheetEntity> xmlStyleSheetVersions) {
+		Query mockQuery = EasyMock.createMock(Query.class);
+		EasyMock.expect(
+				mockEntityManager.createNamedQuery(XmlStyleSheetEntity.VERSION))
+				.andStubReturn(mockQuery);
+		final Capture<Object> namespaceCapture = new Capture<Object>();
+		EasyMock.expect(
+				mockQuery.setParameter(EasyMock.eq("namespace"),
+						EasyMock.capture(namespaceCapture))).andStubReturn(
+				mockQuery);
+		EasyMock.expect(mockQuery.getResultList()).andStubAnswer(
+				new IAnswer<List>() {
+
+					public List answer() throws Throwable {
+						XmlStyleSheetEntity xmlStyleSheetVersion = xmlStyleSheetVersions
+								.get(namespaceCapture.getValue());
+						if (null == xmlStyleSheetVersion) {
+							return Collections.EMPTY_LIST;
+						}
+						return Collections.singletonList(xmlStyleSheetVersion);
+					}
+				});
+		EasyMock.replay(mockQuery);
+	}
+
+	private void complete(int status) {
+		for (Synchronization synchronization : this.synchronizations) {
+			synchronization.beforeCompletion();
+			synchronization.afterCompletion(status);
+		}
+		this.synchronizations.clear();
+	}
+
+	private void injectPersistenceContext(EntityManager entityManager,
+			Object bean) throws IllegalArgumentException,
+			IllegalAccessException {
+		Class<?> beanClass = bean.getClass();
+		Field[] fields = beanClass.getDeclaredFields();
+		for (Field field : fields) {
+			PersistenceContext persistenceContextAnnotation = field
+					.getAnnotation(PersistenceContext.class);
+			if (null == persistenceContextAnnotation) {
+				continue;
+			}
+			field.setAccessible(true);
+			field.set(bean, entityManager);
+		}
+	}
+
+	private void injectEJB(Object ejb, Object bean)
+			throws IllegalArgumentException, IllegalAccessException {
+		Class<?> beanClass = bean.getClass();
+		Field[] fields = beanClass.getDeclaredFields();
+		for (Field field : fields) {
+			if (null == field.getAnnotation(EJB.class)) {
+				continue;
+			}
+			if (!field.getType().isInstance(ejb)) {
+				continue;
+			}
+			field.setAccessible(true);
+			field.set(bean, ejb);
+		}
+	}
+
+	private void injectResource(Object resource, Object bean)
+			throws IllegalArgumentException, IllegalAccessException {
+		Class<?> beanClass = bean.getClass();
+		Field[] fields = beanClass.getDeclaredFields();
+		for (Field field : fields) {
+			if (null == field.getAnnotation(Resource.class)) {
+				continue;
+			}
+			if (!field.getType().isInstance(resource)) {
+				continue;
+			}
+			field.setAccessible(true);
+			field.set(bean, resource);
+		}
+	}
+}
@@ -18,6 +18,9 @@
 
 package be.fedict.eid.dss.portal.control.bean;
 
+import be.fedict.eid.dss.model.DocumentValidationService;
+import be.fedict.eid.dss.model.exception.DocumentFormatException;
+import be.fedict.eid.dss.model.exception.InvalidXmlSchemaException;
 import be.fedict.eid.dss.portal.control.Upload;
 import be.fedict.eid.dss.portal.control.state.SigningModel;
 import be.fedict.eid.dss.portal.control.state.SigningModelRepository;
@@ -30,8 +33,10 @@ import org.jboss.seam.log.Log;
 import org.richfaces.event.UploadEvent;
 import org.richfaces.model.UploadItem;
 
+import javax.ejb.EJB;
 import javax.ejb.Remove;
 import javax.ejb.Stateful;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.util.HashMap;
 import java.util.Map;
@@ -78,6 +83,9 @@ public class UploadBean implements Upload {
 	@Logger
 	private Log log;
 
+	@EJB
+	private DocumentValidationService documentValidationService;
+
 	@In(value = SigningModelRepository.ATTRIBUTE_SIGNING_MODEL, scope = ScopeType.SESSION, required = false)
 	@Out(value = SigningModelRepository.ATTRIBUTE_SIGNING_MODEL, scope = ScopeType.SESSION, required = false)
 	private SigningModel signingModel;
@@ -87,11 +95,32 @@ public class UploadBean implements Upload {
 		UploadItem item = event.getUploadItem();
 		log.info("File upload of file {0} with content-type {1} and size {2}", item.getFileName(), item.getContentType(), item.getFileSize());
 
+		String contentType = determineContentType(item);
+		byte[] data = getData(item);
 		this.signingModel = new SigningModel(
 				item.getFileName(),
-				determineContentType(item),
-				getData(item)
+				contentType,
+				data
 		);
+
+		if ("text/xml".equals(contentType) || "application/xml".equals(contentType)) {
+			validateXmlDocument(data);
+		}
+	}
+
+	/**
+	 * Validates an XML document against the stored XML schema of its namespace, if any, without building a DOM.
+	 */
+	private void validateXmlDocument(byte[] data) {
+		try {
+			documentValidationService.validate(new ByteArrayInputStream(data), false);
+		} catch (DocumentFormatException e) {
+			log.info("Invalid XML document: {0}", e.getMessage());
+			signingModel.markSignError("Invalid XML document: " + e.getMessage());
+		} catch (InvalidXmlSchemaException e) {
+			log.error("XML schema error: {0}", e.getMessage());
+			signingModel.markSignError("XML schema error: " + e.getMessage());
+		}
 	}
 
 	private String determineContentType(UploadItem item) {
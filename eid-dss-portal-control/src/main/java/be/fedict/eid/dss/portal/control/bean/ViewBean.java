@@ -30,6 +30,7 @@ import be.e_contract.dssp.client.exception.UnsupportedDocumentTypeException;
 import be.e_contract.dssp.client.exception.UnsupportedSignatureTypeException;
 import be.fedict.eid.dss.model.ConfigProperty;
 import be.fedict.eid.dss.model.Configuration;
+import be.fedict.eid.dss.model.ConfigurationSnapshot;
 import be.fedict.eid.dss.portal.control.View;
 import be.fedict.eid.dss.portal.control.state.SigningModel;
 import be.fedict.eid.dss.portal.control.state.SigningModelRepository;
@@ -165,7 +166,7 @@ public class ViewBean implements View {
 
 	@Override
 	public String getDssStartUrl() {
-		String dssStartUrl = getConfigurationValue(ConfigProperty.DSS_WS_START);
+		String dssStartUrl = this.configuration.getSnapshot().getValue(ConfigProperty.DSS_WS_START, String.class);
 		log.info("DSS Start URL is " + dssStartUrl);
 		return dssStartUrl;
 	}
@@ -176,16 +177,13 @@ public class ViewBean implements View {
 	}
 
 	private DigitalSignatureServiceClient getDSSClient() {
-		String dssUrl = getConfigurationValue(ConfigProperty.DSS_WS_URL);
-		ConfigProperty userName = ConfigProperty.DSS_WS_USERNAME;
+		ConfigurationSnapshot snapshot = this.configuration.getSnapshot();
+		String dssUrl = snapshot.getValue(ConfigProperty.DSS_WS_URL, String.class);
+		String userName = snapshot.getValue(ConfigProperty.DSS_WS_USERNAME, String.class);
 		log.info("Creating DSS Client to " + dssUrl + " for user " + userName);
 
 		DigitalSignatureServiceClient dssClient = new DigitalSignatureServiceClient(dssUrl);
-		dssClient.setCredentials(getConfigurationValue(userName), getConfigurationValue(ConfigProperty.DSS_WS_PASSWORD));
+		dssClient.setCredentials(userName, snapshot.getValue(ConfigProperty.DSS_WS_PASSWORD, String.class));
 		return dssClient;
 	}
-
-	private String getConfigurationValue(ConfigProperty configProperty) {
-		return this.configuration.getValue(configProperty, String.class);
-	}
 }